@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aIPlaylist.Feedback;
+import aIPlaylist.RandomPlaylist;
+import library.FeedbackJournal;
+import library.WeightStore;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How long importing a batch of feedback takes with RandomPlaylist.feedback(),
+ *         against looking up each media file and calling good() or bad() on it, with the WeightStore and FeedbackJournal attached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class BatchFeedbackBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Param({"10000", "100000"})
+	public int events;
+
+	private RandomPlaylist playlist;
+	private List<Feedback> feedback;
+	private Path directory;
+	private WeightStore store;
+	private FeedbackJournal journal;
+
+	@Setup
+	public void setUp() throws IOException {
+		playlist = SyntheticLibrary.playlist(size);
+		directory = SyntheticLibrary.createTree(0);
+		store = WeightStore.open(new File(directory.toFile(), ".weights"));
+		playlist.attachWeights(store);
+		journal = FeedbackJournal.open(new File(directory.toFile(), ".journal"));
+		playlist.attachJournal(journal, 1 << 20);
+		Random random = new Random(0);
+		feedback = new ArrayList<Feedback>(events);
+		for(int i = 0; i < events; i++) {
+			File file = playlist.getFile(random.nextInt(size));
+			feedback.add(random.nextBoolean() ? Feedback.good(file, .1) : Feedback.bad(file, .1));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		journal.close();
+		store.close();
+		SyntheticLibrary.deleteTree(directory);
+	}
+
+	@Benchmark
+	public int oneByOne() {
+		int applied = 0;
+		for(Feedback event : feedback) {
+			int id = playlist.idOf(event.getFile());
+			if(id != -1) {
+				if(event.isGood()) {
+					playlist.good(id, event.getPercent());
+				} else {
+					playlist.bad(id, event.getPercent());
+				}
+				applied++;
+			}
+		}
+		return applied;
+	}
+
+	@Benchmark
+	public int batch() {
+		return playlist.feedback(feedback);
+	}
+
+}
@@ -0,0 +1,35 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Runs the benchmarks with the GC profiler, so the bytes allocated per operation are reported next to the time.
+ *         Takes the same arguments as the JMH command line, for example
+ *         "SelectionBenchmark -p size=1000,1000000" to run one benchmark for some of the library sizes.
+ *         The benchmarks are compiled against the classes in src, with jmh-core and jmh-generator-annprocess
+ *         on the class path so the annotation processor generates the harness.
+ */
+public final class BenchmarkRunner {
+
+	/** Enforces non-instantibility
+	 * 	@throws AssertionError to enforce non-instantibility
+	 */
+	private BenchmarkRunner() {
+		throw new AssertionError("BenchmarkRunner is non-instantiable");
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+
+}
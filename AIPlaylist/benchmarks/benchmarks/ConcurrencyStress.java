@@ -0,0 +1,266 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import aIPlaylist.LibraryShard;
+import aIPlaylist.RandomPlaylist;
+import aIPlaylist.ShardedPlaylist;
+import algorithms.WeightOverlay;
+import algorithms.WeightedSampler;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Hammers one library with reconciles, feedback and draws from different threads at once,
+ *         and checks that every WeightedSampler.Snapshot a reader sees is whole: its weights add up to its total,
+ *         no weight is negative, and every draw lands on a media file with weight.
+ *         When the threads stop, the last Snapshot has to match the media files on disk.
+ *         Run it as java benchmarks.ConcurrencyStress [media files] [seconds] [drawing threads]; it exits with 1 on a failure.
+ */
+public final class ConcurrencyStress {
+
+	// Set on the first failure, which is the one reported
+	private static final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	private static final AtomicBoolean running = new AtomicBoolean(true);
+
+	private static final AtomicLong draws = new AtomicLong();
+	private static final AtomicLong feedback = new AtomicLong();
+	private static final AtomicLong reconciles = new AtomicLong();
+	private static final AtomicLong checks = new AtomicLong();
+
+	// Draws and feedback on media files a reconcile removed in the meantime, which are allowed
+	private static final AtomicLong stale = new AtomicLong();
+
+	/** Enforces non-instantibility
+	 * 	@throws AssertionError to enforce non-instantibility
+	 */
+	private ConcurrencyStress() {
+		throw new AssertionError("ConcurrencyStress is non-instantiable");
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int files = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		int drawers = (args.length > 2) ? Integer.parseInt(args[2]) : 2;
+		Path root = SyntheticLibrary.createTree(files);
+		Logger logger = Logger.getLogger("ConcurrencyStress");
+		logger.setLevel(Level.WARNING);
+		try {
+			LibraryShard shard = new LibraryShard(root.toFile(), true, logger, ids -> {});
+			ShardedPlaylist playlist = new ShardedPlaylist();
+			playlist.add(shard);
+			if(shard.read()) {
+				shard.checkPlaylistFiles();
+			}
+			List<Thread> threads = new ArrayList<Thread>();
+			threads.add(worker("Reconcile", () -> reconcile(shard, root, files)));
+			threads.add(worker("Feedback", () -> feedback(playlist)));
+			for(int i = 0; i < drawers; i++) {
+				threads.add(worker("Draw " + i, () -> draw(playlist, shard)));
+			}
+			threads.add(worker("Check", () -> check(shard)));
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			TimeUnit.SECONDS.sleep(seconds);
+			running.set(false);
+			for(Thread thread : threads) {
+				thread.join();
+			}
+			if(failure.get() == null) {
+				try {
+					checkQuiet(shard, root);
+				} catch (AssertionError e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+			shard.close();
+		} finally {
+			SyntheticLibrary.deleteTree(root);
+		}
+		System.out.print(String.format("%d draws, %d feedback, %d reconciles, %d snapshot checks, %d stale ids%n",
+				draws.get(), feedback.get(), reconciles.get(), checks.get(), stale.get()));
+		if(failure.get() != null) {
+			System.out.print(String.format("FAILED%n"));
+			failure.get().printStackTrace();
+			System.exit(1);
+		}
+		System.out.print(String.format("OK%n"));
+	}
+
+	/**        Makes a thread that runs a step until the stress is over or something fails.
+	 * @param  name as the name of the thread.
+	 * @param  step as what the thread does over and over.
+	 * @return the thread.
+	 */
+	private static Thread worker(String name, Step step) {
+		return new Thread(() -> {
+			try {
+				while(running.get() && failure.get() == null) {
+					step.run();
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			}
+		}, name);
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         One step of a thread of the stress.
+	 */
+	private interface Step {
+		public void run() throws Exception;
+	}
+
+	/**        Adds or deletes a media file in a random directory, and checks the playlist against the disk.
+	 * @param  shard as the library.
+	 * @param  root as the root of the library.
+	 * @param  files as the number of media files the library was made with.
+	 * @throws IOException if a media file could not be added or deleted.
+	 */
+	private static void reconcile(LibraryShard shard, Path root, int files) throws IOException {
+		Random random = ThreadLocalRandom.current();
+		int directories = (files + SyntheticLibrary.FILES_PER_DIRECTORY - 1)/SyntheticLibrary.FILES_PER_DIRECTORY;
+		for(int change = 0; change < 8; change++) {
+			Path directory = SyntheticLibrary.directory(root, random.nextInt(directories));
+			Path file = directory.resolve(String.format("t%07d.mp3", random.nextInt(files*2)));
+			if(!Files.deleteIfExists(file)) {
+				Files.createFile(file);
+			}
+		}
+		shard.checkPlaylistFiles();
+		reconciles.incrementAndGet();
+	}
+
+	/**       Gives feedback on a drawn media file, for everyone or for a user, and now and then resets the probabilities.
+	 * @param playlist as the playlist.
+	 */
+	private static void feedback(ShardedPlaylist playlist) {
+		Random random = ThreadLocalRandom.current();
+		playlist.setUser(random.nextBoolean() ? null : "stress");
+		if(random.nextInt(1000) == 0) {
+			playlist.clearProbs();
+			return;
+		}
+		int id = playlist.fun();
+		try {
+			if(random.nextBoolean()) {
+				playlist.good(id, .1);
+			} else {
+				playlist.bad(id, .1);
+			}
+			feedback.incrementAndGet();
+		} catch (IllegalArgumentException e) {
+			stale.incrementAndGet();
+		}
+	}
+
+	/**       Draws a media file and looks up its file, then draws from a Snapshot and checks the draw landed on weight.
+	 * @param playlist as the playlist.
+	 * @param shard as the library.
+	 */
+	private static void draw(ShardedPlaylist playlist, LibraryShard shard) {
+		int id = playlist.fun();
+		try {
+			playlist.getFile(id);
+		} catch (IllegalArgumentException e) {
+			stale.incrementAndGet();
+		}
+		WeightedSampler.Snapshot snapshot = shard.getPlaylist().getSnapshot();
+		int slot = snapshot.sample(ThreadLocalRandom.current());
+		if(!(snapshot.getWeight(slot) > 0))
+			throw new AssertionError("Drew slot " + slot + " which has no weight");
+		WeightOverlay overlay = shard.getOverlay("stress");
+		if(overlay != null) {
+			slot = overlay.sample(snapshot, ThreadLocalRandom.current());
+			if(!(overlay.getWeight(snapshot, slot) > 0))
+				throw new AssertionError("Drew slot " + slot + " which has no weight for the user");
+		}
+		draws.incrementAndGet();
+	}
+
+	/**       Checks that the last Snapshot is whole, for everyone and for the user.
+	 * @param shard as the library.
+	 */
+	private static void check(LibraryShard shard) {
+		WeightedSampler.Snapshot snapshot = shard.getPlaylist().getSnapshot();
+		WeightOverlay overlay = shard.getOverlay("stress");
+		double sum = 0;
+		double userSum = 0;
+		for(int slot = 0; slot < snapshot.size(); slot++) {
+			double weight = snapshot.getWeight(slot);
+			if(weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight))
+				throw new AssertionError("Slot " + slot + " has weight " + weight);
+			sum += weight;
+			if(overlay != null) {
+				userSum += overlay.getWeight(snapshot, slot);
+			}
+		}
+		checkTotal("everyone", sum, snapshot.total());
+		if(overlay != null) {
+			checkTotal("the user", userSum, overlay.total(snapshot));
+		}
+		checks.incrementAndGet();
+	}
+
+	/**       Checks that a sum of weights matches the total it was published with.
+	 * @param whose as whose weights they are.
+	 * @param sum as the sum of the weights.
+	 * @param total as the total.
+	 */
+	private static void checkTotal(String whose, double sum, double total) {
+		if(Math.abs(sum - total) > 1e-9*Math.max(1, total))
+			throw new AssertionError("The weights for " + whose + " add up to " + sum + " but the total is " + total);
+	}
+
+	/**        Checks the playlist against the disk once nothing else is changing it:
+	 *         every media file on disk has weight in the last Snapshot, and nothing else does.
+	 * @param  shard as the library.
+	 * @param  root as the root of the library.
+	 * @throws IOException if the library could not be listed.
+	 */
+	private static void checkQuiet(LibraryShard shard, Path root) throws IOException {
+		shard.checkPlaylistFiles();
+		RandomPlaylist playlist = shard.getPlaylist();
+		WeightedSampler.Snapshot snapshot = playlist.getSnapshot();
+		long onDisk;
+		try(Stream<Path> paths = Files.walk(root)) {
+			onDisk = paths.filter(path -> path.toString().endsWith(".mp3")).count();
+		}
+		int weighted = 0;
+		for(int slot = 0; slot < snapshot.size(); slot++) {
+			if(snapshot.contains(slot)) {
+				weighted++;
+				File file = playlist.getFile(slot);
+				if(!file.exists())
+					throw new AssertionError(file + " is gone but still has weight");
+			} else if(playlist.contains(slot)) {
+				throw new AssertionError("Slot " + slot + " is in the library but has no weight");
+			}
+		}
+		if(weighted != onDisk || playlist.size() != onDisk)
+			throw new AssertionError(onDisk + " media files on disk, " + playlist.size()
+					+ " in the library and " + weighted + " with weight");
+		check(shard);
+	}
+
+}
@@ -0,0 +1,94 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Path;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aIPlaylist.RandomPlaylist;
+import library.FeedbackJournal;
+import library.WeightStore;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How long good() and bad() take, on their own, with the WeightStore, and with the WeightStore and FeedbackJournal,
+ *         with and without the weights decaying.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeedbackBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	// none, store or journal
+	@Param({"none", "store", "journal"})
+	public String persistence;
+
+	// The half-life of the weights in days, 0 for no decay
+	@Param({"0", "14"})
+	public long halfLifeDays;
+
+	private RandomPlaylist playlist;
+	private Path directory;
+	private WeightStore store;
+	private FeedbackJournal journal;
+
+	@Setup
+	public void setUp() throws IOException {
+		playlist = SyntheticLibrary.playlist(size);
+		if(!persistence.equals("none")) {
+			directory = SyntheticLibrary.createTree(0);
+			store = WeightStore.open(new File(directory.toFile(), ".weights"));
+			playlist.attachWeights(store);
+			if(persistence.equals("journal")) {
+				journal = FeedbackJournal.open(new File(directory.toFile(), ".journal"));
+				playlist.attachJournal(journal, 1 << 20);
+			}
+		}
+		playlist.setHalfLife(TimeUnit.DAYS.toMillis(halfLifeDays));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if(journal != null) {
+			journal.close();
+		}
+		if(store != null) {
+			store.close();
+		}
+		SyntheticLibrary.deleteTree(directory);
+	}
+
+	@Benchmark
+	public double good() {
+		return playlist.good(ThreadLocalRandom.current().nextInt(size), .1);
+	}
+
+	@Benchmark
+	public double bad() {
+		return playlist.bad(ThreadLocalRandom.current().nextInt(size), .1);
+	}
+
+}
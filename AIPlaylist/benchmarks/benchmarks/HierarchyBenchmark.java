@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aIPlaylist.RandomPlaylist;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How fast draws and feedback are when draws pick a folder at each level, against flat draws,
+ *         and how long rating a whole folder takes against rating each of its media files.
+ *         The synthetic library has FILES_PER_DIRECTORY media files to a folder, all in one parent,
+ *         so the parent is as wide as a folder gets and every change updates its sums.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchyBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	@Param({"false", "true"})
+	public boolean hierarchical;
+
+	private RandomPlaylist playlist;
+	private File root;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		playlist = SyntheticLibrary.playlist(size);
+		for(int id = 0; id < size; id += 7) {
+			playlist.good(id, .5);
+		}
+		playlist.setHierarchical(hierarchical);
+		// The first media file is the one the playlist was made from, which is not under the made up root
+		root = playlist.getFile(1).getParentFile().getParentFile();
+	}
+
+	@Benchmark
+	public int fun() {
+		return playlist.fun();
+	}
+
+	@Benchmark
+	public double good() {
+		int id = next++%size;
+		// Alternating keeps the weights from running off over a long run
+		return (id%2 == 0) ? playlist.good(id, .1) : playlist.bad(id, .1);
+	}
+
+	/** Rates a folder as a whole when draws are hierarchical, and each of its media files when they are flat.
+	 * @return the new probability of the folder, or of its last media file.
+	 */
+	@Benchmark
+	public double goodFolder() {
+		int folders = Math.max(1, size/SyntheticLibrary.FILES_PER_DIRECTORY);
+		int folder = next%folders;
+		// Every pass over the folders goes the other way
+		boolean good = (next++/folders)%2 == 0;
+		if(hierarchical) {
+			File directory = SyntheticLibrary.file(root, folder*SyntheticLibrary.FILES_PER_DIRECTORY).getParentFile();
+			return good ? playlist.good(directory, .1) : playlist.bad(directory, .1);
+		}
+		double probability = 0;
+		int first = Math.max(1, folder*SyntheticLibrary.FILES_PER_DIRECTORY);
+		for(int i = first; i < Math.min(size, (folder + 1)*SyntheticLibrary.FILES_PER_DIRECTORY); i++) {
+			probability = good ? playlist.good(i, .1) : playlist.bad(i, .1);
+		}
+		return probability;
+	}
+
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aIPlaylist.RandomPlaylist;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How long addToAll() and removeFromAll() take.
+ *         Each operation adds a media file and removes one, so the size of the library stays the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MembershipBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	private RandomPlaylist playlist;
+	private File root;
+
+	// Cycles through the made up files, so the removed one is never the one just added
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		playlist = SyntheticLibrary.playlist(size);
+		root = playlist.getFile(size - 1).getParentFile().getParentFile();
+		next = 1;
+	}
+
+	@Benchmark
+	public int addAndRemoveByFile() {
+		File file = SyntheticLibrary.file(root, next);
+		next = (next + 1 < size) ? next + 1 : 1;
+		playlist.removeFromAll(file);
+		return playlist.addToAll(file);
+	}
+
+	@Benchmark
+	public int addAndRemoveById() {
+		File file = SyntheticLibrary.file(root, next);
+		next = (next + 1 < size) ? next + 1 : 1;
+		playlist.removeFromAll(playlist.idOf(file));
+		return playlist.addToAll(file);
+	}
+
+}
@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.nio.file.Path;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aIPlaylist.RandomPlaylist;
+import library.WeightStore;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How long the .playlist file takes to save and load, the same way AIPlaylist does it,
+ *         and how long the weights take to come back from the WeightStore.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	private Path directory;
+	private File file;
+	private RandomPlaylist playlist;
+	private WeightStore store;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = SyntheticLibrary.createTree(0);
+		file = new File(directory.toFile(), ".playlist");
+		playlist = SyntheticLibrary.playlist(size);
+		store = WeightStore.open(new File(directory.toFile(), ".weights"));
+		playlist.attachWeights(store);
+		save();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		store.close();
+		SyntheticLibrary.deleteTree(directory);
+	}
+
+	@Benchmark
+	public void save() throws IOException {
+		try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeObject(playlist);
+		}
+	}
+
+	@Benchmark
+	public RandomPlaylist load() throws IOException, ClassNotFoundException {
+		try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			RandomPlaylist loaded = (RandomPlaylist) in.readObject();
+			loaded.attachWeights(store);
+			return loaded;
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.Random;
+
+import algorithms.QuantizedWeights;
+import algorithms.WeightedSampler;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How far QuantizedWeights in 8 and 16 bits drift from a WeightedSampler of doubles given the same feedback,
+ *         against how many bytes they take, so the size of a context bucket can be picked knowing what it costs.
+ *         The feedback lands mostly on a few media files, like real listening does, and each copy applies it by its own
+ *         probabilities, as a bucket would. The drift is reported as the total variation distance between the probabilities,
+ *         the Kullback-Leibler divergence in bits, and the worst relative error over the media files that got feedback.
+ *         Run it as java benchmarks.QuantizationAccuracy [media files] [feedback events] [buckets to size for].
+ */
+public final class QuantizationAccuracy {
+
+	/** Enforces non-instantibility
+	 * 	@throws AssertionError to enforce non-instantibility
+	 */
+	private QuantizationAccuracy() {
+		throw new AssertionError("QuantizationAccuracy is non-instantiable");
+	}
+
+	public static void main(String[] args) {
+		int files = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int events = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+		int buckets = (args.length > 2) ? Integer.parseInt(args[2]) : 24*7;
+		WeightedSampler exact = new WeightedSampler(files);
+		for(int slot = 0; slot < files; slot++) {
+			exact.add(slot);
+		}
+		QuantizedWeights[] quantized = { QuantizedWeights.of(exact, 8), QuantizedWeights.of(exact, 16) };
+		int[] slots = new int[events];
+		boolean[] good = new boolean[events];
+		Random random = new Random(0);
+		for(int i = 0; i < events; i++) {
+			// Half of the feedback on a hundredth of the media files
+			slots[i] = random.nextBoolean() ? random.nextInt(Math.max(1, files/100)) : random.nextInt(files);
+			good[i] = random.nextDouble() < 0.6;
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < events; i++) {
+			if(good[i]) {
+				exact.good(slots[i], 0.1);
+			} else {
+				exact.bad(slots[i], 0.1);
+			}
+		}
+		long exactNanos = System.nanoTime() - start;
+		System.out.println(String.format("%d media files, %d feedback events, sized for %d buckets", files, events, buckets));
+		System.out.println(String.format("%-8s %14s %14s %12s %14s %12s %14s %12s",
+				"weights", "bytes/bucket", "bytes/all", "bytes/slot", "total var", "KL bits", "max rel err", "ns/event"));
+		// The weights and Fenwick tree of doubles and the tree of counts of a WeightedSampler
+		long exactBytes = (8L + 8L + 4L)*files;
+		System.out.println(String.format("%-8s %14d %14d %12.2f %14.3e %12.3e %14.3e %12d",
+				"double", exactBytes, exactBytes*buckets, (double) exactBytes/files, 0.0, 0.0, 0.0, exactNanos/events));
+		for(QuantizedWeights weights : quantized) {
+			Random rounding = new Random(1);
+			start = System.nanoTime();
+			for(int i = 0; i < events; i++) {
+				weights = good[i] ? weights.good(slots[i], 0.1, rounding) : weights.bad(slots[i], 0.1, rounding);
+			}
+			long nanos = System.nanoTime() - start;
+			double variation = 0;
+			double divergence = 0;
+			double worst = 0;
+			boolean[] rated = new boolean[files];
+			for(int slot : slots) {
+				rated[slot] = true;
+			}
+			for(int slot = 0; slot < files; slot++) {
+				double p = exact.getProbability(slot);
+				double q = weights.getProbability(slot);
+				variation += Math.abs(p - q)/2;
+				if(p > 0 && q > 0) {
+					divergence += p*Math.log(p/q)/Math.log(2);
+				}
+				if(rated[slot] && p > 0) {
+					worst = Math.max(worst, Math.abs(q - p)/p);
+				}
+			}
+			System.out.println(String.format("%-8s %14d %14d %12.2f %14.3e %12.3e %14.3e %12d", weights.getBits() + " bit",
+					weights.bytes(), weights.bytes()*buckets, (double) weights.bytes()/files, variation, divergence, worst, nanos/events));
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aIPlaylist.PlaylistReconciler;
+import aIPlaylist.RandomPlaylist;
+import library.LibraryChange;
+import library.LibraryIndex;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How long checkPlaylistFiles() takes to bring a playlist in line with its folder after media files were added
+ *         or removed, both for a batch of WatchService events and for the LibraryIndex check done on startup.
+ *         Before each iteration the changes are made on disk: every other iteration adds them, the rest remove them again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ReconcileBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	// The number of media files added or removed before each iteration
+	@Param({"10", "1000"})
+	public int changes;
+
+	private Path root;
+	private RandomPlaylist playlist;
+	private LibraryIndex index;
+
+	// The changes made before this iteration, as a WatchService would report them
+	private List<LibraryChange> batch;
+
+	// Whether or not the changed files are on disk
+	private boolean added = false;
+
+	@Setup
+	public void setUp() throws IOException {
+		root = SyntheticLibrary.createTree(size);
+		playlist = new RandomPlaylist(root.toFile(), true);
+		index = new LibraryIndex(root.toFile(), true);
+		new PlaylistReconciler(playlist, index, root.toFile(), true).reconcileAll();
+	}
+
+	@Setup(Level.Iteration)
+	public void change() throws IOException {
+		int directories = (size + SyntheticLibrary.FILES_PER_DIRECTORY - 1) / SyntheticLibrary.FILES_PER_DIRECTORY;
+		batch = new ArrayList<LibraryChange>(changes);
+		added = !added;
+		for(int i = 0; i < changes; i++) {
+			Path file = SyntheticLibrary.directory(root, i % directories).resolve(String.format("x%07d.mp3", i));
+			if(added) {
+				Files.createFile(file);
+				batch.add(new LibraryChange(LibraryChange.Kind.CREATE, file));
+			} else {
+				Files.delete(file);
+				batch.add(new LibraryChange(LibraryChange.Kind.DELETE, file));
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		SyntheticLibrary.deleteTree(root);
+	}
+
+	@Benchmark
+	public PlaylistReconciler.Report watchBatch() {
+		return new PlaylistReconciler(playlist, index, root.toFile(), true).reconcile(batch);
+	}
+
+	@Benchmark
+	public PlaylistReconciler.Report startup() {
+		return new PlaylistReconciler(playlist, index, root.toFile(), true).reconcileIndexed();
+	}
+
+}
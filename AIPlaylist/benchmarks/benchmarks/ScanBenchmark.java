@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Path;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import algorithms.FileAlorigthms;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How long FileAlorigthms.getMediaFiles() takes over a directory tree.
+ *         After the first iteration the tree is in the page cache, so this measures the scanner and not the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	private Path root;
+
+	@Setup
+	public void setUp() throws IOException {
+		root = SyntheticLibrary.createTree(size);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		SyntheticLibrary.deleteTree(root);
+	}
+
+	@Benchmark
+	public List<File> getMediaFiles() {
+		return FileAlorigthms.getMediaFiles(root.toFile(), true);
+	}
+
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aIPlaylist.RandomPlaylist;
+import algorithms.WeightedSampler;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How fast the next media file is picked, which replaced ProbFunTree.fun().
+ *         The weights are skewed by feedback first, as a uniform library is the easy case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectionBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	@Param({"FENWICK", "ALIAS"})
+	public WeightedSampler.Mode mode;
+
+	private RandomPlaylist playlist;
+
+	@Setup
+	public void setUp() throws IOException {
+		playlist = SyntheticLibrary.playlist(size);
+		for(int id = 0; id < size; id += 7) {
+			playlist.good(id, .5);
+		}
+		playlist.setSamplingMode(mode);
+		// Builds the alias table before the clock starts
+		playlist.fun();
+	}
+
+	@Benchmark
+	public int fun() {
+		return playlist.fun();
+	}
+
+}
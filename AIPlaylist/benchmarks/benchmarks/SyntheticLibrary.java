@@ -0,0 +1,125 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import java.util.concurrent.TimeUnit;
+
+import aIPlaylist.RandomPlaylist;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Builds the libraries the benchmarks run against, either as empty media files in a temporary directory tree
+ *         or as a RandomPlaylist of made up paths that only exists in memory.
+ */
+public final class SyntheticLibrary {
+
+	// How many media files go in each directory of a tree
+	public static final int FILES_PER_DIRECTORY = 100;
+
+	/** Enforces non-instantibility
+	 * 	@throws AssertionError to enforce non-instantibility
+	 */
+	private SyntheticLibrary() {
+		throw new AssertionError("SyntheticLibrary is non-instantiable");
+	}
+
+	/**        Creates a temporary directory tree of empty media files, FILES_PER_DIRECTORY to a directory.
+	 *         The directories are dated an hour back, so a LibraryIndex trusts them straight away.
+	 * @param  files as the number of media files.
+	 * @return the root of the tree.
+	 * @throws IOException if the tree could not be created.
+	 */
+	public static Path createTree(int files) throws IOException {
+		Path root = Files.createTempDirectory("aiplaylist-bench");
+		FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+		Path directory = null;
+		for(int i = 0; i < files; i++) {
+			if(i % FILES_PER_DIRECTORY == 0) {
+				if(directory != null) {
+					Files.setLastModifiedTime(directory, past);
+				}
+				directory = Files.createDirectory(directory(root, i / FILES_PER_DIRECTORY));
+			}
+			Files.createFile(directory.resolve(String.format("t%07d.mp3", i)));
+		}
+		if(directory != null) {
+			Files.setLastModifiedTime(directory, past);
+		}
+		Files.setLastModifiedTime(root, past);
+		return root;
+	}
+
+	/**
+	 * @param  root as the root of a tree made by createTree().
+	 * @param  d as the number of the directory.
+	 * @return the path of the directory.
+	 */
+	public static Path directory(Path root, int d) {
+		return root.resolve(String.format("d%05d", d));
+	}
+
+	/**        Deletes a tree made by createTree().
+	 * @param  root as the root of the tree, or null.
+	 * @throws IOException if the tree could not be deleted.
+	 */
+	public static void deleteTree(Path root) throws IOException {
+		if(root == null || !Files.exists(root)) {
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+				Files.delete(directory);
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+	}
+
+	/**        Creates a RandomPlaylist of made up paths, laid out like a tree from createTree(),
+	 *         without putting anything on disk but the one file a RandomPlaylist has to be made from.
+	 * @param  files as the number of media files, at least 1.
+	 * @return the RandomPlaylist.
+	 * @throws IOException if the temporary file could not be created.
+	 */
+	public static RandomPlaylist playlist(int files) throws IOException {
+		Path seed = createTree(1);
+		RandomPlaylist playlist;
+		try {
+			playlist = new RandomPlaylist(seed.toFile(), true);
+		} finally {
+			deleteTree(seed);
+		}
+		File root = new File(seed.toFile(), "synthetic");
+		for(int i = 1; i < files; i++) {
+			playlist.addToAll(file(root, i));
+		}
+		return playlist;
+	}
+
+	/**
+	 * @param  root as the root the path is made up under.
+	 * @param  i as the number of the media file.
+	 * @return the made up path of a media file, in the same layout as createTree().
+	 */
+	public static File file(File root, int i) {
+		return new File(new File(root, String.format("d%05d", i / FILES_PER_DIRECTORY)), String.format("t%07d.mp3", i));
+	}
+
+}
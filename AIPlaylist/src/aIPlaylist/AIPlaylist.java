@@ -1,8 +1,10 @@
 package aIPlaylist;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -10,25 +12,29 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 
-import java.nio.file.FileSystems;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchService;
+import java.lang.management.ManagementFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
 
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
@@ -36,10 +42,22 @@ import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import algorithms.MediaTypeRegistry;
+import algorithms.RecentWindow;
+
+import control.ControlServer;
+import control.PlayerControls;
 
-import aIPlaylist.RandomPlaylist;
+import logging.AsyncLogHandler;
+import logging.LogEvent;
 
-import algorithms.FileAlorigthms;
+import metrics.Counter;
+import metrics.MetricRegistry;
+import metrics.MetricsMBean;
+import metrics.PrometheusEndpoint;
 
 import listeners.AIPKeyListener;
 import listeners.AIPMediaListPlayerEventListener;
@@ -47,10 +65,13 @@ import listeners.AIPMediaPlayerEventListener;
 import listeners.AIPWindowAdapter;
 import listeners.OpenFolderMenuItemListener;
 import listeners.SubDirectoriesCheckBoxMenuItemListener;
-import listeners.WatchSerciveThread;
+import listeners.SwitchUserMenuItemListener;
 
-import uk.co.caprica.vlcj.factory.discovery.NativeDiscovery;
+import uk.co.caprica.vlcj.factory.MediaPlayerFactory;
+import uk.co.caprica.vlcj.media.Media;
+import uk.co.caprica.vlcj.media.MediaRef;
 import uk.co.caprica.vlcj.medialist.MediaList;
+import uk.co.caprica.vlcj.player.base.MediaPlayer;
 import uk.co.caprica.vlcj.player.component.EmbeddedMediaPlayerComponent;
 import uk.co.caprica.vlcj.player.list.MediaListPlayer;
 import uk.co.caprica.vlcj.player.list.PlaybackMode;
@@ -81,6 +102,17 @@ import uk.co.caprica.vlcj.player.list.PlaybackMode;
  *         Use (p) to reset probabilities.
  *         Use (l) to loop. 
  *         Use (r) to repeat. 
+ *         Run with -DaIPlaylist.noRepeat=K so nothing that played in the last K is drawn again; looping and repeating
+ *         still play the history again.
+ *         Run with -DaIPlaylist.context=HOUR_OF_WEEK so what is liked at one time of the week is learned apart from the rest.
+ *         Run with -DaIPlaylist.extensions=+m4a,-wav to add or take away media extensions, or with a list without + or -
+ *         to play only those, and with -DaIPlaylist.sniff=true to also play files whose headers are media whatever their extension.
+ *         Run with -DaIPlaylist.hierarchical=true to pick a folder at each level of the directories down to the media,
+ *         and use shift with period(.) or comma(,) to rate the whole folder of the current media.
+ *         Use New > Add Folder to play from more than one folder at once, and New > Remove Folder to stop.
+ *         Use New > Switch User so your feedback only changes what plays for you; leave the name empty to go back to everyone's.
+ *         Run with -DaIPlaylist.headless=true, or where there is no display, to play without a window,
+ *         giving the folders to play as arguments, and drive it over HTTP with the ControlServer.
  *         
  *         Support
  *         -------
@@ -106,13 +138,44 @@ import uk.co.caprica.vlcj.player.list.PlaybackMode;
  *         so that your contribution does not impede the ability to provide commercial licenses for AIPlaylist.
  *
  */
-public class AIPlaylist {
+public class AIPlaylist implements PlayerControls {
 
 	// TODO put up toast for key presses
 
 	// For debugging
 	private Logger aIPlaylistLogger = Logger.getLogger("aIPlaylist.AIPlaylist");
 
+	// Writes the log on its own thread, so playback never waits on the disk
+	private AsyncLogHandler logHandler;
+
+	// Where the log goes, how many records can wait to be written, and how big it gets before it is rotated
+	private final static File LOG_FILE = new File(".log");
+	private final static int LOG_CAPACITY = 8192;
+	private final static long LOG_LIMIT_BYTES = 8 << 20;
+	private final static int LOG_FILES = 3;
+
+	// What gets logged unless set with -DaIPlaylist.logLevel; FINEST logs every step of playback
+	private final static Level DEFAULT_LOG_LEVEL = Level.INFO;
+
+	private final static Counter GOOD_COUNTER = MetricRegistry.getDefault().counter("aiplaylist_feedback_good_total", "Media made more likely to play");
+	private final static Counter BAD_COUNTER = MetricRegistry.getDefault().counter("aiplaylist_feedback_bad_total", "Media made less likely to play");
+	private final static Counter RESET_COUNTER = MetricRegistry.getDefault().counter("aiplaylist_feedback_reset_total", "Resets of the probabilities");
+
+	// The port metrics are served on in the Prometheus text format unless set with -DaIPlaylist.metricsPort; negative turns it off
+	private final static int DEFAULT_METRICS_PORT = 9464;
+
+	// Serves the metrics, or null if it is off or could not start
+	private PrometheusEndpoint metricsEndpoint;
+
+	// Whether or not to play without a window, set with -DaIPlaylist.headless or when there is no display
+	private final boolean headless = Boolean.getBoolean("aIPlaylist.headless") || GraphicsEnvironment.isHeadless();
+
+	// The port of the ControlServer unless set with -DaIPlaylist.controlPort; it is only on by default when headless
+	private final static int DEFAULT_CONTROL_PORT = 9465;
+
+	// Takes commands over HTTP, or null if it is off or could not start
+	private ControlServer controlServer;
+
 	/**
 	 * @return the Logger for this AIPlaylist
 	 */
@@ -124,28 +187,42 @@ public class AIPlaylist {
 	// If there is a greater than 50% chance, the increase becomes ADAPTION_PERCENTAGE*(100%-probability).
 	private final static double ADAPTION_PERCENTAGE = .5;
 
-	// For UI
-	private final JFrame jFrame = new JFrame("AIPlaylist");
+	// For UI; made with the rest of the UI, so it is null when headless
+	private JFrame jFrame;
 	private final JMenuBar jMenuBar = new JMenuBar();
 	private final JMenu jMenu = new JMenu("New");
 	private final JMenuItem jMenuItemOpenFolder = new JMenuItem("Open Folder");
+	private final JMenuItem jMenuItemAddFolder = new JMenuItem("Add Folder");
+	private final JMenuItem jMenuItemRemoveFolder = new JMenuItem("Remove Folder");
 	private final JMenuItem jMenuItemCheckSubDirectories = new JCheckBoxMenuItem("Check subdirectories");
+	private final JMenuItem jMenuItemSwitchUser = new JMenuItem("Switch User");
 
 	// UI listeners
 	private final OpenFolderMenuItemListener openFolderButtonListener = new OpenFolderMenuItemListener(this);
 	private final SubDirectoriesCheckBoxMenuItemListener subDirectoriesCheckBoxListener = new SubDirectoriesCheckBoxMenuItemListener(this);
+	private final SwitchUserMenuItemListener switchUserListener = new SwitchUserMenuItemListener(this);
 	private final AIPWindowAdapter aIPWindowAdapter = new AIPWindowAdapter(this);
 	private final AIPKeyListener keyListener = new AIPKeyListener(this);
 
-	private WatchService watchService;
-	private ExecutorService executionService = Executors.newSingleThreadExecutor();
+	// Runs the WatchService thread of each library
+	private ExecutorService executionService = Executors.newCachedThreadPool();
+
+	// Applies the sub-directories setting to the libraries, one toggle at a time in the order they were made
+	private final ExecutorService subDirectoriesService = Executors.newSingleThreadExecutor();
 
-	// Embedded in jFrame
-	private final EmbeddedMediaPlayerComponent embeddedMediaPlayerComponent = new EmbeddedMediaPlayerComponent();
+	// Where the directory libvlc was found in is kept between runs
+	private final File nativeCacheFile = new File(".vlc");
+
+	// Embedded in jFrame; made once libvlc is found, so it is null until then, and when headless
+	private EmbeddedMediaPlayerComponent embeddedMediaPlayerComponent;
+	// Makes the media player, and its media; from embeddedMediaPlayerComponent unless headless
+	private MediaPlayerFactory mediaPlayerFactory;
+	// Plays the media for mediaListPlayer
+	private MediaPlayer mediaPlayer;
 	// For playing MediaLists
-	private final MediaListPlayer mediaListPlayer = embeddedMediaPlayerComponent.mediaPlayerFactory().mediaPlayers().newMediaListPlayer();
+	private MediaListPlayer mediaListPlayer;
 	// Contains the media to play
-	private final MediaList mediaList = embeddedMediaPlayerComponent.mediaPlayerFactory().media().newMediaList();
+	private MediaList mediaList;
 
 	// VLCJ listeners
 	private final AIPMediaPlayerEventListener mediaPlayerEventListener = new AIPMediaPlayerEventListener(this);
@@ -158,51 +235,265 @@ public class AIPlaylist {
 	private final File rootFile = new File(".f");
 
 	// Saved settings
-	private boolean subDirectories = false;
+	private volatile boolean subDirectories = false;
 	private boolean looping = false;
 	private boolean repeating = false;
 	private int jFrameX = 0;
 	private int jFrameY = 0;
 	private int jFrameHeight = 720;
 	private int jFrameWidth = 960;
-	private File folder;
 
-	// Contains the Playlist 
-	private RandomPlaylist playlist;
+	// The roots of the libraries
+	private final List<File> folders = new ArrayList<File>();
+
+	// Contains the Playlist, with a LibraryShard for each of folders
+	private final ShardedPlaylist playlist = new ShardedPlaylist();
+
+	// How many media files are kept in the history, for going back and looping
+	private final static int HISTORY_CAPACITY = 1024;
+
+	// How many media files before the current one are kept in the mediaList
+	private final static int MEDIA_LIST_BEHIND = 2;
+
+	// Keeps track of the ids of the media queue to allow for adapting the probability function; -1 for removed media files
+	private final PlayHistory history = new PlayHistory(HISTORY_CAPACITY);
+
+	// The history sequence number of each entry of the mediaList, which only holds the media around the current one
+	private final ArrayDeque<Long> mediaListSequences = new ArrayDeque<Long>();
 
-	// Keeps track of the media queue to allow for adapting the probability function
-	private LinkedList<File> previousFiles = new LinkedList<File>();
+	// How many media files are drawn and parsed ahead of time, unless set with -DaIPlaylist.lookahead
+	private final static int DEFAULT_LOOKAHEAD = 3;
 
-	// For iterating over the File queue
-	private ListIterator<File> previousFilesIterator = previousFiles.listIterator();
+	// The media files that play next, already drawn and being parsed
+	private LookaheadQueue<Media> lookahead;
+
+	// How many of the media files played last are not drawn again; set with -DaIPlaylist.noRepeat
+	private int noRepeat = Math.max(0, Integer.getInteger("aIPlaylist.noRepeat", 0));
+
+	// The media files drawn last, which are not drawn again until they age out.
+	// It holds the ones in lookahead too, so it has room for them on top of noRepeat.
+	// Only new draws go through it, so going back, looping and repeating play the history as it is
+	private final RecentWindow recentlyDrawn = new RecentWindow(0);
+
+	// Gets the media files in lookahead ready; made with the media player
+	private MediaPreparer mediaPreparer;
+
+	// The parsed media of the newest media in the history, until it is added to the mediaList
+	private Media preparedMedia;
+	private long preparedSequence = -1;
+
+	// When the last media was asked to play, for timing how long it takes to start
+	private volatile long playRequestedNanos;
+
+	// Times the stages of starting up, until the first media plays and the playlist is reconciled
+	private volatile StartupTimer startupTimer;
 
 	/**       Instantiates the AIPlaylist.
-	 * @param args is unused.
+	 * @param args as the folders to play, instead of the saved ones, if there are any.
 	 */
 	public static void main(String[] args) {
-		new AIPlaylist();
+		List<File> folders = new ArrayList<File>();
+		for(String arg : args) {
+			folders.add(new File(arg).getAbsoluteFile());
+		}
+		new AIPlaylist(folders);
 	}
 
 	/** Sets up the GUI and starts the Playlist if a folder has been specified.
 	 * 
 	 */
 	public AIPlaylist() {
+		this(Collections.<File>emptyList());
+	}
+
+	/**       Sets up the GUI, unless headless, and starts the Playlist if a folder has been specified.
+	 *        Finding libvlc, building the GUI and reading the playlist run at the same time.
+	 *        The first media plays as soon as the media player and the saved playlist are ready,
+	 *        and the playlist is brought in line with the files in folders after that, in the background.
+	 * @param folders as the folders to play instead of the saved ones, or an empty list for the saved ones.
+	 */
+	public AIPlaylist(List<File> folders) {
+		setUpLogger();
+		setUpMetrics();
+		setUpContexts();
+		setUpMediaTypes();
+		playlist.setHierarchical(Boolean.getBoolean("aIPlaylist.hierarchical"));
+		StartupTimer timer = new StartupTimer();
+		startupTimer = timer;
+		loadSettings();
+		if(!folders.isEmpty()) {
+			this.folders.clear();
+			this.folders.addAll(folders);
+		}
+		setUpControlServer();
+		if(headless) {
+			// There is no window to close, so the settings and playlist are saved when the process is stopped
+			Runtime.getRuntime().addShutdownHook(new Thread(this::shutDown, "Shut down"));
+		}
+		ExecutorService startupService = Executors.newFixedThreadPool(2);
+		// Where the media player is made and started; there is no event dispatch thread to use when headless
+		Executor playerExecutor = headless ? startupService : SwingUtilities::invokeLater;
+		CompletableFuture<Boolean> nativeFound = CompletableFuture.supplyAsync(
+				() -> timer.time("native discovery", () -> CachedNativeDiscovery.discover(nativeCacheFile)), startupService);
+		CompletableFuture<List<LibraryShard>> playlistRead = CompletableFuture.supplyAsync(
+				() -> timer.time("playlist load", this::readPlaylist), startupService);
+		if(!headless) {
+			// The menu waits for the playlist, so it can not be used to swap the playlist while it is being read
+			SwingUtilities.invokeLater(() -> timer.time("ui", () -> {
+				setUpJMenu();
+				setUpJFrame();
+				jMenu.setEnabled(false);
+			}));
+		}
+		CompletableFuture<Void> mediaPlayerReady = nativeFound.thenAcceptAsync(cached -> {
+			aIPlaylistLogger.finest(cached ? "Found libvlc where it was last time" : "Searched for libvlc");
+			timer.time("media player", this::setUpMediaPlayer);
+		}, playerExecutor);
+		mediaPlayerReady.thenCombineAsync(playlistRead, (ready, unreconciled) -> {
+			if(!headless) {
+				// Keys only work once there is something for them to act on
+				embeddedMediaPlayerComponent.videoSurfaceComponent().addKeyListener(keyListener);
+				jMenu.setEnabled(true);
+			}
+			if(!playlist.isEmpty()) {
+				resetLookahead();
+				startMediaPlayer();
+			}
+			return unreconciled;
+		}, playerExecutor).thenAcceptAsync(unreconciled -> {
+			if(!unreconciled.isEmpty()) {
+				timer.time("reconcile", () -> checkPlaylistFiles(unreconciled));
+			}
+		}, startupService).whenComplete((result, e) -> {
+			startupService.shutdown();
+			if(e != null) {
+				System.out.print(String.format("Problem starting up\n"));
+				e.printStackTrace();
+			}
+			aIPlaylistLogger.info(timer.toString());
+		});
+	}
+
+	/** Sends the log to LOG_FILE through an AsyncLogHandler, at the level set with -DaIPlaylist.logLevel.
+	 * 
+	 */
+	private void setUpLogger() {
 		try {
-			aIPlaylistLogger.addHandler(new FileHandler(".log"));
+			logHandler = new AsyncLogHandler(LOG_FILE, LOG_CAPACITY, LOG_LIMIT_BYTES, LOG_FILES);
+			aIPlaylistLogger.addHandler(logHandler);
 		} catch (SecurityException | IOException e) {
 			e.printStackTrace();
 		}
-		aIPlaylistLogger.getHandlers()[0].setFormatter(new SimpleFormatter());
-		aIPlaylistLogger.setLevel(Level.FINEST);
-		new NativeDiscovery().discover();
-		loadSettings();
-		loadPlaylist(); 
-		//getTopMedia();
-		setUpJMenu();
-		setUpJFrame();
-		setUpMediaPlayer();
-		if(playlist != null)
-			startMediaPlayer();
+		try {
+			aIPlaylistLogger.setLevel(Level.parse(System.getProperty("aIPlaylist.logLevel", DEFAULT_LOG_LEVEL.getName())));
+		} catch (IllegalArgumentException e) {
+			System.out.print(String.format("Unknown log level: " + System.getProperty("aIPlaylist.logLevel") + "\n"));
+			aIPlaylistLogger.setLevel(DEFAULT_LOG_LEVEL);
+		}
+	}
+
+	/** Adds the gauges of this AIPlaylist to the MetricRegistry,
+	 *  and makes the metrics available over JMX and in the Prometheus text format on the loopback address.
+	 */
+	private void setUpMetrics() {
+		MetricRegistry registry = MetricRegistry.getDefault();
+		registry.gauge("aiplaylist_library_size", "Media files in the playlist", playlist::size);
+		registry.gauge("aiplaylist_history_length", "Media kept in the history", () -> {
+			synchronized(this) {
+				return history.size();
+			}
+		});
+		registry.gauge("aiplaylist_weight_entropy", "Entropy of the probabilities in bits", playlist::getEntropy);
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(!server.isRegistered(MetricsMBean.objectName())) {
+				server.registerMBean(new MetricsMBean(registry), MetricsMBean.objectName());
+			}
+		} catch (JMException e) {
+			System.out.print(String.format("Problem registering the metrics MBean\n"));
+			e.printStackTrace();
+		}
+		int port = Integer.getInteger("aIPlaylist.metricsPort", DEFAULT_METRICS_PORT);
+		if(port >= 0) {
+			try {
+				metricsEndpoint = PrometheusEndpoint.start(registry, port);
+				aIPlaylistLogger.info("Serving metrics on port " + metricsEndpoint.getPort());
+			} catch (IOException e) {
+				System.out.print(String.format("Unable to serve metrics on port " + port + "\n"));
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Puts feedback and draws in the context buckets set with -DaIPlaylist.context, like HOUR_OF_WEEK,
+	 *  with -DaIPlaylist.contextBlend of the draws from the weights of every time, and -DaIPlaylist.contextBits to a weight.
+	 */
+	private void setUpContexts() {
+		String buckets = System.getProperty("aIPlaylist.context", ContextBuckets.NONE.name());
+		String blend = System.getProperty("aIPlaylist.contextBlend", "0.5");
+		try {
+			playlist.setContexts(ContextBuckets.valueOf(buckets.toUpperCase(Locale.ROOT)), Double.parseDouble(blend),
+					Integer.getInteger("aIPlaylist.contextBits", 8));
+		} catch (IllegalArgumentException e) {
+			System.out.print(String.format("Unknown contexts: " + buckets + ", blend " + blend + ", bits "
+					+ System.getProperty("aIPlaylist.contextBits") + "\n"));
+		}
+	}
+
+	/** Sets what counts as media from -DaIPlaylist.extensions, a comma separated list of extensions that replaces the defaults,
+	 *  where ones starting with + or - are added to or taken from them instead, and sniffs the headers of files with other
+	 *  extensions if -DaIPlaylist.sniff=true.
+	 */
+	private void setUpMediaTypes() {
+		MediaTypeRegistry registry = MediaTypeRegistry.getDefault();
+		registry.setSniffing(Boolean.getBoolean("aIPlaylist.sniff"));
+		String extensions = System.getProperty("aIPlaylist.extensions");
+		if(extensions == null) {
+			return;
+		}
+		List<String> replacements = new ArrayList<String>();
+		List<String> added = new ArrayList<String>();
+		List<String> removed = new ArrayList<String>();
+		for(String extension : extensions.split(",")) {
+			extension = extension.trim();
+			if(extension.startsWith("+")) {
+				added.add(extension.substring(1));
+			} else if(extension.startsWith("-")) {
+				removed.add(extension.substring(1));
+			} else if(!extension.isEmpty()) {
+				replacements.add(extension);
+			}
+		}
+		try {
+			if(!replacements.isEmpty()) {
+				registry.setExtensions(replacements);
+			}
+			for(String extension : added) {
+				registry.register(extension);
+			}
+			for(String extension : removed) {
+				registry.unregister(extension);
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.print(String.format("Unknown extensions: " + extensions + "\n"));
+		}
+		aIPlaylistLogger.info("Media extensions " + registry.getExtensions());
+	}
+
+	/** Starts the ControlServer on the port set with -DaIPlaylist.controlPort, which is only on by default when headless.
+	 * 
+	 */
+	private void setUpControlServer() {
+		int port = Integer.getInteger("aIPlaylist.controlPort", headless ? DEFAULT_CONTROL_PORT : -1);
+		if(port >= 0) {
+			try {
+				controlServer = ControlServer.start(this, port);
+				aIPlaylistLogger.info("Taking commands on port " + controlServer.getPort());
+			} catch (IOException e) {
+				System.out.print(String.format("Unable to take commands on port " + port + "\n"));
+				e.printStackTrace();
+			}
+		}
 	}
 
 	/** Prints the media that has the greatest probability of appearing to the console.
@@ -211,10 +502,15 @@ public class AIPlaylist {
 	private void getTopMedia() {
 		double max = 0;
 		File f = null;
-		for(Entry<File, Double> e : playlist.getProbFun().getParentMap().entrySet()) {
-			if(e.getValue() > max) {
-				max = e.getValue();
-				f = e.getKey();
+		for(LibraryShard shard : playlist.getShards()) {
+			if(shard.getPlaylist() == null) {
+				continue;
+			}
+			for(Entry<File, Double> e : shard.getPlaylist().getParentMap().entrySet()) {
+				if(e.getValue() > max) {
+					max = e.getValue();
+					f = e.getKey();
+				}
 			}
 		}
 		if(f != null) {
@@ -238,14 +534,23 @@ public class AIPlaylist {
 		}
 		try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(new FileOutputStream(rootFile))){
 			aIPlaylistLogger.finest("Saving settings");
+			if(jFrame != null) {
+				jFrameX = jFrame.getX();
+				jFrameY = jFrame.getY();
+				jFrameHeight = jFrame.getHeight();
+				jFrameWidth = jFrame.getWidth();
+			}
 			objectOutputStream.writeBoolean(subDirectories);
 			objectOutputStream.writeBoolean(looping);
 			objectOutputStream.writeBoolean(repeating);
-			objectOutputStream.writeInt(jFrame.getX());
-			objectOutputStream.writeInt(jFrame.getY());
-			objectOutputStream.writeInt(jFrame.getHeight());
-			objectOutputStream.writeInt(jFrame.getWidth());
-			objectOutputStream.writeObject(folder);
+			objectOutputStream.writeInt(jFrameX);
+			objectOutputStream.writeInt(jFrameY);
+			objectOutputStream.writeInt(jFrameHeight);
+			objectOutputStream.writeInt(jFrameWidth);
+			// The first folder on its own, where it was before there could be more than one
+			objectOutputStream.writeObject(folders.isEmpty() ? null : folders.get(0));
+			objectOutputStream.writeObject(new ArrayList<File>(folders));
+			objectOutputStream.writeObject(playlist.getUser());
 			objectOutputStream.flush();
 		} catch (FileNotFoundException e) {
 			System.out.print(String.format("Unable to create file: " + rootFile.getAbsolutePath() + "\n"));
@@ -256,23 +561,6 @@ public class AIPlaylist {
 		}		
 	}
 
-	/** Saves the Playlist in folder.
-	 * 
-	 */
-	private void savePlaylist() {
-		try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(new FileOutputStream(folder.getAbsoluteFile()+"\\.playlist"));) {
-			aIPlaylistLogger.finest("Saving playlist");
-			objectOutputStream.writeObject(playlist);
-			objectOutputStream.flush();
-		} catch (FileNotFoundException e) {
-			System.out.print(String.format("Unable to find folder: " + folder.getAbsolutePath() + "\n"));
-			e.printStackTrace();
-		} catch (IOException e) {
-			System.out.print(String.format("Problem writing to " + folder.getAbsolutePath() + "\n"));
-			e.printStackTrace();
-		}
-	}
-
 	/** Loads the settings from the root file.
 	 * 
 	 */
@@ -289,9 +577,15 @@ public class AIPlaylist {
 					jFrameHeight = objectInputStream.readInt();
 					jFrameWidth = objectInputStream.readInt();
 					try {
-						folder = (File) objectInputStream.readObject();
+						File folder = (File) objectInputStream.readObject();
+						folders.clear();
+						if(folder != null) {
+							folders.add(folder);
+						}
+						readFolders(objectInputStream);
+						readUser(objectInputStream);
 					} catch (ClassNotFoundException e) {
-						System.out.print("Unable to read settings file: " + folder.getAbsolutePath() + "\n");
+						System.out.print("Unable to read settings file: " + rootFile.getAbsolutePath() + "\n");
 						e.printStackTrace();
 					}
 				}
@@ -305,142 +599,228 @@ public class AIPlaylist {
 		}
 	}
 
-	/** Registers the folder, and it's sub-directories if required.
-	 * 
+	/**        Reads the list of folders, which settings saved before there could be more than one folder do not have.
+	 * @param  objectInputStream as the stream of the settings, just after the first folder.
+	 * @throws IOException if the stream could not be read.
+	 * @throws ClassNotFoundException if the list could not be read.
 	 */
-	private void registerFileListener() {
+	@SuppressWarnings("unchecked")
+	private void readFolders(ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException {
+		List<File> list;
 		try {
-			watchService = FileSystems.getDefault().newWatchService();
-			executionService.execute(new WatchSerciveThread(this, watchService, subDirectories));
-			addWatchService(folder);
-		} catch (IOException e) {
-			System.out.print(String.format("Problem setting up WatchService on " + folder.getAbsolutePath() + "\n"));
-			e.printStackTrace();
+			list = (List<File>) objectInputStream.readObject();
+		} catch (EOFException | OptionalDataException e) {
+			return;
+		}
+		if(list != null) {
+			folders.clear();
+			folders.addAll(list);
 		}
 	}
 
-	/**        Registers a WatchService with a folder.
-	 * @param  folder as the folder to watch.
-	 * @throws IOException if there is a problem creating the WatchService.
+	/**        Reads the user whose ratings were used, which settings saved before there were users do not have.
+	 * @param  objectInputStream as the stream of the settings, just after the list of folders.
+	 * @throws IOException if the stream could not be read.
+	 * @throws ClassNotFoundException if the user could not be read.
 	 */
-	private void addWatchService(File folder) {
+	private void readUser(ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException {
 		try {
-			folder.toPath().register(watchService, StandardWatchEventKinds.ENTRY_MODIFY);
-		} catch (IOException e) {
-			System.out.print(String.format("Problem adding WatchService to " + folder.getAbsolutePath() + "\n"));
-			e.printStackTrace();
+			playlist.setUser((String) objectInputStream.readObject());
+		} catch (EOFException | OptionalDataException e) {
+			return;
 		}
-		if(subDirectories) {
-			List<File> files = Arrays.asList(folder.listFiles());
-			for(File f : files) {
-				if(f.isDirectory()) {
-					addWatchService(f);
-				}
+	}
+
+	/** Loads the playlist of every folder from its .playlist file, and brings them in line with the files in the folders.
+	 * 
+	 */
+	private void loadPlaylist() {
+		checkPlaylistFiles(readPlaylist());
+		resetLookahead();
+	}
+
+	/**       Loads the playlist of every folder, in parallel, from its .playlist file, or makes a new one if there is none,
+	 *        and starts watching the folders. The loaded playlists are not checked against the files in the folders,
+	 *        so they can start playing straight away.
+	 * @return the LibraryShards that were loaded and still have to be checked with checkPlaylistFiles().
+	 */
+	private List<LibraryShard> readPlaylist() {
+		List<LibraryShard> shards = new ArrayList<LibraryShard>();
+		for(File folder : folders) {
+			if(folder != null && folder.canRead() && playlist.slotOf(folder) == -1) {
+				shards.add(newShard(folder));
 			}
-		}		
+		}
+		return readShards(shards);
 	}
 
-	/**        Re-instantiates the WatchService. Used when subDirectories is changed.
-	 * @param  watchService as the WatchService to re-instantiate.
-	 * @param  folder as the folder to add the WatchService to.
+	/**       Makes a LibraryShard for a folder and adds it to the Playlist. Nothing is read yet.
+	 * @param folder as the root of the library.
+	 * @return the LibraryShard.
 	 */
-	private void resetWatchService() {
-		try {
-			executionService.shutdownNow();
-			try {
-				executionService.awaitTermination(50, TimeUnit.MILLISECONDS);
-			} catch (InterruptedException e) {
-				System.out.print(String.format("Problem shutting down WatchService thread\n"));
-				e.printStackTrace();
+	private LibraryShard newShard(File folder) {
+		LibraryShard shard = new LibraryShard(folder, subDirectories, aIPlaylistLogger, ids -> forgetIds(folder, ids));
+		playlist.add(shard);
+		return shard;
+	}
+
+	/**       Reads LibraryShards in parallel and starts watching their folders.
+	 * @param shards as the LibraryShards.
+	 * @return the LibraryShards that were loaded and still have to be checked with checkPlaylistFiles().
+	 */
+	private List<LibraryShard> readShards(List<LibraryShard> shards) {
+		List<LibraryShard> unreconciled = shards.parallelStream().filter(LibraryShard::read).collect(Collectors.toList());
+		Long halfLifeDays = Long.getLong("aIPlaylist.halfLifeDays");
+		if(halfLifeDays != null) {
+			// Otherwise each library keeps the half-life it was saved with
+			for(LibraryShard shard : shards) {
+				shard.setHalfLife(TimeUnit.DAYS.toMillis(Math.max(0, halfLifeDays)));
 			}
-			executionService = Executors.newSingleThreadExecutor();
-			watchService.close();
-			watchService = FileSystems.getDefault().newWatchService();
-			executionService.execute(new WatchSerciveThread(this, watchService, subDirectories));
-		} catch (IOException e) {
-			System.out.print(String.format("Problem re-instantiating WatchService on " + folder.getAbsolutePath() + "\n"));
-			e.printStackTrace();
 		}
-		addWatchService(folder);
+		for(LibraryShard shard : shards) {
+			shard.watch(executionService);
+		}
+		return unreconciled;
 	}
 
-	public void watchServiceThreadInterrupted() {
-		new InterruptedException("WatchService thread was interrupted\n").printStackTrace();
+	/**       Brings LibraryShards in line with the files in their folders, in parallel.
+	 *        Only directories that changed since the library index of a shard was saved are listed.
+	 * @param shards as the LibraryShards.
+	 */
+	private void checkPlaylistFiles(List<LibraryShard> shards) {
+		shards.parallelStream().forEach(LibraryShard::checkPlaylistFiles);
 	}
 
-	/** Loads the playlist from the .playlist file in folder.
+	/** Closes every LibraryShard, in parallel, and removes them from the Playlist.
 	 * 
 	 */
-	private void loadPlaylist() {
-		if(folder!= null && folder.canRead()) {
-			// Gets the Playlist from the playlist file, if it exists, else makes a new Playlist
-			File file = FileAlorigthms.findFile(".playlist", folder).orElse(null);
-			if(file != null) {
-				try(ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(file))) {
-					aIPlaylistLogger.finest("Loading playlist");
-					playlist = (RandomPlaylist) objectInputStream.readObject();
-					// Makes sure the number of files in the directory matches the number of files in the playlist
-					checkPlaylistFiles();	
-				} catch (FileNotFoundException e) {
-					System.out.print(String.format("Unable to find file: " + rootFile.getAbsolutePath() + "\n"));
-					e.printStackTrace();
-				} catch (IOException e) {
-					System.out.print(String.format("Problem reading from " + rootFile.getAbsolutePath() + "\n"));
-					e.printStackTrace();
-				} catch (ClassNotFoundException e) {
-					System.out.print(String.format("Corrupt file: " + rootFile.getAbsolutePath())+"\n Deleting the file" + "\n");
-					file.delete();
-					e.printStackTrace();
-				}
-			} else if(playlist == null) {
-				aIPlaylistLogger.finest("Creating new playlist");
-				playlist = new RandomPlaylist(folder, subDirectories);
+	private void closeShards() {
+		List<LibraryShard> shards = playlist.getShards();
+		playlist.clear();
+		synchronized(this) {
+			// The slots of the libraries get reused
+			recentlyDrawn.clear();
+		}
+		shards.parallelStream().forEach(LibraryShard::close);
+	}
 
-			}
-			registerFileListener();
+	/**       Sets how many media files are drawn and parsed ahead of time.
+	 * @param size as the number of media files.
+	 * @throws IllegalArgumentException if size is negative.
+	 */
+	public synchronized void setLookahead(int size) {
+		if(size < 0)
+			throw new IllegalArgumentException("size passed to setLookahead() must not be negative");
+		if(lookahead != null) {
+			// Room is made in the window before more are drawn, and taken away after fewer are queued
+			sizeWindow(Math.max(size, lookahead.getSize()));
+			lookahead.setSize(size);
+			sizeWindow(size);
+		}
+	}
+
+	/**       Sets how many of the media files played last are not drawn again, 0 to allow any media file to be drawn.
+	 * @param size as the number of media files.
+	 * @throws IllegalArgumentException if size is negative.
+	 */
+	public synchronized void setNoRepeat(int size) {
+		if(size < 0)
+			throw new IllegalArgumentException("size passed to setNoRepeat() must not be negative");
+		noRepeat = size;
+		if(lookahead != null) {
+			sizeWindow(lookahead.getSize());
+			// The media files drawn ahead were drawn with the old window
+			lookahead.invalidate();
 		}
 	}
 
-	/**       Updates this AIPlaylist to reflect changes in the file structure.
+	/**       Gives the window of media files drawn last room for noRepeat played ones and the ones drawn ahead.
+	 * @param lookaheadSize as the number of media files drawn ahead.
+	 */
+	private synchronized void sizeWindow(int lookaheadSize) {
+		recentlyDrawn.setCapacity((noRepeat == 0) ? 0 : noRepeat + lookaheadSize);
+	}
+
+	/** Makes a new LookaheadQueue for the Playlist, releasing the old one.
 	 *
 	 */
-	public void checkPlaylistFiles() {
-		List<File> files = FileAlorigthms.getMediaFiles(folder, subDirectories);
-		for(File f : files) {
-			if(!playlist.getProbFun().getParentMap().containsKey(f)) {
-				playlist.getProbFun().addToAll(f);
-			}
+	private synchronized void resetLookahead() {
+		if(mediaPreparer == null) {
+			// The media player is not made yet, and the queue is made when it is
+			return;
 		}
-		Iterator<File> it = playlist.getProbFun().getParentMap().keySet().iterator();
-		ArrayList<File> al = new ArrayList<File>();
-		while(it.hasNext()) {
-			File f = it.next();
-			if(!files.contains(f)) {
-				al.add(f);
-			}
+		int size = (lookahead != null) ? lookahead.getSize() : Math.max(0, Integer.getInteger("aIPlaylist.lookahead", DEFAULT_LOOKAHEAD));
+		if(lookahead != null) {
+			lookahead.clear();
 		}
-		for(File f : al) {
-			playlist.getProbFun().removeFromAll(f);
+		sizeWindow(size);
+		lookahead = !playlist.isEmpty() ? new LookaheadQueue<Media>(playlist, size, mediaPreparer, recentlyDrawn) : null;
+	}
+
+	/**       Replaces ids in the media queue with -1, so feedback never goes to a file that reuses an id.
+	 * @param folder as the root of the library the media files were removed from.
+	 * @param ids as the ids of removed media files within the library.
+	 */
+	private synchronized void forgetIds(File folder, int[] ids) {
+		int slot = playlist.slotOf(folder);
+		if(ids.length > 0 && slot != -1) {
+			Set<Integer> removed = new HashSet<Integer>();
+			for(int id : ids) {
+				removed.add(ShardedPlaylist.idOf(slot, id));
+			}
+			history.replaceAll(i -> removed.contains(i) ? -1 : i);
+			recentlyDrawn.removeIf(removed::contains);
+			if(lookahead != null) {
+				lookahead.removeIf(removed::contains);
+			}
 		}
 	}
 
-	/** Sets up the VLCJ components.
+	/**       Gets the name of a media file in the queue for logging.
+	 * @param id as the id of the media file.
+	 * @return the name of the media file.
+	 */
+	private String nameOf(int id) {
+		return playlist.contains(id) ? playlist.getName(id) : "(removed)";
+	}
+
+	/**       Replaces the ids of a library that is being removed in the media queue with -1, as its slot gets reused.
+	 * @param slot as the slot of the library in the Playlist.
+	 */
+	private synchronized void forgetSlot(int slot) {
+		history.replaceAll(i -> (i != -1 && ShardedPlaylist.slotOf(i) == slot) ? -1 : i);
+		recentlyDrawn.removeIf(i -> ShardedPlaylist.slotOf(i) == slot);
+	}
+
+	/** Makes the VLCJ components, once libvlc is found, and puts the media player in jFrame unless headless.
 	 * 
 	 */
 	private void setUpMediaPlayer() {
 		aIPlaylistLogger.finest("Setting up media player");
-		// Needed to get focus to work according to VLCJ documentation
-		embeddedMediaPlayerComponent.mediaPlayer().input().enableKeyInputHandling(false);
-		embeddedMediaPlayerComponent.requestFocusInWindow();
-		mediaListPlayer.mediaPlayer().setMediaPlayer(embeddedMediaPlayerComponent.mediaPlayer());
+		if(headless) {
+			// Without a video surface libvlc opens its own window for video if it can, and plays the audio either way
+			mediaPlayerFactory = new MediaPlayerFactory();
+			mediaPlayer = mediaPlayerFactory.mediaPlayers().newMediaPlayer();
+		} else {
+			embeddedMediaPlayerComponent = new EmbeddedMediaPlayerComponent();
+			mediaPlayerFactory = embeddedMediaPlayerComponent.mediaPlayerFactory();
+			mediaPlayer = embeddedMediaPlayerComponent.mediaPlayer();
+			jFrame.setContentPane(embeddedMediaPlayerComponent);
+			jFrame.revalidate();
+			// Needed to get focus to work according to VLCJ documentation
+			embeddedMediaPlayerComponent.mediaPlayer().input().enableKeyInputHandling(false);
+			embeddedMediaPlayerComponent.requestFocusInWindow();
+		}
+		synchronized(this) {
+			mediaListPlayer = mediaPlayerFactory.mediaPlayers().newMediaListPlayer();
+			mediaList = mediaPlayerFactory.media().newMediaList();
+			mediaPreparer = new MediaPreparer(mediaPlayerFactory);
+		}
+		mediaListPlayer.mediaPlayer().setMediaPlayer(mediaPlayer);
 		mediaListPlayer.list().setMediaList(mediaList.newMediaListRef());
 		mediaListPlayer.events().addMediaListPlayerEventListener(mediaListPlayerEventListener);
-		embeddedMediaPlayerComponent.mediaPlayer().events().addMediaPlayerEventListener(mediaPlayerEventListener);
-		embeddedMediaPlayerComponent.videoSurfaceComponent().addKeyListener(keyListener);
-		if(looping) {
-			aIPlaylistLogger.finest("Looping");
-			mediaListPlayer.controls().setMode(PlaybackMode.LOOP);
-		}
+		mediaPlayer.events().addMediaPlayerEventListener(mediaPlayerEventListener);
+		// Looping goes over the history, as the mediaList only holds the media around the current one
 		if(repeating) {
 			aIPlaylistLogger.finest("Repeating");
 			mediaListPlayer.controls().setMode(PlaybackMode.REPEAT);
@@ -451,98 +831,187 @@ public class AIPlaylist {
 	/** Starts the media player.
 	 * 
 	 */
-	private void startMediaPlayer() {
+	private synchronized void startMediaPlayer() {
 		aIPlaylistLogger.finest("Media player started");
 		started = true;
 		addMedia();
 		aIPlaylistLogger.finest("Playing first from start");
-		mediaListPlayer.controls().play(0);
-		printPreviousIndex();
+		playCurrent();
+	}
+
+	/** Plays the current media again, or starts playing if nothing has played yet.
+	 * 
+	 */
+	@Override
+	public synchronized void play() {
+		if(!started) {
+			if(lookahead != null) {
+				startMediaPlayer();
+			}
+		} else {
+			aIPlaylistLogger.finest("Playing current");
+			playCurrent();
+		}
 	}
 
 	/** Plays the next media.
 	 * 
 	 */
-	public void playNext() {
-		if(!previousFilesIterator.hasNext() && !looping && !repeating) {
+	@Override
+	public synchronized void playNext() {
+		if(!history.hasNext() && !looping && !repeating) {
 			addMedia();
-		}
-		else  
+		} else {
 			iteratorNext();
+			if(history.current() == -1) {
+				// Only removed media files were left
+				addMedia();
+			}
+		}
 		aIPlaylistLogger.finest("Playing next");
-		mediaListPlayer.controls().play(previousFilesIterator.previousIndex());
-		printPreviousIndex();
+		playCurrent();
 	}
 
 	/** Plays the previous media.
 	 * 
 	 */
-	public void playPrevious() {
-		if(previousFilesIterator.previousIndex() == 0 && !looping && !repeating) {
+	@Override
+	public synchronized void playPrevious() {
+		if(!history.hasPrevious() && !looping && !repeating) {
 			aIPlaylistLogger.finest("Playing first");
-			mediaListPlayer.controls().play(0);
 		} else {
 			aIPlaylistLogger.finest("Playing previous");
-			mediaListPlayer.controls().playPrevious();
 			iteratorPrevious();
 		}
-		printPreviousIndex();
+		playCurrent();
 	}
 
-	/** Adds one new media to the queue.
+	/** Adds one new media to the queue and makes it the current one.
 	 * 
 	 */
 	private void addMedia() {
-		File f = playlist.getProbFun().fun();
-		aIPlaylistLogger.finest("Adding " + f.getName() + " to mediaList and previousFileIterator");
-		mediaList.media().add((f).getAbsolutePath(), "");
-		previousFilesIterator.add(f);
+		if(lookahead == null) {
+			// Every library was removed
+			return;
+		}
+		LookaheadQueue.Entry<Media> next = lookahead.poll();
+		if(aIPlaylistLogger.isLoggable(Level.FINEST)) {
+			LogEvent.log(aIPlaylistLogger, Level.FINEST, "queued", "id", next.getId(), "file", nameOf(next.getId()));
+		}
+		history.add(next.getId());
+		mediaPreparer.release(preparedMedia);
+		preparedMedia = next.getPrepared();
+		preparedSequence = history.getPosition();
 	}
 
-	/** Decrements the iterator.
-	 * 
+	/** Moves back in the history, skipping removed media files, and wrapping around to the newest media if looping.
+	 *  Stays put if there is no media to go back to.
 	 */
 	private void iteratorPrevious() {
 		if(!repeating) {
-			if(previousFilesIterator.hasPrevious()) {
-				aIPlaylistLogger.finest("Decrementing iterator");
-				previousFilesIterator.previous();
+			long start = history.getPosition();
+			for(int step = 0; step < history.size(); step++) {
+				if(history.hasPrevious()) {
+					aIPlaylistLogger.finest("Decrementing iterator");
+					history.previous();
+				} else if(looping) {
+					aIPlaylistLogger.finest("Looping iterator to back");
+					history.moveTo(history.getLast());
+				} else {
+					break;
+				}
+				if(history.current() != -1) {
+					return;
+				}
 			}
-			else if(looping) {
-				aIPlaylistLogger.finest("Looping iterator to back");
-				while(previousFilesIterator.hasNext() && previousFilesIterator.nextIndex() != previousFiles.size())
-					previousFilesIterator.next();
-			}	
+			history.moveTo(start);
 		}
 	}
 
-	/** Increments the iterator.
-	 * 
+	/** Moves forward in the history, skipping removed media files, and wrapping around to the oldest media if looping.
+	 *  Ends on the newest media if there is no media after the current one that was not removed.
 	 */
 	private void iteratorNext() {
 		if(!repeating) {
-			if(previousFilesIterator.hasNext()) {
-				aIPlaylistLogger.finest("Incrementing iterator");
-				previousFilesIterator.next();
-			} else if(looping) {
-				aIPlaylistLogger.finest("Looping iterator to front");
-				while(previousFilesIterator.hasPrevious() && previousFilesIterator.previousIndex() != 0)
-					previousFilesIterator.previous();
+			for(int step = 0; step < history.size(); step++) {
+				if(history.hasNext()) {
+					aIPlaylistLogger.finest("Incrementing iterator");
+					history.next();
+				} else if(looping) {
+					aIPlaylistLogger.finest("Looping iterator to front");
+					history.moveTo(history.getFirst());
+				} else {
+					break;
+				}
+				if(history.current() != -1) {
+					return;
+				}
 			}
 		}
 	}
 
+	/** Plays the current media of the history, after bringing the mediaList in line with it.
+	 * 
+	 */
+	private void playCurrent() {
+		if(history.isEmpty() || history.current() == -1) {
+			return;
+		}
+		playRequestedNanos = System.nanoTime();
+		mediaListPlayer.controls().play(syncMediaList());
+		printPreviousIndex();
+	}
 
-	/** Prints the index in the queue and the file name of the previous media.
+	/**       Makes the mediaList hold the media from MEDIA_LIST_BEHIND before the current one up to the current one.
+	 *        Media that falls out of that window is removed from the mediaList, which releases its native media.
+	 *        Nothing is kept after the current media, so the MediaListPlayer never moves on by itself
+	 *        and the history stays the only thing that decides what plays next.
+	 * @return the index of the current media in the mediaList.
+	 */
+	private int syncMediaList() {
+		long position = history.getPosition();
+		long start = Math.max(history.getFirst(), position - MEDIA_LIST_BEHIND);
+		while(!mediaListSequences.isEmpty() && mediaListSequences.peekLast() > position) {
+			mediaList.media().remove(mediaListSequences.size() - 1);
+			mediaListSequences.pollLast();
+		}
+		while(!mediaListSequences.isEmpty() && mediaListSequences.peekFirst() < start) {
+			mediaList.media().remove(0);
+			mediaListSequences.pollFirst();
+		}
+		long low = mediaListSequences.isEmpty() ? position + 1 : mediaListSequences.peekFirst();
+		long high = mediaListSequences.isEmpty() ? position : mediaListSequences.peekLast();
+		for(long sequence = low - 1; sequence >= start; sequence--) {
+			int id = history.get(sequence);
+			if(playlist.contains(id)) {
+				mediaList.media().insert(0, playlist.getFile(id).getAbsolutePath());
+				mediaListSequences.addFirst(sequence);
+			}
+		}
+		for(long sequence = high + 1; sequence <= position; sequence++) {
+			int id = history.get(sequence);
+			if(playlist.contains(id)) {
+				if(sequence == preparedSequence && preparedMedia != null) {
+					// Already parsed by the LookaheadQueue, so libvlc does not start from scratch
+					MediaRef mediaRef = preparedMedia.newMediaRef();
+					mediaList.media().add(mediaRef);
+					mediaRef.release();
+				} else {
+					mediaList.media().add(playlist.getFile(id).getAbsolutePath());
+				}
+				mediaListSequences.addLast(sequence);
+			}
+		}
+		return mediaListSequences.size() - 1;
+	}
+
+	/** Prints the index in the history and the file name of the current media.
 	 * 
 	 */
 	private void printPreviousIndex() {
-		if(previousFilesIterator.hasPrevious()) {
-			aIPlaylistLogger.finest(String.format("Index: %s and File: %s", previousFilesIterator.previousIndex(), previousFilesIterator.previous().getName()));
-			previousFilesIterator.next();		
-		} else {
-			previousFilesIterator.next();	
-			aIPlaylistLogger.finest(String.format("Index: %s and File: %s", previousFilesIterator.previousIndex(), previousFilesIterator.previous().getName()));
+		if(!history.isEmpty() && aIPlaylistLogger.isLoggable(Level.FINE)) {
+			LogEvent.log(aIPlaylistLogger, Level.FINE, "play", "index", history.getPosition() - history.getFirst(),
+					"id", history.current(), "file", nameOf(history.current()));
 		}
 	}
 
@@ -553,10 +1022,16 @@ public class AIPlaylist {
 		aIPlaylistLogger.finest("Setting up JMenu");
 		jMenuBar.add(jMenu);
 		jMenu.add(jMenuItemOpenFolder);
+		jMenu.add(jMenuItemAddFolder);
+		jMenu.add(jMenuItemRemoveFolder);
 		jMenu.add(jMenuItemCheckSubDirectories);
+		jMenu.add(jMenuItemSwitchUser);
 		jMenuItemCheckSubDirectories.setSelected(subDirectories);
 		jMenuItemCheckSubDirectories.addItemListener(subDirectoriesCheckBoxListener);
 		jMenuItemOpenFolder.addActionListener(openFolderButtonListener);
+		jMenuItemAddFolder.addActionListener(openFolderButtonListener);
+		jMenuItemRemoveFolder.addActionListener(openFolderButtonListener);
+		jMenuItemSwitchUser.addActionListener(switchUserListener);
 	}
 
 	/** Sets up the JFrame.
@@ -564,42 +1039,99 @@ public class AIPlaylist {
 	 */
 	private void setUpJFrame() {
 		aIPlaylistLogger.finest("Setting up JFrame");
+		jFrame = new JFrame("AIPlaylist");
 		jFrame.setBounds(jFrameX, jFrameY, jFrameWidth, jFrameHeight);
 		jFrame.setJMenuBar(jMenuBar);
-		jFrame.setContentPane(embeddedMediaPlayerComponent);
 		jFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		jFrame.setVisible(true);
 		jFrame.addWindowListener(aIPWindowAdapter);
 	}
 
-	/**       Opens a folder the user picks, loads media files, and starts playing them when the OpenFolderMenuItemListener is triggered.
+	/**       Opens, adds or removes a folder the user picks when the OpenFolderMenuItemListener is triggered.
+	 *        Opening a folder replaces every library with it, and starts playing it from scratch.
+	 *        Adding or removing a folder only loads or closes that library, and playing goes on.
 	 * @param e as the ActionEvent that was triggered.
 	 */
 	public void openFolderMenuItemEvent(ActionEvent e) {
 		Object source = e.getSource();
 		if(source == jMenuItemOpenFolder) {
-			JFileChooser jFileChooser = new JFileChooser();
-			jFileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-			if(folder!= null && folder.canRead()) {
-				jFileChooser.setCurrentDirectory(folder);
-			}
-			int openDialogReturnValue = jFileChooser.showOpenDialog(jMenuItemOpenFolder);
+			File folder = chooseFolder(jMenuItemOpenFolder);
 			// Checks current directory for media to play and then starts playing
-			if(openDialogReturnValue == JFileChooser.APPROVE_OPTION) {
-				folder = jFileChooser.getSelectedFile();
-				registerFileListener();
-				playlist = null;
+			if(folder != null) {
+				closeShards();
+				folders.clear();
+				folders.add(folder);
 				loadPlaylist();
 				if(started) {
 					aIPlaylistLogger.finest("Clearing mediaList and iterator");
-					mediaList.media().clear();
-					previousFiles = new LinkedList<File>();
-					previousFilesIterator = previousFiles.listIterator();	
+					synchronized(this) {
+						mediaList.media().clear();
+						mediaListSequences.clear();
+						history.clear();
+					}
 				} 	
-				if(playlist != null) {
+				if(!playlist.isEmpty()) {
+					startMediaPlayer();
+				}
+			}
+		} else if(source == jMenuItemAddFolder) {
+			File folder = chooseFolder(jMenuItemAddFolder);
+			if(folder != null && playlist.slotOf(folder) == -1) {
+				aIPlaylistLogger.finest("Adding library " + folder);
+				folders.add(folder);
+				checkPlaylistFiles(readShards(Collections.singletonList(newShard(folder))));
+				resetLookahead();
+				if(!started && !playlist.isEmpty()) {
 					startMediaPlayer();
 				}
 			}
+		} else if(source == jMenuItemRemoveFolder) {
+			Object picked = JOptionPane.showInputDialog(jFrame, "Library to remove", "Remove Folder",
+					JOptionPane.PLAIN_MESSAGE, null, folders.toArray(), null);
+			if(picked instanceof File) {
+				removeFolder((File) picked);
+			}
+		}
+	}
+
+	/**       Asks the user for a folder.
+	 * @param parent as what the dialog is shown over.
+	 * @return the folder, or null if none was picked.
+	 */
+	private File chooseFolder(JMenuItem parent) {
+		JFileChooser jFileChooser = new JFileChooser();
+		jFileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		if(!folders.isEmpty() && folders.get(folders.size() - 1).canRead()) {
+			jFileChooser.setCurrentDirectory(folders.get(folders.size() - 1));
+		}
+		return (jFileChooser.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) ? jFileChooser.getSelectedFile() : null;
+	}
+
+	/**       Closes the library of a folder and stops drawing from it. The files of the other libraries are not touched.
+	 * @param folder as the root of the library.
+	 */
+	private void removeFolder(File folder) {
+		aIPlaylistLogger.finest("Removing library " + folder);
+		folders.remove(folder);
+		int slot = playlist.slotOf(folder);
+		if(slot == -1) {
+			return;
+		}
+		LibraryShard shard = playlist.getShard(slot);
+		forgetSlot(slot);
+		playlist.remove(slot);
+		shard.close();
+		resetLookahead();
+	}
+
+	/**       Asks the user for a name and switches to their ratings when the SwitchUserMenuItemListener is triggered.
+	 * @param e as the ActionEvent that was triggered.
+	 */
+	public void switchUserMenuItemEvent(ActionEvent e) {
+		Object name = JOptionPane.showInputDialog(jFrame, "User, or nothing for everyone", "Switch User",
+				JOptionPane.PLAIN_MESSAGE, null, null, playlist.getUser());
+		if(name != null) {
+			setUser(name.toString().trim().isEmpty() ? null : name.toString().trim());
 		}
 	}
 
@@ -612,121 +1144,189 @@ public class AIPlaylist {
 		if(source == jMenuItemCheckSubDirectories) {
 			if(subDirectories) {
 				aIPlaylistLogger.finest("Removing subdirectories");
-				// Ignore sub-directories and make a new Playlist
+				// Ignore sub-directories
 				subDirectories = false;
-				playlist = null;
-				loadPlaylist();
-				resetWatchService();
 			} else {
 				aIPlaylistLogger.finest("Adding subdirectories");
-				// Check sub-directories and make a new Playlist
+				// Check sub-directories
 				subDirectories = true;
-				playlist = null;
-				loadPlaylist();
 			}
-		}		
-	}	
+			// Each library keeps its ids and weights and is only scanned again, which is done off the event dispatch thread
+			List<LibraryShard> shards = playlist.getShards();
+			boolean checked = subDirectories;
+			subDirectoriesService.execute(() -> {
+				shards.parallelStream().forEach(shard -> shard.setSubDirectories(checked));
+				List<LibraryShard> empty = shards.stream()
+						.filter(shard -> shard.getPlaylist() == null && playlist.slotOf(shard.getFolder()) != -1).collect(Collectors.toList());
+				if(!empty.isEmpty()) {
+					checkPlaylistFiles(readShards(empty));
+					resetLookahead();
+				}
+			});
+		}
+	}
 
 	/** Called from the AIPMediaPlayerEventListener when the MediaPlayer is finished.
-	 * 
+	 *  The mediaList ends with the current media, so the MediaListPlayer reports that it finished next,
+	 *  unless it is repeating.
 	 */
 	public void mediaPlayerFinished() {
-		if(!previousFilesIterator.hasNext() && !looping && !repeating) {
-			aIPlaylistLogger.finest("MediaPlayer Finished");
-			addMedia();
-			printPreviousIndex();
-		} else {
-			iteratorNext();
+		aIPlaylistLogger.finest("MediaPlayer Finished");
+	}
+
+	/** Called from the AIPMediaPlayerEventListener when the MediaPlayer starts playing, to log how long that took.
+	 * 
+	 */
+	public void mediaPlayerPlaying() {
+		long requested = playRequestedNanos;
+		if(requested != 0) {
+			playRequestedNanos = 0;
+			LogEvent.log(aIPlaylistLogger, Level.FINE, "started", "latencyMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requested));
+		}
+		StartupTimer timer = startupTimer;
+		if(timer != null) {
+			startupTimer = null;
+			timer.mark("first media playing");
 		}
 	}
 
+	/** Called from the AIPMediaPlayerEventListener when the media can not be played,
+	 *  like when it was removed and the playlist has not been brought in line with its folder yet.
+	 */
+	public void mediaPlayerError() {
+		aIPlaylistLogger.finest("MediaPlayer Error; skipping to the next media");
+		// Events arrive on a native thread, which must not call back into libvlc
+		mediaListPlayer.submit(this::playNext);
+	}
+
 	/** Called when the MediaListPlayer is finished.
 	 * 
 	 */
 	public void mediaListPlayerFinished() {
 		aIPlaylistLogger.finest("MediaListPlayer Finished");
-		if(!previousFilesIterator.hasNext() && looping) {
-			aIPlaylistLogger.finest("Playing first from MediaListPlayerFinished");
-			mediaListPlayer.controls().play(0);
-		} else {
-			playNext();		
-		}
+		// Events arrive on a native thread, which must not call back into libvlc
+		mediaListPlayer.submit(this::playNext);
 	}
 
 	/** Makes the currently playing media less likely to appear in the future.
 	 * 
 	 */
-	public void bad() {
+	@Override
+	public synchronized void bad() {
 		// Adjust probabilities so current media doesn't play as often
-		if(previousFilesIterator.hasPrevious()) {
-			StringBuilder sb = new StringBuilder();
-			for(File i : previousFiles) {
-				sb.append(i.getName());
-				sb.append(",");
-			}
-			sb.append("\n");
-			aIPlaylistLogger.finest(sb.toString());
-			File f = previousFilesIterator.previous();
-			aIPlaylistLogger.finest("Decreasing probability of file: " + f.getName());
-			aIPlaylistLogger.finest(String.format("%f", playlist.getProbFun().getParentMap().get(f)));
-			playlist.getProbFun().bad(previousFilesIterator.next(), ADAPTION_PERCENTAGE);
-		} else {
-			if(looping) {
-				aIPlaylistLogger.finest("Decreasing probability of file: " + previousFiles.getLast());
-				aIPlaylistLogger.finest(String.format("%f", playlist.getProbFun().getParentMap().get(previousFiles.getLast())));
-				playlist.getProbFun().bad(previousFiles.getLast(), ADAPTION_PERCENTAGE);
-			} else {
-				aIPlaylistLogger.finest("Decreasing probability of file: " + previousFiles.getFirst());
-				aIPlaylistLogger.finest(String.format("%f", playlist.getProbFun().getParentMap().get(previousFiles.getFirst())));
-				playlist.getProbFun().bad(previousFiles.getFirst(), ADAPTION_PERCENTAGE);
+		if(!history.isEmpty()) {
+			if(aIPlaylistLogger.isLoggable(Level.FINEST)) {
+				aIPlaylistLogger.finest(history.toString());
 			}
+			bad(history.current());
 		}		
 	}
 
 	/** Makes the currently playing media more likely to appear in the future.
 	 * 
 	 */
-	public void good() {
+	@Override
+	public synchronized void good() {
 		// Adjust probabilities so current media plays more often
-		if(previousFilesIterator.hasPrevious()) {
-			StringBuilder sb = new StringBuilder();
-			for(File i : previousFiles) {
-				sb.append(i.getName());
-				sb.append(",");
-			}
-			sb.append("\n");
-			aIPlaylistLogger.finest(sb.toString());
-			File f = previousFilesIterator.previous();
-			aIPlaylistLogger.finest("Increasing probability of file: " + f.getName());
-			aIPlaylistLogger.finest(String.format("%f", playlist.getProbFun().getParentMap().get(f)));
-			playlist.getProbFun().good(previousFilesIterator.next(), ADAPTION_PERCENTAGE);
-		} else {
-			if(looping) {
-				aIPlaylistLogger.finest("Increasing probability of file: " + previousFiles.getLast());
-				aIPlaylistLogger.finest(String.format("%f", playlist.getProbFun().getParentMap().get(previousFiles.getLast())));
-				playlist.getProbFun().good(previousFiles.getLast(), ADAPTION_PERCENTAGE);
-			} else {
-				aIPlaylistLogger.finest("Increasing probability of file: " + previousFiles.getFirst());
-				aIPlaylistLogger.finest(String.format("%f", playlist.getProbFun().getParentMap().get(previousFiles.getFirst())));
-				playlist.getProbFun().good(previousFiles.getFirst(), ADAPTION_PERCENTAGE);
+		if(!history.isEmpty()) {
+			if(aIPlaylistLogger.isLoggable(Level.FINEST)) {
+				aIPlaylistLogger.finest(history.toString());
 			}
+			good(history.current());
 		}		
 	}
 
+	/** Makes every media file in the folder of the currently playing media more likely to appear in the future.
+	 *  Folders are only rated when draws are hierarchical and no user is set.
+	 */
+	@Override
+	public synchronized void goodFolder() {
+		if(!history.isEmpty()) {
+			rateFolder(history.current(), true);
+		}
+	}
+
+	/** Makes every media file in the folder of the currently playing media less likely to appear in the future.
+	 *  Folders are only rated when draws are hierarchical and no user is set.
+	 */
+	@Override
+	public synchronized void badFolder() {
+		if(!history.isEmpty()) {
+			rateFolder(history.current(), false);
+		}
+	}
+
+	/**       Rates the folder of a media file, unless it was removed, draws are not hierarchical or a user is set.
+	 * @param id as the id of the media file.
+	 * @param good as whether the folder is made more likely, otherwise less likely.
+	 */
+	private void rateFolder(int id, boolean good) {
+		if(!playlist.contains(id) || !playlist.isHierarchical() || playlist.getUser() != null) {
+			aIPlaylistLogger.finest("Not rating a folder, as draws are not hierarchical or a user is set");
+			return;
+		}
+		File folder = playlist.getFile(id).getParentFile();
+		if(good) {
+			playlist.good(folder, ADAPTION_PERCENTAGE);
+			GOOD_COUNTER.increment();
+		} else {
+			playlist.bad(folder, ADAPTION_PERCENTAGE);
+			BAD_COUNTER.increment();
+		}
+		if(aIPlaylistLogger.isLoggable(Level.FINE)) {
+			LogEvent.log(aIPlaylistLogger, Level.FINE, "feedback", "kind", good ? "goodFolder" : "badFolder", "id", id,
+					"folder", folder.getName(), "probability", playlist.getProbability(id));
+		}
+		lookahead.invalidate();
+	}
+
+	/**       Makes a media file less likely to appear in the future, unless it was removed.
+	 * @param id as the id of the media file.
+	 */
+	private void bad(int id) {
+		if(playlist.contains(id)) {
+			playlist.bad(id, ADAPTION_PERCENTAGE);
+			BAD_COUNTER.increment();
+			logFeedback("bad", id);
+			// The media files drawn ahead no longer follow the weights
+			lookahead.invalidate();
+		}
+	}
+
+	/**       Makes a media file more likely to appear in the future, unless it was removed.
+	 * @param id as the id of the media file.
+	 */
+	private void good(int id) {
+		if(playlist.contains(id)) {
+			playlist.good(id, ADAPTION_PERCENTAGE);
+			GOOD_COUNTER.increment();
+			logFeedback("good", id);
+			lookahead.invalidate();
+		}
+	}
+
+	/**       Logs feedback on a media file with the probability it ended up with.
+	 * @param kind as good or bad.
+	 * @param id as the id of the media file.
+	 */
+	private void logFeedback(String kind, int id) {
+		if(aIPlaylistLogger.isLoggable(Level.FINE)) {
+			LogEvent.log(aIPlaylistLogger, Level.FINE, "feedback", "kind", kind, "id", id,
+					"file", nameOf(id), "probability", playlist.getProbability(id));
+		}
+	}
+
 	/** Switches whether looping is enabled or not.
 	 * 
 	 */
-	public void loopSwitch() {
+	@Override
+	public synchronized void loopSwitch() {
+		// Looping is done by playNext() and playPrevious(), so the PlaybackMode stays as it is
 		if(looping) {
 			aIPlaylistLogger.finest("Turning loop off");
-			mediaListPlayer.controls().setMode(PlaybackMode.DEFAULT);
-			if(repeating) {
-				mediaListPlayer.controls().setMode(PlaybackMode.REPEAT);
-			}
 			looping = false;
 		} else {
 			aIPlaylistLogger.finest("Turning loop on");
-			mediaListPlayer.controls().setMode(PlaybackMode.LOOP);
 			looping = true;
 		}		
 	}
@@ -734,18 +1334,20 @@ public class AIPlaylist {
 	/** Switches whether repeat is enabled or not.
 	 * 
 	 */
-	public void repeatSwitch() {
+	@Override
+	public synchronized void repeatSwitch() {
+		// The mode is set when the media player is made, if it is not made yet
 		if(repeating) {
 			aIPlaylistLogger.finest("Turning repeat off");
-			mediaListPlayer.controls().setMode(PlaybackMode.DEFAULT);
-			if(looping) {
-				aIPlaylistLogger.finest("Turning loop on");
-				mediaListPlayer.controls().setMode(PlaybackMode.LOOP);
+			if(mediaListPlayer != null) {
+				mediaListPlayer.controls().setMode(PlaybackMode.DEFAULT);
 			}
 			repeating = false;
 		} else {
 			aIPlaylistLogger.finest("Turning repeat on");
-			mediaListPlayer.controls().setMode(PlaybackMode.REPEAT);
+			if(mediaListPlayer != null) {
+				mediaListPlayer.controls().setMode(PlaybackMode.REPEAT);
+			}
 			repeating = true;
 		}		
 	}
@@ -753,38 +1355,105 @@ public class AIPlaylist {
 	/** Resets the probabilities so all the media files have the same chance of appearing.
 	 * 
 	 */
-	public void resetProbabilities() {
-		playlist.getProbFun().clearProbs();
+	@Override
+	public synchronized void resetProbabilities() {
+		playlist.clearProbs();
+		RESET_COUNTER.increment();
+		if(lookahead != null) {
+			lookahead.invalidate();
+		}
+	}
+
+	/**       Switches whose ratings are played by and get feedback. The ratings of other users are kept.
+	 * @param user as the name of the user, or null for everyone.
+	 */
+	@Override
+	public synchronized void setUser(String user) {
+		aIPlaylistLogger.finest("Switching to user " + user);
+		playlist.setUser(user);
+		if(lookahead != null) {
+			// The media files drawn ahead were drawn by the weights of the last user
+			lookahead.invalidate();
+		}
+	}
+
+	/**       Writes what is playing, its probability, and the settings, as key=value lines.
+	 * @param sb as where to write the state.
+	 */
+	@Override
+	public synchronized void writeState(StringBuilder sb) {
+		sb.append("started=").append(started).append('\n');
+		if(playlist.getUser() != null) {
+			sb.append("user=").append(playlist.getUser()).append('\n');
+		}
+		if(!history.isEmpty()) {
+			int id = history.current();
+			sb.append("index=").append(history.getPosition() - history.getFirst()).append('\n');
+			if(playlist.contains(id)) {
+				sb.append("file=").append(playlist.getFile(id).getAbsolutePath()).append('\n');
+				sb.append("probability=").append(playlist.getProbability(id)).append('\n');
+			}
+		}
+		sb.append("looping=").append(looping).append('\n');
+		sb.append("repeating=").append(repeating).append('\n');
+		sb.append("noRepeat=").append(noRepeat).append('\n');
+		sb.append("context=").append(playlist.getContextBuckets().current()).append('\n');
+		sb.append("hierarchical=").append(playlist.isHierarchical()).append('\n');
+		sb.append("libraries=").append(playlist.getShards().size()).append('\n');
+		sb.append("size=").append(playlist.size()).append('\n');
 	}
 
 	/** Saves resources and closes the application.
 	 * 
 	 */
 	public void close() {
-		if(playlist != null) {
-			savePlaylist();
+		shutDown();
+		System.exit(0);
+	}
+
+	/** Saves the settings and playlists, and releases everything, without exiting.
+	 * 
+	 */
+	private void shutDown() {
+		if(controlServer != null) {
+			controlServer.close();
 		}
+		subDirectoriesService.shutdownNow();
+		closeShards();
 		saveSettings();
 		executionService.shutdownNow();
 		try {
 			executionService.awaitTermination(50, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
-			System.out.print(String.format("Problem shutting down WatchService thread\n"));
+			System.out.print(String.format("Problem shutting down WatchService threads\n"));
 			e.printStackTrace();
 		}
-		try {
-			if(watchService != null) {
-				watchService.close();
+		synchronized(this) {
+			if(lookahead != null) {
+				lookahead.clear();
 			}
-		} catch (IOException e) {
-			System.out.print(String.format("Problem shutting down WatchService\n"));
-			e.printStackTrace();
+			if(mediaPreparer != null) {
+				mediaPreparer.release(preparedMedia);
+			}
+			preparedMedia = null;
+		}
+		if(embeddedMediaPlayerComponent != null) {
+			mediaList.release();
+			mediaListPlayer.release();
+			embeddedMediaPlayerComponent.release();
+		} else if(mediaPlayerFactory != null) {
+			mediaList.release();
+			mediaListPlayer.release();
+			mediaPlayer.release();
+			mediaPlayerFactory.release();
 		}
-		mediaList.release();
-		mediaListPlayer.release();
-		embeddedMediaPlayerComponent.release();
 		aIPlaylistLogger.finest("Closing application");
-		System.exit(0);
+		if(metricsEndpoint != null) {
+			metricsEndpoint.close();
+		}
+		if(logHandler != null) {
+			logHandler.close();
+		}
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+package aIPlaylist;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import uk.co.caprica.vlcj.factory.discovery.NativeDiscovery;
+import uk.co.caprica.vlcj.factory.discovery.strategy.LinuxNativeDiscoveryStrategy;
+import uk.co.caprica.vlcj.factory.discovery.strategy.NativeDiscoveryStrategy;
+import uk.co.caprica.vlcj.factory.discovery.strategy.OsxNativeDiscoveryStrategy;
+import uk.co.caprica.vlcj.factory.discovery.strategy.WindowsNativeDiscoveryStrategy;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Finds libvlc, trying the directory it was found in last time before searching for it.
+ *         Searching walks the well known install directories of the platform, which is slow on some machines,
+ *         so the directory that was found is kept in a cache file for the next start.
+ */
+public final class CachedNativeDiscovery {
+
+	private CachedNativeDiscovery() {
+		throw new AssertionError("Constructor of CachedNativeDiscovery should never be called");
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Returns the cached directory, and leaves the rest to the strategy of the platform.
+	 */
+	private static final class CachedStrategy implements NativeDiscoveryStrategy {
+
+		private final NativeDiscoveryStrategy platform;
+		private final String path;
+
+		private CachedStrategy(NativeDiscoveryStrategy platform, String path) {
+			this.platform = platform;
+			this.path = path;
+		}
+
+		@Override
+		public boolean supported() {
+			return platform.supported();
+		}
+
+		@Override
+		public String discover() {
+			return path;
+		}
+
+		@Override
+		public boolean onFound(String path) {
+			return platform.onFound(path);
+		}
+
+		@Override
+		public boolean onSetPluginPath(String path) {
+			return platform.onSetPluginPath(path);
+		}
+
+	}
+
+	/**       Finds libvlc, trying the directory in the cache file first, and writes the directory that was found to it.
+	 * @param cache as the cache file.
+	 * @return true if the directory in the cache file was used, or false if libvlc had to be searched for.
+	 */
+	public static boolean discover(File cache) {
+		String cached = readCache(cache);
+		NativeDiscoveryStrategy platform = platformStrategy();
+		if(cached != null && platform != null && new File(cached).isDirectory()
+				&& new NativeDiscovery(new CachedStrategy(platform, cached)).discover()) {
+			return true;
+		}
+		NativeDiscovery nativeDiscovery = new NativeDiscovery();
+		if(nativeDiscovery.discover() && nativeDiscovery.discoveredPath() != null) {
+			writeCache(cache, nativeDiscovery.discoveredPath());
+		}
+		return false;
+	}
+
+	/**
+	 * @return the discovery strategy for the platform this is running on, or null if there is none.
+	 */
+	private static NativeDiscoveryStrategy platformStrategy() {
+		NativeDiscoveryStrategy[] strategies = {
+				new LinuxNativeDiscoveryStrategy(),
+				new OsxNativeDiscoveryStrategy(),
+				new WindowsNativeDiscoveryStrategy()
+		};
+		for(NativeDiscoveryStrategy strategy : strategies) {
+			if(strategy.supported()) {
+				return strategy;
+			}
+		}
+		return null;
+	}
+
+	/**       Reads the directory in the cache file.
+	 * @param cache as the cache file.
+	 * @return the directory, or null if there is no cache file or it can not be read.
+	 */
+	private static String readCache(File cache) {
+		if(!cache.canRead()) {
+			return null;
+		}
+		try {
+			String path = new String(Files.readAllBytes(cache.toPath()), StandardCharsets.UTF_8).trim();
+			return path.isEmpty() ? null : path;
+		} catch (IOException e) {
+			System.out.print(String.format("Problem reading from " + cache.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**       Writes a directory to the cache file.
+	 * @param cache as the cache file.
+	 * @param path as the directory.
+	 */
+	private static void writeCache(File cache, String path) {
+		try {
+			Files.write(cache.toPath(), path.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			System.out.print(String.format("Problem writing to " + cache.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+		}
+	}
+
+}
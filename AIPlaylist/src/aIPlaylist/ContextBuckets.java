@@ -0,0 +1,69 @@
+package aIPlaylist;
+
+import java.util.TimeZone;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         How the time something is played at is split into contexts, each of which learns what to play at that time
+ *         on top of what is learned for every time. Buckets are numbered from 0, by the local time of the computer.
+ */
+public enum ContextBuckets {
+
+	// Every time is the same, so there are no context weights
+	NONE(1),
+	HOUR_OF_DAY(24),
+	DAY_OF_WEEK(7),
+	// Each hour of each day, starting at midnight on Monday
+	HOUR_OF_WEEK(24*7);
+
+	private static final long HOUR = 60*60*1000L;
+
+	private static final long DAY = 24*HOUR;
+
+	// The number of buckets
+	private final int count;
+
+	/**       Creates ContextBuckets.
+	 * @param count as the number of buckets.
+	 */
+	private ContextBuckets(int count) {
+		this.count = count;
+	}
+
+	/**
+	 * @return the number of buckets.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @param  millis as a time in milliseconds since the epoch.
+	 * @return the bucket the time falls in.
+	 */
+	public int bucketOf(long millis) {
+		long local = millis + TimeZone.getDefault().getOffset(millis);
+		int hour = (int) Math.floorMod(Math.floorDiv(local, HOUR), 24L);
+		// The epoch was on a Thursday
+		int day = (int) Math.floorMod(Math.floorDiv(local, DAY) + 3, 7L);
+		switch(this) {
+		case HOUR_OF_DAY:
+			return hour;
+		case DAY_OF_WEEK:
+			return day;
+		case HOUR_OF_WEEK:
+			return day*24 + hour;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the bucket it is now, or -1 for NONE.
+	 */
+	public int current() {
+		return (this == NONE) ? -1 : bucketOf(System.currentTimeMillis());
+	}
+
+}
@@ -0,0 +1,80 @@
+package aIPlaylist;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         One good() or bad() on a media file, for handing feedback to a playlist in bulk,
+ *         like play and skip history brought over from another player.
+ */
+public final class Feedback {
+
+	private final File file;
+
+	// Whether this is a good(), otherwise a bad()
+	private final boolean good;
+
+	private final double percent;
+
+	/**        Creates a Feedback.
+	 * @param  file as the media file.
+	 * @param  good as whether the media file should be more likely to be picked, otherwise less.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @throws NullPointerException if file is null.
+	 * @throws IllegalArgumentException if percent is not between 0 and 1.
+	 */
+	public Feedback(File file, boolean good, double percent) {
+		if(!(percent >= 0 && percent <= 1))
+			throw new IllegalArgumentException("percent passed to Feedback() must be between 0 and 1");
+		this.file = Objects.requireNonNull(file);
+		this.good = good;
+		this.percent = percent;
+	}
+
+	/**        Creates a Feedback that makes a media file more likely to be picked.
+	 * @param  file as the media file.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the Feedback.
+	 */
+	public static Feedback good(File file, double percent) {
+		return new Feedback(file, true, percent);
+	}
+
+	/**        Creates a Feedback that makes a media file less likely to be picked.
+	 * @param  file as the media file.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the Feedback.
+	 */
+	public static Feedback bad(File file, double percent) {
+		return new Feedback(file, false, percent);
+	}
+
+	/**
+	 * @return the media file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return whether the media file is made more likely to be picked, otherwise less.
+	 */
+	public boolean isGood() {
+		return good;
+	}
+
+	/**
+	 * @return the fraction to adjust by.
+	 */
+	public double getPercent() {
+		return percent;
+	}
+
+	@Override
+	public String toString() {
+		return (good ? "good " : "bad ") + percent + " " + file;
+	}
+
+}
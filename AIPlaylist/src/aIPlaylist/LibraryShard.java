@@ -0,0 +1,793 @@
+package aIPlaylist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+
+import algorithms.FileAlorigthms;
+import algorithms.QuantizedWeights;
+import algorithms.WeightOverlay;
+
+import library.FeedbackJournal;
+import library.LibraryChange;
+import library.LibraryIndex;
+import library.WeightStore;
+
+import listeners.WatchSerciveThread;
+
+import metrics.MetricRegistry;
+import metrics.Timer;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         One library root: its RandomPlaylist, library index, weight store, journal, user overlays, contexts and WatchService.
+ *         Everything a shard keeps is in the files of its own folder, so shards are loaded, reconciled, watched and saved
+ *         without touching each other, and adding or removing a root only touches that root's files.
+ */
+public final class LibraryShard {
+
+	private static final Timer RECONCILE_TIMER = MetricRegistry.getDefault().timer("aiplaylist_reconcile_seconds", "Time taken to bring a playlist in line with its folder");
+	private static final Timer LOAD_TIMER = MetricRegistry.getDefault().timer("aiplaylist_load_seconds", "Time taken to read a saved playlist");
+	private static final Timer SAVE_TIMER = MetricRegistry.getDefault().timer("aiplaylist_save_seconds", "Time taken to save a playlist");
+
+	// The size the journal has to pass before the weights are snapshotted and it is compacted
+	private final static long JOURNAL_COMPACT_BYTES = 1 << 20;
+
+	// How long the file system has to be quiet before a batch of changes gets applied to the playlist
+	private final static long WATCH_QUIET_MILLIS = 500;
+
+	// The longest ratings are kept only in memory after they change, which is what a crash can lose of them
+	private final static long RATINGS_WRITE_MILLIS = 5000;
+
+	// Writes the ratings of every shard a while after they change, one shard at a time
+	private static final ScheduledExecutorService RATINGS_WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "Ratings writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final File folder;
+
+	// Whether or not the sub-directories of folder are part of the library
+	private volatile boolean subDirectories;
+	private final Logger logger;
+
+	// Told the ids of media files that were removed by a reconcile
+	private final Consumer<int[]> removedListener;
+
+	// The media files of folder, or null if the shard has not been read or folder has no media files
+	private volatile RandomPlaylist playlist;
+
+	// What the files of the Playlist looked like when they were last checked
+	private LibraryIndex libraryIndex;
+
+	// Holds the weights of the Playlist, written as feedback arrives
+	private WeightStore weightStore;
+
+	// Holds the weights of the folders of the Playlist, written as folders are rated
+	private WeightStore folderStore;
+
+	// Records every change to the Playlist, so it can be replayed on top of the weights after a crash
+	private FeedbackJournal feedbackJournal;
+
+	// The WeightOverlay of each user that gave feedback on the library, by name
+	private final Map<String, WeightOverlay> overlays = new ConcurrentHashMap<String, WeightOverlay>();
+
+	// Whether overlays changed since it was written
+	private volatile boolean overlaysChanged = false;
+
+	// Whether the .users file could not be read, so it is kept as it is rather than overwritten with what is left
+	private volatile boolean overlaysUnreadable = false;
+
+	// The QuantizedWeights of each context bucket that got feedback on the library, by bucket
+	private final Map<Integer, QuantizedWeights> contexts = new ConcurrentHashMap<Integer, QuantizedWeights>();
+
+	// How contexts is bucketed; the saved contexts are only read back with the same buckets
+	private volatile ContextBuckets contextBuckets = ContextBuckets.NONE;
+
+	// Whether contexts changed since it was written, as it is big enough not to be written with every save or every change
+	private volatile boolean contextsChanged = false;
+
+	// Whether the .contexts file could not be read, so it is kept as it is rather than overwritten with what is left
+	private volatile boolean contextsUnreadable = false;
+
+	// Whether the Playlist draws by folder, which is set again on every Playlist that is read or made
+	private volatile boolean hierarchical = false;
+
+	private WatchService watchService;
+
+	// Polls watchService, or null if folder is not watched
+	private volatile WatchSerciveThread watchServiceThread;
+
+	// Held while the playlist is read, brought in line with folder, saved or closed, so those take turns.
+	// It is always taken before the lock of this shard, never while holding it
+	private final Object reconcileLock = new Object();
+
+	// Set by close(), so the WatchService thread stopping is not reported as a problem
+	private volatile boolean closed = false;
+
+	// Whether a write of the ratings is waiting on RATINGS_WRITER
+	private final AtomicBoolean ratingsWriteScheduled = new AtomicBoolean();
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Writes the contents of a file of the shard.
+	 */
+	private interface Contents {
+
+		/**       Writes the contents.
+		 * @param out as the stream to write to.
+		 * @throws IOException if the contents could not be written.
+		 */
+		void write(ObjectOutputStream out) throws IOException;
+
+	}
+
+	/**        Creates a LibraryShard. Nothing is read until read() is called.
+	 * @param  folder as the root of the library.
+	 * @param  subDirectories as whether or not the sub-directories of folder are part of the library.
+	 * @param  logger as the Logger to log to.
+	 * @param  removedListener as what is told the ids of media files that were removed by a reconcile.
+	 */
+	public LibraryShard(File folder, boolean subDirectories, Logger logger, Consumer<int[]> removedListener) {
+		this.folder = folder;
+		this.subDirectories = subDirectories;
+		this.logger = logger;
+		this.removedListener = removedListener;
+	}
+
+	/**
+	 * @return the root of the library.
+	 */
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * @return the RandomPlaylist of the library, or null if there is none.
+	 */
+	public RandomPlaylist getPlaylist() {
+		return playlist;
+	}
+
+	/**
+	 * @param  user as the name of a user, or null for everyone.
+	 * @return the WeightOverlay of the user, or null if there is none.
+	 */
+	public WeightOverlay getOverlay(String user) {
+		return (user == null) ? null : overlays.get(user);
+	}
+
+	/**       Replaces the WeightOverlay of a user with what feedback makes of it, atomically,
+	 *        so feedback from two threads for the same user is never lost.
+	 *        The overlays are written to folder at most RATINGS_WRITE_MILLIS later.
+	 * @param user as the name of the user.
+	 * @param feedback as what makes the new WeightOverlay out of the old one, which is WeightOverlay.EMPTY if there was none.
+	 */
+	public void updateOverlay(String user, UnaryOperator<WeightOverlay> feedback) {
+		overlays.compute(user, (name, overlay) -> feedback.apply((overlay == null) ? WeightOverlay.EMPTY : overlay));
+		overlaysChanged = true;
+		scheduleRatingsWrite();
+	}
+
+	/**       Forgets the ratings of a user, so the user gets the shared weights.
+	 * @param user as the name of the user.
+	 */
+	public void clearOverlay(String user) {
+		if(overlays.remove(user) != null) {
+			overlaysChanged = true;
+			scheduleRatingsWrite();
+		}
+	}
+
+	/**
+	 * @param  bucket as a context bucket.
+	 * @return the QuantizedWeights of the bucket, or null if there are none.
+	 */
+	public QuantizedWeights getContext(int bucket) {
+		return contexts.get(bucket);
+	}
+
+	/**       Replaces the QuantizedWeights of a context bucket with what feedback makes of them, atomically.
+	 *        The contexts are written to folder at most RATINGS_WRITE_MILLIS later.
+	 * @param bucket as the context bucket.
+	 * @param feedback as what makes the new QuantizedWeights out of the old ones, which are null if there were none.
+	 */
+	public void updateContext(int bucket, UnaryOperator<QuantizedWeights> feedback) {
+		contexts.compute(bucket, (key, context) -> feedback.apply(context));
+		contextsChanged = true;
+		scheduleRatingsWrite();
+	}
+
+	/** Forgets what every context learned, so draws only follow the shared weights until there is feedback again.
+	 *
+	 */
+	public void clearContexts() {
+		if(!contexts.isEmpty()) {
+			contexts.clear();
+			contextsChanged = true;
+			scheduleRatingsWrite();
+		}
+	}
+
+	/**       Sets how the contexts are bucketed. Changing it forgets what the contexts learned, as the buckets mean something else.
+	 * @param buckets as the ContextBuckets.
+	 */
+	public void setContextBuckets(ContextBuckets buckets) {
+		if(buckets != contextBuckets) {
+			contextBuckets = buckets;
+			clearContexts();
+		}
+	}
+
+	/**       Sets whether the playlist draws by folder, down the directories of the library, so folders can be rated.
+	 * @param hierarchical as whether or not draws are hierarchical.
+	 */
+	public void setHierarchical(boolean hierarchical) {
+		this.hierarchical = hierarchical;
+		RandomPlaylist playlist = this.playlist;
+		if(playlist != null) {
+			playlist.setHierarchical(hierarchical);
+		}
+	}
+
+	/**       Sets how long it takes what was learned about the library to fade by half, and saves it with the playlist.
+	 * @param halfLife as the half-life in milliseconds, or 0 for what was learned to never fade.
+	 * @throws IllegalArgumentException if halfLife is negative.
+	 */
+	public void setHalfLife(long halfLife) {
+		RandomPlaylist playlist = this.playlist;
+		if(playlist != null && playlist.getHalfLife() != halfLife) {
+			playlist.setHalfLife(halfLife);
+			savePlaylist();
+		}
+	}
+
+	/**       Loads the playlist from the .playlist file in folder, or makes a new one if there is none.
+	 *        A loaded playlist is not checked against the files in folder, so it can start playing straight away.
+	 * @return true if the playlist was loaded and still has to be checked with checkPlaylistFiles().
+	 */
+	public boolean read() {
+		synchronized(reconcileLock) {
+			synchronized(this) {
+				return load();
+			}
+		}
+	}
+
+	/**       Does read(). Must be called holding reconcileLock and then the lock of this shard.
+	 * @return true if the playlist was loaded and still has to be checked with checkPlaylistFiles().
+	 */
+	private boolean load() {
+		long start = LOAD_TIMER.start();
+		boolean unreconciled = false;
+		if(folder.canRead()) {
+			// Gets the Playlist from the playlist file, if it exists, else makes a new Playlist
+			File file = FileAlorigthms.findFile(".playlist", folder).orElse(null);
+			if(file != null) {
+				try(ObjectInputStream objectInputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+					logger.finest("Loading playlist from " + folder);
+					playlist = (RandomPlaylist) objectInputStream.readObject();
+					openWeightStore(false);
+					openJournal(false);
+					playlist.setHierarchical(hierarchical);
+					libraryIndex = loadLibraryIndex();
+					readOverlays();
+					readContexts();
+					// The number of files in the directory still has to be matched with the number of files in the playlist
+					unreconciled = true;
+				} catch (FileNotFoundException e) {
+					System.out.print(String.format("Unable to find file: " + file.getAbsolutePath() + "\n"));
+					e.printStackTrace();
+				} catch (IOException | ClassNotFoundException | ClassCastException e) {
+					// The ids the weights and ratings were written with are lost with it, so the library is scanned again
+					System.out.print(String.format("Corrupt file: " + file.getAbsolutePath())+"\n Deleting the file" + "\n");
+					file.delete();
+					e.printStackTrace();
+					file = null;
+				}
+			}
+			if(file == null) {
+				logger.finest("Creating new playlist for " + folder);
+				try {
+					playlist = new RandomPlaylist(folder, subDirectories);
+				} catch (IllegalArgumentException e) {
+					System.out.print(String.format("No media files in " + folder.getAbsolutePath() + "\n"));
+					LOAD_TIMER.stop(start);
+					return false;
+				}
+				openWeightStore(true);
+				openJournal(true);
+				playlist.setHierarchical(hierarchical);
+				libraryIndex = new LibraryIndex(folder, subDirectories);
+				// Any overlays and contexts in folder rated the ids of an older playlist
+				overlays.clear();
+				overlaysUnreadable = false;
+				contextsUnreadable = false;
+				clearContexts();
+				checkPlaylistFiles();
+				// So the ids the weights are written with are on disk from the start
+				savePlaylist();
+			}
+		}
+		LOAD_TIMER.stop(start);
+		return unreconciled;
+	}
+
+	/**       Opens the weight stores of the media files and the folders in folder and moves the weights of the Playlist into them.
+	 * @param fresh as whether or not the Playlist is new, so any weights in folder are from an older one and are thrown away.
+	 */
+	private void openWeightStore(boolean fresh) {
+		closeJournal();
+		closeWeightStore();
+		File file = new File(folder, ".weights");
+		try {
+			weightStore = WeightStore.open(file);
+			if(fresh) {
+				weightStore.clear();
+			}
+			if(playlist.attachWeights(weightStore)) {
+				logger.finest("Loaded weights, generation " + weightStore.getGeneration());
+			}
+		} catch (IOException e) {
+			System.out.print(String.format("Problem opening " + file.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+		}
+		file = new File(folder, ".folders");
+		try {
+			folderStore = WeightStore.open(file);
+			if(fresh) {
+				folderStore.clear();
+			}
+			playlist.attachFolderWeights(folderStore);
+		} catch (IOException e) {
+			System.out.print(String.format("Problem opening " + file.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+		}
+	}
+
+	/**       Opens the journal in folder and replays the changes in it that the weight store does not have yet.
+	 *        Must be called after openWeightStore().
+	 * @param fresh as whether or not the Playlist is new, so any changes in folder are from an older one and are thrown away.
+	 */
+	private void openJournal(boolean fresh) {
+		closeJournal();
+		if(weightStore == null) {
+			return;
+		}
+		File file = new File(folder, ".journal");
+		try {
+			feedbackJournal = FeedbackJournal.open(file);
+			if(fresh) {
+				feedbackJournal.clear();
+			}
+			int replayed = playlist.attachJournal(feedbackJournal, JOURNAL_COMPACT_BYTES);
+			logger.finest("Replayed " + replayed + " changes from the journal");
+		} catch (IOException e) {
+			System.out.print(String.format("Problem opening " + file.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+		}
+	}
+
+	/** Closes the journal, if there is one, once everything in it is on disk.
+	 *
+	 */
+	private void closeJournal() {
+		if(feedbackJournal != null) {
+			try {
+				feedbackJournal.close();
+			} catch (IOException e) {
+				System.out.print(String.format("Problem closing the journal\n"));
+				e.printStackTrace();
+			}
+			feedbackJournal = null;
+		}
+	}
+
+	/** Closes the weight stores, if there are any.
+	 *
+	 */
+	private void closeWeightStore() {
+		if(weightStore != null) {
+			try {
+				weightStore.close();
+			} catch (IOException e) {
+				System.out.print(String.format("Problem closing the weight store\n"));
+				e.printStackTrace();
+			}
+			weightStore = null;
+		}
+		if(folderStore != null) {
+			try {
+				folderStore.close();
+			} catch (IOException e) {
+				System.out.print(String.format("Problem closing the folder weight store\n"));
+				e.printStackTrace();
+			}
+			folderStore = null;
+		}
+	}
+
+	/**       Gets the library index saved in folder.
+	 * @return the LibraryIndex, or an empty one if there is none that can be read.
+	 */
+	private LibraryIndex loadLibraryIndex() {
+		File file = new File(folder, ".index");
+		if(file.canRead()) {
+			try {
+				logger.finest("Loading library index");
+				return LibraryIndex.load(file);
+			} catch (IOException e) {
+				System.out.print(String.format("Problem reading from " + file.getAbsolutePath() + "\n"));
+				e.printStackTrace();
+			}
+		}
+		return new LibraryIndex(folder, subDirectories);
+	}
+
+	/** Reads the overlays of the users from the .users file in folder, if there is one.
+	 *
+	 */
+	@SuppressWarnings("unchecked")
+	private void readOverlays() {
+		overlays.clear();
+		overlaysChanged = false;
+		overlaysUnreadable = false;
+		File file = new File(folder, ".users");
+		if(!file.canRead()) {
+			return;
+		}
+		try(ObjectInputStream objectInputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			logger.finest("Loading user overlays");
+			overlays.putAll((Map<String, WeightOverlay>) objectInputStream.readObject());
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			overlays.clear();
+			overlaysUnreadable = true;
+			System.out.print(String.format("Problem reading from " + file.getAbsolutePath() + "\n The file is kept and user ratings are not saved" + "\n"));
+			e.printStackTrace();
+		}
+	}
+
+	/** Writes the overlays of the users to the .users file in folder, unless it could not be read.
+	 *
+	 */
+	private void writeOverlays() {
+		File file = new File(folder, ".users");
+		if(overlaysUnreadable || (overlays.isEmpty() && !file.exists())) {
+			return;
+		}
+		overlaysChanged = false;
+		try {
+			logger.finest("Saving user overlays");
+			writeFile(".users", objectOutputStream -> objectOutputStream.writeObject(new HashMap<String, WeightOverlay>(overlays)));
+		} catch (IOException e) {
+			overlaysChanged = true;
+			System.out.print(String.format("Problem writing to " + file.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+		}
+	}
+
+	/** Reads the contexts from the .contexts file in folder, if there is one and it was written with the same buckets.
+	 *
+	 */
+	@SuppressWarnings("unchecked")
+	private void readContexts() {
+		contexts.clear();
+		contextsChanged = false;
+		contextsUnreadable = false;
+		File file = new File(folder, ".contexts");
+		if(!file.canRead()) {
+			return;
+		}
+		try(ObjectInputStream objectInputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			logger.finest("Loading contexts");
+			if(contextBuckets.name().equals(objectInputStream.readObject())) {
+				contexts.putAll((Map<Integer, QuantizedWeights>) objectInputStream.readObject());
+			} else {
+				// Written with other buckets, so it is overwritten on the next save
+				contextsChanged = true;
+			}
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			contexts.clear();
+			contextsUnreadable = true;
+			System.out.print(String.format("Problem reading from " + file.getAbsolutePath() + "\n The file is kept and contexts are not saved" + "\n"));
+			e.printStackTrace();
+		}
+	}
+
+	/** Writes the contexts to the .contexts file in folder, if they changed since they were last written and it could be read.
+	 *
+	 */
+	private void writeContexts() {
+		if(!contextsChanged || contextsUnreadable) {
+			return;
+		}
+		File file = new File(folder, ".contexts");
+		contextsChanged = false;
+		try {
+			logger.finest("Saving contexts");
+			writeFile(".contexts", objectOutputStream -> {
+				objectOutputStream.writeObject(contextBuckets.name());
+				objectOutputStream.writeObject(new HashMap<Integer, QuantizedWeights>(contexts));
+			});
+		} catch (IOException e) {
+			contextsChanged = true;
+			System.out.print(String.format("Problem writing to " + file.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+		}
+	}
+
+	/**       Forgets the ratings of removed media files in every overlay and context, as their ids get reused.
+	 * @param ids as the ids of the removed media files.
+	 */
+	private void forgetRatings(int[] ids) {
+		overlays.replaceAll((user, overlay) -> {
+			WeightOverlay without = overlay.without(ids);
+			overlaysChanged |= without != overlay;
+			return without;
+		});
+		contexts.replaceAll((bucket, context) -> {
+			QuantizedWeights without = context.without(ids);
+			contextsChanged |= without != context;
+			return without;
+		});
+	}
+
+	/** Writes the ratings a while from now, unless a write is already waiting, so a burst of feedback is written once.
+	 *
+	 */
+	private void scheduleRatingsWrite() {
+		if(!closed && ratingsWriteScheduled.compareAndSet(false, true)) {
+			RATINGS_WRITER.schedule(this::writeRatings, RATINGS_WRITE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Writes the overlays of the users and the contexts to folder, each if it changed since it was last written,
+	 *  so a crash only loses the ratings of the last RATINGS_WRITE_MILLIS.
+	 */
+	private void writeRatings() {
+		ratingsWriteScheduled.set(false);
+		synchronized(reconcileLock) {
+			if(closed || playlist == null) {
+				return;
+			}
+			if(overlaysChanged) {
+				writeOverlays();
+			}
+			writeContexts();
+		}
+	}
+
+	/** Saves the media files of the Playlist in folder.
+	 *  The weights are already in the WeightStore and the changes in the journal, and they only get flushed.
+	 */
+	public void savePlaylist() {
+		synchronized(reconcileLock) {
+			synchronized(this) {
+				if(playlist == null) {
+					return;
+				}
+				long start = SAVE_TIMER.start();
+				try {
+					writePlaylist();
+				} finally {
+					SAVE_TIMER.stop(start);
+				}
+			}
+		}
+	}
+
+	/** Writes the media files of the Playlist, the library index, the user overlays and the contexts to folder,
+	 *  and flushes the weights and journal.
+	 *
+	 */
+	private void writePlaylist() {
+		// Copied holding the lock, so reconciles and feedback only wait for the copy and not for the disk
+		RandomPlaylist saved = playlist.copyForSaving();
+		try {
+			logger.finest("Saving playlist");
+			writeFile(".playlist", objectOutputStream -> objectOutputStream.writeObject(saved));
+		} catch (FileNotFoundException e) {
+			System.out.print(String.format("Unable to find folder: " + folder.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+			return;
+		} catch (IOException e) {
+			System.out.print(String.format("Problem writing to " + folder.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+			return;
+		}
+		try {
+			logger.finest("Saving library index");
+			libraryIndex.save(new File(folder, ".index"), saved.getLibrary());
+		} catch (IOException e) {
+			System.out.print(String.format("Problem writing to " + folder.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+		}
+		writeOverlays();
+		writeContexts();
+		if(feedbackJournal != null) {
+			try {
+				feedbackJournal.sync();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if(weightStore != null) {
+			weightStore.force();
+		}
+		if(folderStore != null) {
+			folderStore.force();
+		}
+	}
+
+	/**        Writes a file in folder to a temporary file next to it, forces it to disk and moves it into place,
+	 *         so a crash while it is written leaves the last complete file rather than a torn one.
+	 * @param  name as the name of the file.
+	 * @param  contents as what writes the contents of the file.
+	 * @throws IOException if the file could not be written.
+	 */
+	private void writeFile(String name, Contents contents) throws IOException {
+		File file = new File(folder, name);
+		File temp = new File(folder, name + ".tmp");
+		try(FileOutputStream fileOutputStream = new FileOutputStream(temp);
+				ObjectOutputStream objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(fileOutputStream, 1 << 16))) {
+			contents.write(objectOutputStream);
+			objectOutputStream.flush();
+			fileOutputStream.getFD().sync();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**       Updates the Playlist to reflect changes in the file structure.
+	 *        Only directories that changed since the library index was saved are listed, unless the index is out of date.
+	 */
+	public void checkPlaylistFiles() {
+		synchronized(reconcileLock) {
+			if(playlist == null) {
+				return;
+			}
+			long start = RECONCILE_TIMER.start();
+			PlaylistReconciler.Report report = new PlaylistReconciler(playlist, libraryIndex, folder, subDirectories).reconcileIndexed();
+			RECONCILE_TIMER.stop(start);
+			logger.fine(report::toString);
+			forgetRatings(report.getRemovedIds());
+			removedListener.accept(report.getRemovedIds());
+			saveIfChanged(report);
+		}
+	}
+
+	/**       Updates the Playlist to reflect changes in the file structure reported by the WatchService.
+	 * @param changes as the changes to the files in folder.
+	 */
+	public void checkPlaylistFiles(List<LibraryChange> changes) {
+		synchronized(reconcileLock) {
+			if(playlist == null) {
+				return;
+			}
+			long start = RECONCILE_TIMER.start();
+			PlaylistReconciler.Report report = new PlaylistReconciler(playlist, libraryIndex, folder, subDirectories).reconcile(changes);
+			RECONCILE_TIMER.stop(start);
+			logger.fine(report::toString);
+			forgetRatings(report.getRemovedIds());
+			removedListener.accept(report.getRemovedIds());
+			saveIfChanged(report);
+		}
+	}
+
+	/**       Saves the media files of the Playlist if a reconcile changed them,
+	 *        so the ids in the saved playlist match the ids the WeightStore is being written with.
+	 * @param report as the Report of the reconcile.
+	 */
+	private void saveIfChanged(PlaylistReconciler.Report report) {
+		if(report.getAdded() > 0 || report.getMoved() > 0 || report.getRemoved() > 0 || report.getDuplicates() > 0) {
+			savePlaylist();
+		}
+	}
+
+	/**       Starts watching folder, and its sub-directories if required, on a thread of executor.
+	 * @param executor as where the WatchService thread runs.
+	 */
+	public synchronized void watch(ExecutorService executor) {
+		if(watchService != null || playlist == null) {
+			return;
+		}
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			System.out.print(String.format("Problem setting up WatchService on " + folder.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+			return;
+		}
+		watchServiceThread = new WatchSerciveThread(this, watchService, subDirectories, WATCH_QUIET_MILLIS);
+		watchServiceThread.register(folder, subDirectories);
+		executor.execute(watchServiceThread);
+	}
+
+	/**       Changes whether or not the sub-directories of folder are part of the library, keeping the Playlist, its ids and weights.
+	 *        The WatchService registrations are swapped in place and the whole folder is reconciled,
+	 *        so this does I/O and is not meant for the event dispatch thread.
+	 *        A shard with no media files is not changed past the setting, and has to be read again.
+	 * @param subDirectories as whether or not the sub-directories of folder are part of the library.
+	 */
+	public void setSubDirectories(boolean subDirectories) {
+		synchronized(reconcileLock) {
+			if(closed || this.subDirectories == subDirectories) {
+				return;
+			}
+			this.subDirectories = subDirectories;
+			WatchSerciveThread watchServiceThread = this.watchServiceThread;
+			if(watchServiceThread != null) {
+				// Before the scan, so nothing that changes during it is missed
+				watchServiceThread.register(folder, subDirectories);
+			}
+			// The library index no longer matches, so every file is looked at
+			checkPlaylistFiles();
+		}
+	}
+
+	/** Called by the WatchService thread when it stops.
+	 *
+	 */
+	public void watchServiceThreadInterrupted() {
+		if(!closed) {
+			new InterruptedException("WatchService thread was interrupted\n").printStackTrace();
+		}
+	}
+
+	/** Saves the Playlist, stops watching folder, and closes the weight store and journal.
+	 *
+	 */
+	public void close() {
+		synchronized(reconcileLock) {
+			synchronized(this) {
+				closed = true;
+				savePlaylist();
+				if(watchService != null) {
+					try {
+						// Wakes the WatchService thread, which then stops
+						watchService.close();
+					} catch (IOException e) {
+						System.out.print(String.format("Problem shutting down WatchService\n"));
+						e.printStackTrace();
+					}
+					watchService = null;
+					watchServiceThread = null;
+				}
+				closeJournal();
+				closeWeightStore();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return folder.getAbsolutePath();
+	}
+
+}
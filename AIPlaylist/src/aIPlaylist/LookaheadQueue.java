@@ -0,0 +1,257 @@
+package aIPlaylist;
+
+import java.io.File;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+import algorithms.RecentWindow;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The next media files to play, drawn from a MediaSource ahead of time
+ *         and handed to a Preparer as soon as they are drawn, so they are ready by the time they play.
+ *         When the weights change, the draws no longer follow them, so invalidate() draws them again.
+ *         Draws can leave out the media files drawn in a RecentWindow before them, played or still queued,
+ *         with MediaSource.fun(RecentWindow), so nothing comes back until it ages out of the window and the weights never change.
+ *         If every media file is in the window, the one drawn the longest time ago is taken instead.
+ * @param  <T> as what the Preparer makes of a media file.
+ */
+public final class LookaheadQueue<T> {
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Gets media files ready to play, and frees what it made for them when they are not needed.
+	 * @param  <T> as what a media file is made into.
+	 */
+	public interface Preparer<T> {
+
+		/**       Starts getting a media file ready to play. Must not block on the media file.
+		 * @param file as the media file.
+		 * @return what the media file was made into, or null if it could not be.
+		 */
+		T prepare(File file);
+
+		/**       Frees what was made for a media file that is not going to be played.
+		 * @param prepared as what prepare() returned, which may be null.
+		 */
+		void release(T prepared);
+
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         A media file taken from a LookaheadQueue.
+	 * @param  <T> as what the Preparer made of the media file.
+	 */
+	public static final class Entry<T> {
+
+		private final int id;
+		private final T prepared;
+
+		private Entry(int id, T prepared) {
+			this.id = id;
+			this.prepared = prepared;
+		}
+
+		/**
+		 * @return the id of the media file.
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return what the Preparer made of the media file, which the taker now has to release, or null.
+		 */
+		public T getPrepared() {
+			return prepared;
+		}
+
+	}
+
+	private final MediaSource playlist;
+	private final Preparer<T> preparer;
+
+	// How many times a draw is made again when its media file was removed before it could be looked up
+	private static final int MAX_DRAWS = 8;
+
+	// How many draws are made for the media file drawn the longest time ago when every media file is in the window
+	private static final int OLDEST_DRAWS = 32;
+
+	// The media files drawn last, which are not drawn again while they are in it
+	private final RecentWindow recent;
+
+	// The number of media files to keep drawn
+	private int size;
+
+	// The drawn media files, next first
+	private final ArrayDeque<Entry<T>> entries = new ArrayDeque<Entry<T>>();
+
+	/**        Creates a LookaheadQueue and draws the first media files.
+	 * @param  playlist as the MediaSource to draw from.
+	 * @param  size as the number of media files to keep drawn.
+	 * @param  preparer as what gets the media files ready to play.
+	 * @throws NullPointerException if playlist or preparer is null.
+	 * @throws IllegalArgumentException if size is negative.
+	 */
+	public LookaheadQueue(MediaSource playlist, int size, Preparer<T> preparer) {
+		this(playlist, size, preparer, new RecentWindow(0));
+	}
+
+	/**        Creates a LookaheadQueue that does not draw the media files in a RecentWindow, and draws the first media files.
+	 *         Every draw is added to the window, and taken out again if it is thrown away before it is taken.
+	 * @param  playlist as the MediaSource to draw from.
+	 * @param  size as the number of media files to keep drawn.
+	 * @param  preparer as what gets the media files ready to play.
+	 * @param  recent as the ids of the media files drawn last, which can be shared with the queue this one replaces.
+	 * @throws NullPointerException if playlist, preparer or recent is null.
+	 * @throws IllegalArgumentException if size is negative.
+	 */
+	public LookaheadQueue(MediaSource playlist, int size, Preparer<T> preparer, RecentWindow recent) {
+		Objects.requireNonNull(playlist);
+		Objects.requireNonNull(preparer);
+		Objects.requireNonNull(recent);
+		if(size < 0)
+			throw new IllegalArgumentException("size passed to LookaheadQueue() must not be negative");
+		this.playlist = playlist;
+		this.preparer = preparer;
+		this.size = size;
+		this.recent = recent;
+		fill();
+	}
+
+	/**        Sets the number of media files to keep drawn.
+	 * @param  size as the number of media files.
+	 * @throws IllegalArgumentException if size is negative.
+	 */
+	public void setSize(int size) {
+		if(size < 0)
+			throw new IllegalArgumentException("size passed to setSize() must not be negative");
+		this.size = size;
+		while(entries.size() > size) {
+			discard(entries.pollLast());
+		}
+		fill();
+	}
+
+	/**
+	 * @return the number of media files to keep drawn.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**       Takes the next media file, drawing one if there are none, and draws another to take its place.
+	 * @return the media file.
+	 */
+	public Entry<T> poll() {
+		Entry<T> next = entries.isEmpty() ? draw() : entries.pollFirst();
+		fill();
+		return next;
+	}
+
+	/** Draws every media file again, for after the weights changed.
+	 *
+	 */
+	public void invalidate() {
+		clear();
+		fill();
+	}
+
+	/**       Draws again the media files that match a predicate, like ones that were removed from the playlist.
+	 * @param doomed as the predicate, given ids.
+	 */
+	public void removeIf(IntPredicate doomed) {
+		Iterator<Entry<T>> it = entries.iterator();
+		while(it.hasNext()) {
+			Entry<T> e = it.next();
+			if(doomed.test(e.id)) {
+				discard(e);
+				it.remove();
+			}
+		}
+		fill();
+	}
+
+	/** Releases every media file without drawing new ones, for when the queue is no longer used.
+	 *
+	 */
+	public void clear() {
+		// Newest first, so each comes out of the window where it went in
+		Iterator<Entry<T>> it = entries.descendingIterator();
+		while(it.hasNext()) {
+			discard(it.next());
+		}
+		entries.clear();
+	}
+
+	/**       Frees a drawn media file that is not going to be played, and takes it out of the window.
+	 * @param e as the media file.
+	 */
+	private void discard(Entry<T> e) {
+		preparer.release(e.prepared);
+		recent.removeLast(e.id);
+	}
+
+	/** Draws media files until there are size of them.
+	 *
+	 */
+	private void fill() {
+		while(entries.size() < size) {
+			entries.addLast(draw());
+		}
+	}
+
+	/**       Draws a media file that is not in the window and starts getting it ready.
+	 *        A reconcile can remove the media file between the draw and looking up its file, which is then drawn again.
+	 * @return the media file.
+	 */
+	private Entry<T> draw() {
+		for(int attempt = 1; ; attempt++) {
+			int id = drawOutsideWindow();
+			File file;
+			try {
+				file = playlist.getFile(id);
+			} catch (IllegalArgumentException e) {
+				if(attempt == MAX_DRAWS) {
+					throw e;
+				}
+				continue;
+			}
+			recent.add(id);
+			return new Entry<T>(id, preparer.prepare(file));
+		}
+	}
+
+	/**       Draws a media file outside the window, with the chances of the rest in proportion.
+	 * @return the id of the media file, or if every media file is in the window, the one drawn the longest time ago
+	 *         out of OLDEST_DRAWS draws.
+	 */
+	private int drawOutsideWindow() {
+		if(recent.size() == 0) {
+			return playlist.fun();
+		}
+		int id = playlist.fun(recent);
+		if(id != -1) {
+			return id;
+		}
+		int oldest = playlist.fun();
+		int oldestAge = recent.age(oldest);
+		for(int attempt = 1; attempt < OLDEST_DRAWS && oldestAge != -1; attempt++) {
+			id = playlist.fun();
+			int age = recent.age(id);
+			if(age == -1 || age > oldestAge) {
+				oldest = id;
+				oldestAge = age;
+			}
+		}
+		return oldest;
+	}
+
+}
@@ -0,0 +1,45 @@
+package aIPlaylist;
+
+import java.io.File;
+import java.util.Objects;
+
+import uk.co.caprica.vlcj.factory.MediaPlayerFactory;
+import uk.co.caprica.vlcj.media.Media;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Gets media files ready to play by making libvlc media for them and parsing it in the background,
+ *         so opening the file and reading its headers is done before it is played and not when it is.
+ */
+public final class MediaPreparer implements LookaheadQueue.Preparer<Media> {
+
+	private final MediaPlayerFactory mediaPlayerFactory;
+
+	/**        Creates a MediaPreparer.
+	 * @param  mediaPlayerFactory as the MediaPlayerFactory to make media with.
+	 * @throws NullPointerException if mediaPlayerFactory is null.
+	 */
+	public MediaPreparer(MediaPlayerFactory mediaPlayerFactory) {
+		Objects.requireNonNull(mediaPlayerFactory);
+		this.mediaPlayerFactory = mediaPlayerFactory;
+	}
+
+	@Override
+	public Media prepare(File file) {
+		Media media = mediaPlayerFactory.media().newMedia(file.getAbsolutePath());
+		if(media != null) {
+			// Returns straight away; libvlc parses on its own thread
+			media.parsing().parse();
+		}
+		return media;
+	}
+
+	@Override
+	public void release(Media media) {
+		if(media != null) {
+			media.release();
+		}
+	}
+
+}
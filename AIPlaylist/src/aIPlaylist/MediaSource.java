@@ -0,0 +1,32 @@
+package aIPlaylist;
+
+import java.io.File;
+
+import algorithms.RecentWindow;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Something media files can be drawn from at random, by id.
+ */
+public interface MediaSource {
+
+	/**       Picks a media file randomly.
+	 * @return the id of the media file that was picked.
+	 */
+	int fun();
+
+	/**       Picks a media file randomly, leaving out the ones in a RecentWindow, with the chances of the rest in proportion.
+	 * @param recent as the ids of the media files to leave out.
+	 * @return the id of the media file that was picked, or -1 if only media files that are left out have any weight.
+	 */
+	int fun(RecentWindow recent);
+
+	/**        Gets a media file.
+	 * @param  id as the id of the media file.
+	 * @return the media file.
+	 * @throws IllegalArgumentException if id does not belong to a media file.
+	 */
+	File getFile(int id);
+
+}
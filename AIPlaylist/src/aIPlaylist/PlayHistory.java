@@ -0,0 +1,192 @@
+package aIPlaylist;
+
+import java.util.NoSuchElementException;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The ids of the media that was queued, oldest first, in a fixed-size ring buffer.
+ *         Every entry gets a sequence number that never changes, so an entry can be found in O(1)
+ *         however many older entries were dropped to make room for newer ones.
+ *         One entry is the current one, and moving to the next, previous, first or last entry is O(1).
+ */
+public final class PlayHistory {
+
+	// The ids, by sequence number & mask
+	private final int[] ids;
+	private final int mask;
+
+	// The sequence number of the oldest entry
+	private long first = 0;
+
+	// One more than the sequence number of the newest entry
+	private long end = 0;
+
+	// The sequence number of the current entry
+	private long position = 0;
+
+	/**        Creates an empty PlayHistory.
+	 * @param  capacity as the number of entries to keep, rounded up to a power of 2.
+	 * @throws IllegalArgumentException if capacity is less than 1 or more than 2^30.
+	 */
+	public PlayHistory(int capacity) {
+		if(capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity passed to PlayHistory() must be between 1 and 2^30");
+		ids = new int[Integer.highestOneBit(capacity*2 - 1)];
+		mask = ids.length - 1;
+	}
+
+	/**
+	 * @return the number of entries that can be kept.
+	 */
+	public int capacity() {
+		return ids.length;
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return (int) (end - first);
+	}
+
+	/**
+	 * @return whether or not there are no entries.
+	 */
+	public boolean isEmpty() {
+		return end == first;
+	}
+
+	/**
+	 * @return the sequence number of the oldest entry.
+	 */
+	public long getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return the sequence number of the newest entry.
+	 */
+	public long getLast() {
+		return end - 1;
+	}
+
+	/**
+	 * @return the sequence number of the current entry.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @param  sequence as a sequence number.
+	 * @return whether or not the entry with the sequence number is still kept.
+	 */
+	public boolean contains(long sequence) {
+		return sequence >= first && sequence < end;
+	}
+
+	/**        Gets an entry.
+	 * @param  sequence as the sequence number of the entry.
+	 * @return the id of the entry.
+	 * @throws NoSuchElementException if the entry is not kept.
+	 */
+	public int get(long sequence) {
+		if(!contains(sequence))
+			throw new NoSuchElementException("sequence " + sequence + " is not in the history");
+		return ids[(int) sequence & mask];
+	}
+
+	/**        Gets the current entry.
+	 * @return the id of the current entry.
+	 * @throws NoSuchElementException if there are no entries.
+	 */
+	public int current() {
+		return get(position);
+	}
+
+	/**
+	 * @return whether or not there is an entry after the current one.
+	 */
+	public boolean hasNext() {
+		return position + 1 < end;
+	}
+
+	/**
+	 * @return whether or not there is an entry before the current one.
+	 */
+	public boolean hasPrevious() {
+		return position > first;
+	}
+
+	/**        Adds an entry after the newest one and makes it the current one.
+	 *         If the history is full, the oldest entry is dropped.
+	 * @param  id as the id.
+	 */
+	public void add(int id) {
+		if(end - first == ids.length) {
+			first++;
+		}
+		ids[(int) end & mask] = id;
+		position = end++;
+	}
+
+	/**        Makes the entry after the current one the current one.
+	 * @return the id of the new current entry.
+	 * @throws NoSuchElementException if there is no entry after the current one.
+	 */
+	public int next() {
+		if(!hasNext())
+			throw new NoSuchElementException("next() called at the end of the history");
+		return get(++position);
+	}
+
+	/**        Makes the entry before the current one the current one.
+	 * @return the id of the new current entry.
+	 * @throws NoSuchElementException if there is no entry before the current one.
+	 */
+	public int previous() {
+		if(!hasPrevious())
+			throw new NoSuchElementException("previous() called at the start of the history");
+		return get(--position);
+	}
+
+	/**        Makes an entry the current one.
+	 * @param  sequence as the sequence number of the entry.
+	 * @throws NoSuchElementException if the entry is not kept.
+	 */
+	public void moveTo(long sequence) {
+		if(!contains(sequence))
+			throw new NoSuchElementException("sequence " + sequence + " is not in the history");
+		position = sequence;
+	}
+
+	/**       Replaces every id with what function returns for it.
+	 * @param function as the function.
+	 */
+	public void replaceAll(IntUnaryOperator function) {
+		for(long sequence = first; sequence < end; sequence++) {
+			int slot = (int) sequence & mask;
+			ids[slot] = function.applyAsInt(ids[slot]);
+		}
+	}
+
+	/** Removes every entry. Sequence numbers keep going up, so old ones are never reused.
+	 *
+	 */
+	public void clear() {
+		first = end;
+		position = end;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(long sequence = first; sequence < end; sequence++) {
+			sb.append(sequence == position ? "[" : "").append(get(sequence)).append(sequence == position ? "]" : "").append(",");
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,577 @@
+package aIPlaylist;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import algorithms.MediaScanner;
+import algorithms.MediaTypeRegistry;
+
+import library.ContentFingerprint;
+import library.LibraryChange;
+import library.LibraryIndex;
+import library.LibraryStore;
+
+import logging.LogEvent;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Brings a RandomPlaylist in line with the media files in its folder.
+ *         Changes reported by a WatchService are applied one path at a time, using the id index of the library,
+ *         and the folder is only scanned again when events were lost.
+ *         On startup a LibraryIndex is used so only directories that changed since the last run are listed.
+ *         Media files are also known by their ContentFingerprint, so a file that shows up with the content of one that went away
+ *         takes over its id, and a move or rename keeps what was learned about it.
+ *         A second copy of a media file is recorded as a duplicate instead of being added, so a song never gets double the weight.
+ */
+public final class PlaylistReconciler {
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         What a reconcile did.
+	 */
+	public static final class Report {
+
+		private final boolean fullScan;
+		private final int added;
+		private final int moved;
+		private final int duplicates;
+		private final int removed;
+		private final int unchanged;
+		private final int[] removedIds;
+		private final long nanos;
+
+		private Report(boolean fullScan, int added, int moved, int duplicates, int[] removedIds, int unchanged, long nanos) {
+			this.fullScan = fullScan;
+			this.added = added;
+			this.moved = moved;
+			this.duplicates = duplicates;
+			this.removed = removedIds.length;
+			this.unchanged = unchanged;
+			this.removedIds = removedIds;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return whether or not the whole folder was scanned.
+		 */
+		public boolean isFullScan() {
+			return fullScan;
+		}
+
+		/**
+		 * @return the number of media files that were added.
+		 */
+		public int getAdded() {
+			return added;
+		}
+
+		/**
+		 * @return the number of media files that kept their id at a new path, as they were moved, renamed,
+		 *         or a duplicate took their place.
+		 */
+		public int getMoved() {
+			return moved;
+		}
+
+		/**
+		 * @return the number of media files that were newly found to be duplicates, and left out or taken out.
+		 */
+		public int getDuplicates() {
+			return duplicates;
+		}
+
+		/**
+		 * @return the number of media files that were removed.
+		 */
+		public int getRemoved() {
+			return removed;
+		}
+
+		/**
+		 * @return the number of media files that were left as they were.
+		 */
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		/**
+		 * @return the ids the removed media files had.
+		 */
+		public int[] getRemovedIds() {
+			return removedIds.clone();
+		}
+
+		/**
+		 * @return how long the reconcile took, in nanoseconds.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s reconcile: %d added, %d moved, %d removed, %d duplicates, %d unchanged in %.3f ms",
+					fullScan ? "Full" : "Delta", added, moved, removed, duplicates, unchanged, nanos/1e6);
+		}
+
+	}
+
+	// Returned for a directory that no longer exists
+	private static final long GONE = Long.MAX_VALUE;
+
+	// Where each duplicate that is taken out is logged
+	private static final Logger LOGGER = Logger.getLogger("aIPlaylist.AIPlaylist");
+
+	private final RandomPlaylist playlist;
+	private final LibraryIndex index;
+	private final File folder;
+	private final boolean subDirectories;
+
+	// Media files found that are not in the playlist yet, with their attributes, for settle() to add
+	private final Map<Path, BasicFileAttributes> fresh = new LinkedHashMap<Path, BasicFileAttributes>();
+
+	// Ids of media files in the playlist whose ContentFingerprint is not known, for settle() to take
+	private final List<Integer> unhashed = new ArrayList<Integer>();
+
+	// What settle() did
+	private int added;
+	private int moved;
+	private int duplicates;
+
+	/**        Creates a PlaylistReconciler.
+	 * @param  playlist as the RandomPlaylist to update.
+	 * @param  index as the LibraryIndex of the playlist, which is kept up to date with it.
+	 * @param  folder as the folder the playlist was made from.
+	 * @param  subDirectories as whether or not the sub-directories of folder are part of the playlist.
+	 * @throws NullPointerException if playlist, index or folder is null.
+	 */
+	public PlaylistReconciler(RandomPlaylist playlist, LibraryIndex index, File folder, boolean subDirectories) {
+		Objects.requireNonNull(playlist);
+		Objects.requireNonNull(index);
+		Objects.requireNonNull(folder);
+		this.playlist = playlist;
+		this.index = index;
+		this.folder = folder;
+		this.subDirectories = subDirectories;
+	}
+
+	/**       Scans the whole folder and adds and removes media files so the playlist matches it.
+	 *        Membership is checked with the id index and a mark per id, so this is O(n).
+	 *        The LibraryIndex is built again from the scan.
+	 * @return what the reconcile did.
+	 */
+	public Report reconcileAll() {
+		long start = System.nanoTime();
+		LibraryStore library = playlist.getLibrary();
+		int before = library.count();
+		boolean[] seen = new boolean[library.size()];
+		index.clear(folder, subDirectories);
+		scan(folder, subDirectories, seen);
+		Set<Integer> gone = new LinkedHashSet<Integer>();
+		for(int id = 0; id < seen.length; id++) {
+			if(!seen[id] && library.contains(id)) {
+				gone.add(id);
+			}
+		}
+		int[] removedIds = settle(gone);
+		return report(true, before, removedIds, start);
+	}
+
+	/**       Brings the playlist up to date after it was loaded, using the LibraryIndex.
+	 *        Every directory in the index is stat'ed, but only the ones whose modification time changed are listed,
+	 *        and the files in the others are trusted. Falls back to reconcileAll() if the index does not match the playlist.
+	 * @return what the reconcile did.
+	 */
+	public Report reconcileIndexed() {
+		LibraryStore library = playlist.getLibrary();
+		if(!index.matches(folder, subDirectories, library)) {
+			return reconcileAll();
+		}
+		long start = System.nanoTime();
+		int before = library.count();
+		List<Entry<String, Long>> directories = index.getDirectories();
+		long[] modified = new long[directories.size()];
+		// Stat'ing is I/O bound, so the directories are done in parallel
+		IntStream.range(0, modified.length).parallel().forEach(d -> modified[d] = directoryModified(directories.get(d).getKey()));
+		List<String> goneDirectories = new ArrayList<String>();
+		List<File> listed = new ArrayList<File>();
+		boolean[] seen = new boolean[library.size()];
+		for(int d = 0; d < modified.length; d++) {
+			String directory = directories.get(d).getKey();
+			if(modified[d] == GONE) {
+				goneDirectories.add(directory);
+			} else if(modified[d] != directories.get(d).getValue()) {
+				if(list(Paths.get(directory), seen)) {
+					listed.add(new File(directory));
+					index.putDirectory(directory, modified[d]);
+				}
+			}
+		}
+		// One pass over the ids finds the files of every removed directory, and the files missing from listed ones
+		boolean[] doomed = new boolean[library.size()];
+		List<File> goneFiles = new ArrayList<File>();
+		for(String directory : goneDirectories) {
+			goneFiles.add(new File(directory));
+		}
+		library.forEachIn(goneFiles, true, id -> doomed[id] = true);
+		library.forEachIn(listed, false, id -> doomed[id] |= id < seen.length && !seen[id]);
+		index.removeDirectories(goneDirectories);
+		Set<Integer> gone = new LinkedHashSet<Integer>();
+		for(int id = 0; id < doomed.length; id++) {
+			if(doomed[id]) {
+				gone.add(id);
+			}
+		}
+		int[] removedIds = settle(gone);
+		return report(false, before, removedIds, start);
+	}
+
+	/**       Applies the changes reported by a WatchService.
+	 *        Only the changed paths are looked at, unless one of the changes is an OVERFLOW.
+	 * @param changes as the changes, in the order they happened.
+	 * @return what the reconcile did.
+	 * @throws NullPointerException if changes is null.
+	 */
+	public Report reconcile(Collection<LibraryChange> changes) {
+		Objects.requireNonNull(changes);
+		for(LibraryChange c : changes) {
+			if(c.getKind() == LibraryChange.Kind.OVERFLOW) {
+				return reconcileAll();
+			}
+		}
+		long start = System.nanoTime();
+		LibraryStore library = playlist.getLibrary();
+		int before = library.count();
+		// Removals wait for settle(), as a file deleted here may be the one created elsewhere in the same batch
+		Set<Integer> gone = new LinkedHashSet<Integer>();
+		for(LibraryChange c : changes) {
+			Path path = c.getPath();
+			File file = path.toFile();
+			switch(c.getKind()) {
+			case CREATE:
+			case MODIFY:
+				BasicFileAttributes attributes = readAttributes(path);
+				if(attributes == null) {
+					// Already gone again; a DELETE follows
+					break;
+				}
+				if(attributes.isRegularFile()) {
+					int id = playlist.idOf(file);
+					if(id == -1) {
+						if(MediaTypeRegistry.getDefault().isMedia(path)) {
+							fresh.put(path, attributes);
+						}
+					} else {
+						// Deleted and written again within the batch
+						gone.remove(id);
+						index.putFile(id, attributes);
+						checkContent(id, attributes);
+					}
+				} else if(attributes.isDirectory() && subDirectories && c.getKind() == LibraryChange.Kind.CREATE) {
+					// A directory moved in with its contents
+					scan(file, true, null);
+				}
+				break;
+			case DELETE:
+				fresh.remove(path);
+				index.removeDuplicate(path.toString());
+				int id = playlist.idOf(file);
+				if(id != -1) {
+					gone.add(id);
+				} else {
+					// Not a media file, so it may have been a directory
+					library.forEachUnder(file, i -> gone.add(i));
+					Iterator<Path> it = fresh.keySet().iterator();
+					while(it.hasNext()) {
+						if(it.next().startsWith(path)) {
+							it.remove();
+						}
+					}
+					index.removeDirectories(Collections.singleton(path.toString()));
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		int[] removedIds = settle(gone);
+		return report(false, before, removedIds, start);
+	}
+
+	/**       Scans a directory, finding the media files that are not in the playlist yet and recording everything in the index.
+	 * @param directory as the directory.
+	 * @param recursive as whether or not to scan the sub-directories of directory.
+	 * @param seen as the marks to set for the ids of the media files found, or null.
+	 */
+	private void scan(File directory, boolean recursive, boolean[] seen) {
+		Map<Path, BasicFileAttributes> files = new ConcurrentHashMap<Path, BasicFileAttributes>();
+		Map<Path, BasicFileAttributes> directories = new ConcurrentHashMap<Path, BasicFileAttributes>();
+		MediaScanner.getDefault().scan(directory, recursive, files::put, directories::put);
+		for(Entry<Path, BasicFileAttributes> e : directories.entrySet()) {
+			index.putDirectory(e.getKey().toString(), e.getValue().lastModifiedTime().toMillis());
+		}
+		LibraryStore library = playlist.getLibrary();
+		for(Entry<Path, BasicFileAttributes> e : files.entrySet()) {
+			int id = library.idOf(e.getKey().toFile());
+			if(id == -1) {
+				fresh.put(e.getKey(), e.getValue());
+				continue;
+			}
+			index.putFile(id, e.getValue());
+			checkContent(id, e.getValue());
+			if(seen != null && id < seen.length) {
+				seen[id] = true;
+			}
+		}
+	}
+
+	/**       Lists one directory that changed, finding new media files and marking the ones that are still there.
+	 *        Sub-directories the index does not know about are scanned; the ones it knows are checked on their own.
+	 * @param directory as the directory.
+	 * @param seen as the marks to set for the ids of the media files found.
+	 * @return false if the directory could not be listed.
+	 */
+	private boolean list(Path directory, boolean[] seen) {
+		MediaTypeRegistry registry = MediaTypeRegistry.getDefault();
+		LibraryStore library = playlist.getLibrary();
+		try(DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for(Path p : directoryStream) {
+				boolean media = registry.isMediaName(p.getFileName().toString());
+				if(!media && !subDirectories && !registry.isSniffing()) {
+					continue;
+				}
+				BasicFileAttributes attributes = readAttributes(p);
+				if(attributes == null) {
+					continue;
+				}
+				if(attributes.isRegularFile()) {
+					File f = p.toFile();
+					int id = library.idOf(f);
+					if(id == -1) {
+						if(!media && !(registry.isSniffing() && registry.hasMediaHeader(p))) {
+							continue;
+						}
+						fresh.put(p, attributes);
+						continue;
+					}
+					if(!index.isUnchanged(id, attributes)) {
+						index.putFile(id, attributes);
+					}
+					checkContent(id, attributes);
+					if(id < seen.length) {
+						seen[id] = true;
+					}
+				} else if(attributes.isDirectory() && subDirectories && !index.containsDirectory(p.toString())) {
+					scan(p.toFile(), true, seen);
+				}
+			}
+		} catch (IOException | DirectoryIteratorException e) {
+			// Left as it was, and listed again next time
+			return false;
+		}
+		return true;
+	}
+
+	/**       Marks a media file in the playlist to have its ContentFingerprint taken by settle(), if it is not known.
+	 * @param id as the id of the media file.
+	 * @param attributes as the attributes of the media file, already recorded in the index.
+	 */
+	private void checkContent(int id, BasicFileAttributes attributes) {
+		if(index.getContent(id) == ContentFingerprint.NONE && attributes.size() > 0) {
+			unhashed.add(id);
+		}
+	}
+
+	/**       Brings the playlist in line with what the reconcile found, matching media files up by content first.
+	 *        The fingerprints of new media files, and of ones in the playlist that have none yet, are taken in parallel.
+	 *        A media file in the playlist that turns out to be a copy of another is taken out as a duplicate,
+	 *        and what was learned about it is merged into the other.
+	 *        A new media file with the content of a gone one takes over its id; one with the content of a media file
+	 *        that is still there is recorded as a duplicate; any other is added.
+	 *        A file is only taken for a copy of one still on disk once every byte of the two is compared,
+	 *        as the fingerprint only reads part of each.
+	 *        A gone media file with a duplicate still on disk hands its id to the duplicate, and the rest are removed.
+	 * @param gone as the ids of the media files that are no longer on disk.
+	 * @return the ids that were removed.
+	 */
+	private int[] settle(Set<Integer> gone) {
+		LibraryStore library = playlist.getLibrary();
+		List<Integer> removed = new ArrayList<Integer>();
+		unhashed.removeAll(gone);
+		int[] ids = new int[unhashed.size()];
+		Path[] idPaths = new Path[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = unhashed.get(i);
+			idPaths[i] = Paths.get(library.getPath(ids[i]));
+		}
+		long[] idContents = new long[ids.length];
+		// Fingerprinting reads the disk, so it is done in parallel
+		IntStream.range(0, ids.length).parallel().forEach(i -> idContents[i] = ContentFingerprint.of(idPaths[i], index.getSize(ids[i])));
+		for(int i = 0; i < ids.length; i++) {
+			int owner = ownerOf(idContents[i], gone);
+			if(owner != -1 && owner != ids[i] && ContentFingerprint.sameContent(idPaths[i], Paths.get(library.getPath(owner)))) {
+				index.putDuplicate(idPaths[i].toString(), index.getSize(ids[i]), index.getModified(ids[i]), idContents[i]);
+				double weight = playlist.merge(ids[i], owner);
+				LogEvent.log(LOGGER, Level.INFO, "duplicate", "file", idPaths[i], "copyOf", library.getPath(owner), "weight", weight);
+				removed.add(ids[i]);
+				duplicates++;
+			} else {
+				index.putContent(ids[i], idContents[i]);
+			}
+		}
+		Path[] paths = fresh.keySet().toArray(new Path[fresh.size()]);
+		BasicFileAttributes[] attributes = fresh.values().toArray(new BasicFileAttributes[fresh.size()]);
+		long[] contents = new long[paths.length];
+		// Known duplicates were compared with their copy when they were recorded, and have not changed since
+		boolean[] known = new boolean[paths.length];
+		IntStream.range(0, paths.length).parallel().forEach(i -> {
+			long duplicate = index.getDuplicate(paths[i].toString(), attributes[i]);
+			known[i] = duplicate != ContentFingerprint.NONE;
+			contents[i] = known[i] ? duplicate : ContentFingerprint.of(paths[i], attributes[i].size());
+		});
+		Map<Long, Integer> goneByContent = new HashMap<Long, Integer>();
+		for(int id : gone) {
+			if(index.getContent(id) != ContentFingerprint.NONE) {
+				goneByContent.putIfAbsent(index.getContent(id), id);
+			}
+		}
+		for(int i = 0; i < paths.length; i++) {
+			File file = paths[i].toFile();
+			Integer from = (contents[i] == ContentFingerprint.NONE) ? null : goneByContent.remove(contents[i]);
+			int owner = (from == null) ? ownerOf(contents[i], gone) : -1;
+			if(from != null) {
+				// Moved or renamed, so it keeps its id and what was learned about it
+				playlist.move(from, file);
+				index.putFile(from, attributes[i], contents[i]);
+				index.removeDuplicate(paths[i].toString());
+				gone.remove(from);
+				moved++;
+			} else if(owner != -1 && (known[i] || ContentFingerprint.sameContent(paths[i], Paths.get(library.getPath(owner))))) {
+				if(index.putDuplicate(paths[i].toString(), attributes[i].size(), attributes[i].lastModifiedTime().toMillis(), contents[i])) {
+					LogEvent.log(LOGGER, Level.INFO, "duplicate", "file", paths[i], "copyOf", library.getPath(owner));
+					duplicates++;
+				}
+			} else {
+				int id = playlist.addToAll(file);
+				index.putFile(id, attributes[i], contents[i]);
+				index.removeDuplicate(paths[i].toString());
+				added++;
+			}
+		}
+		for(int id : gone) {
+			if(promoteDuplicate(id)) {
+				moved++;
+			} else {
+				playlist.removeFromAll(id);
+				removed.add(id);
+			}
+		}
+		fresh.clear();
+		unhashed.clear();
+		int[] removedIds = new int[removed.size()];
+		for(int i = 0; i < removedIds.length; i++) {
+			removedIds[i] = removed.get(i);
+		}
+		return removedIds;
+	}
+
+	/**        Finds the media file in the playlist that has some content.
+	 * @param  content as a ContentFingerprint.
+	 * @param  gone as the ids of media files that are no longer on disk.
+	 * @return the id of the media file, or -1 if there is none that is still on disk.
+	 */
+	private int ownerOf(long content, Set<Integer> gone) {
+		int id = index.idOfContent(content);
+		return (id != -1 && playlist.getLibrary().contains(id) && !gone.contains(id)) ? id : -1;
+	}
+
+	/**       Moves a gone media file to a duplicate of it that is still on disk and unchanged, if there is one.
+	 * @param id as the id of the gone media file.
+	 * @return true if the media file was moved to a duplicate.
+	 */
+	private boolean promoteDuplicate(int id) {
+		long content = index.getContent(id);
+		if(content == ContentFingerprint.NONE) {
+			return false;
+		}
+		for(String duplicate : index.getDuplicates(content)) {
+			BasicFileAttributes attributes = readAttributes(Paths.get(duplicate));
+			File file = new File(duplicate);
+			// Taken in, or stale as it is gone or changed
+			boolean same = attributes != null && attributes.isRegularFile() && index.getDuplicate(duplicate, attributes) == content;
+			index.removeDuplicate(duplicate);
+			if(same && playlist.idOf(file) == -1) {
+				playlist.move(id, file);
+				index.putFile(id, attributes, content);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**        Makes the Report of a reconcile.
+	 * @param  fullScan as whether or not the whole folder was scanned.
+	 * @param  before as the number of media files before the reconcile.
+	 * @param  removedIds as the ids that were removed.
+	 * @param  start as System.nanoTime() when the reconcile started.
+	 * @return the Report.
+	 */
+	private Report report(boolean fullScan, int before, int[] removedIds, long start) {
+		Report report = new Report(fullScan, added, moved, duplicates, removedIds, before - removedIds.length - moved, System.nanoTime() - start);
+		added = 0;
+		moved = 0;
+		duplicates = 0;
+		return report;
+	}
+
+	/**       Gets the modification time of a directory, following links.
+	 * @param directory as the path of the directory.
+	 * @return the modification time in milliseconds, or GONE if it is not a directory any more.
+	 */
+	private static long directoryModified(String directory) {
+		BasicFileAttributes attributes = readAttributes(Paths.get(directory));
+		if(attributes == null || !attributes.isDirectory()) {
+			return GONE;
+		}
+		return attributes.lastModifiedTime().toMillis();
+	}
+
+	/**       Reads the attributes of a file, following links.
+	 * @param path as the path of the file.
+	 * @return the attributes of the file, or null if it does not exist.
+	 */
+	private static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+}
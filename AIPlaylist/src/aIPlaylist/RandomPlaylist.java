@@ -1,25 +1,99 @@
 package aIPlaylist;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 import algorithms.FileAlorigthms;
+import algorithms.FolderTree;
+import algorithms.QuantizedWeights;
+import algorithms.RecentWindow;
+import algorithms.WeightOverlay;
+import algorithms.WeightedSampler;
+import algorithms.Weights;
+import library.FeedbackJournal;
+import library.LibraryStore;
+import library.WeightStore;
+import metrics.MetricRegistry;
+import metrics.Timer;
 import tree.ProbFunTree;
 
 /**
  * @author Alexander Johnston
  * @since  Copyright 2019
  *         A playlist where a group of media files are picked from randomly.
+ *         Changes are made by one writer at a time, holding the lock of the playlist, and each one ends by publishing
+ *         an immutable WeightedSampler.Snapshot. Draws and probabilities read the last Snapshot without locking,
+ *         so they never wait on feedback, a reconcile or a save, and never see a change half made.
+ *         With a half-life, what was learned fades back towards equal chances over time. The decay is brought up to date
+ *         before every change, and by a draw that finds the last Snapshot a DECAY_STEPS part of the half-life old,
+ *         which costs O(1) as the weights only change by one factor.
+ *         Draws can be hierarchical, picking a folder at each level of the directories down to a media file,
+ *         so a whole folder, like an album or an artist, is rated by changing its weight alone.
+ *         With every folder at the same weight, hierarchical draws pick each media file as often as flat ones.
  */
-public class RandomPlaylist implements Serializable {
+public class RandomPlaylist implements MediaSource, Serializable {
 
 	private static final long serialVersionUID = 2323326608918863420L;
 
-	// The ProbFun that randomly picks the media to play
-	private ProbFunTree<File> probabilityFunction;
+	private static final Timer DRAW_TIMER = MetricRegistry.getDefault().timer("aiplaylist_draw_seconds", "Time taken to draw a media file");
+
+	private static final Timer FEEDBACK_TIMER = MetricRegistry.getDefault().timer("aiplaylist_feedback_seconds", "Time taken to apply feedback to the weights");
+
+	private static final Timer BATCH_FEEDBACK_TIMER = MetricRegistry.getDefault().timer("aiplaylist_feedback_batch_seconds", "Time taken to apply a batch of feedback to the weights");
+
+	// The sampler that randomly picks the media to play, with a slot for each id in library.
+	// Its weights are kept in a WeightStore, so they are not part of the serialized playlist
+	private transient WeightedSampler sampler;
+
+	// The weights of sampler as of the last change, which is what draws read
+	private transient volatile WeightedSampler.Snapshot snapshot;
+
+	// The media files, each with an id
+	private LibraryStore library;
+
+	private transient Random random = new Random();
+
+	// Where the weights are kept, or null until attachWeights() is called
+	private transient WeightStore store;
+
+	// Where every change is recorded, or null until attachJournal() is called
+	private transient FeedbackJournal journal;
+
+	// How long it takes what was learned to fade by half, in milliseconds, or 0 if it never fades
+	private volatile long halfLife = 0;
+
+	// The time in milliseconds the last Snapshot was published
+	private transient volatile long publishedAt;
+
+	// How many times in a half-life draws bring the decay up to date when nothing else changes the weights
+	private static final long DECAY_STEPS = 64;
+
+	// The weights arranged by the directories of library, or null unless draws are hierarchical
+	private transient FolderTree folders;
+
+	// The FolderTree as of the last change, which hierarchical draws read, or null unless draws are hierarchical
+	private transient volatile FolderTree.Snapshot folderSnapshot;
+
+	// The weight of each folder by the id of its directory in library, 0 for one that was never rated, or null if none was
+	private double[] folderWeights;
+
+	// Where folderWeights is kept, by the id of the directory, or null until attachFolderWeights() is called
+	private transient WeightStore folderStore;
+
+	// How many times a draw can land on a media file that is left out before the others are walked instead
+	static final int MAX_REJECTIONS = 32;
 
 	/**        Creates a random playlist.
 	 * @param  folder as the folder to get media files from.
@@ -30,22 +104,1049 @@ public class RandomPlaylist implements Serializable {
 	public RandomPlaylist(File folder, boolean subDirectories) {
 		if(!folder.isDirectory())
 			throw new IllegalArgumentException("File folder must be a directory");
-		Set<File> files = new HashSet<File>(FileAlorigthms.getMediaFiles(folder, subDirectories));
+		List<File> files = FileAlorigthms.getMediaFiles(folder, subDirectories);
 		if(files.size() < 1) {
 			throw new IllegalArgumentException("At least one media file was not found in " + folder.getAbsolutePath());
-		} else { 
+		} else {
 			// invariants secured
-			int layers = 1;
-			probabilityFunction = new ProbFunTree<File>(files, layers);
+			sampler = new WeightedSampler(files.size());
+			library = new LibraryStore(files.size());
+			// Published once at the end, rather than once per media file by addToAll()
+			for(File f : files) {
+				int count = library.count();
+				int id = library.add(f);
+				if(library.count() != count) {
+					sampler.add(id);
+				}
+			}
+			library.trimToSize();
+		}
+		publish();
+	}
+
+	/**       Creates a copy of what is saved of a playlist, which has no weights and is only meant to be written.
+	 * @param library as a copy of the media files.
+	 * @param halfLife as the half-life.
+	 * @param folderWeights as a copy of the weights of the folders, or null.
+	 */
+	private RandomPlaylist(LibraryStore library, long halfLife, double[] folderWeights) {
+		this.library = library;
+		this.halfLife = halfLife;
+		this.folderWeights = folderWeights;
+	}
+
+	/**       Picks a media file randomly.
+	 * @return the id of the media file that was picked.
+	 */
+	@Override
+	public int fun() {
+		long start = DRAW_TIMER.start();
+		decayIfStale();
+		FolderTree.Snapshot folderSnapshot = this.folderSnapshot;
+		int id = (folderSnapshot == null) ? snapshot.sample(random) : folderSnapshot.sample(random);
+		DRAW_TIMER.stop(start);
+		return id;
+	}
+
+	/**        Picks a media file randomly, by the weights of a user. The weights of a user are not split by folder,
+	 *         so only draws from the shared weights are hierarchical.
+	 * @param  overlay as the WeightOverlay of the user, or null for the shared weights.
+	 * @return the id of the media file that was picked.
+	 */
+	public int fun(WeightOverlay overlay) {
+		if(overlay == null) {
+			return fun();
+		}
+		long start = DRAW_TIMER.start();
+		decayIfStale();
+		int id = overlay.sample(snapshot, random);
+		DRAW_TIMER.stop(start);
+		return id;
+	}
+
+	/**        Picks a media file randomly from the weights of a context, by the weights of a user.
+	 *         A media file the context still has but this playlist no longer does is drawn again from the shared weights.
+	 * @param  overlay as the WeightOverlay of the user, or null for the shared weights.
+	 * @param  context as the QuantizedWeights of the context.
+	 * @return the id of the media file that was picked.
+	 */
+	public int fun(WeightOverlay overlay, QuantizedWeights context) {
+		long start = DRAW_TIMER.start();
+		decayIfStale();
+		int id = (overlay == null) ? context.sample(random) : overlay.sample(context, random);
+		DRAW_TIMER.stop(start);
+		return snapshot.contains(id) ? id : fun(overlay);
+	}
+
+	/**        Picks a media file randomly, leaving out the ones in a RecentWindow.
+	 * @param  recent as the ids of the media files to leave out.
+	 * @return the id of the media file that was picked, or -1 if only media files that are left out have any weight.
+	 */
+	@Override
+	public int fun(RecentWindow recent) {
+		return fun(null, recent::contains);
+	}
+
+	/**        Picks a media file randomly, by the weights of a user, leaving out some media files.
+	 *         The weights are drawn from as they are and draws that land on a media file that is left out are thrown away,
+	 *         which is O(log n) while the media files left out hold a small part of the weight.
+	 *         If MAX_REJECTIONS draws in a row are thrown away, the rest of the media files are walked in O(n) instead.
+	 * @param  overlay as the WeightOverlay of the user, or null for the shared weights.
+	 * @param  excluded as whether to leave out the media file with an id.
+	 * @return the id of the media file that was picked, or -1 if only media files that are left out have any weight.
+	 */
+	public int fun(WeightOverlay overlay, IntPredicate excluded) {
+		for(int attempt = 0; attempt < MAX_REJECTIONS; attempt++) {
+			int id = fun(overlay);
+			if(!excluded.test(id)) {
+				return id;
+			}
+		}
+		long start = DRAW_TIMER.start();
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		FolderTree.Snapshot folderSnapshot = this.folderSnapshot;
+		double[] weights = (overlay == null && folderSnapshot != null) ? folderSnapshot.getWeights() : null;
+		int id = walk(snapshot, weights, overlay, excluded);
+		DRAW_TIMER.stop(start);
+		return id;
+	}
+
+	/**        Picks a media file randomly from the weights of a context, by the weights of a user, leaving out some media files,
+	 *         the way fun(WeightOverlay, IntPredicate) does from the shared weights.
+	 *         A context with no weight left outside the media files that are left out is drawn past, to the shared weights.
+	 * @param  overlay as the WeightOverlay of the user, or null for the shared weights.
+	 * @param  context as the QuantizedWeights of the context, or null to draw from the shared weights.
+	 * @param  excluded as whether to leave out the media file with an id.
+	 * @return the id of the media file that was picked, or -1 if only media files that are left out have any weight.
+	 */
+	public int fun(WeightOverlay overlay, QuantizedWeights context, IntPredicate excluded) {
+		if(context == null) {
+			return fun(overlay, excluded);
+		}
+		for(int attempt = 0; attempt < MAX_REJECTIONS; attempt++) {
+			int id = fun(overlay, context);
+			if(!excluded.test(id)) {
+				return id;
+			}
+		}
+		long start = DRAW_TIMER.start();
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		// Media files the context still has but this playlist no longer does are left out too
+		int id = walk(context, null, overlay, slot -> !snapshot.contains(slot) || excluded.test(slot));
+		DRAW_TIMER.stop(start);
+		return (id != -1) ? id : fun(overlay, excluded);
+	}
+
+	/**        Walks every media file to pick one randomly, leaving out some media files, in O(n).
+	 * @param  base as the Weights to draw from.
+	 * @param  weights as the weight of each media file to use instead of base and overlay, or null.
+	 * @param  overlay as the WeightOverlay of the user over base, or null for base itself.
+	 * @param  excluded as whether to leave out the media file with an id.
+	 * @return the id of the media file that was picked, or -1 if only media files that are left out have any weight.
+	 */
+	private int walk(Weights base, double[] weights, WeightOverlay overlay, IntPredicate excluded) {
+		int size = (weights != null) ? weights.length : base.size();
+		double remaining = 0;
+		for(int id = 0; id < size; id++) {
+			if(!excluded.test(id)) {
+				remaining += (weights != null) ? weights[id] : (overlay == null) ? base.getWeight(id) : overlay.getWeight(base, id);
+			}
+		}
+		double target = random.nextDouble()*remaining;
+		int last = -1;
+		for(int id = 0; id < size && remaining > 0; id++) {
+			double weight = (weights != null) ? weights[id] : (overlay == null) ? base.getWeight(id) : overlay.getWeight(base, id);
+			if(weight > 0 && !excluded.test(id)) {
+				last = id;
+				target -= weight;
+				if(target < 0) {
+					break;
+				}
+			}
+		}
+		// Rounding can leave the target just past the last media file, which is then the one picked
+		return last;
+	}
+
+	/**        Makes a media file more likely to be picked.
+	 *         If it has less than a 50% chance, its probability is increased by percent of itself,
+	 *         otherwise it is increased by percent of the remaining probability.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @return the new probability of the media file.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public synchronized double good(int id, double percent) {
+		checkId(id);
+		long start = FEEDBACK_TIMER.start();
+		double probability = record(FeedbackJournal.Type.GOOD, id, percent, null, () -> sampler.good(id, percent));
+		FEEDBACK_TIMER.stop(start);
+		return probability;
+	}
+
+	/**        Makes a media file less likely to be picked, by percent of its probability.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @return the new probability of the media file.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public synchronized double bad(int id, double percent) {
+		checkId(id);
+		long start = FEEDBACK_TIMER.start();
+		double probability = record(FeedbackJournal.Type.BAD, id, percent, null, () -> sampler.bad(id, percent));
+		FEEDBACK_TIMER.stop(start);
+		return probability;
+	}
+
+	/**        Makes every media file in a folder and its sub-folders more likely to be picked, by changing the weight of the folder.
+	 *         The rule of good() is applied to the chance of picking anything in the folder, and what is in it keeps its
+	 *         relative weights. This is O(log k) in each folder of k entries above it.
+	 *         The new weight of the folder is written to the folder WeightStore straight away, if there is one.
+	 * @param  folder as the folder.
+	 * @param  percent as the fraction to adjust by.
+	 * @return the new probability of picking a media file in the folder.
+	 * @throws IllegalStateException if draws are not hierarchical.
+	 * @throws IllegalArgumentException if no media file in folder or its sub-folders has any weight.
+	 */
+	public synchronized double good(File folder, double percent) {
+		return rate(folder, percent, true);
+	}
+
+	/**        Makes every media file in a folder and its sub-folders less likely to be picked, by percent of the chance of the folder.
+	 *         The new weight of the folder is written to the folder WeightStore straight away, if there is one.
+	 * @param  folder as the folder.
+	 * @param  percent as the fraction to adjust by.
+	 * @return the new probability of picking a media file in the folder.
+	 * @throws IllegalStateException if draws are not hierarchical.
+	 * @throws IllegalArgumentException if no media file in folder or its sub-folders has any weight.
+	 */
+	public synchronized double bad(File folder, double percent) {
+		return rate(folder, percent, false);
+	}
+
+	/**        Applies good() or bad() to a folder. Must be called holding the lock of this playlist.
+	 * @param  folder as the folder.
+	 * @param  percent as the fraction to adjust by.
+	 * @param  good as whether it is a good(), otherwise a bad().
+	 * @return the new probability of picking a media file in the folder.
+	 */
+	private double rate(File folder, double percent, boolean good) {
+		if(folders == null)
+			throw new IllegalStateException("Folders can only be rated when draws are hierarchical");
+		int directory = library.directoryIdOf(folder);
+		if(!folders.containsFolder(directory))
+			throw new IllegalArgumentException(folder + " has no media files in the playlist");
+		long start = FEEDBACK_TIMER.start();
+		decay();
+		double probability = good ? folders.good(directory, percent) : folders.bad(directory, percent);
+		if(folderWeights == null || folderWeights.length <= directory) {
+			folderWeights = (folderWeights == null) ? new double[library.directoryCount()] : Arrays.copyOf(folderWeights, library.directoryCount());
+		}
+		folderWeights[directory] = folders.getFactor(directory);
+		if(folderStore != null) {
+			folderStore.weightChanged(directory, folderWeights[directory]);
+		}
+		publish();
+		FEEDBACK_TIMER.stop(start);
+		return probability;
+	}
+
+	/**        Applies a batch of feedback, like play and skip history brought over from another player,
+	 *         with the same result as calling good() or bad() for each in order.
+	 *         The media files are looked up in parallel, then the feedback is applied in one pass over the weights,
+	 *         which are written to the WeightStore and published to draws once at the end.
+	 *         Every applied event is still journaled, so a replay after a crash gets the same weights.
+	 *         Feedback on media files that are not in this playlist is skipped.
+	 * @param  events as the feedback, in the order it was given.
+	 * @return the number of events that were applied.
+	 */
+	public synchronized int feedback(List<Feedback> events) {
+		long start = BATCH_FEEDBACK_TIMER.start();
+		int n = events.size();
+		int[] ids = new int[n];
+		boolean[] good = new boolean[n];
+		double[] percents = new double[n];
+		// Lookups only read the library, which nothing changes while the lock is held
+		IntStream.range(0, n).parallel().forEach(i -> {
+			Feedback event = events.get(i);
+			ids[i] = library.idOf(event.getFile());
+			good[i] = event.isGood();
+			percents[i] = event.getPercent();
+		});
+		int applied;
+		decay();
+		if(journal == null) {
+			applied = sampler.feedback(ids, good, percents, n);
+		} else {
+			synchronized(store) {
+				long sequence = store.getLastSequence();
+				for(int i = 0; i < n; i++) {
+					if(ids[i] != -1 && sampler.contains(ids[i])) {
+						sequence = journal.append(good[i] ? FeedbackJournal.Type.GOOD : FeedbackJournal.Type.BAD, ids[i], percents[i], null);
+					}
+				}
+				store.setSequence(sequence);
+				applied = sampler.feedback(ids, good, percents, n);
+			}
+		}
+		publish();
+		BATCH_FEEDBACK_TIMER.stop(start);
+		return applied;
+	}
+
+	/**        Makes a media file more likely to be picked for a user, without touching the shared weights.
+	 *         The change is not journaled, as replaying it would need the shared weights it was made from;
+	 *         LibraryShard writes the overlays out within seconds of a change instead.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @param  overlay as the WeightOverlay of the user, WeightOverlay.EMPTY if the user has not given feedback yet.
+	 * @return the WeightOverlay with the new rating.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public WeightOverlay good(int id, double percent, WeightOverlay overlay) {
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		checkId(snapshot, id);
+		long start = FEEDBACK_TIMER.start();
+		WeightOverlay rated = overlay.good(snapshot, id, percent);
+		FEEDBACK_TIMER.stop(start);
+		return rated;
+	}
+
+	/**        Makes a media file less likely to be picked for a user, without touching the shared weights.
+	 *         The change is not journaled, as replaying it would need the shared weights it was made from;
+	 *         LibraryShard writes the overlays out within seconds of a change instead.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @param  overlay as the WeightOverlay of the user, WeightOverlay.EMPTY if the user has not given feedback yet.
+	 * @return the WeightOverlay with the new rating.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public WeightOverlay bad(int id, double percent, WeightOverlay overlay) {
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		checkId(snapshot, id);
+		long start = FEEDBACK_TIMER.start();
+		WeightOverlay rated = overlay.bad(snapshot, id, percent);
+		FEEDBACK_TIMER.stop(start);
+		return rated;
+	}
+
+	/**        Makes a media file more likely to be picked in a context, without touching the shared weights.
+	 *         The change is not journaled, as its rounding is random and would not replay the same;
+	 *         LibraryShard writes the contexts out within seconds of a change instead.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @param  context as the QuantizedWeights of the context, or null if it has had no feedback yet.
+	 * @param  bits as the number of bits to keep each weight of a new context in, 8 or 16.
+	 * @return the QuantizedWeights with the new weight.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public QuantizedWeights good(int id, double percent, QuantizedWeights context, int bits) {
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		checkId(snapshot, id);
+		long start = FEEDBACK_TIMER.start();
+		QuantizedWeights rated = ((context == null) ? QuantizedWeights.of(snapshot, bits) : context).good(id, percent, random);
+		FEEDBACK_TIMER.stop(start);
+		return rated;
+	}
+
+	/**        Makes a media file less likely to be picked in a context, without touching the shared weights.
+	 *         The change is not journaled, as its rounding is random and would not replay the same;
+	 *         LibraryShard writes the contexts out within seconds of a change instead.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @param  context as the QuantizedWeights of the context, or null if it has had no feedback yet.
+	 * @param  bits as the number of bits to keep each weight of a new context in, 8 or 16.
+	 * @return the QuantizedWeights with the new weight.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public QuantizedWeights bad(int id, double percent, QuantizedWeights context, int bits) {
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		checkId(snapshot, id);
+		long start = FEEDBACK_TIMER.start();
+		QuantizedWeights rated = ((context == null) ? QuantizedWeights.of(snapshot, bits) : context).bad(id, percent, random);
+		FEEDBACK_TIMER.stop(start);
+		return rated;
+	}
+
+	/** Gives all the media files the same chance of being picked, and every folder the same weight.
+	 *
+	 */
+	public synchronized void clearProbs() {
+		record(FeedbackJournal.Type.RESET, -1, 0, null, () -> {
+			sampler.clearProbs();
+			clearFolderWeights();
+			return 0;
+		});
+	}
+
+	/** Gives every folder the same weight. Must be called holding the lock of this playlist.
+	 *
+	 */
+	private void clearFolderWeights() {
+		if(folderStore != null && folderWeights != null) {
+			for(int directory = 0; directory < folderWeights.length; directory++) {
+				if(folderWeights[directory] != 0) {
+					folderStore.weightChanged(directory, 0);
+				}
+			}
+		}
+		folderWeights = null;
+		if(folders != null) {
+			folders.clearFactors();
+		}
+	}
+
+	/**       Adds a media file with an equal share of the probability. Does nothing if it is already in this playlist.
+	 * @param file as the media file.
+	 * @return the id of the media file.
+	 */
+	public synchronized int addToAll(File file) {
+		int count = library.count();
+		int id = library.add(file);
+		if(library.count() != count) {
+			record(FeedbackJournal.Type.ADD, id, 0, library.getPath(id), () -> {
+				sampler.add(id);
+				return 0;
+			});
+		}
+		return id;
+	}
+
+	/**       Removes a media file. Does nothing if it is not in this playlist.
+	 * @param file as the media file.
+	 * @return the id the media file had, or -1 if it was not in this playlist.
+	 */
+	public synchronized int removeFromAll(File file) {
+		String path = file.getAbsolutePath();
+		int id = library.remove(file);
+		if(id != -1) {
+			record(FeedbackJournal.Type.REMOVE, id, 0, path, () -> {
+				sampler.remove(id);
+				return 0;
+			});
+		}
+		return id;
+	}
+
+	/**        Removes a media file by id.
+	 * @param  id as the id of the media file.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public synchronized void removeFromAll(int id) {
+		checkId(id);
+		String path = library.getPath(id);
+		library.remove(id);
+		record(FeedbackJournal.Type.REMOVE, id, 0, path, () -> {
+			sampler.remove(id);
+			return 0;
+		});
+	}
+
+	/**        Takes out a media file found to be a copy of another, keeping what was learned about it.
+	 *         Both started from the average weight, so the weight of survivor is multiplied by how far the weight of duplicate moved from it.
+	 * @param  duplicate as the id of the copy that is taken out.
+	 * @param  survivor as the id of the media file that stays.
+	 * @return the new weight of survivor.
+	 * @throws IllegalArgumentException if either id is not in this playlist, or they are the same.
+	 */
+	public synchronized double merge(int duplicate, int survivor) {
+		checkId(duplicate);
+		checkId(survivor);
+		if(duplicate == survivor)
+			throw new IllegalArgumentException("id " + duplicate + " can not be merged into itself");
+		decay();
+		double factor = sampler.getWeight(duplicate)*sampler.count()/sampler.total();
+		record(FeedbackJournal.Type.MERGE, survivor, factor, null, () -> {
+			scaleWeight(survivor, factor);
+			return 0;
+		});
+		removeFromAll(duplicate);
+		return sampler.getWeight(survivor);
+	}
+
+	/**       Multiplies the weight of a media file, unless that would leave it without a usable weight.
+	 * @param id as the id of the media file.
+	 * @param factor as what to multiply the weight by.
+	 */
+	private void scaleWeight(int id, double factor) {
+		double weight = sampler.getWeight(id)*factor;
+		if(weight > 0 && !Double.isInfinite(weight)) {
+			sampler.setWeight(id, weight);
+		}
+	}
+
+	/**        Moves a media file to a new path, like when it was renamed or its folder was reorganized.
+	 *         It keeps its id, and so its weight and ratings.
+	 * @param  id as the id of the media file.
+	 * @param  file as the new path of the media file.
+	 * @throws IllegalArgumentException if id is not in this playlist or another media file already has the new path.
+	 */
+	public synchronized void move(int id, File file) {
+		checkId(id);
+		library.move(id, file);
+		if(folders != null) {
+			folders.add(id);
+			publish();
+		}
+	}
+
+	/**
+	 * @param  file as the media file.
+	 * @return whether or not the media file is in this playlist.
+	 */
+	public synchronized boolean contains(File file) {
+		return library.idOf(file) != -1;
+	}
+
+	/**
+	 * @param  id as the id.
+	 * @return whether or not the id belongs to a media file in this playlist.
+	 */
+	public synchronized boolean contains(int id) {
+		return library.contains(id);
+	}
+
+	/**
+	 * @param  file as the media file.
+	 * @return the id of the media file, or -1 if it is not in this playlist.
+	 */
+	public synchronized int idOf(File file) {
+		return library.idOf(file);
+	}
+
+	/**        Gets a media file.
+	 * @param  id as the id of the media file.
+	 * @return the media file.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	@Override
+	public synchronized File getFile(int id) {
+		return library.getFile(id);
+	}
+
+	/**        Gets the name of a media file.
+	 * @param  id as the id of the media file.
+	 * @return the name of the media file.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	public synchronized String getName(int id) {
+		return library.getName(id);
+	}
+
+	/**
+	 * @param  id as the id of the media file.
+	 * @return the probability of the media file being picked, or 0 if it is not in this playlist.
+	 */
+	public double getProbability(int id) {
+		FolderTree.Snapshot folderSnapshot = this.folderSnapshot;
+		return (folderSnapshot != null) ? folderSnapshot.getProbability(id) : snapshot.getProbability(id);
+	}
+
+	/**
+	 * @param  id as the id of the media file.
+	 * @param  overlay as the WeightOverlay of a user, or null for the shared weights.
+	 * @return the weight of the media file for the user, or 0 if it is not in this playlist.
+	 */
+	public double getWeight(int id, WeightOverlay overlay) {
+		FolderTree.Snapshot folderSnapshot = this.folderSnapshot;
+		if(overlay == null && folderSnapshot != null) {
+			return folderSnapshot.getWeight(id);
+		}
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		return (overlay == null) ? snapshot.getWeight(id) : overlay.getWeight(snapshot, id);
+	}
+
+	/**
+	 * @param  id as the id of the media file.
+	 * @param  overlay as the WeightOverlay of a user, or null for the shared weights.
+	 * @return the probability of the media file being picked for the user, or 0 if it is not in this playlist.
+	 */
+	public double getProbability(int id, WeightOverlay overlay) {
+		if(overlay == null) {
+			return getProbability(id);
+		}
+		return overlay.getProbability(snapshot, id);
+	}
+
+	/**
+	 * @return the Shannon entropy of the probabilities in bits: 0 when one media file is always picked,
+	 *         and log2 of the number of media files when they all have the same chance. This is O(n).
+	 */
+	public double getEntropy() {
+		return getEntropy(null);
+	}
+
+	/**
+	 * @param  overlay as the WeightOverlay of a user, or null for the shared weights.
+	 * @return the Shannon entropy of the probabilities for the user in bits. This is O(n).
+	 */
+	public double getEntropy(WeightOverlay overlay) {
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		FolderTree.Snapshot folderSnapshot = this.folderSnapshot;
+		double[] weights = (overlay == null && folderSnapshot != null) ? folderSnapshot.getWeights() : null;
+		double total = (weights != null) ? folderSnapshot.total() : (overlay == null) ? snapshot.total() : overlay.total(snapshot);
+		double entropy = 0;
+		if(total > 0) {
+			for(int id = 0; id < ((weights != null) ? weights.length : snapshot.size()); id++) {
+				double p = ((weights != null) ? weights[id] : (overlay == null) ? snapshot.getWeight(id) : overlay.getWeight(snapshot, id))/total;
+				if(p > 0) {
+					entropy -= p*Math.log(p);
+				}
+			}
+		}
+		return entropy/Math.log(2);
+	}
+
+	/**
+	 * @return the sum of the weights, which starts as the number of media files and grows or shrinks with feedback.
+	 */
+	public double getTotalWeight() {
+		return getTotalWeight(null);
+	}
+
+	/**
+	 * @param  overlay as the WeightOverlay of a user, or null for the shared weights.
+	 * @return the sum of the weights for the user.
+	 */
+	public double getTotalWeight(WeightOverlay overlay) {
+		FolderTree.Snapshot folderSnapshot = this.folderSnapshot;
+		if(overlay == null && folderSnapshot != null) {
+			return folderSnapshot.total();
+		}
+		WeightedSampler.Snapshot snapshot = this.snapshot;
+		return (overlay == null) ? snapshot.total() : overlay.total(snapshot);
+	}
+
+	/**
+	 * @return whether or not draws from the shared weights pick a folder at each level of the directories.
+	 */
+	public boolean isHierarchical() {
+		return folderSnapshot != null;
+	}
+
+	/**       Sets whether draws from the shared weights pick a folder at each level of the directories down to a media file,
+	 *        rather than picking from every media file at once. Turning it on builds the folders in O(n).
+	 *        Without sub-directories every media file is in one folder, so the draws are the same as flat ones.
+	 *        The weights of the folders are kept while draws are flat, for when they are hierarchical again.
+	 * @param hierarchical as whether or not draws are hierarchical.
+	 */
+	public synchronized void setHierarchical(boolean hierarchical) {
+		if(hierarchical != (folders != null)) {
+			folders = hierarchical ? newFolderTree() : null;
+			listen();
+			publish();
+		}
+	}
+
+	/**
+	 * @param  folder as the folder.
+	 * @return the probability of picking a media file in the folder or its sub-folders, or 0 if draws are not hierarchical.
+	 */
+	public synchronized double getProbability(File folder) {
+		return (folders == null) ? 0 : folders.getFolderProbability(library.directoryIdOf(folder));
+	}
+
+	/**        Makes a FolderTree of the weights of sampler, with the saved weights of the folders.
+	 *         Must be called holding the lock of this playlist.
+	 * @return the FolderTree.
+	 */
+	private FolderTree newFolderTree() {
+		FolderTree tree = new FolderTree(sampler, library::directoryOf, library::parentOf);
+		if(folderWeights != null) {
+			for(int directory = 0; directory < Math.min(folderWeights.length, library.directoryCount()); directory++) {
+				if(folderWeights[directory] > 0) {
+					tree.setFactor(directory, folderWeights[directory]);
+				}
+			}
+		}
+		return tree;
+	}
+
+	/** Tells the WeightStore and the FolderTree, whichever there are, about every change to the weights of sampler.
+	 *  Must be called holding the lock of this playlist.
+	 */
+	private void listen() {
+		WeightStore store = this.store;
+		FolderTree folders = this.folders;
+		if(store == null || folders == null) {
+			sampler.setWeightListener((store != null) ? store : folders);
+			return;
+		}
+		sampler.setWeightListener(new WeightedSampler.WeightListener() {
+
+			@Override
+			public void weightChanged(int slot, double weight) {
+				store.weightChanged(slot, weight);
+				folders.weightChanged(slot, weight);
+			}
+
+			@Override
+			public void weightsChanged(WeightedSampler sampler) {
+				store.weightsChanged(sampler);
+				folders.weightsChanged(sampler);
+			}
+
+			@Override
+			public void decayChanged(WeightedSampler sampler) {
+				store.decayChanged(sampler);
+				folders.decayChanged(sampler);
+			}
+
+		});
+	}
+
+	/**
+	 * @return how long it takes what was learned to fade by half, in milliseconds, or 0 if it never fades.
+	 */
+	public long getHalfLife() {
+		return halfLife;
+	}
+
+	/**        Sets how long it takes what was learned to fade by half. The half-life is saved with the playlist.
+	 *         Turning the decay off keeps the weights as far as they faded.
+	 * @param  halfLife as the half-life in milliseconds, or 0 for what was learned to never fade.
+	 * @throws IllegalArgumentException if halfLife is negative.
+	 */
+	public synchronized void setHalfLife(long halfLife) {
+		if(halfLife < 0)
+			throw new IllegalArgumentException("halfLife passed to setHalfLife() must not be negative");
+		// What faded under the old half-life is kept
+		decay();
+		this.halfLife = halfLife;
+		decay();
+		publish();
+	}
+
+	/** Brings the decay up to date and publishes it, if the last Snapshot is a DECAY_STEPS part of the half-life old.
+	 *  Only a draw every so often takes the lock, and it does O(1) work.
+	 */
+	private void decayIfStale() {
+		long halfLife = this.halfLife;
+		if(halfLife > 0 && System.currentTimeMillis() - publishedAt >= halfLife/DECAY_STEPS) {
+			synchronized(this) {
+				if(System.currentTimeMillis() - publishedAt >= halfLife/DECAY_STEPS) {
+					decay();
+					publish();
+				}
+			}
 		}
 	}
 
+	/** Brings the decay of the weights up to now. Must be called holding the lock of this playlist.
+	 *
+	 */
+	private void decay() {
+		sampler.decay(System.currentTimeMillis(), halfLife);
+	}
+
+	/**
+	 * @return the weights as of the last change, which draws are made from.
+	 */
+	public WeightedSampler.Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the number of media files in this playlist.
+	 */
+	public synchronized int size() {
+		return library.count();
+	}
+
+	/**        Gets a copy of what is saved of this playlist: its media files, half-life and folder weights.
+	 *         The weights are in the WeightStore and are not part of it. The copy is made holding the lock, in O(n) array copies,
+	 *         so it can be written to disk without the lock. It is only meant to be written.
+	 * @return the copy.
+	 */
+	public synchronized RandomPlaylist copyForSaving() {
+		return new RandomPlaylist(library.copy(), halfLife, (folderWeights == null) ? null : folderWeights.clone());
+	}
+
+	/**
+	 * @return the media files of this playlist and their ids, which must only be read while holding the lock of this playlist.
+	 */
+	public LibraryStore getLibrary() {
+		return library;
+	}
+
 	/**
-	 * @return the ProbFunTree that controls the probability of which media gets played.
-	 *         
+	 * @return a copy of the media files mapped to their probabilities. This is O(n), so it is meant for diagnostics.
+	 */
+	public synchronized Map<File, Double> getParentMap() {
+		Map<File, Double> map = new LinkedHashMap<File, Double>();
+		library.forEach(id -> map.put(library.getFile(id), (folders != null) ? folders.getProbability(id) : sampler.getProbability(id)));
+		return map;
+	}
+
+	/**       Keeps the weights in a WeightStore from now on, so every change is written to it as it happens.
+	 *        If the store holds weights, they replace the current ones; media files the store has no weight for
+	 *        get the average weight, as the playlist may have been saved before or after the store last was.
+	 *        Otherwise the current weights are written to it.
+	 * @param store as the WeightStore.
+	 * @return true if the weights were read from store.
 	 */
-	public ProbFunTree<File> getProbFun() {
-		return probabilityFunction;
+	public synchronized boolean attachWeights(WeightStore store) {
+		double[] stored = store.readWeights();
+		double[] weights = new double[library.size()];
+		boolean changed = stored.length > weights.length;
+		double total = 0;
+		int found = 0;
+		for(int id = 0; id < weights.length; id++) {
+			double weight = id < stored.length ? stored[id] : 0;
+			if(!library.contains(id)) {
+				changed |= weight != 0;
+			} else if(weight > 0 && !Double.isInfinite(weight)) {
+				weights[id] = weight;
+				total += weight;
+				found++;
+			} else {
+				changed = true;
+			}
+		}
+		boolean usable = store.isValid() && found > 0;
+		if(usable) {
+			double average = total/found;
+			for(int id = 0; id < weights.length; id++) {
+				if(weights[id] == 0 && library.contains(id)) {
+					weights[id] = average;
+				}
+			}
+			sampler = new WeightedSampler(weights);
+			sampler.setDecay(store.getBaseline(), store.getScale(), store.getDecayedAt());
+		}
+		if(!usable || changed) {
+			store.weightsChanged(sampler);
+		}
+		this.store = store;
+		if(folders != null) {
+			folders = newFolderTree();
+		}
+		listen();
+		decay();
+		publish();
+		return usable;
+	}
+
+	/**       Keeps the weights of the folders in a WeightStore from now on, so every rating of a folder is written to it as it happens.
+	 *        If the store holds weights, they replace the ones that were saved with this playlist, as they are never older.
+	 *        Otherwise the current weights are written to it. Must be called before attachJournal(), so a replayed reset reaches it.
+	 * @param folderStore as the WeightStore, which is separate from the one of the media files.
+	 */
+	public synchronized void attachFolderWeights(WeightStore folderStore) {
+		if(folderStore.isValid()) {
+			double[] stored = folderStore.readWeights();
+			folderWeights = null;
+			for(int directory = 0; directory < Math.min(stored.length, library.directoryCount()); directory++) {
+				if(stored[directory] > 0 && !Double.isInfinite(stored[directory])) {
+					if(folderWeights == null) {
+						folderWeights = new double[library.directoryCount()];
+					}
+					folderWeights[directory] = stored[directory];
+				}
+			}
+		} else if(folderWeights != null) {
+			for(int directory = 0; directory < folderWeights.length; directory++) {
+				if(folderWeights[directory] != 0) {
+					folderStore.weightChanged(directory, folderWeights[directory]);
+				}
+			}
+		}
+		this.folderStore = folderStore;
+		if(folders != null) {
+			folders = newFolderTree();
+			listen();
+			publish();
+		}
+	}
+
+	/**        Records every change in a FeedbackJournal from now on, after replaying the events in it that the
+	 *         WeightStore does not have yet. Must be called after attachWeights().
+	 *         Events about media files that are no longer in this playlist are skipped.
+	 * @param  journal as the FeedbackJournal.
+	 * @param  compactBytes as the size in bytes the journal has to pass before the weights are snapshotted and it is compacted.
+	 * @return the number of events replayed.
+	 * @throws IllegalStateException if attachWeights() has not been called.
+	 * @throws IOException if the journal could not be read.
+	 */
+	public synchronized int attachJournal(FeedbackJournal journal, long compactBytes) throws IOException {
+		if(store == null)
+			throw new IllegalStateException("attachWeights() must be called before attachJournal()");
+		this.journal = null;
+		int replayed = journal.replay(store.getLastSequence(), e -> {
+			synchronized(store) {
+				store.setSequence(e.getSequence());
+				apply(e);
+			}
+		});
+		// The journal may have been started again while the store kept its weights
+		journal.skipTo(store.getLastSequence());
+		this.journal = journal;
+		// The events were replayed at the decay the store was left at
+		decay();
+		WeightStore snapshotStore = store;
+		journal.setCompaction(() -> {
+			try {
+				return snapshotStore.writeSnapshot();
+			} catch (IOException e) {
+				System.out.print(String.format("Problem writing the weight snapshot\n"));
+				e.printStackTrace();
+				return -1;
+			}
+		}, compactBytes);
+		publish();
+		return replayed;
+	}
+
+	/**       Applies an event from the journal, if it still makes sense for this playlist.
+	 * @param e as the event.
+	 */
+	private void apply(FeedbackJournal.Event e) {
+		int id = e.getId();
+		boolean live = library.contains(id) && sampler.contains(id);
+		switch(e.getType()) {
+		case GOOD:
+			if(live) {
+				sampler.good(id, e.getValue());
+			}
+			break;
+		case BAD:
+			if(live) {
+				sampler.bad(id, e.getValue());
+			}
+			break;
+		case RESET:
+			sampler.clearProbs();
+			clearFolderWeights();
+			break;
+		case ADD:
+			// The library is reconciled with the disk after the replay, so only the weight is put back
+			if(library.contains(id) && !sampler.contains(id)) {
+				sampler.add(id);
+			}
+			break;
+		case REMOVE:
+			if(!library.contains(id) && sampler.contains(id)) {
+				sampler.remove(id);
+			}
+			break;
+		case MERGE:
+			if(live) {
+				scaleWeight(id, e.getValue());
+			}
+			break;
+		}
+	}
+
+	/**       Makes a change, recording it in the journal first if there is one, and publishes it to draws.
+	 *        The sequence number of the event is written to the WeightStore with the change,
+	 *        so a snapshot never claims an event whose change it does not have.
+	 *        Must be called holding the lock of this playlist.
+	 * @param type as what the change does.
+	 * @param id as the id of the media file, or -1 for a RESET.
+	 * @param value as the percent of a GOOD or BAD, the factor of a MERGE, otherwise 0.
+	 * @param path as the path of the media file of an ADD or REMOVE, otherwise null.
+	 * @param change as the change.
+	 * @return what change returned.
+	 */
+	private double record(FeedbackJournal.Type type, int id, double value, String path, DoubleSupplier change) {
+		double result;
+		decay();
+		if(journal == null) {
+			result = change.getAsDouble();
+		} else {
+			synchronized(store) {
+				store.setSequence(journal.append(type, id, value, path));
+				result = change.getAsDouble();
+			}
+		}
+		publish();
+		return result;
+	}
+
+	/** Publishes the weights of sampler to draws. Must be called holding the lock of this playlist.
+	 *
+	 */
+	private void publish() {
+		snapshot = sampler.snapshot();
+		folderSnapshot = (folders == null) ? null : folders.snapshot(snapshot);
+		publishedAt = System.currentTimeMillis();
+	}
+
+	/**       Sets how the media files are drawn.
+	 *        ALIAS makes draws O(1) at the cost of an O(n) rebuild after feedback, for long sessions without much feedback.
+	 * @param mode as the WeightedSampler.Mode.
+	 */
+	public synchronized void setSamplingMode(WeightedSampler.Mode mode) {
+		sampler.setMode(mode);
+		publish();
+	}
+
+	/**       Checks that an id is in this playlist.
+	 * @param id as the id.
+	 * @throws IllegalArgumentException if id is not in this playlist.
+	 */
+	private void checkId(int id) {
+		if(!library.contains(id))
+			throw new IllegalArgumentException("id " + id + " is not in the playlist");
+	}
+
+	/**       Checks that an id has a weight in a Snapshot.
+	 * @param snapshot as the Snapshot.
+	 * @param id as the id.
+	 * @throws IllegalArgumentException if id is not in snapshot.
+	 */
+	private static void checkId(WeightedSampler.Snapshot snapshot, int id) {
+		if(!snapshot.contains(id))
+			throw new IllegalArgumentException("id " + id + " is not in the playlist");
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		random = new Random();
+		// Playlists saved before the decay have no half-life
+		halfLife = fields.get("halfLife", 0L);
+		// Playlists saved before hierarchical draws have no folder weights
+		folderWeights = (double[]) fields.get("folderWeights", null);
+		if(folderWeights != null) {
+			for(double weight : folderWeights) {
+				if(!(weight >= 0) || Double.isInfinite(weight))
+					throw new IOException("Corrupt RandomPlaylist");
+			}
+		}
+		ProbFunTree<File> legacy = null;
+		try {
+			legacy = (ProbFunTree<File>) fields.get("probabilityFunction", null);
+		} catch (IllegalArgumentException e) {
+			// Only playlists saved before the WeightedSampler have the field
+		}
+		if(legacy != null) {
+			// Playlists saved before the WeightedSampler keep their learned probabilities
+			Map<File, Double> probabilities = legacy.getParentMap();
+			sampler = new WeightedSampler(probabilities.size());
+			library = new LibraryStore(probabilities.size());
+			for(Entry<File, Double> e : probabilities.entrySet()) {
+				if(e.getValue() > 0) {
+					sampler.add(library.add(e.getKey()), e.getValue());
+				}
+			}
+		} else {
+			library = (LibraryStore) fields.get("library", null);
+			if(library == null)
+				throw new IOException("Corrupt RandomPlaylist");
+			try {
+				// Playlists saved before the WeightStore have their weights in the stream
+				sampler = (WeightedSampler) fields.get("sampler", null);
+			} catch (IllegalArgumentException e) {
+				sampler = null;
+			}
+			if(sampler == null) {
+				// Until attachWeights() is called
+				sampler = new WeightedSampler(library.size());
+				library.forEach(id -> sampler.add(id));
+			}
+		}
+		publish();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,604 @@
+package aIPlaylist;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import algorithms.QuantizedWeights;
+import algorithms.RecentWindow;
+import algorithms.WeightOverlay;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The media files of several LibraryShards, drawn from as one playlist.
+ *         A draw picks a shard in proportion to the total weight of its RandomPlaylist, then draws within it.
+ *         Every media file starts with the same weight whichever shard it is in, so until there is feedback
+ *         this is the same as drawing from one playlist of all the media files;
+ *         feedback on a media file moves the total of its shard, and so the share of the shard, with it.
+ *         An id is the slot of the shard in the top bits and the id within the shard in the rest,
+ *         so the ids of one shard never change when another is added or removed.
+ *         When a user is set, draws and feedback go through the WeightOverlay of that user in each shard,
+ *         so everyone shares one library and its weights, and switching users only changes which overlays are read.
+ *         With ContextBuckets, feedback with no user set also goes to the QuantizedWeights of the bucket it is given in,
+ *         and draws within a shard come from them instead of the shared weights, but for a contextBlend share of the draws.
+ *         Shards are still picked by their shared totals.
+ */
+public final class ShardedPlaylist implements MediaSource {
+
+	// The bits of an id that hold the id within the shard
+	static final int ID_BITS = 24;
+	private static final int ID_MASK = (1 << ID_BITS) - 1;
+
+	// The most shards there can be, so ids stay positive
+	static final int MAX_SHARDS = 1 << (31 - ID_BITS);
+
+	// By slot, with null for free slots; replaced as a whole when a shard is added or removed, so draws never lock
+	private volatile LibraryShard[] shards = new LibraryShard[0];
+
+	private final Random random = new Random();
+
+	// The user whose overlays are used, or null for the shared weights
+	private volatile String user;
+
+	// How feedback and draws are put in context buckets
+	private volatile ContextBuckets contextBuckets = ContextBuckets.NONE;
+
+	// The share of draws made from the shared weights when the bucket has weights of its own
+	private volatile double contextBlend = 0.5;
+
+	// The bits each weight of a new bucket is kept in
+	private volatile int contextBits = 8;
+
+	// Whether draws from the shared weights pick a folder at each level of the directories of a shard
+	private volatile boolean hierarchical = false;
+
+	/**        Makes an id out of the slot of a shard and an id within it.
+	 * @param  slot as the slot of the shard.
+	 * @param  id as the id within the shard.
+	 * @return the id.
+	 */
+	public static int idOf(int slot, int id) {
+		return (slot << ID_BITS) | id;
+	}
+
+	/**
+	 * @param  id as an id.
+	 * @return the slot of the shard the id belongs to.
+	 */
+	public static int slotOf(int id) {
+		return id >>> ID_BITS;
+	}
+
+	/**
+	 * @param  id as an id.
+	 * @return the id within the shard.
+	 */
+	public static int localIdOf(int id) {
+		return id & ID_MASK;
+	}
+
+	/**        Adds a shard in the first free slot.
+	 * @param  shard as the shard.
+	 * @return the slot of the shard.
+	 * @throws IllegalStateException if there are already MAX_SHARDS shards.
+	 */
+	public synchronized int add(LibraryShard shard) {
+		LibraryShard[] current = shards;
+		int slot = 0;
+		while(slot < current.length && current[slot] != null) {
+			slot++;
+		}
+		if(slot == MAX_SHARDS)
+			throw new IllegalStateException("There can not be more than " + MAX_SHARDS + " libraries");
+		shard.setContextBuckets(contextBuckets);
+		shard.setHierarchical(hierarchical);
+		LibraryShard[] next = Arrays.copyOf(current, Math.max(current.length, slot + 1));
+		next[slot] = shard;
+		shards = next;
+		return slot;
+	}
+
+	/**       Removes the shard in a slot. The ids of the shard should be forgotten, as the slot gets reused.
+	 * @param slot as the slot.
+	 */
+	public synchronized void remove(int slot) {
+		LibraryShard[] next = shards.clone();
+		if(slot >= 0 && slot < next.length) {
+			next[slot] = null;
+		}
+		shards = next;
+	}
+
+	/**       Removes every shard.
+	 *
+	 */
+	public synchronized void clear() {
+		shards = new LibraryShard[0];
+	}
+
+	/**
+	 * @param  slot as a slot.
+	 * @return the shard in the slot, or null if there is none.
+	 */
+	public LibraryShard getShard(int slot) {
+		LibraryShard[] current = shards;
+		return (slot >= 0 && slot < current.length) ? current[slot] : null;
+	}
+
+	/**
+	 * @return the shards, in slot order.
+	 */
+	public List<LibraryShard> getShards() {
+		List<LibraryShard> list = new ArrayList<LibraryShard>();
+		for(LibraryShard shard : shards) {
+			if(shard != null) {
+				list.add(shard);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @param  folder as the root of a library.
+	 * @return the slot of the shard for folder, or -1 if there is none.
+	 */
+	public int slotOf(File folder) {
+		LibraryShard[] current = shards;
+		for(int slot = 0; slot < current.length; slot++) {
+			if(current[slot] != null && current[slot].getFolder().equals(folder)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**       Sets whose weights are drawn by and get feedback. This is O(1); the overlays are looked up as they are used.
+	 * @param user as the name of the user, or null for the shared weights.
+	 */
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	/**
+	 * @return the name of the user whose weights are used, or null for the shared weights.
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	/**        Sets how feedback and draws are put in context buckets. Changing the buckets forgets what the old ones learned.
+	 *         With a blend of 0, media files added after a bucket got its weights are only drawn in it once they get feedback there.
+	 * @param  buckets as the ContextBuckets, NONE to only use the shared weights.
+	 * @param  blend as the share of draws made from the shared weights when the bucket has weights of its own, between 0 and 1.
+	 * @param  bits as the number of bits to keep each weight of a bucket in, 8 or 16.
+	 * @throws IllegalArgumentException if blend is not between 0 and 1 or bits is not 8 or 16.
+	 */
+	public synchronized void setContexts(ContextBuckets buckets, double blend, int bits) {
+		if(!(blend >= 0 && blend <= 1))
+			throw new IllegalArgumentException("blend passed to setContexts() must be between 0 and 1");
+		if(bits != 8 && bits != 16)
+			throw new IllegalArgumentException("bits passed to setContexts() must be 8 or 16");
+		contextBuckets = Objects.requireNonNull(buckets);
+		contextBlend = blend;
+		contextBits = bits;
+		for(LibraryShard shard : shards) {
+			if(shard != null) {
+				shard.setContextBuckets(buckets);
+			}
+		}
+	}
+
+	/**
+	 * @return how feedback and draws are put in context buckets.
+	 */
+	public ContextBuckets getContextBuckets() {
+		return contextBuckets;
+	}
+
+	/**       Sets whether draws from the shared weights pick a folder at each level of the directories of a shard,
+	 *        so folders can be rated with good(File, double) and bad(File, double).
+	 * @param hierarchical as whether or not draws are hierarchical.
+	 */
+	public synchronized void setHierarchical(boolean hierarchical) {
+		this.hierarchical = hierarchical;
+		for(LibraryShard shard : shards) {
+			if(shard != null) {
+				shard.setHierarchical(hierarchical);
+			}
+		}
+	}
+
+	/**
+	 * @return whether or not draws from the shared weights pick a folder at each level of the directories of a shard.
+	 */
+	public boolean isHierarchical() {
+		return hierarchical;
+	}
+
+	/**
+	 * @return whether or not there are no media files to draw.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return the number of media files in every shard.
+	 */
+	public int size() {
+		int size = 0;
+		for(LibraryShard shard : shards) {
+			RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+			if(playlist != null) {
+				size += playlist.size();
+			}
+		}
+		return size;
+	}
+
+	/**        Picks a shard by its total weight, and then a media file within it.
+	 * @return the id of the media file that was picked.
+	 * @throws IllegalStateException if there are no media files.
+	 */
+	@Override
+	public int fun() {
+		LibraryShard[] current = shards;
+		String user = this.user;
+		WeightOverlay[] overlays = new WeightOverlay[current.length];
+		double[] totals = new double[current.length];
+		double total = 0;
+		for(int slot = 0; slot < current.length; slot++) {
+			RandomPlaylist playlist = (current[slot] != null) ? current[slot].getPlaylist() : null;
+			if(playlist != null) {
+				overlays[slot] = current[slot].getOverlay(user);
+				totals[slot] = playlist.getTotalWeight(overlays[slot]);
+				total += totals[slot];
+			}
+		}
+		if(total <= 0)
+			throw new IllegalStateException("fun() called on a ShardedPlaylist with no media files");
+		double target = random.nextDouble()*total;
+		int picked = -1;
+		for(int slot = 0; slot < current.length; slot++) {
+			if(totals[slot] > 0) {
+				picked = slot;
+				target -= totals[slot];
+				if(target < 0) {
+					break;
+				}
+			}
+		}
+		// Rounding can leave the target just past the last shard, which is then the one picked
+		return idOf(picked, draw(current[picked], overlays[picked], contextBuckets.current()));
+	}
+
+	/**        Draws a media file within a shard, from the weights of the context bucket, if it has any, or the shared weights.
+	 * @param  shard as the shard.
+	 * @param  overlay as the WeightOverlay of the user, or null for the shared weights.
+	 * @param  bucket as the context bucket, or -1 for none.
+	 * @return the id of the media file within the shard.
+	 */
+	private int draw(LibraryShard shard, WeightOverlay overlay, int bucket) {
+		RandomPlaylist playlist = shard.getPlaylist();
+		QuantizedWeights context = contextOf(shard, bucket);
+		return (context == null) ? playlist.fun(overlay) : playlist.fun(overlay, context);
+	}
+
+	/**        Picks whether a draw within a shard follows the weights of the context bucket, blended by contextBlend.
+	 * @param  shard as the shard.
+	 * @param  bucket as the context bucket, or -1 for none.
+	 * @return the QuantizedWeights of the bucket to draw from, or null to draw from the shared weights.
+	 */
+	private QuantizedWeights contextOf(LibraryShard shard, int bucket) {
+		QuantizedWeights context = (bucket != -1) ? shard.getContext(bucket) : null;
+		return (context == null || random.nextDouble() < contextBlend) ? null : context;
+	}
+
+	/**        Picks a media file like fun(), leaving out the ones in a RecentWindow.
+	 *         Draws that land in the window are thrown away, up to RandomPlaylist.MAX_REJECTIONS times.
+	 *         After that the weight of the window is taken out of the total of each shard, and a media file outside it
+	 *         is picked from the shard that is then picked, which is O(k) for k ids in the window plus the walk of the shard.
+	 *         That draw follows the context bucket and the folders like the draws of fun() do.
+	 * @param  recent as the ids of the media files to leave out.
+	 * @return the id of the media file that was picked, or -1 if only media files that are left out have any weight.
+	 * @throws IllegalStateException if there are no media files.
+	 */
+	@Override
+	public int fun(RecentWindow recent) {
+		for(int attempt = 0; attempt < RandomPlaylist.MAX_REJECTIONS; attempt++) {
+			int id = fun();
+			if(!recent.contains(id)) {
+				return id;
+			}
+		}
+		LibraryShard[] current = shards;
+		String user = this.user;
+		RandomPlaylist[] playlists = new RandomPlaylist[current.length];
+		WeightOverlay[] overlays = new WeightOverlay[current.length];
+		double[] totals = new double[current.length];
+		double[] excluded = new double[current.length];
+		for(int slot = 0; slot < current.length; slot++) {
+			playlists[slot] = (current[slot] != null) ? current[slot].getPlaylist() : null;
+			if(playlists[slot] != null) {
+				overlays[slot] = current[slot].getOverlay(user);
+				totals[slot] = playlists[slot].getTotalWeight(overlays[slot]);
+			}
+		}
+		// An id can be in the window more than once, and its weight is only taken out once
+		int[] ids = recent.toArray();
+		Arrays.sort(ids);
+		for(int i = 0; i < ids.length; i++) {
+			int slot = slotOf(ids[i]);
+			if((i == 0 || ids[i] != ids[i - 1]) && slot < current.length && playlists[slot] != null) {
+				excluded[slot] += playlists[slot].getWeight(localIdOf(ids[i]), overlays[slot]);
+			}
+		}
+		double total = 0;
+		for(int slot = 0; slot < current.length; slot++) {
+			// Rounding can leave a shard whose media files are all in the window with a speck of weight
+			totals[slot] = (totals[slot] - excluded[slot] > 1e-12*totals[slot]) ? totals[slot] - excluded[slot] : 0;
+			total += totals[slot];
+		}
+		if(total <= 0) {
+			return -1;
+		}
+		double target = random.nextDouble()*total;
+		int picked = -1;
+		for(int slot = 0; slot < current.length; slot++) {
+			if(totals[slot] > 0) {
+				picked = slot;
+				target -= totals[slot];
+				if(target < 0) {
+					break;
+				}
+			}
+		}
+		int slot = picked;
+		QuantizedWeights context = contextOf(current[slot], contextBuckets.current());
+		int id = playlists[slot].fun(overlays[slot], context, local -> recent.contains(idOf(slot, local)));
+		return (id != -1) ? idOf(slot, id) : -1;
+	}
+
+	/**        Gets the RandomPlaylist an id belongs to.
+	 * @param  id as the id.
+	 * @return the RandomPlaylist, or null if the shard is gone or has none.
+	 */
+	private RandomPlaylist playlistOf(int id) {
+		LibraryShard shard = getShard(slotOf(id));
+		return (shard != null) ? shard.getPlaylist() : null;
+	}
+
+	/**
+	 * @param  id as the id.
+	 * @return whether or not the id belongs to a media file.
+	 */
+	public boolean contains(int id) {
+		if(id < 0) {
+			return false;
+		}
+		RandomPlaylist playlist = playlistOf(id);
+		return playlist != null && playlist.contains(localIdOf(id));
+	}
+
+	@Override
+	public File getFile(int id) {
+		RandomPlaylist playlist = playlistOf(id);
+		if(playlist == null)
+			throw new IllegalArgumentException("id " + id + " is not in the playlist");
+		return playlist.getFile(localIdOf(id));
+	}
+
+	/**        Gets the name of a media file.
+	 * @param  id as the id of the media file.
+	 * @return the name of the media file.
+	 * @throws IllegalArgumentException if id does not belong to a media file.
+	 */
+	public String getName(int id) {
+		RandomPlaylist playlist = playlistOf(id);
+		if(playlist == null)
+			throw new IllegalArgumentException("id " + id + " is not in the playlist");
+		return playlist.getName(localIdOf(id));
+	}
+
+	/**        Makes a media file more likely to be picked, in its shard and so overall, for the user if one is set.
+	 *         The rule of RandomPlaylist.good() is applied within the shard, so with one shard nothing changes.
+	 *         With no user set, it is also applied to the weights of the context bucket it is now.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @throws IllegalArgumentException if id does not belong to a media file.
+	 */
+	public void good(int id, double percent) {
+		LibraryShard shard = getShard(slotOf(id));
+		RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+		if(playlist == null)
+			throw new IllegalArgumentException("id " + id + " is not in the playlist");
+		String user = this.user;
+		if(user == null) {
+			playlist.good(localIdOf(id), percent);
+			int bucket = contextBuckets.current();
+			if(bucket != -1) {
+				shard.updateContext(bucket, context -> playlist.good(localIdOf(id), percent, context, contextBits));
+			}
+		} else {
+			shard.updateOverlay(user, overlay -> playlist.good(localIdOf(id), percent, overlay));
+		}
+	}
+
+	/**        Makes a media file less likely to be picked, in its shard and so overall, for the user if one is set.
+	 *         With no user set, it is also applied to the weights of the context bucket it is now.
+	 * @param  id as the id of the media file.
+	 * @param  percent as the fraction to adjust by.
+	 * @throws IllegalArgumentException if id does not belong to a media file.
+	 */
+	public void bad(int id, double percent) {
+		LibraryShard shard = getShard(slotOf(id));
+		RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+		if(playlist == null)
+			throw new IllegalArgumentException("id " + id + " is not in the playlist");
+		String user = this.user;
+		if(user == null) {
+			playlist.bad(localIdOf(id), percent);
+			int bucket = contextBuckets.current();
+			if(bucket != -1) {
+				shard.updateContext(bucket, context -> playlist.bad(localIdOf(id), percent, context, contextBits));
+			}
+		} else {
+			shard.updateOverlay(user, overlay -> playlist.bad(localIdOf(id), percent, overlay));
+		}
+	}
+
+	/**        Makes every media file in a folder and its sub-folders more likely to be picked, in its shard and so overall.
+	 *         The rule of RandomPlaylist.good() is applied to the chance of the folder within its shard, by changing
+	 *         the weight of the folder alone. Folder weights are shared, so folders can only be rated with no user set.
+	 * @param  folder as the folder.
+	 * @param  percent as the fraction to adjust by.
+	 * @throws IllegalStateException if draws are not hierarchical or a user is set.
+	 * @throws IllegalArgumentException if folder has no media files in any shard.
+	 */
+	public void good(File folder, double percent) {
+		playlistOf(folder).good(folder, percent);
+	}
+
+	/**        Makes every media file in a folder and its sub-folders less likely to be picked, in its shard and so overall.
+	 *         Folder weights are shared, so folders can only be rated with no user set.
+	 * @param  folder as the folder.
+	 * @param  percent as the fraction to adjust by.
+	 * @throws IllegalStateException if draws are not hierarchical or a user is set.
+	 * @throws IllegalArgumentException if folder has no media files in any shard.
+	 */
+	public void bad(File folder, double percent) {
+		playlistOf(folder).bad(folder, percent);
+	}
+
+	/**        Gets the RandomPlaylist of the shard a folder is in, to rate the folder.
+	 * @param  folder as the folder.
+	 * @return the RandomPlaylist.
+	 * @throws IllegalStateException if a user is set.
+	 * @throws IllegalArgumentException if folder is in no shard.
+	 */
+	private RandomPlaylist playlistOf(File folder) {
+		if(user != null)
+			throw new IllegalStateException("Folders can only be rated with no user set");
+		String path = folder.getAbsolutePath() + File.separator;
+		for(LibraryShard shard : shards) {
+			RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+			if(playlist != null && path.startsWith(shard.getFolder().getAbsolutePath() + File.separator)) {
+				return playlist;
+			}
+		}
+		throw new IllegalArgumentException(folder + " is not in the playlist");
+	}
+
+	/**        Applies a batch of feedback to the shared weights of the shards the media files are in, with the same result
+	 *         as calling good() and bad() for each in order with no user set. It seeds the library for everyone,
+	 *         like history brought over from another player, so it never goes to the overlay of a user.
+	 *         Feedback on media files that are in no shard is skipped.
+	 * @param  events as the feedback, in the order it was given.
+	 * @return the number of events that were applied.
+	 */
+	public int feedback(List<Feedback> events) {
+		LibraryShard[] current = shards;
+		List<List<Feedback>> byShard = new ArrayList<List<Feedback>>();
+		String[] prefixes = new String[current.length];
+		for(int slot = 0; slot < current.length; slot++) {
+			byShard.add(new ArrayList<Feedback>());
+			if(current[slot] != null) {
+				prefixes[slot] = current[slot].getFolder().getAbsolutePath() + File.separator;
+			}
+		}
+		for(Feedback event : events) {
+			String path = event.getFile().getAbsolutePath();
+			for(int slot = 0; slot < current.length; slot++) {
+				if(prefixes[slot] != null && path.startsWith(prefixes[slot])) {
+					byShard.get(slot).add(event);
+					break;
+				}
+			}
+		}
+		int applied = 0;
+		for(int slot = 0; slot < current.length; slot++) {
+			RandomPlaylist playlist = (current[slot] != null) ? current[slot].getPlaylist() : null;
+			if(playlist != null && !byShard.get(slot).isEmpty()) {
+				applied += playlist.feedback(byShard.get(slot));
+			}
+		}
+		return applied;
+	}
+
+	/** Gives all the media files of every shard the same chance of being picked, and forgets what the context buckets learned.
+	 *  If a user is set, only the ratings of the user are forgotten, and the shared weights show through again.
+	 */
+	public void clearProbs() {
+		String user = this.user;
+		for(LibraryShard shard : shards) {
+			RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+			if(playlist == null) {
+				continue;
+			}
+			if(user == null) {
+				playlist.clearProbs();
+				shard.clearContexts();
+			} else {
+				shard.clearOverlay(user);
+			}
+		}
+	}
+
+	/**
+	 * @param  id as the id of the media file.
+	 * @return the probability of the media file being picked out of every shard, or 0 if it is not in one.
+	 */
+	public double getProbability(int id) {
+		LibraryShard shard = getShard(slotOf(id));
+		RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+		if(playlist == null) {
+			return 0;
+		}
+		WeightOverlay overlay = shard.getOverlay(user);
+		double total = totalWeight();
+		return (total <= 0) ? 0 : playlist.getTotalWeight(overlay)/total*playlist.getProbability(localIdOf(id), overlay);
+	}
+
+	/**
+	 * @return the Shannon entropy in bits of the probabilities of every media file:
+	 *         the entropy of picking the shard plus the entropy within each shard, weighted by its share. This is O(n).
+	 */
+	public double getEntropy() {
+		double total = totalWeight();
+		if(total <= 0) {
+			return 0;
+		}
+		double entropy = 0;
+		String user = this.user;
+		for(LibraryShard shard : shards) {
+			RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+			WeightOverlay overlay = (shard != null) ? shard.getOverlay(user) : null;
+			if(playlist != null && playlist.getTotalWeight(overlay) > 0) {
+				double share = playlist.getTotalWeight(overlay)/total;
+				entropy += share*(playlist.getEntropy(overlay) - Math.log(share)/Math.log(2));
+			}
+		}
+		return entropy;
+	}
+
+	/**
+	 * @return the sum of the weights of every shard, for the user if one is set.
+	 */
+	private double totalWeight() {
+		double total = 0;
+		String user = this.user;
+		for(LibraryShard shard : shards) {
+			RandomPlaylist playlist = (shard != null) ? shard.getPlaylist() : null;
+			if(playlist != null) {
+				total += playlist.getTotalWeight(shard.getOverlay(user));
+			}
+		}
+		return total;
+	}
+
+}
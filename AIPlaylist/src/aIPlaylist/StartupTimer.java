@@ -0,0 +1,75 @@
+package aIPlaylist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Times the stages of starting up, which run at the same time on different threads.
+ *         Each stage is kept with when it started and ended, counted from when the StartupTimer was made,
+ *         so the report shows how the stages overlapped as well as how long each took.
+ */
+public final class StartupTimer {
+
+	// When starting up began
+	private final long startNanos = System.nanoTime();
+
+	// The stages that ended, in the order they ended
+	private final List<String> stages = new ArrayList<String>();
+
+	/**       Runs a stage and times it.
+	 * @param name as the name of the stage.
+	 * @param stage as the stage.
+	 */
+	public void time(String name, Runnable stage) {
+		time(name, () -> {
+			stage.run();
+			return null;
+		});
+	}
+
+	/**       Runs a stage and times it.
+	 * @param  name as the name of the stage.
+	 * @param  stage as the stage.
+	 * @return what the stage returned.
+	 */
+	public <T> T time(String name, Supplier<T> stage) {
+		long start = sinceStart();
+		try {
+			return stage.get();
+		} finally {
+			long end = sinceStart();
+			synchronized(stages) {
+				stages.add(String.format("%s: %d-%d ms (%d ms)", name, start, end, end - start));
+			}
+		}
+	}
+
+	/**       Records that something happened, like the first media starting to play.
+	 * @param name as what happened.
+	 */
+	public void mark(String name) {
+		long at = sinceStart();
+		synchronized(stages) {
+			stages.add(String.format("%s: %d ms", name, at));
+		}
+	}
+
+	/**
+	 * @return the number of milliseconds since starting up began.
+	 */
+	private long sinceStart() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	@Override
+	public String toString() {
+		synchronized(stages) {
+			return "Startup: " + String.join(", ", stages);
+		}
+	}
+
+}
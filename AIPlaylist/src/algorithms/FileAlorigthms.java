@@ -3,11 +3,14 @@ package algorithms;
 import java.io.File;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
+import metrics.MetricRegistry;
+import metrics.Timer;
+
 /**
  * @author Alexander Johnston
  * @since  Copyright 2019
@@ -15,6 +18,8 @@ import java.util.Optional;
  */
 public final class FileAlorigthms {
 
+	private static final Timer SCAN_TIMER = MetricRegistry.getDefault().timer("aiplaylist_scan_seconds", "Time taken to list the media files of a folder");
+
 	/** Enforces non-instantibility
 	 * 	@throws AssertionError to enforce non-instantibility
 	 */
@@ -34,34 +39,23 @@ public final class FileAlorigthms {
 		if(!folder.isDirectory())
 			throw new IllegalArgumentException("folder passed to getMediaFiles() must be a directory");
 		// Invariants secured
-		List<File> files = Arrays.asList(folder.listFiles());
-		List<File> mediafiles = new ArrayList<File>();
-		for(File f : files) {
-			if(f.isFile()) {
-				if(".mp4".equals(getExt(f).orElse(""))||".3gp".equals(getExt(f).orElse(""))||".asf".equals(getExt(f).orElse(""))
-						||".wmv".equals(getExt(f).orElse(""))||".au".equals(getExt(f).orElse(""))||".avi".equals(getExt(f).orElse(""))
-						||".flv".equals(getExt(f).orElse(""))||".mov".equals(getExt(f).orElse(""))||".ogm".equals(getExt(f).orElse(""))
-						||".ogg".equals(getExt(f).orElse(""))||".mkv".equals(getExt(f).orElse(""))||".mka".equals(getExt(f).orElse(""))
-						||".ts".equals(getExt(f).orElse(""))||".mpg".equals(getExt(f).orElse(""))||".mp3".equals(getExt(f).orElse(""))
-						||".mp2".equals(getExt(f).orElse(""))||".nsc".equals(getExt(f).orElse(""))||".nsv".equals(getExt(f).orElse(""))
-						||".nut".equals(getExt(f).orElse(""))||".ra".equals(getExt(f).orElse(""))||".ram".equals(getExt(f).orElse(""))
-						||".rm".equals(getExt(f).orElse(""))||".rv".equals(getExt(f).orElse(""))||".rmbv".equals(getExt(f).orElse(""))
-						||".a52".equals(getExt(f).orElse(""))||".dts".equals(getExt(f).orElse(""))||".aac".equals(getExt(f).orElse(""))
-						||".flac".equals(getExt(f).orElse(""))||".dv".equals(getExt(f).orElse(""))||".vid".equals(getExt(f).orElse(""))
-						||".tta".equals(getExt(f).orElse(""))||".tac".equals(getExt(f).orElse(""))||".ty".equals(getExt(f).orElse(""))
-						||".wav".equals(getExt(f).orElse(""))||".dts".equals(getExt(f).orElse(""))||".xa".equals(getExt(f).orElse(""))) {
-					mediafiles.add(f);
-				} 
-			} else if(f.isDirectory() && subDirectories) {
-				// Recursive call
-				List<File> tempMediaFiles = (getMediaFiles(f, subDirectories));
-				for(File f2 : tempMediaFiles) 
-					mediafiles.add(f2);
-			}
-		}
+		long start = SCAN_TIMER.start();
+		List<File> mediafiles = Collections.synchronizedList(new ArrayList<File>());
+		MediaScanner.getDefault().scan(folder, subDirectories, (p, a) -> mediafiles.add(p.toFile()));
+		SCAN_TIMER.stop(start);
 		return mediafiles;
 	}
 
+	/**        Checks whether a file name has the extension of a supported media file, ignoring case.
+	 *         The supported extensions are kept in MediaTypeRegistry.getDefault().
+	 * @param  name as the name of the file.
+	 * @return true if the file name ends with a supported media extension.
+	 * @throws NullPointerException if name is null.
+	 */
+	public static boolean isMediaFile(String name) {
+		return MediaTypeRegistry.getDefault().isMediaName(name);
+	}
+
 	/**        Gets the file extension from a file.
 	 * @param  file as the file to get the extension from.
 	 * @return an Optional String containing the extension.
@@ -73,7 +67,16 @@ public final class FileAlorigthms {
 		if(file.isDirectory()) {
 			throw new IllegalArgumentException("file passed to getExt() must not be a directory");
 		}
-		String name = file.getName();
+		return getExt(file.getName());
+	}
+
+	/**        Gets the file extension from a file name.
+	 * @param  name as the name of the file to get the extension from.
+	 * @return an Optional String containing the extension.
+	 * @throws NullPointerException if name is null.
+	 */
+	public static Optional<String> getExt(String name) {
+		Objects.requireNonNull(name);
 		int lastPeriodIndex = name.lastIndexOf(".");
 		return (lastPeriodIndex == -1) ? Optional.empty() : Optional.of(name.substring(lastPeriodIndex));
 	}
@@ -88,7 +91,7 @@ public final class FileAlorigthms {
 	public static Optional<File> findFile(String name, File folder) {
 		Objects.requireNonNull(name);
 		Objects.requireNonNull(folder);
-		File playlistFile = new File(folder.getAbsolutePath()+"\\"+name);
+		File playlistFile = new File(folder.getAbsoluteFile(), name);
 		if(folder.isDirectory()) {
 			return (!playlistFile.exists()) ? Optional.empty() : Optional.of(playlistFile);
 		} else
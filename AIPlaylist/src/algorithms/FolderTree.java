@@ -0,0 +1,911 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The slots of a WeightedSampler arranged in a tree of folders, so a slot is drawn by picking a folder at each level
+ *         down to the one it is in. Each folder has a weight of its own that everything under it is scaled by,
+ *         so a whole folder is made more or less likely by changing one number, and with every folder weight at 1
+ *         each slot is drawn with the same probability as from the WeightedSampler.
+ *         Folders are numbered by the caller, like the directory ids of a LibraryStore, and are added as slots need them.
+ *         Each folder keeps the raw weights and the numbers of the slots under it in trees of sums WIDTH entries wide,
+ *         one over its sub-folders and one over its slots. Their nodes are never changed once made: a change copies the nodes
+ *         on the path to its entry and shares the rest, so it costs O(log k) in each folder of k entries from the slot's
+ *         up to the root, and a Snapshot only has to hold on to the Folders as they are.
+ *         The counts fade the same way the weights do, so a decay is applied as a draw descends and costs nothing here.
+ *         It is kept up to date as the WeightListener of the sampler. A FolderTree is not thread safe; its Snapshots are immutable.
+ */
+public final class FolderTree implements WeightedSampler.WeightListener {
+
+	// Marks a folder or a slot that is not in the tree
+	private static final int FREE = -2;
+
+	// The parent of a root
+	private static final int ROOT = -1;
+
+	// The number of entries in a node of Sums, as a power of 2
+	private static final int BITS = 4;
+	private static final int WIDTH = 1 << BITS;
+
+	// The number of folders or slots in a chunk of the tables Snapshots share, as a power of 2
+	private static final int CHUNK_BITS = 8;
+	private static final int CHUNK = 1 << CHUNK_BITS;
+
+	private final WeightedSampler sampler;
+
+	// Gives the folder of a slot, and the parent of a folder or ROOT
+	private final IntUnaryOperator folderOf;
+	private final IntUnaryOperator parentOf;
+
+	// The parent of each folder, or FREE, and where it is among the sub-folders of its parent, or among the roots
+	private int[] parents = new int[0];
+	private int[] positions = new int[0];
+
+	// The sub-folders and the slots of each folder
+	private int[][] subFolders = new int[0][];
+	private int[] subFolderCounts = new int[0];
+	private int[][] slots = new int[0][];
+	private int[] slotCounts = new int[0];
+
+	// The weight of each folder
+	private double[] factors = new double[0];
+
+	private int[] roots = new int[4];
+	private int rootCount = 0;
+
+	// Where each slot is among the slots of its folder
+	private int[] slotPositions = new int[0];
+
+	// The Folder of each folder, and the folder of each slot or FREE, in chunks Snapshots share.
+	// A chunk is copied before it is changed unless it was copied since the last Snapshot, which its owner says
+	private Folder[][] folderChunks = new Folder[0][];
+	private int[] folderOwners = new int[0];
+	private int[][] slotFolderChunks = new int[0][];
+	private int[] slotFolderOwners = new int[0];
+
+	// Counts the Snapshots made, so a chunk copied since the last one is known to be the tree's alone
+	private int generation = 0;
+
+	// The Folder over the roots
+	private Folder top = new Folder(1.0, ROOT, Sums.EMPTY, Sums.EMPTY);
+
+	// Whether every Folder has to be built again, as the weights all changed at once
+	private boolean stale = true;
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         A node of a tree of sums, which is never changed once made. A node at level 0 holds up to WIDTH entries,
+	 *         each a folder or a slot, and one above it holds up to WIDTH nodes, with the raw weight and count of each.
+	 *         The entry at an index is found by its digits of BITS bits, the highest first.
+	 */
+	private static final class Sums {
+
+		// The Sums of nothing
+		private static final Sums EMPTY = new Sums(0, free(), null, new double[WIDTH], new double[WIDTH]);
+
+		// The number of levels of nodes below this one
+		private final int level;
+
+		// The folder or slot of each entry, or FREE, at level 0
+		private final int[] ids;
+
+		// The nodes below this one, or null where there are none yet, above level 0
+		private final Sums[] nodes;
+
+		// The raw weight and the number of slots of each entry or node, times the weight of a folder
+		private final double[] raw;
+		private final double[] count;
+
+		// The sums of everything under this node
+		private final double rawSum;
+		private final double countSum;
+
+		private Sums(int level, int[] ids, Sums[] nodes, double[] raw, double[] count) {
+			this.level = level;
+			this.ids = ids;
+			this.nodes = nodes;
+			this.raw = raw;
+			this.count = count;
+			double rawSum = 0;
+			double countSum = 0;
+			for(int i = 0; i < WIDTH; i++) {
+				rawSum += raw[i];
+				countSum += count[i];
+			}
+			this.rawSum = rawSum;
+			this.countSum = countSum;
+		}
+
+		/**
+		 * @return the ids of a node at level 0 with no entries.
+		 */
+		private static int[] free() {
+			int[] ids = new int[WIDTH];
+			Arrays.fill(ids, FREE);
+			return ids;
+		}
+
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         A folder as it is at one time, which is never changed once made.
+	 */
+	private static final class Folder {
+
+		private final double factor;
+		private final int parent;
+
+		// The sub-folders and the slots, each by where it is among them
+		private final Sums folders;
+		private final Sums slots;
+
+		// The sums of everything in the folder, times its weight
+		private final double raw;
+		private final double count;
+
+		private Folder(double factor, int parent, Sums folders, Sums slots) {
+			this.factor = factor;
+			this.parent = parent;
+			this.folders = folders;
+			this.slots = slots;
+			raw = factor*(folders.rawSum + slots.rawSum);
+			count = factor*(folders.countSum + slots.countSum);
+		}
+
+	}
+
+	/**       Creates a FolderTree of every slot in use in a WeightedSampler.
+	 *        It should be made the WeightListener of sampler, or be told about every change some other way.
+	 * @param sampler as the WeightedSampler.
+	 * @param folderOf as what gives the folder of a slot.
+	 * @param parentOf as what gives the parent of a folder, or -1 for a root. Parents must have lower numbers than their children.
+	 */
+	public FolderTree(WeightedSampler sampler, IntUnaryOperator folderOf, IntUnaryOperator parentOf) {
+		this.sampler = sampler;
+		this.folderOf = folderOf;
+		this.parentOf = parentOf;
+		// The Folders are built all at once when they are first needed
+		for(int slot = 0; slot < sampler.size(); slot++) {
+			if(sampler.contains(slot)) {
+				add(slot);
+			}
+		}
+	}
+
+	/**
+	 * @param  slot as the slot.
+	 * @return whether or not the slot is in the tree.
+	 */
+	public boolean contains(int slot) {
+		return slot >= 0 && slot < slotFolderChunks.length*CHUNK && slotFolder(slot) != FREE;
+	}
+
+	/**
+	 * @param  folder as the folder.
+	 * @return whether or not the folder is in the tree, which it is once a slot has been in it or under it.
+	 */
+	public boolean containsFolder(int folder) {
+		return folder >= 0 && folder < parents.length && parents[folder] != FREE;
+	}
+
+	/**       Adds a slot to the folder it is in, taking it out of the one it was in if it moved,
+	 *        or updates its weight if it is already there.
+	 * @param slot as the slot.
+	 */
+	public void add(int slot) {
+		int folder = folderOf.applyAsInt(slot);
+		if(contains(slot)) {
+			if(slotFolder(slot) == folder) {
+				putSlot(folder, slotPositions[slot], slot);
+				return;
+			}
+			remove(slot);
+		}
+		addFolder(folder);
+		if(slot >= slotPositions.length) {
+			slotPositions = Arrays.copyOf(slotPositions, Math.max(slot + 1, slotPositions.length*2));
+		}
+		slots[folder] = append(slots[folder], slotCounts[folder], slot);
+		setSlotFolder(slot, folder);
+		slotPositions[slot] = slotCounts[folder]++;
+		putSlot(folder, slotPositions[slot], slot);
+	}
+
+	/**       Takes a slot out of the tree. Does nothing if it is not in it.
+	 * @param slot as the slot.
+	 */
+	public void remove(int slot) {
+		if(!contains(slot)) {
+			return;
+		}
+		int folder = slotFolder(slot);
+		int position = slotPositions[slot];
+		// The last slot of the folder takes its place
+		int last = slots[folder][--slotCounts[folder]];
+		slots[folder][position] = last;
+		slotPositions[last] = position;
+		setSlotFolder(slot, FREE);
+		if(last != slot) {
+			putSlot(folder, position, last);
+		}
+		putSlot(folder, slotCounts[folder], FREE);
+	}
+
+	/**       Adds a folder and any of its parents that are not in the tree yet.
+	 * @param folder as the folder.
+	 */
+	private void addFolder(int folder) {
+		if(containsFolder(folder)) {
+			return;
+		}
+		int parent = parentOf.applyAsInt(folder);
+		if(parent != ROOT) {
+			addFolder(parent);
+		}
+		if(folder >= parents.length) {
+			int length = Math.max(folder + 1, parents.length*2);
+			int old = parents.length;
+			parents = Arrays.copyOf(parents, length);
+			positions = Arrays.copyOf(positions, length);
+			subFolders = Arrays.copyOf(subFolders, length);
+			subFolderCounts = Arrays.copyOf(subFolderCounts, length);
+			slots = Arrays.copyOf(slots, length);
+			slotCounts = Arrays.copyOf(slotCounts, length);
+			factors = Arrays.copyOf(factors, length);
+			Arrays.fill(parents, old, length, FREE);
+			Arrays.fill(factors, old, length, 1.0);
+		}
+		parents[folder] = parent;
+		subFolders[folder] = new int[0];
+		slots[folder] = new int[0];
+		if(parent == ROOT) {
+			roots = append(roots, rootCount, folder);
+			positions[folder] = rootCount++;
+		} else {
+			subFolders[parent] = append(subFolders[parent], subFolderCounts[parent], folder);
+			positions[folder] = subFolderCounts[parent]++;
+		}
+		if(!stale) {
+			replace(folder, new Folder(factors[folder], parent, Sums.EMPTY, Sums.EMPTY));
+		}
+	}
+
+	/**        Puts an int after the ones in use in an array, growing it if it is full.
+	 * @param  array as the array.
+	 * @param  used as the number of ints in use.
+	 * @param  value as the int.
+	 * @return the array, or a bigger copy of it.
+	 */
+	private static int[] append(int[] array, int used, int value) {
+		if(used == array.length) {
+			array = Arrays.copyOf(array, Math.max(4, used*2));
+		}
+		array[used] = value;
+		return array;
+	}
+
+	/**       Sets the entry for a place among the slots of a folder to a slot and its raw weight.
+	 * @param folder as the folder.
+	 * @param position as the place among the slots of folder.
+	 * @param slot as the slot, or FREE to empty the place.
+	 */
+	private void putSlot(int folder, int position, int slot) {
+		if(stale) {
+			return;
+		}
+		Folder f = folderAt(folder);
+		double raw = (slot == FREE) ? 0 : sampler.getRawWeight(slot);
+		replace(folder, new Folder(f.factor, f.parent, f.folders, set(f.slots, position, slot, raw, (slot == FREE) ? 0 : 1)));
+	}
+
+	/**       Puts a new Folder in place of a folder, and the new sums of the folders above it in their places, up to the roots.
+	 * @param folder as the folder.
+	 * @param changed as its new Folder.
+	 */
+	private void replace(int folder, Folder changed) {
+		while(true) {
+			setFolder(folder, changed);
+			if(changed.parent == ROOT) {
+				top = new Folder(1.0, ROOT, set(top.folders, positions[folder], folder, changed.raw, changed.count), Sums.EMPTY);
+				return;
+			}
+			Folder above = folderAt(changed.parent);
+			Sums folders = set(above.folders, positions[folder], folder, changed.raw, changed.count);
+			folder = changed.parent;
+			changed = new Folder(above.factor, above.parent, folders, above.slots);
+		}
+	}
+
+	/**
+	 * @param  folder as the folder.
+	 * @return the weight of the folder, 1 if it has not been given one.
+	 */
+	public double getFactor(int folder) {
+		return containsFolder(folder) ? factors[folder] : 1.0;
+	}
+
+	/**        Sets the weight of a folder, which everything under it is scaled by. This is O(log k) in each folder above it.
+	 * @param  folder as the folder.
+	 * @param  factor as the weight.
+	 * @throws IllegalArgumentException if factor is not above 0 or not finite.
+	 */
+	public void setFactor(int folder, double factor) {
+		if(!(factor > 0) || Double.isInfinite(factor))
+			throw new IllegalArgumentException("factor passed to setFactor() must be above 0 and finite");
+		addFolder(folder);
+		putFactor(folder, factor);
+	}
+
+	/**       Sets the weight of a folder that is in the tree.
+	 * @param folder as the folder.
+	 * @param factor as the weight.
+	 */
+	private void putFactor(int folder, double factor) {
+		factors[folder] = factor;
+		if(!stale) {
+			Folder f = folderAt(folder);
+			replace(folder, new Folder(factor, f.parent, f.folders, f.slots));
+		}
+	}
+
+	/** Gives every folder a weight of 1.
+	 *
+	 */
+	public void clearFactors() {
+		Arrays.fill(factors, 1.0);
+		stale = true;
+	}
+
+	/**        Makes everything under a folder more likely to be drawn, by changing the weight of the folder.
+	 *         If the folder has less than a 50% chance, its probability is increased by percent of itself,
+	 *         otherwise it is increased by percent of the remaining probability, as with WeightedSampler.good().
+	 * @param  folder as the folder.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the new probability of the folder.
+	 * @throws IllegalArgumentException if nothing under the folder has any weight or percent is not between 0 and 1.
+	 */
+	public double good(int folder, double percent) {
+		double p = checkFeedback(folder, percent);
+		return setProbability(folder, p, WeightedSampler.goodProbability(p, percent));
+	}
+
+	/**        Makes everything under a folder less likely to be drawn, by percent of the probability of the folder.
+	 * @param  folder as the folder.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the new probability of the folder.
+	 * @throws IllegalArgumentException if nothing under the folder has any weight or percent is not between 0 and 1.
+	 */
+	public double bad(int folder, double percent) {
+		double p = checkFeedback(folder, percent);
+		return setProbability(folder, p, WeightedSampler.badProbability(p, percent));
+	}
+
+	/**       Checks the arguments of good() and bad().
+	 * @param folder as the folder.
+	 * @param percent as the fraction to adjust by.
+	 * @return the current probability of the folder.
+	 */
+	private double checkFeedback(int folder, double percent) {
+		double p = getFolderProbability(folder);
+		if(!(p > 0))
+			throw new IllegalArgumentException("folder passed to good() or bad() has no weight");
+		if(!(percent >= 0 && percent <= 1))
+			throw new IllegalArgumentException("percent passed to good() or bad() must be between 0 and 1");
+		return p;
+	}
+
+	/**       Changes the weight of a folder so that it has a new probability, without touching anything outside it.
+	 *        As the weight of the folder scales its share and nothing else, it is scaled by p'(1 - p)/(p(1 - p')).
+	 * @param folder as the folder.
+	 * @param p as the probability of the folder.
+	 * @param next as the new probability.
+	 * @return the new probability of the folder.
+	 */
+	private double setProbability(int folder, double p, double next) {
+		if(p >= 1.0 || next >= 1.0) {
+			// A folder that has all the probability, like the only root, can not change
+			return p;
+		}
+		double factor = factors[folder]*(next*(1.0 - p))/(p*(1.0 - next));
+		if(!(factor >= Double.MIN_NORMAL) || Double.isInfinite(factor)) {
+			return p;
+		}
+		putFactor(folder, factor);
+		return getFolderProbability(folder);
+	}
+
+	/**        Gets the probability of drawing a slot under a folder. This is O(depth).
+	 * @param  folder as the folder.
+	 * @return the probability, 0 if the folder is not in the tree.
+	 */
+	public double getFolderProbability(int folder) {
+		if(!containsFolder(folder)) {
+			return 0;
+		}
+		build();
+		double scale = sampler.getScale();
+		double baseline = sampler.getBaseline();
+		double total = decayed(top.raw, top.count, scale, baseline);
+		if(!(total > 0)) {
+			return 0;
+		}
+		Folder f = folderAt(folder);
+		double weight = decayed(f.raw, f.count, scale, baseline);
+		for(int above = parents[folder]; above != ROOT; above = parents[above]) {
+			weight *= factors[above];
+		}
+		return weight/total;
+	}
+
+	/**        Gets the weight a slot is drawn with: its weight in the sampler times the weights of the folders above it.
+	 *         This is O(depth).
+	 * @param  slot as the slot.
+	 * @return the weight, 0 if the slot is not in the tree.
+	 */
+	public double getWeight(int slot) {
+		if(!contains(slot)) {
+			return 0;
+		}
+		double weight = sampler.getWeight(slot);
+		for(int f = slotFolder(slot); f != ROOT; f = parents[f]) {
+			weight *= factors[f];
+		}
+		return weight;
+	}
+
+	/**
+	 * @return the sum of the weights slots are drawn with.
+	 */
+	public double total() {
+		build();
+		return decayed(top.raw, top.count, sampler.getScale(), sampler.getBaseline());
+	}
+
+	/**        Gets the probability of a slot being drawn.
+	 * @param  slot as the slot.
+	 * @return the probability of the slot, 0 if it is not in the tree.
+	 */
+	public double getProbability(int slot) {
+		double total = total();
+		return (total <= 0) ? 0 : getWeight(slot)/total;
+	}
+
+	/**        Gets the tree as it is now, for draws. This is O(n/CHUNK), as the Snapshot shares the tables of the tree by chunk.
+	 * @param  weights as the weights of the sampler as they are now, which the weights of single slots are read from.
+	 * @return the Snapshot.
+	 */
+	public Snapshot snapshot(Weights weights) {
+		build();
+		// Chunks are copied before they are changed from now on, as the Snapshot has them
+		generation++;
+		return new Snapshot(top, folderChunks.clone(), slotFolderChunks.clone(), weights, sampler.getScale(), sampler.getBaseline());
+	}
+
+	/** Builds every Folder from the weights of the sampler, if they all changed since the Folders were last built.
+	 *  This is O(n).
+	 */
+	private void build() {
+		if(!stale) {
+			return;
+		}
+		stale = false;
+		// Sub-folders have higher numbers than their parents, so they are built first
+		for(int folder = parents.length - 1; folder >= 0; folder--) {
+			if(parents[folder] != FREE) {
+				setFolder(folder, new Folder(factors[folder], parents[folder], ofFolders(subFolders[folder], subFolderCounts[folder]),
+						ofSlots(slots[folder], slotCounts[folder])));
+			}
+		}
+		top = new Folder(1.0, ROOT, ofFolders(roots, rootCount), Sums.EMPTY);
+	}
+
+	/**        Makes the Sums of folders that are built.
+	 * @param  folders as the folders.
+	 * @param  n as the number of folders in use.
+	 * @return the Sums.
+	 */
+	private Sums ofFolders(int[] folders, int n) {
+		double[] raw = new double[n];
+		double[] count = new double[n];
+		for(int i = 0; i < n; i++) {
+			Folder f = folderAt(folders[i]);
+			raw[i] = f.raw;
+			count[i] = f.count;
+		}
+		return of(folders, raw, count, n);
+	}
+
+	/**        Makes the Sums of slots.
+	 * @param  slots as the slots.
+	 * @param  n as the number of slots in use.
+	 * @return the Sums.
+	 */
+	private Sums ofSlots(int[] slots, int n) {
+		double[] raw = new double[n];
+		double[] count = new double[n];
+		for(int i = 0; i < n; i++) {
+			raw[i] = sampler.getRawWeight(slots[i]);
+			count[i] = 1;
+		}
+		return of(slots, raw, count, n);
+	}
+
+	/**        Makes the Sums of entries a level at a time, from the bottom. This is O(n).
+	 * @param  ids as the folder or slot of each entry.
+	 * @param  raw as the raw weight of each entry.
+	 * @param  count as the number of slots of each entry.
+	 * @param  n as the number of entries.
+	 * @return the Sums.
+	 */
+	private static Sums of(int[] ids, double[] raw, double[] count, int n) {
+		if(n == 0) {
+			return Sums.EMPTY;
+		}
+		Sums[] level = new Sums[(n + WIDTH - 1) >>> BITS];
+		for(int i = 0; i < level.length; i++) {
+			int from = i << BITS;
+			int length = Math.min(WIDTH, n - from);
+			int[] leafIds = Sums.free();
+			double[] leafRaw = new double[WIDTH];
+			double[] leafCount = new double[WIDTH];
+			System.arraycopy(ids, from, leafIds, 0, length);
+			System.arraycopy(raw, from, leafRaw, 0, length);
+			System.arraycopy(count, from, leafCount, 0, length);
+			level[i] = new Sums(0, leafIds, null, leafRaw, leafCount);
+		}
+		for(int height = 1; level.length > 1; height++) {
+			Sums[] up = new Sums[(level.length + WIDTH - 1) >>> BITS];
+			for(int i = 0; i < up.length; i++) {
+				Sums[] nodes = new Sums[WIDTH];
+				double[] nodeRaw = new double[WIDTH];
+				double[] nodeCount = new double[WIDTH];
+				for(int j = 0; j < WIDTH && (i << BITS) + j < level.length; j++) {
+					nodes[j] = level[(i << BITS) + j];
+					nodeRaw[j] = nodes[j].rawSum;
+					nodeCount[j] = nodes[j].countSum;
+				}
+				up[i] = new Sums(height, null, nodes, nodeRaw, nodeCount);
+			}
+			level = up;
+		}
+		return level[0];
+	}
+
+	/**        Sets an entry of Sums, copying the nodes on its path and sharing the rest. This is O(log k) for k entries.
+	 * @param  sums as the Sums.
+	 * @param  index as the index of the entry.
+	 * @param  id as the folder or slot of the entry, or FREE.
+	 * @param  raw as the raw weight of the entry.
+	 * @param  count as the number of slots of the entry.
+	 * @return the new Sums.
+	 */
+	private static Sums set(Sums sums, int index, int id, double raw, double count) {
+		// Sums too small for the index get a level on top, with what they had first
+		while(index >= 1L << (BITS*(sums.level + 1))) {
+			Sums[] nodes = new Sums[WIDTH];
+			double[] nodeRaw = new double[WIDTH];
+			double[] nodeCount = new double[WIDTH];
+			nodes[0] = sums;
+			nodeRaw[0] = sums.rawSum;
+			nodeCount[0] = sums.countSum;
+			sums = new Sums(sums.level + 1, null, nodes, nodeRaw, nodeCount);
+		}
+		return put(sums, index, id, raw, count);
+	}
+
+	/**        Sets an entry of Sums that have room for its index.
+	 * @param  sums as the Sums.
+	 * @param  index as the index of the entry.
+	 * @param  id as the folder or slot of the entry, or FREE.
+	 * @param  raw as the raw weight of the entry.
+	 * @param  count as the number of slots of the entry.
+	 * @return the new Sums.
+	 */
+	private static Sums put(Sums sums, int index, int id, double raw, double count) {
+		int entry = (index >>> (BITS*sums.level)) & (WIDTH - 1);
+		double[] nodeRaw = sums.raw.clone();
+		double[] nodeCount = sums.count.clone();
+		if(sums.level == 0) {
+			int[] ids = sums.ids.clone();
+			ids[entry] = id;
+			nodeRaw[entry] = raw;
+			nodeCount[entry] = count;
+			return new Sums(0, ids, null, nodeRaw, nodeCount);
+		}
+		Sums[] nodes = sums.nodes.clone();
+		Sums below = nodes[entry];
+		if(below == null) {
+			below = (sums.level == 1) ? Sums.EMPTY : new Sums(sums.level - 1, null, new Sums[WIDTH], new double[WIDTH], new double[WIDTH]);
+		}
+		nodes[entry] = put(below, index, id, raw, count);
+		nodeRaw[entry] = nodes[entry].rawSum;
+		nodeCount[entry] = nodes[entry].countSum;
+		return new Sums(sums.level, null, nodes, nodeRaw, nodeCount);
+	}
+
+	/**
+	 * @param  folder as a folder in the tree.
+	 * @return its Folder.
+	 */
+	private Folder folderAt(int folder) {
+		return folderChunks[folder >>> CHUNK_BITS][folder & (CHUNK - 1)];
+	}
+
+	/**       Sets the Folder of a folder, copying its chunk first if the last Snapshot has it.
+	 * @param folder as the folder.
+	 * @param f as its Folder.
+	 */
+	private void setFolder(int folder, Folder f) {
+		int chunk = folder >>> CHUNK_BITS;
+		if(chunk >= folderChunks.length) {
+			int length = Math.max(chunk + 1, folderChunks.length*2);
+			int old = folderChunks.length;
+			folderChunks = Arrays.copyOf(folderChunks, length);
+			folderOwners = Arrays.copyOf(folderOwners, length);
+			for(int c = old; c < length; c++) {
+				folderChunks[c] = new Folder[CHUNK];
+				folderOwners[c] = generation;
+			}
+		}
+		if(folderOwners[chunk] != generation) {
+			folderChunks[chunk] = folderChunks[chunk].clone();
+			folderOwners[chunk] = generation;
+		}
+		folderChunks[chunk][folder & (CHUNK - 1)] = f;
+	}
+
+	/**
+	 * @param  slot as a slot the table has room for.
+	 * @return its folder, or FREE.
+	 */
+	private int slotFolder(int slot) {
+		return slotFolderChunks[slot >>> CHUNK_BITS][slot & (CHUNK - 1)];
+	}
+
+	/**       Sets the folder of a slot, copying its chunk first if the last Snapshot has it.
+	 * @param slot as the slot.
+	 * @param folder as its folder, or FREE.
+	 */
+	private void setSlotFolder(int slot, int folder) {
+		int chunk = slot >>> CHUNK_BITS;
+		if(chunk >= slotFolderChunks.length) {
+			int length = Math.max(chunk + 1, slotFolderChunks.length*2);
+			int old = slotFolderChunks.length;
+			slotFolderChunks = Arrays.copyOf(slotFolderChunks, length);
+			slotFolderOwners = Arrays.copyOf(slotFolderOwners, length);
+			for(int c = old; c < length; c++) {
+				slotFolderChunks[c] = new int[CHUNK];
+				Arrays.fill(slotFolderChunks[c], FREE);
+				slotFolderOwners[c] = generation;
+			}
+		}
+		if(slotFolderOwners[chunk] != generation) {
+			slotFolderChunks[chunk] = slotFolderChunks[chunk].clone();
+			slotFolderOwners[chunk] = generation;
+		}
+		slotFolderChunks[chunk][slot & (CHUNK - 1)] = folder;
+	}
+
+	@Override
+	public void weightChanged(int slot, double weight) {
+		if(weight <= 0) {
+			remove(slot);
+		} else {
+			add(slot);
+		}
+	}
+
+	@Override
+	public void weightsChanged(WeightedSampler sampler) {
+		stale = true;
+	}
+
+	@Override
+	public void decayChanged(WeightedSampler sampler) {
+		// The sums are of raw weights, and the decay is read when a Snapshot is made
+	}
+
+	/**        Gets the sum of the weights a sum of raw weights stands for, as in WeightedSampler.
+	 * @param  raw as the sum of the raw weights of some slots.
+	 * @param  count as the number of those slots, scaled as their raw weights are.
+	 * @param  scale as how much of its raw weight each slot still has.
+	 * @param  baseline as the weight the slots fade towards.
+	 * @return the sum of the weights.
+	 */
+	private static double decayed(double raw, double count, double scale, double baseline) {
+		if(scale == 1) {
+			return raw;
+		}
+		return scale*raw + (1 - scale)*baseline*count;
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         A FolderTree as it was when the Snapshot was made, which draws and reads of single slots use without locking.
+	 */
+	public static final class Snapshot implements Weights {
+
+		private final Folder top;
+
+		// The Folder of each folder and the folder of each slot, in the chunks of the FolderTree
+		private final Folder[][] folders;
+		private final int[][] slotFolders;
+
+		// The weights of the sampler as of the Snapshot
+		private final Weights weights;
+
+		// The decay of the raw weights, as in WeightedSampler
+		private final double scale;
+		private final double baseline;
+
+		private Snapshot(Folder top, Folder[][] folders, int[][] slotFolders, Weights weights, double scale, double baseline) {
+			this.top = top;
+			this.folders = folders;
+			this.slotFolders = slotFolders;
+			this.weights = weights;
+			this.scale = scale;
+			this.baseline = baseline;
+		}
+
+		@Override
+		public int size() {
+			return weights.size();
+		}
+
+		/**
+		 * @return the sum of the weights slots are drawn with.
+		 */
+		@Override
+		public double total() {
+			return decayed(top.raw, top.count, scale, baseline);
+		}
+
+		@Override
+		public boolean contains(int slot) {
+			return slot >= 0 && slot < slotFolders.length*CHUNK && slotFolders[slot >>> CHUNK_BITS][slot & (CHUNK - 1)] != FREE;
+		}
+
+		/**        Gets the weight a slot is drawn with: its weight in the sampler times the weights of the folders above it.
+		 *         This is O(depth).
+		 * @param  slot as the slot.
+		 * @return the weight, 0 if the slot is not in the tree.
+		 */
+		@Override
+		public double getWeight(int slot) {
+			if(!contains(slot)) {
+				return 0;
+			}
+			double weight = weights.getWeight(slot);
+			for(int f = slotFolders[slot >>> CHUNK_BITS][slot & (CHUNK - 1)]; f != ROOT; ) {
+				Folder folder = folder(f);
+				weight *= folder.factor;
+				f = folder.parent;
+			}
+			return weight;
+		}
+
+		/**
+		 * @param  slot as the slot.
+		 * @return the probability of the slot being drawn, 0 if it is not in the tree.
+		 */
+		public double getProbability(int slot) {
+			double total = total();
+			return (total <= 0) ? 0 : getWeight(slot)/total;
+		}
+
+		/**        Draws a slot by picking an entry of each folder by its weight, starting from the roots.
+		 *         This is O(log k) in each folder of k entries on the way down.
+		 * @param  random as the source of randomness.
+		 * @return the slot that was drawn.
+		 * @throws IllegalStateException if no slot has any weight.
+		 */
+		@Override
+		public int sample(Random random) {
+			double total = total();
+			if(!(total > 0))
+				throw new IllegalStateException("sample() called on an empty Snapshot");
+			Folder folder = top;
+			double target = random.nextDouble()*total;
+			while(true) {
+				// The target is in the weights of what is in the folder, before its factor; sub-folders come before slots
+				double inFolders = decayed(folder.folders.rawSum, folder.folders.countSum, scale, baseline);
+				boolean slot = !(target < inFolders) && decayed(folder.slots.rawSum, folder.slots.countSum, scale, baseline) > 0;
+				if(slot) {
+					target -= inFolders;
+				}
+				Sums sums = slot ? folder.slots : folder.folders;
+				int id;
+				while(true) {
+					int chosen = -1;
+					double weight = 0;
+					int entry = 0;
+					for(; entry < WIDTH; entry++) {
+						double w = decayed(sums.raw[entry], sums.count[entry], scale, baseline);
+						if(w > 0) {
+							chosen = entry;
+							weight = w;
+							if(target < w) {
+								break;
+							}
+							target -= w;
+						}
+					}
+					if(entry == WIDTH) {
+						// Rounding left the target past the last entry with any weight, which is then the one picked
+						target = Math.nextDown(weight);
+					}
+					if(sums.level == 0) {
+						id = sums.ids[chosen];
+						break;
+					}
+					sums = sums.nodes[chosen];
+				}
+				if(slot) {
+					return id;
+				}
+				folder = folder(id);
+				target /= folder.factor;
+			}
+		}
+
+		/**
+		 * @return the weight each slot is drawn with, by slot. This is O(n), so it is meant for walks over every slot.
+		 */
+		public double[] getWeights() {
+			double[] weights = new double[size()];
+			fill(weights, top, 1.0);
+			return weights;
+		}
+
+		/**       Puts the weights of the slots under a folder in an array.
+		 * @param weights as the array, by slot.
+		 * @param folder as the folder.
+		 * @param factor as the product of the weights of the folders above it.
+		 */
+		private void fill(double[] weights, Folder folder, double factor) {
+			factor *= folder.factor;
+			fill(weights, folder.folders, factor, false);
+			fill(weights, folder.slots, factor, true);
+		}
+
+		/**       Puts the weights of the slots under the entries of Sums in an array.
+		 * @param weights as the array, by slot.
+		 * @param sums as the Sums.
+		 * @param factor as the product of the weights of the folder the Sums are in and the folders above it.
+		 * @param slots as whether the entries are slots, otherwise they are folders.
+		 */
+		private void fill(double[] weights, Sums sums, double factor, boolean slots) {
+			for(int i = 0; i < WIDTH; i++) {
+				if(sums.level > 0) {
+					if(sums.nodes[i] != null) {
+						fill(weights, sums.nodes[i], factor, slots);
+					}
+				} else if(sums.ids[i] != FREE) {
+					if(!slots) {
+						fill(weights, folder(sums.ids[i]), factor);
+					} else if(sums.ids[i] < weights.length) {
+						weights[sums.ids[i]] = factor*decayed(sums.raw[i], 1, scale, baseline);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @param  folder as a folder in the Snapshot.
+		 * @return its Folder.
+		 */
+		private Folder folder(int folder) {
+			return folders[folder >>> CHUNK_BITS][folder & (CHUNK - 1)];
+		}
+
+	}
+
+}
@@ -0,0 +1,224 @@
+package algorithms;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         A parallel scanner that streams the supported media files in a folder to a consumer.
+ *         Each directory is listed once with a DirectoryStream, the attributes of each entry are read once,
+ *         and sub-directories are scanned concurrently on a ForkJoinPool.
+ */
+public final class MediaScanner {
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Receives the media files found by a MediaScanner.
+	 *         Calls may come from several threads at once, so implementations must be thread-safe.
+	 */
+	@FunctionalInterface
+	public interface MediaFileConsumer {
+
+		/**       Called once for every supported media file found.
+		 * @param file as the path of the media file.
+		 * @param attributes as the attributes of the media file, read when the file was found.
+		 */
+		void accept(Path file, BasicFileAttributes attributes);
+
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Receives the directories listed by a MediaScanner.
+	 *         Calls may come from several threads at once, so implementations must be thread-safe.
+	 */
+	@FunctionalInterface
+	public interface DirectoryConsumer {
+
+		/**       Called once for every directory that was listed, before its entries are read.
+		 * @param directory as the path of the directory.
+		 * @param attributes as the attributes of the directory, read before it was listed.
+		 */
+		void accept(Path directory, BasicFileAttributes attributes);
+
+	}
+
+	// Shared by default so scans do not each spin up their own threads
+	private static final MediaScanner DEFAULT_SCANNER = new MediaScanner(
+			Math.max(4, 2*Runtime.getRuntime().availableProcessors()), MediaTypeRegistry.getDefault());
+
+	/**
+	 * @return the MediaScanner shared by the application.
+	 */
+	public static MediaScanner getDefault() {
+		return DEFAULT_SCANNER;
+	}
+
+	// Runs the directory tasks; scanning is I/O bound so it is wider than the number of cores
+	private final ForkJoinPool pool;
+
+	// Decides which files are media
+	private final MediaTypeRegistry registry;
+
+	/**        Creates a MediaScanner.
+	 * @param  parallelism as the number of directories that can be listed at once.
+	 * @param  registry as the MediaTypeRegistry that decides which files are media.
+	 * @throws NullPointerException if registry is null.
+	 * @throws IllegalArgumentException if parallelism is less than 1.
+	 */
+	public MediaScanner(int parallelism, MediaTypeRegistry registry) {
+		Objects.requireNonNull(registry);
+		if(parallelism < 1)
+			throw new IllegalArgumentException("parallelism passed to MediaScanner() must be at least 1");
+		this.registry = registry;
+		pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false);
+	}
+
+	/**        Streams all the supported media files in folder to consumer, and blocks until the scan is done.
+	 *         Symbolic links are followed like File.isFile() and File.isDirectory() do,
+	 *         but a directory that was already visited is never scanned twice, so link cycles terminate.
+	 *         Directories that can not be read are skipped.
+	 * @param  folder as the File containing a folder.
+	 * @param  subDirectories as whether or not to check all the sub-directories for media.
+	 * @param  consumer as the thread-safe consumer that gets passed each media file.
+	 * @throws NullPointerException if folder or consumer is null.
+	 * @throws IllegalArgumentException if folder is not a directory.
+	 */
+	public void scan(File folder, boolean subDirectories, MediaFileConsumer consumer) {
+		scan(folder, subDirectories, consumer, (d, a) -> {});
+	}
+
+	/**        Streams all the supported media files in folder to consumer, and every directory listed to directoryConsumer,
+	 *         and blocks until the scan is done.
+	 * @param  folder as the File containing a folder.
+	 * @param  subDirectories as whether or not to check all the sub-directories for media.
+	 * @param  consumer as the thread-safe consumer that gets passed each media file.
+	 * @param  directoryConsumer as the thread-safe consumer that gets passed each directory.
+	 * @throws NullPointerException if folder, consumer or directoryConsumer is null.
+	 * @throws IllegalArgumentException if folder is not a directory.
+	 */
+	public void scan(File folder, boolean subDirectories, MediaFileConsumer consumer, DirectoryConsumer directoryConsumer) {
+		Objects.requireNonNull(folder);
+		Objects.requireNonNull(consumer);
+		Objects.requireNonNull(directoryConsumer);
+		Path root = folder.toPath();
+		BasicFileAttributes rootAttributes = readAttributes(root);
+		if(rootAttributes == null || !rootAttributes.isDirectory())
+			throw new IllegalArgumentException("folder passed to scan() must be a directory");
+		// Invariants secured
+		Set<Object> visited = ConcurrentHashMap.newKeySet();
+		pool.invoke(new DirectoryTask(root, rootAttributes, subDirectories, consumer, directoryConsumer, visited));
+	}
+
+	/**       Reads the attributes of a file, following links.
+	 * @param path as the path of the file.
+	 * @return the attributes of the file, or null if they could not be read.
+	 */
+	private static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			// Broken links and files deleted mid-scan are not media
+			return null;
+		}
+	}
+
+	/**       Gets a key that is the same for every path that leads to the same directory.
+	 * @param directory as the path of the directory.
+	 * @param attributes as the attributes of the directory.
+	 * @return the key for the directory, or null if the directory can not be resolved.
+	 */
+	private static Object directoryKey(Path directory, BasicFileAttributes attributes) {
+		Object key = attributes.fileKey();
+		if(key != null) {
+			return key;
+		}
+		// File systems without file keys, like NTFS, fall back to the canonical path
+		try {
+			return directory.toRealPath();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Scans one directory and forks a task for each of its sub-directories.
+	 */
+	private final class DirectoryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -4318829616520930573L;
+
+		private final Path directory;
+		private final BasicFileAttributes attributes;
+		private final boolean subDirectories;
+		private final MediaFileConsumer consumer;
+		private final DirectoryConsumer directoryConsumer;
+		private final Set<Object> visited;
+
+		private DirectoryTask(Path directory, BasicFileAttributes attributes, boolean subDirectories,
+				MediaFileConsumer consumer, DirectoryConsumer directoryConsumer, Set<Object> visited) {
+			this.directory = directory;
+			this.attributes = attributes;
+			this.subDirectories = subDirectories;
+			this.consumer = consumer;
+			this.directoryConsumer = directoryConsumer;
+			this.visited = visited;
+		}
+
+		@Override
+		protected void compute() {
+			Object key = directoryKey(directory, attributes);
+			if(key == null || !visited.add(key)) {
+				return;
+			}
+			List<DirectoryTask> tasks = new ArrayList<DirectoryTask>();
+			directoryConsumer.accept(directory, attributes);
+			try(DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+				for(Path p : directoryStream) {
+					boolean media = registry.isMediaName(p.getFileName().toString());
+					boolean sniffing = registry.isSniffing();
+					// Only entries that could be used get stat'ed
+					if(!media && !subDirectories && !sniffing) {
+						continue;
+					}
+					BasicFileAttributes a = readAttributes(p);
+					if(a == null) {
+						continue;
+					}
+					if(a.isRegularFile()) {
+						if(media || (sniffing && registry.hasMediaHeader(p))) {
+							consumer.accept(p, a);
+						}
+					} else if(a.isDirectory() && subDirectories) {
+						tasks.add(new DirectoryTask(p, a, subDirectories, consumer, directoryConsumer, visited));
+					}
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				// Unreadable directories are skipped, like the rest of the library they can be fixed and rescanned
+				return;
+			}
+			invokeAll(tasks);
+		}
+
+	}
+
+}
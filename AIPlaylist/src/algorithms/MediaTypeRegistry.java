@@ -0,0 +1,379 @@
+package algorithms;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Decides which files are supported media.
+ *         File names are classified by one case-insensitive lookup in a perfect hash table of extensions,
+ *         which does not allocate. When sniffing is on, files whose extension is missing or unknown
+ *         are classified by the magic bytes at the start of the file.
+ */
+public final class MediaTypeRegistry {
+
+	// The extensions supported by VLC that AIPlaylist has always picked up
+	private static final String[] DEFAULT_EXTENSIONS = {
+			"mp4", "3gp", "asf", "wmv", "au", "avi", "flv", "mov", "ogm", "ogg",
+			"mkv", "mka", "ts", "mpg", "mp3", "mp2", "nsc", "nsv", "nut", "ra",
+			"ram", "rm", "rv", "rmbv", "a52", "dts", "aac", "flac", "dv", "vid",
+			"tta", "tac", "ty", "wav", "xa"
+	};
+
+	// The number of bytes read from the start of a file when sniffing;
+	// enough for two MPEG-TS packets, and for the longest MPEG audio frame and the header of the frame after it
+	private static final int SNIFF_LENGTH = 2048;
+
+	// The bit rates of MPEG audio frames in kbit/s, by version 1 or 2 and layer, then by the bit rate index
+	private static final int[][] MPEG_BIT_RATES = {
+			{0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+			{0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+			{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+	};
+
+	// The sample rates of MPEG version 1 audio frames by the sample rate index; version 2 halves them and 2.5 quarters them
+	private static final int[] MPEG_SAMPLE_RATES = {44100, 48000, 32000};
+
+	// Reused by each thread so sniffing does not allocate
+	private static final ThreadLocal<ByteBuffer> SNIFF_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(SNIFF_LENGTH));
+
+	private static final MediaTypeRegistry DEFAULT_REGISTRY = new MediaTypeRegistry(Arrays.asList(DEFAULT_EXTENSIONS));
+
+	/**
+	 * @return the MediaTypeRegistry shared by the application.
+	 */
+	public static MediaTypeRegistry getDefault() {
+		return DEFAULT_REGISTRY;
+	}
+
+	// Replaced as a whole when the supported extensions change, so lookups never lock
+	private volatile ExtensionTable table;
+
+	// Whether or not files with unsupported extensions get their headers checked
+	private volatile boolean sniffing = false;
+
+	/**        Creates a MediaTypeRegistry.
+	 * @param  extensions as the supported extensions, with or without the leading period.
+	 * @throws NullPointerException if extensions or any of its elements are null.
+	 * @throws IllegalArgumentException if any of the extensions are empty.
+	 */
+	public MediaTypeRegistry(Collection<String> extensions) {
+		table = new ExtensionTable(normalize(extensions));
+	}
+
+	/**
+	 * @return the supported extensions, in lower case and without the leading period.
+	 */
+	public Set<String> getExtensions() {
+		return Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList(table.extensions)));
+	}
+
+	/**        Replaces the supported extensions.
+	 * @param  extensions as the supported extensions, with or without the leading period.
+	 * @throws NullPointerException if extensions or any of its elements are null.
+	 * @throws IllegalArgumentException if any of the extensions are empty.
+	 */
+	public synchronized void setExtensions(Collection<String> extensions) {
+		table = new ExtensionTable(normalize(extensions));
+	}
+
+	/**        Adds a supported extension.
+	 * @param  extension as the extension, with or without the leading period.
+	 * @throws NullPointerException if extension is null.
+	 * @throws IllegalArgumentException if extension is empty.
+	 */
+	public synchronized void register(String extension) {
+		Set<String> extensions = new TreeSet<String>(Arrays.asList(table.extensions));
+		extensions.add(extension);
+		table = new ExtensionTable(normalize(extensions));
+	}
+
+	/**        Removes a supported extension.
+	 * @param  extension as the extension, with or without the leading period.
+	 * @throws NullPointerException if extension is null.
+	 */
+	public synchronized void unregister(String extension) {
+		Set<String> extensions = new TreeSet<String>(Arrays.asList(table.extensions));
+		extensions.remove(normalize(Collections.singleton(extension)).iterator().next());
+		table = new ExtensionTable(extensions);
+	}
+
+	/**
+	 * @return whether or not files with unsupported extensions get their headers checked.
+	 */
+	public boolean isSniffing() {
+		return sniffing;
+	}
+
+	/**       Sets whether or not files with unsupported extensions get their headers checked.
+	 * @param sniffing as whether or not to check headers.
+	 */
+	public void setSniffing(boolean sniffing) {
+		this.sniffing = sniffing;
+	}
+
+	/**
+	 * @return a hash of the supported extensions and whether or not sniffing is on, which changes when what counts as media does.
+	 */
+	public long fingerprint() {
+		long h = sniffing ? 0xCBF29CE484222325L : 0x84222325CBF29CE4L;
+		for(String extension : table.extensions) {
+			h = (h ^ extension.hashCode())*0x100000001B3L;
+		}
+		return h;
+	}
+
+	/**        Checks whether a file name has a supported extension, ignoring case.
+	 * @param  name as the name of the file.
+	 * @return true if the file name ends with a supported media extension.
+	 * @throws NullPointerException if name is null.
+	 */
+	public boolean isMediaName(String name) {
+		Objects.requireNonNull(name);
+		int lastPeriodIndex = name.lastIndexOf('.');
+		return lastPeriodIndex != -1 && table.contains(name, lastPeriodIndex + 1);
+	}
+
+	/**        Checks whether a regular file is supported media,
+	 *         by its extension and then by its header if sniffing is on.
+	 * @param  file as the path of the regular file.
+	 * @return true if the file is supported media.
+	 * @throws NullPointerException if file is null.
+	 */
+	public boolean isMedia(Path file) {
+		Objects.requireNonNull(file);
+		return isMediaName(file.getFileName().toString()) || (sniffing && hasMediaHeader(file));
+	}
+
+	/**        Checks the first bytes of a file for the signature of a media container or stream.
+	 *         Only the header is read, through a reused direct buffer.
+	 * @param  file as the path of the file.
+	 * @return true if the header of the file belongs to a supported media format.
+	 * @throws NullPointerException if file is null.
+	 */
+	public boolean hasMediaHeader(Path file) {
+		Objects.requireNonNull(file);
+		ByteBuffer header = SNIFF_BUFFER.get();
+		header.clear();
+		try(FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while(header.hasRemaining() && fileChannel.read(header) != -1);
+		} catch (IOException e) {
+			return false;
+		}
+		header.flip();
+		return isMediaHeader(header);
+	}
+
+	/**       Matches a header against the known media signatures.
+	 * @param h as the header, from position 0 to its limit.
+	 * @return true if the header belongs to a supported media format.
+	 */
+	private static boolean isMediaHeader(ByteBuffer h) {
+		int n = h.limit();
+		if(n < 4) {
+			return false;
+		}
+		int first = h.getInt(0);
+		switch(first) {
+		case 0x664C6143: // fLaC
+		case 0x4F676753: // OggS
+		case 0x1A45DFA3: // EBML, mkv and mka
+		case 0x000001BA: // MPEG program stream
+		case 0x000001B3: // MPEG video sequence
+		case 0x2E736E64: // .snd, au
+		case 0x2E524D46: // .RMF, rm
+		case 0x54544131: // TTA1
+		case 0x4E535666: // NSVf
+		case 0x4E535673: // NSVs
+		case 0x7FFE8001: // DTS
+			return true;
+		case 0x3026B275: // ASF, wmv
+			return n >= 8 && h.getInt(4) == 0x8E66CF11;
+		case 0x52494646: // RIFF, wav and avi
+			return n >= 12 && (h.getInt(8) == 0x57415645 || h.getInt(8) == 0x41564920);
+		default:
+			break;
+		}
+		if((first >>> 8) == 0x494433 || (first >>> 8) == 0x464C56) { // ID3 tagged mp3, FLV
+			return true;
+		}
+		if(n >= 8 && h.getInt(4) == 0x66747970) { // ftyp, mp4, 3gp and mov
+			return true;
+		}
+		int b0 = h.get(0) & 0xFF;
+		int b1 = h.get(1) & 0xFF;
+		if(b0 == 0x0B && b1 == 0x77) { // A52
+			return true;
+		}
+		int length = frameLength(h, 0);
+		if(length > 0) { // MPEG audio and ADTS
+			// A frame sync also starts other files, like the FF FE of UTF-16 text, so the next frame has to follow it
+			if(length + 6 <= n) {
+				return frameLength(h, length) > 0;
+			}
+			// Unless the file ends with the frame, or the frame is longer than what is read, which only ADTS frames can be
+			return length == n || n == SNIFF_LENGTH;
+		}
+		return n > 188 && b0 == 0x47 && h.get(188) == 0x47; // MPEG transport stream
+	}
+
+	/**       Reads the header of an MPEG audio or ADTS frame, checking every field that has values it can not take.
+	 * @param h as the bytes the header is in.
+	 * @param offset as where the header starts.
+	 * @return the length of the frame in bytes, or -1 if there is no valid frame header at offset.
+	 */
+	private static int frameLength(ByteBuffer h, int offset) {
+		if(offset + 4 > h.limit()) {
+			return -1;
+		}
+		int b1 = h.get(offset + 1) & 0xFF;
+		int b2 = h.get(offset + 2) & 0xFF;
+		if((h.get(offset) & 0xFF) != 0xFF || (b1 & 0xE0) != 0xE0) {
+			return -1;
+		}
+		int version = (b1 >>> 3) & 0x3;
+		int layer = (b1 >>> 1) & 0x3;
+		if(layer == 0) {
+			// ADTS has a 12 bit sync, layer 0 and a 13 bit frame length that includes its 7 or 9 byte header
+			if((b1 & 0xF0) != 0xF0 || ((b2 >>> 2) & 0xF) >= 13 || offset + 6 > h.limit()) {
+				return -1;
+			}
+			int length = ((h.get(offset + 3) & 0x3) << 11) | ((h.get(offset + 4) & 0xFF) << 3) | ((h.get(offset + 5) & 0xFF) >>> 5);
+			return (length >= (((b1 & 0x1) == 0) ? 9 : 7)) ? length : -1;
+		}
+		int bitRateIndex = b2 >>> 4;
+		int sampleRateIndex = (b2 >>> 2) & 0x3;
+		// Version 01 is reserved, and free format frames with bit rate index 0 have no length to check the next frame at
+		if(version == 1 || bitRateIndex == 0 || bitRateIndex == 0xF || sampleRateIndex == 3) {
+			return -1;
+		}
+		boolean version1 = version == 3;
+		int padding = (b2 >>> 1) & 0x1;
+		int bitRate = MPEG_BIT_RATES[version1 ? 3 - layer : (layer == 3) ? 3 : 4][bitRateIndex]*1000;
+		int sampleRate = MPEG_SAMPLE_RATES[sampleRateIndex] >> (version1 ? 0 : (version == 2) ? 1 : 2);
+		if(layer == 3) { // Layer I
+			return (12*bitRate/sampleRate + padding)*4;
+		}
+		return ((layer == 1 && !version1) ? 72 : 144)*bitRate/sampleRate + padding;
+	}
+
+	/**        Lower cases extensions and strips the leading periods.
+	 * @param  extensions as the extensions.
+	 * @return the normalized extensions.
+	 * @throws NullPointerException if extensions or any of its elements are null.
+	 * @throws IllegalArgumentException if any of the extensions are empty.
+	 */
+	private static Set<String> normalize(Collection<String> extensions) {
+		Objects.requireNonNull(extensions);
+		Set<String> normalized = new TreeSet<String>();
+		for(String e : extensions) {
+			Objects.requireNonNull(e);
+			String extension = (e.startsWith(".") ? e.substring(1) : e).toLowerCase(Locale.ROOT);
+			if(extension.isEmpty())
+				throw new IllegalArgumentException("extensions passed to MediaTypeRegistry must not be empty");
+			normalized.add(extension);
+		}
+		return normalized;
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         An immutable open table where every extension hashes to its own slot.
+	 *         The seed is searched for when the table is built, so a lookup is one hash and at most one comparison.
+	 */
+	private static final class ExtensionTable {
+
+		private final String[] extensions;
+		private final String[] slots;
+		private final int mask;
+		private final int seed;
+
+		/**       Builds a collision free table for the extensions.
+		 * @param extensions as the normalized extensions.
+		 */
+		private ExtensionTable(Set<String> extensions) {
+			this.extensions = extensions.toArray(new String[0]);
+			int size = Integer.highestOneBit(Math.max(1, this.extensions.length))*2;
+			String[] s;
+			int seed = 0;
+			while(true) {
+				s = tryBuild(this.extensions, size - 1, seed);
+				if(s != null) {
+					break;
+				}
+				seed++;
+				// Grows the table if no seed is found quickly
+				if(seed % 1024 == 0) {
+					size *= 2;
+				}
+			}
+			this.slots = s;
+			this.mask = size - 1;
+			this.seed = seed;
+		}
+
+		/**       Tries to place every extension in its own slot.
+		 * @param extensions as the normalized extensions.
+		 * @param mask as the size of the table minus one.
+		 * @param seed as the seed of the hash.
+		 * @return the slots, or null if two extensions collide.
+		 */
+		private static String[] tryBuild(String[] extensions, int mask, int seed) {
+			String[] slots = new String[mask + 1];
+			for(String e : extensions) {
+				int slot = hash(e, 0, seed) & mask;
+				if(slots[slot] != null) {
+					return null;
+				}
+				slots[slot] = e;
+			}
+			return slots;
+		}
+
+		/**       Hashes the lower case characters of s starting at start.
+		 * @param s as the String containing the extension.
+		 * @param start as the index of the first character of the extension.
+		 * @param seed as the seed of the hash.
+		 * @return the hash.
+		 */
+		private static int hash(String s, int start, int seed) {
+			int h = seed*0x9E3779B9;
+			for(int i = start; i < s.length(); i++) {
+				h = (h ^ Character.toLowerCase(s.charAt(i)))*0x01000193;
+			}
+			return h ^ (h >>> 15);
+		}
+
+		/**       Checks whether the characters of name starting at start are a supported extension, ignoring case.
+		 * @param name as the String containing the extension.
+		 * @param start as the index of the first character of the extension.
+		 * @return true if the extension is in this table.
+		 */
+		private boolean contains(String name, int start) {
+			int length = name.length() - start;
+			if(length == 0) {
+				return false;
+			}
+			String e = slots[hash(name, start, seed) & mask];
+			return e != null && e.length() == length && name.regionMatches(true, start, e, 0, length);
+		}
+
+	}
+
+}
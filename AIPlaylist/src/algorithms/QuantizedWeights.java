@@ -0,0 +1,528 @@
+package algorithms;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Weights kept in 8 or 16 bits each rather than in a double, for when there are many sets of weights over the same slots,
+ *         like one for each hour of the week. A weight is kept as a code for its base 2 logarithm, STEPS codes to a doubling,
+ *         so every weight is off by about the same fraction: up to 4.4% in 8 bits, and 0.03% in 16.
+ *         A new weight is rounded to the code above or below it at random, in proportion to how close it is to each,
+ *         so the weight it is read back as is right on average, and many small changes add up instead of each rounding away.
+ *         The codes are kept in chunks along with the sum of each, so a draw is O(log n) plus a walk of one chunk,
+ *         and a change copies only its chunk and the sums.
+ *         QuantizedWeights never change once made; feedback makes new ones that share the chunks that did not change,
+ *         so they can be read by any thread without locks.
+ */
+public final class QuantizedWeights implements Weights, Serializable {
+
+	private static final long serialVersionUID = -3920174626412559371L;
+
+	// The number of slots in a chunk
+	private static final int CHUNK = 256;
+
+	// The code of a free slot
+	private static final int FREE = 0;
+
+	// The number of codes to a doubling of the weight, for 8 and 16 bit codes
+	private static final int STEPS_8 = 8;
+	private static final int STEPS_16 = 1024;
+
+	// The weight each 8 bit code stands for
+	private static final double[] WEIGHTS_8 = weightTable(8, STEPS_8);
+
+	// The number of bits in each code, 8 or 16
+	private final int bits;
+
+	// The codes of each chunk, one byte each in 8 bits and two bytes each, low byte first, in 16
+	private final byte[][] chunks;
+
+	// The sum of the weights of each chunk, and the running total up to and including each chunk
+	private final double[] chunkTotals;
+	private transient double[] runningTotals;
+
+	// One more than the highest slot that has ever been used, and the number of slots in use
+	private final int size;
+	private final int count;
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Holds the weight each 16 bit code stands for, so the table is only made if 16 bit codes are used.
+	 */
+	private static final class Weights16 {
+		private static final double[] WEIGHTS = weightTable(16, STEPS_16);
+	}
+
+	/**       Makes QuantizedWeights out of their chunks, which they take ownership of.
+	 * @param bits as the number of bits in each code.
+	 * @param chunks as the codes of each chunk.
+	 * @param chunkTotals as the sum of each chunk.
+	 * @param size as one more than the highest slot that has ever been used.
+	 * @param count as the number of slots in use.
+	 */
+	private QuantizedWeights(int bits, byte[][] chunks, double[] chunkTotals, int size, int count) {
+		this.bits = bits;
+		this.chunks = chunks;
+		this.chunkTotals = chunkTotals;
+		this.size = size;
+		this.count = count;
+		runningTotals = running(chunkTotals);
+	}
+
+	/**        Makes QuantizedWeights with the same chances as other Weights.
+	 *         The weights are divided by their mean first, so they sit in the middle of the range of the codes.
+	 * @param  weights as the Weights to copy.
+	 * @param  bits as the number of bits to keep each weight in, 8 or 16.
+	 * @return the QuantizedWeights.
+	 * @throws IllegalArgumentException if bits is not 8 or 16.
+	 */
+	public static QuantizedWeights of(Weights weights, int bits) {
+		checkBits(bits);
+		int size = weights.size();
+		int count = 0;
+		for(int slot = 0; slot < size; slot++) {
+			count += weights.contains(slot) ? 1 : 0;
+		}
+		double mean = (count == 0) ? 1 : weights.total()/count;
+		byte[][] chunks = new byte[chunksFor(size)][];
+		double[] chunkTotals = new double[chunks.length];
+		for(int chunk = 0; chunk < chunks.length; chunk++) {
+			int from = chunk*CHUNK;
+			chunks[chunk] = new byte[Math.min(CHUNK, size - from)*bits/8];
+			for(int slot = from; slot < Math.min(from + CHUNK, size); slot++) {
+				double weight = weights.getWeight(slot);
+				if(weights.contains(slot) && weight > 0) {
+					setCode(chunks[chunk], bits, slot - from, nearestCode(weight/mean, bits));
+				}
+			}
+			chunkTotals[chunk] = sum(chunks[chunk], bits);
+		}
+		return new QuantizedWeights(bits, chunks, chunkTotals, size, count);
+	}
+
+	/**
+	 * @param  bits as a number of bits.
+	 * @throws IllegalArgumentException if bits is not 8 or 16.
+	 */
+	private static void checkBits(int bits) {
+		if(bits != 8 && bits != 16)
+			throw new IllegalArgumentException("QuantizedWeights can only be kept in 8 or 16 bits");
+	}
+
+	/**
+	 * @param  bits as the number of bits in each code.
+	 * @param  steps as the number of codes to a doubling.
+	 * @return the weight each code stands for, with 0 for FREE and 1 for the code in the middle.
+	 */
+	private static double[] weightTable(int bits, int steps) {
+		double[] table = new double[1 << bits];
+		int middle = 1 << (bits - 1);
+		for(int code = 1; code < table.length; code++) {
+			table[code] = Math.pow(2, (double) (code - middle)/steps);
+		}
+		return table;
+	}
+
+	/**
+	 * @param  bits as the number of bits in each code.
+	 * @return the weight each code stands for.
+	 */
+	private static double[] weights(int bits) {
+		return (bits == 8) ? WEIGHTS_8 : Weights16.WEIGHTS;
+	}
+
+	/**
+	 * @param  bits as the number of bits in each code.
+	 * @return the number of codes to a doubling.
+	 */
+	private static int steps(int bits) {
+		return (bits == 8) ? STEPS_8 : STEPS_16;
+	}
+
+	/**
+	 * @param  weight as a positive weight.
+	 * @param  bits as the number of bits in each code.
+	 * @return the code of the weight, not rounded, which can be past either end of the codes.
+	 */
+	private static double exactCode(double weight, int bits) {
+		return Math.log(weight)/Math.log(2)*steps(bits) + (1 << (bits - 1));
+	}
+
+	/**
+	 * @param  weight as a positive weight.
+	 * @param  bits as the number of bits in each code.
+	 * @return the code nearest the weight, kept to the codes there are.
+	 */
+	private static int nearestCode(double weight, int bits) {
+		return clampCode((long) Math.floor(exactCode(weight, bits) + 0.5), bits);
+	}
+
+	/**
+	 * @param  code as a code that can be past either end of the codes.
+	 * @param  bits as the number of bits in each code.
+	 * @return the code, or the lowest or highest code if it is past them.
+	 */
+	private static int clampCode(long code, int bits) {
+		return (int) Math.max(1, Math.min((1 << bits) - 1, code));
+	}
+
+	/**
+	 * @param  codes as the codes of a chunk.
+	 * @param  bits as the number of bits in each code.
+	 * @param  index as the index of a slot in the chunk.
+	 * @return the code of the slot.
+	 */
+	private static int code(byte[] codes, int bits, int index) {
+		return (bits == 8) ? codes[index] & 0xFF : (codes[2*index] & 0xFF) | (codes[2*index + 1] & 0xFF) << 8;
+	}
+
+	/**       Sets the code of a slot.
+	 * @param codes as the codes of a chunk.
+	 * @param bits as the number of bits in each code.
+	 * @param index as the index of a slot in the chunk.
+	 * @param code as the code.
+	 */
+	private static void setCode(byte[] codes, int bits, int index, int code) {
+		if(bits == 8) {
+			codes[index] = (byte) code;
+		} else {
+			codes[2*index] = (byte) code;
+			codes[2*index + 1] = (byte) (code >>> 8);
+		}
+	}
+
+	/**
+	 * @param  codes as the codes of a chunk.
+	 * @param  bits as the number of bits in each code.
+	 * @return the sum of the weights of the chunk.
+	 */
+	private static double sum(byte[] codes, int bits) {
+		double[] weights = weights(bits);
+		double sum = 0;
+		for(int index = 0; index < codes.length*8/bits; index++) {
+			sum += weights[code(codes, bits, index)];
+		}
+		return sum;
+	}
+
+	/**
+	 * @param  size as a number of slots.
+	 * @return the number of chunks that hold them.
+	 */
+	private static int chunksFor(int size) {
+		return (size + CHUNK - 1)/CHUNK;
+	}
+
+	/**
+	 * @param  totals as the sum of each chunk.
+	 * @return the running totals of the chunks.
+	 */
+	private static double[] running(double[] totals) {
+		double[] running = new double[totals.length];
+		double sum = 0;
+		for(int chunk = 0; chunk < totals.length; chunk++) {
+			sum += totals[chunk];
+			running[chunk] = sum;
+		}
+		return running;
+	}
+
+	/**
+	 * @return the number of bits each weight is kept in.
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return the number of slots in use.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return the number of bytes the codes and sums take up, not counting the headers of the arrays.
+	 */
+	public long bytes() {
+		long bytes = 2L*Double.BYTES*chunkTotals.length;
+		for(byte[] codes : chunks) {
+			bytes += codes.length;
+		}
+		return bytes;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double total() {
+		return (runningTotals.length == 0) ? 0 : runningTotals[runningTotals.length - 1];
+	}
+
+	@Override
+	public double getWeight(int slot) {
+		return (slot >= 0 && slot < size) ? weights(bits)[code(chunks[slot/CHUNK], bits, slot%CHUNK)] : 0;
+	}
+
+	@Override
+	public boolean contains(int slot) {
+		return slot >= 0 && slot < size && code(chunks[slot/CHUNK], bits, slot%CHUNK) != FREE;
+	}
+
+	/**        Gets the probability of a slot being drawn.
+	 * @param  slot as the slot.
+	 * @return the probability of the slot, 0 if the slot is free.
+	 */
+	public double getProbability(int slot) {
+		double total = total();
+		return (total <= 0) ? 0 : getWeight(slot)/total;
+	}
+
+	@Override
+	public int sample(Random random) {
+		double total = total();
+		if(!(total > 0))
+			throw new IllegalStateException("sample() called on empty QuantizedWeights");
+		double[] weights = weights(bits);
+		// Rounding can leave the target past the last slot of its chunk, so it is drawn again
+		for(int attempt = 0; attempt < 4; attempt++) {
+			double target = random.nextDouble()*total;
+			int low = 0;
+			int high = runningTotals.length;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(runningTotals[middle] <= target) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			if(low >= chunks.length) {
+				continue;
+			}
+			if(low > 0) {
+				target -= runningTotals[low - 1];
+			}
+			byte[] codes = chunks[low];
+			for(int index = 0; index < codes.length*8/bits; index++) {
+				int code = code(codes, bits, index);
+				if(code != FREE) {
+					target -= weights[code];
+					if(target < 0) {
+						return low*CHUNK + index;
+					}
+				}
+			}
+		}
+		for(int slot = size - 1; slot >= 0; slot--) {
+			if(contains(slot)) {
+				return slot;
+			}
+		}
+		throw new IllegalStateException("sample() called on empty QuantizedWeights");
+	}
+
+	/**        Makes a slot more likely to be drawn, by the rule of WeightedSampler.good().
+	 *         A free slot is put in use first with the mean weight, like a media file added after these weights were made.
+	 * @param  slot as the slot.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @param  random as what the new weight is rounded with.
+	 * @return the QuantizedWeights with the new weight.
+	 * @throws IllegalArgumentException if slot is negative or percent is not between 0 and 1.
+	 */
+	public QuantizedWeights good(int slot, double percent, Random random) {
+		QuantizedWeights weights = checkFeedback(slot, percent);
+		double p = weights.getProbability(slot);
+		return weights.setProbability(slot, WeightedSampler.goodProbability(p, percent), random);
+	}
+
+	/**        Makes a slot less likely to be drawn, by the rule of WeightedSampler.bad().
+	 *         A free slot is put in use first with the mean weight, like a media file added after these weights were made.
+	 * @param  slot as the slot.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @param  random as what the new weight is rounded with.
+	 * @return the QuantizedWeights with the new weight.
+	 * @throws IllegalArgumentException if slot is negative or percent is not between 0 and 1.
+	 */
+	public QuantizedWeights bad(int slot, double percent, Random random) {
+		QuantizedWeights weights = checkFeedback(slot, percent);
+		double p = weights.getProbability(slot);
+		return weights.setProbability(slot, WeightedSampler.badProbability(p, percent), random);
+	}
+
+	/**        Checks the arguments of good() and bad(), and puts a free slot in use.
+	 * @param  slot as the slot.
+	 * @param  percent as the fraction to adjust by.
+	 * @return these QuantizedWeights, or new ones with the slot in use.
+	 */
+	private QuantizedWeights checkFeedback(int slot, double percent) {
+		if(slot < 0)
+			throw new IllegalArgumentException("slot passed to good() or bad() is negative");
+		if(!(percent >= 0 && percent <= 1))
+			throw new IllegalArgumentException("percent passed to good() or bad() must be between 0 and 1");
+		if(contains(slot)) {
+			return this;
+		}
+		double mean = (count == 0) ? 1 : total()/count;
+		return withCode(slot, nearestCode(mean, bits), count + 1);
+	}
+
+	/**       Makes QuantizedWeights where a slot has probability p, without touching the other slots.
+	 *        If the weight it needs is past the highest code, every weight is halved until it fits,
+	 *        and those that would go below the lowest code stay at it, so the slot gets as close to p as the codes go.
+	 * @param slot as the slot, which is in use.
+	 * @param p as the new probability.
+	 * @param random as what the new weight is rounded with.
+	 * @return the new QuantizedWeights, or these if the slot can not change.
+	 */
+	private QuantizedWeights setProbability(int slot, double p, Random random) {
+		double others = total() - getWeight(slot);
+		if(others <= 0 || p >= 1.0) {
+			// The only slot, or a slot that already has all the probability, can not change
+			return this;
+		}
+		double weight = p*others/(1.0 - p);
+		if(!(weight > 0) || Double.isInfinite(weight)) {
+			return this;
+		}
+		QuantizedWeights weights = this;
+		double exact = exactCode(weight, bits);
+		int highest = (1 << bits) - 1;
+		if(exact > highest) {
+			// Whole doublings, so the weights stay on their codes
+			int steps = steps(bits);
+			weights = shifted((int) Math.ceil((exact - highest)/steps)*steps);
+			// The weights that stayed at the lowest code did not go down, so the slot can still be past the highest code
+			others = weights.total() - weights.getWeight(slot);
+			weight = p*others/(1.0 - p);
+			exact = exactCode(weight, bits);
+		}
+		double[] table = weights(bits);
+		long below = (long) Math.floor(exact);
+		int code = clampCode(below, bits);
+		if(below >= 1 && below < highest) {
+			// Up with the chance that leaves the weight right on average
+			double low = table[(int) below];
+			double high = table[(int) below + 1];
+			code = (random.nextDouble()*(high - low) < weight - low) ? (int) below + 1 : (int) below;
+		}
+		return weights.withCode(slot, code, count);
+	}
+
+	/**        Makes QuantizedWeights with the code of one slot changed, copying only its chunk.
+	 * @param  slot as the slot.
+	 * @param  code as the new code.
+	 * @param  count as the number of slots in use after the change.
+	 * @return the new QuantizedWeights.
+	 */
+	private QuantizedWeights withCode(int slot, int code, int count) {
+		int size = Math.max(this.size, slot + 1);
+		byte[][] newChunks = Arrays.copyOf(chunks, chunksFor(size));
+		double[] newTotals = Arrays.copyOf(chunkTotals, newChunks.length);
+		// Every chunk holds CHUNK slots but the last, so the ones the new size reaches into are grown to it
+		for(int chunk = Math.max(chunks.length - 1, 0); chunk < newChunks.length; chunk++) {
+			int length = Math.min(CHUNK, size - chunk*CHUNK)*bits/8;
+			if(newChunks[chunk] == null) {
+				newChunks[chunk] = new byte[length];
+			} else if(newChunks[chunk].length < length) {
+				newChunks[chunk] = Arrays.copyOf(newChunks[chunk], length);
+			}
+		}
+		int chunk = slot/CHUNK;
+		if(chunk < chunks.length && newChunks[chunk] == chunks[chunk]) {
+			newChunks[chunk] = chunks[chunk].clone();
+		}
+		setCode(newChunks[chunk], bits, slot%CHUNK, code);
+		newTotals[chunk] = sum(newChunks[chunk], bits);
+		return new QuantizedWeights(bits, newChunks, newTotals, size, count);
+	}
+
+	/**        Makes QuantizedWeights with every weight divided by 2 to the power of shift/steps. This is O(n).
+	 * @param  shift as the number of codes to move every code down by, a whole number of doublings.
+	 * @return the new QuantizedWeights.
+	 */
+	private QuantizedWeights shifted(int shift) {
+		byte[][] newChunks = new byte[chunks.length][];
+		double[] newTotals = new double[chunks.length];
+		for(int chunk = 0; chunk < chunks.length; chunk++) {
+			byte[] codes = chunks[chunk].clone();
+			for(int index = 0; index < codes.length*8/bits; index++) {
+				int code = code(codes, bits, index);
+				if(code != FREE) {
+					setCode(codes, bits, index, clampCode(code - shift, bits));
+				}
+			}
+			newChunks[chunk] = codes;
+			newTotals[chunk] = sum(codes, bits);
+		}
+		return new QuantizedWeights(bits, newChunks, newTotals, size, count);
+	}
+
+	/**        Makes QuantizedWeights without some slots, like when their media files were removed and the slots may be reused.
+	 * @param  removed as the slots.
+	 * @return the new QuantizedWeights, or these if none of the slots were in use.
+	 */
+	public QuantizedWeights without(int[] removed) {
+		byte[][] newChunks = null;
+		double[] newTotals = null;
+		boolean[] copied = null;
+		int newCount = count;
+		for(int slot : removed) {
+			if(!contains(slot)) {
+				continue;
+			}
+			if(newChunks == null) {
+				newChunks = chunks.clone();
+				newTotals = chunkTotals.clone();
+				copied = new boolean[chunks.length];
+			}
+			int chunk = slot/CHUNK;
+			if(!copied[chunk]) {
+				newChunks[chunk] = chunks[chunk].clone();
+				copied[chunk] = true;
+			}
+			if(code(newChunks[chunk], bits, slot%CHUNK) != FREE) {
+				setCode(newChunks[chunk], bits, slot%CHUNK, FREE);
+				newCount--;
+			}
+		}
+		if(newChunks == null) {
+			return this;
+		}
+		for(int chunk = 0; chunk < newChunks.length; chunk++) {
+			if(copied[chunk]) {
+				newTotals[chunk] = sum(newChunks[chunk], bits);
+			}
+		}
+		return new QuantizedWeights(bits, newChunks, newTotals, size, newCount);
+	}
+
+	/**        Rebuilds the running totals after the chunks are read, and checks them.
+	 * @param  in as the stream to read from.
+	 * @throws IOException if the stream could not be read or the weights are not whole.
+	 * @throws ClassNotFoundException if a class of the stream could not be found.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if((bits != 8 && bits != 16) || chunks == null || chunkTotals == null || chunks.length != chunksFor(size)
+				|| chunkTotals.length != chunks.length)
+			throw new InvalidObjectException("QuantizedWeights are not whole");
+		for(int chunk = 0; chunk < chunks.length; chunk++) {
+			if(chunks[chunk] == null || chunks[chunk].length*8/bits > CHUNK)
+				throw new InvalidObjectException("QuantizedWeights are not whole");
+		}
+		runningTotals = running(chunkTotals);
+	}
+
+}
@@ -0,0 +1,225 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The last ids added, up to a capacity, so it can be told in O(1) whether an id came up recently.
+ *         Adding to a full window drops the oldest id, so ids age out on their own.
+ *         The ids are kept in order in a ring, and counted in an open addressed table of ints, so there is nothing boxed;
+ *         an id can be in the window more than once.
+ *         A RecentWindow is not thread safe.
+ */
+public final class RecentWindow {
+
+	// Marks a free entry of the table
+	private static final int FREE = Integer.MIN_VALUE;
+
+	// The ids, oldest first from head
+	private int[] ring;
+	private int head = 0;
+	private int size = 0;
+
+	// The ids in the window by hash, and how many times each is in it
+	private int[] keys;
+	private int[] counts;
+
+	/**        Creates a RecentWindow.
+	 * @param  capacity as the number of ids to keep, 0 for a window that never holds any.
+	 * @throws IllegalArgumentException if capacity is negative.
+	 */
+	public RecentWindow(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("capacity passed to RecentWindow() must not be negative");
+		ring = new int[capacity];
+		allocateTable(capacity);
+	}
+
+	/**       Makes an empty table with room for a number of ids.
+	 * @param capacity as the number of ids.
+	 */
+	private void allocateTable(int capacity) {
+		// At most half full, so probes stay short
+		int length = Integer.highestOneBit(Math.max(capacity, 1)*2 - 1)*2;
+		keys = new int[length];
+		counts = new int[length];
+		Arrays.fill(keys, FREE);
+	}
+
+	/**
+	 * @return the number of ids the window keeps.
+	 */
+	public int capacity() {
+		return ring.length;
+	}
+
+	/**
+	 * @return the number of ids in the window.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**       Sets the number of ids the window keeps. The newest ones are kept if it shrinks.
+	 * @param capacity as the number of ids.
+	 * @throws IllegalArgumentException if capacity is negative.
+	 */
+	public void setCapacity(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("capacity passed to setCapacity() must not be negative");
+		int[] ids = toArray();
+		ring = new int[capacity];
+		head = 0;
+		size = 0;
+		allocateTable(capacity);
+		for(int i = Math.max(0, ids.length - capacity); i < ids.length; i++) {
+			add(ids[i]);
+		}
+	}
+
+	/**       Adds an id as the newest, dropping the oldest if the window is full.
+	 * @param id as the id.
+	 */
+	public void add(int id) {
+		if(ring.length == 0) {
+			return;
+		}
+		if(size == ring.length) {
+			uncount(ring[head]);
+			ring[head] = id;
+			head = (head + 1)%ring.length;
+		} else {
+			ring[(head + size)%ring.length] = id;
+			size++;
+		}
+		int index = indexOf(id);
+		keys[index] = id;
+		counts[index]++;
+	}
+
+	/**
+	 * @param  id as an id.
+	 * @return whether or not the id is in the window.
+	 */
+	public boolean contains(int id) {
+		return keys[indexOf(id)] == id;
+	}
+
+	/**        Gets how long ago an id was added. This is O(n) for a window of n ids.
+	 * @param  id as an id.
+	 * @return the number of ids added after the newest time it was added, or -1 if it is not in the window.
+	 */
+	public int age(int id) {
+		for(int age = 0; age < size; age++) {
+			if(ring[(head + size - 1 - age)%ring.length] == id) {
+				return age;
+			}
+		}
+		return -1;
+	}
+
+	/**        Takes out the newest time an id was added, like when what it was added for did not happen after all.
+	 *         The ids after it move back a place, so the window holds the same ids it would have without it. This is O(n).
+	 * @param  id as the id.
+	 * @return true if the id was in the window.
+	 */
+	public boolean removeLast(int id) {
+		int age = age(id);
+		if(age == -1) {
+			return false;
+		}
+		for(int i = size - 1 - age; i < size - 1; i++) {
+			ring[(head + i)%ring.length] = ring[(head + i + 1)%ring.length];
+		}
+		size--;
+		uncount(id);
+		return true;
+	}
+
+	/**       Takes out every id that matches a predicate, like ids that were freed and may be handed out again. This is O(n).
+	 * @param doomed as the predicate.
+	 */
+	public void removeIf(IntPredicate doomed) {
+		int[] ids = toArray();
+		clear();
+		for(int id : ids) {
+			if(!doomed.test(id)) {
+				add(id);
+			}
+		}
+	}
+
+	/** Takes out every id.
+	 *
+	 */
+	public void clear() {
+		head = 0;
+		size = 0;
+		Arrays.fill(keys, FREE);
+		Arrays.fill(counts, 0);
+	}
+
+	/**
+	 * @return the ids in the window, oldest first.
+	 */
+	public int[] toArray() {
+		int[] ids = new int[size];
+		for(int i = 0; i < size; i++) {
+			ids[i] = ring[(head + i)%ring.length];
+		}
+		return ids;
+	}
+
+	/**       Counts one less of an id in the table, freeing its entry when there are none left.
+	 * @param id as an id that is in the table.
+	 */
+	private void uncount(int id) {
+		int index = indexOf(id);
+		if(--counts[index] > 0) {
+			return;
+		}
+		// Entries after it that were pushed past their own place move back, so no probe stops early
+		int mask = keys.length - 1;
+		int free = index;
+		for(int next = (free + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+			int home = hash(keys[next]) & mask;
+			if(((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				counts[free] = counts[next];
+				free = next;
+			}
+		}
+		keys[free] = FREE;
+		counts[free] = 0;
+	}
+
+	/**
+	 * @param  id as an id.
+	 * @return the index of the id in the table, or of the free entry where it would go.
+	 */
+	private int indexOf(int id) {
+		int mask = keys.length - 1;
+		int index = hash(id) & mask;
+		while(keys[index] != FREE && keys[index] != id) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * @param  id as an id.
+	 * @return the id with its bits mixed, as ids are small consecutive ints.
+	 */
+	private static int hash(int id) {
+		int h = id*0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+}
@@ -0,0 +1,342 @@
+package algorithms;
+
+import java.io.Serializable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The weights of one user on top of shared Weights.
+ *         Only the slots the user gave feedback on are kept, each as a factor its shared weight is multiplied by,
+ *         so the overlay takes memory in proportion to the slots that were rated rather than to the library,
+ *         and feedback on the shared weights still shows through in proportion.
+ *         Draws mix the two without copying the shared weights: with the chance of the rated slots they pick one of those,
+ *         otherwise they draw from the shared weights until they get a slot that was not rated.
+ *         The slots are kept in an open addressed table of ints and doubles, so there is nothing boxed.
+ *         A WeightOverlay never changes once made; feedback makes a new one, so it can be read by any thread without locks.
+ */
+public final class WeightOverlay implements Serializable {
+
+	private static final long serialVersionUID = 3105470925843155620L;
+
+	// Marks a free entry of the table
+	private static final int FREE = -1;
+
+	// How many times a draw from the shared weights can land on a rated slot before the unrated ones are walked instead
+	private static final int MAX_REJECTIONS = 32;
+
+	// The overlay with no ratings
+	public static final WeightOverlay EMPTY = new WeightOverlay(newSlots(8), new double[8], 0);
+
+	// The rated slots and their factors, by hash
+	private final int[] slots;
+	private final double[] factors;
+
+	// The number of rated slots
+	private final int count;
+
+	/**       Makes an overlay out of its table, which it takes ownership of.
+	 * @param slots as the rated slots by hash.
+	 * @param factors as their factors.
+	 * @param count as the number of rated slots.
+	 */
+	private WeightOverlay(int[] slots, double[] factors, int count) {
+		this.slots = slots;
+		this.factors = factors;
+		this.count = count;
+	}
+
+	/**
+	 * @param  capacity as the length of the table.
+	 * @return a table of free entries.
+	 */
+	private static int[] newSlots(int capacity) {
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, FREE);
+		return slots;
+	}
+
+	/**
+	 * @return the number of slots that were rated.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return whether or not no slots were rated.
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * @param  slot as a slot.
+	 * @return whether or not the slot was rated.
+	 */
+	public boolean contains(int slot) {
+		return slots[indexOf(slot)] == slot;
+	}
+
+	/**
+	 * @param  base as the shared weights.
+	 * @param  slot as a slot.
+	 * @return the weight of the slot for this user.
+	 */
+	public double getWeight(Weights base, int slot) {
+		int index = indexOf(slot);
+		double weight = base.getWeight(slot);
+		return (slots[index] == slot) ? weight*factors[index] : weight;
+	}
+
+	/**        Gets the sum of the weights for this user. This is O(k) for k rated slots.
+	 * @param  base as the shared weights.
+	 * @return the sum of the weights.
+	 */
+	public double total(Weights base) {
+		double total = base.total();
+		for(int index = 0; index < slots.length; index++) {
+			if(slots[index] != FREE) {
+				total += base.getWeight(slots[index])*(factors[index] - 1.0);
+			}
+		}
+		return Math.max(total, 0);
+	}
+
+	/**        Gets the probability of a slot being drawn for this user.
+	 * @param  base as the shared weights.
+	 * @param  slot as a slot.
+	 * @return the probability of the slot being drawn.
+	 */
+	public double getProbability(Weights base, int slot) {
+		double total = total(base);
+		return (total > 0) ? getWeight(base, slot)/total : 0;
+	}
+
+	/**        Draws a slot in proportion to the weights of this user. This is O(k + log n) for k rated slots, unless the
+	 *         rated slots hold almost all of the shared weight, when the unrated slots are walked in O(n).
+	 * @param  base as the shared weights.
+	 * @param  random as the source of randomness.
+	 * @return the slot that was drawn.
+	 * @throws IllegalStateException if no slot has any weight.
+	 */
+	public int sample(Weights base, Random random) {
+		if(count == 0) {
+			return base.sample(random);
+		}
+		double shared = 0;
+		double rated = 0;
+		for(int index = 0; index < slots.length; index++) {
+			if(slots[index] != FREE) {
+				double weight = base.getWeight(slots[index]);
+				shared += weight;
+				rated += weight*factors[index];
+			}
+		}
+		double unrated = Math.max(base.total() - shared, 0);
+		if(unrated + rated <= 0)
+			throw new IllegalStateException("sample() called on a WeightOverlay with no weight");
+		double target = random.nextDouble()*(unrated + rated);
+		if(target < rated) {
+			int last = FREE;
+			for(int index = 0; index < slots.length; index++) {
+				if(slots[index] != FREE) {
+					double weight = base.getWeight(slots[index])*factors[index];
+					if(weight > 0) {
+						last = slots[index];
+						target -= weight;
+						if(target < 0) {
+							return last;
+						}
+					}
+				}
+			}
+			// Rounding can leave the target just past the last rated slot
+			if(last != FREE) {
+				return last;
+			}
+		}
+		for(int attempt = 0; attempt < MAX_REJECTIONS; attempt++) {
+			int slot = base.sample(random);
+			if(!contains(slot)) {
+				return slot;
+			}
+		}
+		return sampleUnrated(base, random.nextDouble()*unrated);
+	}
+
+	/**       Walks the unrated slots to the one whose range of their cumulative weights contains target.
+	 * @param base as the shared weights.
+	 * @param target as a value between 0 and the sum of the unrated weights.
+	 * @return the slot.
+	 */
+	private int sampleUnrated(Weights base, double target) {
+		int last = FREE;
+		for(int slot = 0; slot < base.size(); slot++) {
+			double weight = base.getWeight(slot);
+			if(weight > 0 && !contains(slot)) {
+				last = slot;
+				target -= weight;
+				if(target < 0) {
+					return slot;
+				}
+			}
+		}
+		if(last == FREE)
+			throw new IllegalStateException("sample() called on a WeightOverlay with no weight");
+		return last;
+	}
+
+	/**        Makes a slot more likely to be drawn for this user, by the rule of WeightedSampler.good().
+	 * @param  base as the shared weights.
+	 * @param  slot as the slot.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the overlay with the new rating.
+	 * @throws IllegalArgumentException if the slot is free or percent is not between 0 and 1.
+	 */
+	public WeightOverlay good(Weights base, int slot, double percent) {
+		double p = checkFeedback(base, slot, percent);
+		return setProbability(base, slot, WeightedSampler.goodProbability(p, percent));
+	}
+
+	/**        Makes a slot less likely to be drawn for this user, by the rule of WeightedSampler.bad().
+	 * @param  base as the shared weights.
+	 * @param  slot as the slot.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the overlay with the new rating.
+	 * @throws IllegalArgumentException if the slot is free or percent is not between 0 and 1.
+	 */
+	public WeightOverlay bad(Weights base, int slot, double percent) {
+		double p = checkFeedback(base, slot, percent);
+		return setProbability(base, slot, WeightedSampler.badProbability(p, percent));
+	}
+
+	/**       Checks the arguments of good() and bad().
+	 * @param base as the shared weights.
+	 * @param slot as the slot.
+	 * @param percent as the fraction to adjust by.
+	 * @return the current probability of the slot for this user.
+	 */
+	private double checkFeedback(Weights base, int slot, double percent) {
+		if(!base.contains(slot))
+			throw new IllegalArgumentException("slot passed to good() or bad() is free");
+		if(!(percent >= 0 && percent <= 1))
+			throw new IllegalArgumentException("percent passed to good() or bad() must be between 0 and 1");
+		return getProbability(base, slot);
+	}
+
+	/**       Makes an overlay where a slot has probability p for this user, without touching the other slots.
+	 * @param base as the shared weights.
+	 * @param slot as the slot.
+	 * @param p as the new probability.
+	 * @return the new overlay, or this one if the slot can not change.
+	 */
+	private WeightOverlay setProbability(Weights base, int slot, double p) {
+		double total = total(base);
+		double others = total - getWeight(base, slot);
+		if(others <= 0 || p >= 1.0) {
+			// The only slot, or a slot that already has all the probability, can not change
+			return this;
+		}
+		double factor = p*others/(1.0 - p)/base.getWeight(slot);
+		if(!(factor > 0) || Double.isInfinite(factor)) {
+			return this;
+		}
+		int length = ((count + 1)*2 > slots.length) ? slots.length*2 : slots.length;
+		int[] newSlots = newSlots(length);
+		double[] newFactors = new double[length];
+		int newCount = copyInto(newSlots, newFactors, null);
+		int index = indexOf(newSlots, slot);
+		if(newSlots[index] != slot) {
+			newSlots[index] = slot;
+			newCount++;
+		}
+		newFactors[index] = factor;
+		return new WeightOverlay(newSlots, newFactors, newCount);
+	}
+
+	/**        Makes an overlay without the ratings of some slots, like when their media files were removed and the slots may be reused.
+	 * @param  removed as the slots.
+	 * @return the new overlay, or this one if none of the slots were rated.
+	 */
+	public WeightOverlay without(int[] removed) {
+		boolean any = false;
+		for(int slot : removed) {
+			any |= contains(slot);
+		}
+		if(!any) {
+			return this;
+		}
+		int[] newSlots = newSlots(slots.length);
+		double[] newFactors = new double[slots.length];
+		int newCount = copyInto(newSlots, newFactors, removed);
+		return (newCount == 0) ? EMPTY : new WeightOverlay(newSlots, newFactors, newCount);
+	}
+
+	/**        Copies the rated slots into another table.
+	 * @param  toSlots as the slots of the other table, all free.
+	 * @param  toFactors as the factors of the other table.
+	 * @param  skip as slots not to copy, or null.
+	 * @return the number of slots copied.
+	 */
+	private int copyInto(int[] toSlots, double[] toFactors, int[] skip) {
+		int copied = 0;
+		for(int index = 0; index < slots.length; index++) {
+			if(slots[index] != FREE && (skip == null || !has(skip, slots[index]))) {
+				int to = indexOf(toSlots, slots[index]);
+				toSlots[to] = slots[index];
+				toFactors[to] = factors[index];
+				copied++;
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * @param  array as an array.
+	 * @param  value as a value.
+	 * @return whether or not the value is in the array.
+	 */
+	private static boolean has(int[] array, int value) {
+		for(int element : array) {
+			if(element == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param  slot as a slot.
+	 * @return the index of the slot in the table, or of the free entry where it would go.
+	 */
+	private int indexOf(int slot) {
+		return indexOf(slots, slot);
+	}
+
+	/**
+	 * @param  table as the slots of a table.
+	 * @param  slot as a slot.
+	 * @return the index of the slot in the table, or of the free entry where it would go.
+	 */
+	private static int indexOf(int[] table, int slot) {
+		int mask = table.length - 1;
+		int index = hash(slot) & mask;
+		while(table[index] != FREE && table[index] != slot) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * @param  slot as a slot.
+	 * @return the slot with its bits mixed, as slots are small consecutive ints.
+	 */
+	private static int hash(int slot) {
+		int h = slot*0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
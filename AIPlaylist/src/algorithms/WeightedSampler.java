@@ -0,0 +1,1161 @@
+package algorithms;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Picks slots randomly, in proportion to their weights.
+ *         Weights are not normalized; the probability of a slot is its weight over the tracked total.
+ *         A Fenwick tree over the weights makes draws and single weight changes O(log n).
+ *         For sessions with many draws and little feedback, an alias table can be used instead, which makes draws O(1)
+ *         and gets rebuilt in O(n) on the first draw after a change.
+ *         Weights can fade towards a baseline over time with decay(), without touching every slot: each slot keeps a raw weight,
+ *         and weighs scale*raw + (1 - scale)*baseline, where scale is one factor for all of them that decay() lowers in O(1).
+ *         A second Fenwick tree counts the slots in use, so draws take the baseline into account in O(log n) too.
+ *         The raw weights are rebased onto the weights they stand for only when scale gets small, or a weight has to go
+ *         below what the baseline holds it up at. Without decay scale stays 1, so the weights are the raw ones.
+ *         A WeightedSampler is not thread safe; one writer changes it and hands out Snapshots for everyone else to read.
+ */
+public final class WeightedSampler implements Serializable, Weights {
+
+	private static final long serialVersionUID = -6191329262536427850L;
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         How draws are made.
+	 */
+	public enum Mode {
+		// O(log n) draws and O(log n) changes
+		FENWICK,
+		// O(1) draws and an O(n) rebuild after every change
+		ALIAS
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Told about every change to the weights, so they can be mirrored somewhere else, like a file.
+	 */
+	public interface WeightListener {
+
+		/**       Called after the weight of one slot changed.
+		 * @param slot as the slot.
+		 * @param weight as the new raw weight, 0 if the slot was freed.
+		 */
+		void weightChanged(int slot, double weight);
+
+		/**       Called after the weights of many slots changed at once.
+		 * @param sampler as the WeightedSampler, to read the raw weights and the decay from.
+		 */
+		void weightsChanged(WeightedSampler sampler);
+
+		/**       Called after the weights decayed, which changes the scale, the baseline or the time of the decay, but no raw weight.
+		 * @param sampler as the WeightedSampler, to read the decay from.
+		 */
+		void decayChanged(WeightedSampler sampler);
+
+	}
+
+	// The weight new slots start with when the sampler is empty
+	private static final double DEFAULT_WEIGHT = 1.0;
+
+	// The total gets rescaled before weights can overflow or underflow
+	private static final double MAX_TOTAL = 1e100;
+	private static final double MIN_TOTAL = 1e-100;
+
+	// The weight of each slot; free slots have a weight of 0
+	private transient double[] weights;
+
+	// 1-indexed Fenwick tree over weights
+	private transient double[] tree;
+
+	// The number of slots that have ever been used
+	private transient int size = 0;
+
+	// The number of slots that are not free
+	private transient int count = 0;
+
+	// The sum of all the weights, updated by the difference of every change
+	private transient double total = 0;
+
+	private transient Mode mode = Mode.FENWICK;
+
+	// Built lazily in ALIAS mode and dropped on every change
+	private transient AliasTable aliasTable;
+
+	// Told about every change to the weights, or null
+	private transient WeightListener listener;
+
+	// The slots changed since the last Snapshot, unless allChanged is set
+	private transient int[] changed;
+	private transient int changedCount;
+
+	// Set when so much changed that the next Snapshot is made from scratch
+	private transient boolean allChanged;
+
+	// The last Snapshot, which the next one shares its unchanged chunks with
+	private transient Snapshot snapshot;
+
+	// The most changed slots that are tracked before the next Snapshot is made from scratch
+	private static final int MAX_CHANGED = 1024;
+
+	// Set while feedback() applies a batch, so the tree and the listener are only brought up to date at the end
+	private transient boolean deferred;
+
+	// 1-indexed Fenwick tree over whether each slot is in use, which the baseline part of the weights is summed with
+	private transient int[] counts;
+
+	// How much of its raw weight each slot still has; the rest of its weight is baseline. 1 without decay
+	private transient double scale = 1;
+
+	// The weight every slot fades towards, set to the average weight when decay starts
+	private transient double baseline = 0;
+
+	// The time in milliseconds the weights were last decayed to, or 0 if they are not decaying
+	private transient long decayedAt = 0;
+
+	// Below this scale the raw weights are rebased, before they lose precision
+	private static final double MIN_SCALE = 1.0/(1 << 20);
+
+	/** Creates an empty WeightedSampler.
+	 *
+	 */
+	public WeightedSampler() {
+		this(16);
+	}
+
+	/**        Creates an empty WeightedSampler.
+	 * @param  capacity as the number of slots to allocate up front.
+	 * @throws IllegalArgumentException if capacity is negative.
+	 */
+	public WeightedSampler(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("capacity passed to WeightedSampler() must not be negative");
+		allocate(Math.max(capacity, 1));
+	}
+
+	/**        Creates a WeightedSampler with weights, in O(n). Slots with a weight of 0 are free.
+	 * @param  weights as the weight of each slot.
+	 * @throws IllegalArgumentException if a weight is negative or not finite.
+	 */
+	public WeightedSampler(double[] weights) {
+		allocate(Math.max(weights.length, 1));
+		for(int i = 0; i < weights.length; i++) {
+			if(weights[i] != 0) {
+				checkWeight(weights[i]);
+				this.weights[i] = weights[i];
+				count++;
+			}
+		}
+		size = weights.length;
+		rebuild();
+	}
+
+	/**       Allocates the arrays.
+	 * @param capacity as the number of slots.
+	 */
+	private void allocate(int capacity) {
+		weights = new double[capacity];
+		tree = new double[capacity + 1];
+		counts = new int[capacity + 1];
+		changed = new int[16];
+		changedCount = 0;
+		allChanged = true;
+	}
+
+	/**       Sets what is told about every change to the weights.
+	 * @param listener as the WeightListener, or null for none.
+	 */
+	public void setWeightListener(WeightListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return how draws are made.
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**       Sets how draws are made.
+	 * @param mode as the Mode.
+	 * @throws NullPointerException if mode is null.
+	 */
+	public void setMode(Mode mode) {
+		if(mode == null)
+			throw new NullPointerException();
+		this.mode = mode;
+		aliasTable = null;
+		allChanged = true;
+	}
+
+	/**
+	 * @return the number of slots that are in use.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return one more than the highest slot that has ever been used.
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the sum of the weights.
+	 */
+	@Override
+	public double total() {
+		return decayed(total, count, scale, baseline);
+	}
+
+	/**        Gets the weight of a slot.
+	 * @param  slot as the slot.
+	 * @return the weight of the slot, 0 if the slot is free.
+	 * @throws IndexOutOfBoundsException if the slot has never been used.
+	 */
+	@Override
+	public double getWeight(int slot) {
+		checkSlot(slot);
+		return decayed(weights[slot], scale, baseline);
+	}
+
+	/**        Gets the raw weight of a slot, which is what is kept for it while the weights decay.
+	 * @param  slot as the slot.
+	 * @return the raw weight of the slot, 0 if the slot is free.
+	 * @throws IndexOutOfBoundsException if the slot has never been used.
+	 */
+	public double getRawWeight(int slot) {
+		checkSlot(slot);
+		return weights[slot];
+	}
+
+	/**        Gets the probability of a slot being drawn.
+	 * @param  slot as the slot.
+	 * @return the probability of the slot, 0 if the slot is free.
+	 * @throws IndexOutOfBoundsException if the slot has never been used.
+	 */
+	public double getProbability(int slot) {
+		checkSlot(slot);
+		double total = total();
+		return (total <= 0) ? 0 : decayed(weights[slot], scale, baseline)/total;
+	}
+
+	/**
+	 * @return how much of its raw weight each slot still has, 1 if the weights have not decayed since they were last rebased.
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return the weight every slot fades towards.
+	 */
+	public double getBaseline() {
+		return baseline;
+	}
+
+	/**
+	 * @return the time in milliseconds the weights were last decayed to, or 0 if they are not decaying.
+	 */
+	public long getDecayedAt() {
+		return decayedAt;
+	}
+
+	/**        Puts back the decay of weights that were saved, like the ones made with WeightedSampler(double[]) from raw weights.
+	 * @param  baseline as the weight every slot fades towards.
+	 * @param  scale as how much of its raw weight each slot still has.
+	 * @param  decayedAt as the time in milliseconds the weights were last decayed to, or 0 if they are not decaying.
+	 * @throws IllegalArgumentException if scale is not above 0 and at most 1, or baseline is negative or not finite.
+	 */
+	public void setDecay(double baseline, double scale, long decayedAt) {
+		if(!(scale > 0 && scale <= 1) || !(baseline >= 0) || Double.isInfinite(baseline))
+			throw new IllegalArgumentException("Invalid decay passed to setDecay()");
+		this.baseline = baseline;
+		this.scale = scale;
+		this.decayedAt = decayedAt;
+		aliasTable = null;
+		allChanged = true;
+	}
+
+	/**       Fades every weight towards the baseline, so it loses half of its difference from the baseline every halfLife.
+	 *        This is O(1), unless the raw weights have to be rebased, which is O(n) once every 20 half-lives.
+	 *        The first call after the weights stopped decaying only starts the clock.
+	 *        A halfLife of 0 stops the decay, and rebases the weights onto what they decayed to so far.
+	 * @param now as the time in milliseconds.
+	 * @param halfLife as the time in milliseconds it takes a weight to get halfway to the baseline, or 0 for no decay.
+	 */
+	public void decay(long now, long halfLife) {
+		if(halfLife <= 0) {
+			if(scale != 1 || decayedAt != 0) {
+				decayedAt = 0;
+				rebase();
+			}
+			return;
+		}
+		if(decayedAt == 0) {
+			decayedAt = now;
+		} else if(now > decayedAt) {
+			if(scale == 1) {
+				// Nothing has faded yet, so the baseline can move to the average weight without changing any weight
+				baseline = (count == 0) ? DEFAULT_WEIGHT : total/count;
+			}
+			scale *= Math.pow(0.5, (double) (now - decayedAt)/halfLife);
+			decayedAt = now;
+			aliasTable = null;
+			if(scale < MIN_SCALE) {
+				rebase();
+				return;
+			}
+		} else {
+			// The clock went back, so the weights wait for it to catch up
+			return;
+		}
+		if(listener != null) {
+			listener.decayChanged(this);
+		}
+	}
+
+	/**        Gets the weight a raw weight stands for.
+	 * @param  raw as the raw weight of a slot.
+	 * @param  scale as how much of its raw weight the slot still has.
+	 * @param  baseline as the weight the slot fades towards.
+	 * @return the weight, 0 if the slot is free.
+	 */
+	private static double decayed(double raw, double scale, double baseline) {
+		if(scale == 1 || raw <= 0) {
+			return raw;
+		}
+		return scale*raw + (1 - scale)*baseline;
+	}
+
+	/**        Gets the sum of the weights a sum of raw weights stands for.
+	 * @param  raw as the sum of the raw weights of some slots.
+	 * @param  slots as the number of those slots in use.
+	 * @param  scale as how much of its raw weight each slot still has.
+	 * @param  baseline as the weight the slots fade towards.
+	 * @return the sum of the weights.
+	 */
+	private static double decayed(double raw, int slots, double scale, double baseline) {
+		if(scale == 1) {
+			return raw;
+		}
+		return scale*raw + (1 - scale)*baseline*slots;
+	}
+
+	/**
+	 * @param  slot as the slot.
+	 * @return whether or not the slot is in use.
+	 */
+	@Override
+	public boolean contains(int slot) {
+		return slot >= 0 && slot < size && weights[slot] > 0;
+	}
+
+	/**        Puts a free slot in use with a weight equal to the average weight, so it starts with an equal share.
+	 *         Slots are handed out by the caller, so they can be the ids of what is being sampled.
+	 * @param  slot as the free slot.
+	 * @throws IndexOutOfBoundsException if slot is negative.
+	 * @throws IllegalArgumentException if the slot is already in use.
+	 */
+	public void add(int slot) {
+		add(slot, (count == 0) ? DEFAULT_WEIGHT : total()/count);
+	}
+
+	/**        Puts a free slot in use.
+	 * @param  slot as the free slot.
+	 * @param  weight as the weight of the slot.
+	 * @throws IndexOutOfBoundsException if slot is negative.
+	 * @throws IllegalArgumentException if the slot is already in use or weight is not positive and finite.
+	 */
+	public void add(int slot, double weight) {
+		if(slot < 0)
+			throw new IndexOutOfBoundsException("slot " + slot + " is negative");
+		checkWeight(weight);
+		while(slot >= weights.length) {
+			grow();
+		}
+		if(weights[slot] > 0)
+			throw new IllegalArgumentException("slot passed to add() is already in use");
+		size = Math.max(size, slot + 1);
+		count++;
+		put(slot, weight);
+	}
+
+	/**        Frees a slot so it is never drawn.
+	 * @param  slot as the slot.
+	 * @throws IndexOutOfBoundsException if the slot has never been used.
+	 * @throws IllegalArgumentException if the slot is already free.
+	 */
+	public void remove(int slot) {
+		checkSlot(slot);
+		if(weights[slot] <= 0)
+			throw new IllegalArgumentException("slot passed to remove() is already free");
+		update(slot, 0);
+		count--;
+		if(count == 0) {
+			total = 0;
+		}
+	}
+
+	/**        Sets the weight of a slot.
+	 * @param  slot as the slot.
+	 * @param  weight as the new weight.
+	 * @throws IndexOutOfBoundsException if the slot has never been used.
+	 * @throws IllegalArgumentException if the slot is free or weight is not positive and finite.
+	 */
+	public void setWeight(int slot, double weight) {
+		checkSlot(slot);
+		checkWeight(weight);
+		if(weights[slot] <= 0)
+			throw new IllegalArgumentException("slot passed to setWeight() is free");
+		put(slot, weight);
+		rescaleIfNeeded();
+	}
+
+	/**        Makes a slot more likely to be drawn.
+	 *         If the slot has less than a 50% chance, its probability is increased by percent of itself,
+	 *         otherwise it is increased by percent of the remaining probability.
+	 *         The other slots keep their relative weights.
+	 * @param  slot as the slot.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the new probability of the slot.
+	 * @throws IndexOutOfBoundsException if the slot has never been used.
+	 * @throws IllegalArgumentException if the slot is free or percent is not between 0 and 1.
+	 */
+	public double good(int slot, double percent) {
+		double p = checkFeedback(slot, percent);
+		return setProbability(slot, goodProbability(p, percent));
+	}
+
+	/**        Makes a slot less likely to be drawn.
+	 *         Its probability is decreased by percent of itself, and the other slots keep their relative weights.
+	 * @param  slot as the slot.
+	 * @param  percent as the fraction to adjust by, between 0 and 1.
+	 * @return the new probability of the slot.
+	 * @throws IndexOutOfBoundsException if the slot has never been used.
+	 * @throws IllegalArgumentException if the slot is free or percent is not between 0 and 1.
+	 */
+	public double bad(int slot, double percent) {
+		double p = checkFeedback(slot, percent);
+		return setProbability(slot, badProbability(p, percent));
+	}
+
+	/**        Applies a batch of feedback, with the same weights and total as calling good() or bad() for each event in order.
+	 *         Each event still depends on the total left by the ones before it, so they are applied one after another,
+	 *         but only to the weights: the tree is rebuilt, the listener told and the next Snapshot made once at the end.
+	 *         That makes the batch O(k + n) for k events, rather than O(k log n) with a listener call for each.
+	 *         Events on free slots are skipped, like feedback on media files that are gone.
+	 * @param  slots as the slot of each event, in the order the feedback was given.
+	 * @param  good as whether each event is a good(), otherwise a bad().
+	 * @param  percents as the fraction each event adjusts by, between 0 and 1.
+	 * @param  count as the number of events.
+	 * @return the number of events that were applied.
+	 * @throws IllegalArgumentException if a percent is not between 0 and 1, in which case nothing is applied.
+	 */
+	public int feedback(int[] slots, boolean[] good, double[] percents, int count) {
+		for(int i = 0; i < count; i++) {
+			if(!(percents[i] >= 0 && percents[i] <= 1))
+				throw new IllegalArgumentException("percent passed to feedback() must be between 0 and 1");
+		}
+		int applied = 0;
+		deferred = true;
+		try {
+			for(int i = 0; i < count; i++) {
+				int slot = slots[i];
+				if(slot < 0 || slot >= size || weights[slot] <= 0) {
+					continue;
+				}
+				double p = decayed(weights[slot], scale, baseline)/total();
+				setProbability(slot, good[i] ? goodProbability(p, percents[i]) : badProbability(p, percents[i]));
+				applied++;
+			}
+		} finally {
+			deferred = false;
+			// The running total is kept as it is, so it matches the one good() and bad() would have left
+			rebuildTree();
+			aliasTable = null;
+			allChanged = true;
+			if(listener != null && applied > 0) {
+				listener.weightsChanged(this);
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * @param  p as the probability of a slot.
+	 * @param  percent as the fraction to adjust by.
+	 * @return the probability the slot gets from good().
+	 */
+	static double goodProbability(double p, double percent) {
+		return (p < 0.5) ? p + p*percent : p + percent*(1.0 - p);
+	}
+
+	/**
+	 * @param  p as the probability of a slot.
+	 * @param  percent as the fraction to adjust by.
+	 * @return the probability the slot gets from bad().
+	 */
+	static double badProbability(double p, double percent) {
+		return p - p*percent;
+	}
+
+	/**       Checks the arguments of good() and bad().
+	 * @param slot as the slot.
+	 * @param percent as the fraction to adjust by.
+	 * @return the current probability of the slot.
+	 */
+	private double checkFeedback(int slot, double percent) {
+		checkSlot(slot);
+		if(weights[slot] <= 0)
+			throw new IllegalArgumentException("slot passed to good() or bad() is free");
+		if(!(percent >= 0 && percent <= 1))
+			throw new IllegalArgumentException("percent passed to good() or bad() must be between 0 and 1");
+		return decayed(weights[slot], scale, baseline)/total();
+	}
+
+	/**       Changes the weight of a slot so that it has probability p, without touching the other slots.
+	 * @param slot as the slot.
+	 * @param p as the new probability.
+	 * @return the new probability of the slot.
+	 */
+	private double setProbability(int slot, double p) {
+		double others = total() - decayed(weights[slot], scale, baseline);
+		if(count == 1 || others <= 0 || p >= 1.0) {
+			// The only slot, or a slot that already has all the probability, can not change
+			return getProbability(slot);
+		}
+		double weight = p*others/(1.0 - p);
+		if(!(weight > 0) || Double.isInfinite(weight)) {
+			return getProbability(slot);
+		}
+		put(slot, weight);
+		rescaleIfNeeded();
+		return getProbability(slot);
+	}
+
+	/** Gives every slot in use the same weight.
+	 *
+	 */
+	public void clearProbs() {
+		for(int i = 0; i < size; i++) {
+			if(weights[i] > 0) {
+				weights[i] = DEFAULT_WEIGHT;
+			}
+		}
+		// Every weight is the baseline already, so there is nothing left to fade
+		scale = 1;
+		baseline = 0;
+		rebuild();
+		if(listener != null) {
+			listener.weightsChanged(this);
+		}
+	}
+
+	/**        Draws a slot, in proportion to the weights.
+	 * @param  random as the source of randomness.
+	 * @return the slot that was drawn.
+	 * @throws IllegalStateException if there are no slots in use.
+	 */
+	@Override
+	public int sample(Random random) {
+		if(count == 0)
+			throw new IllegalStateException("sample() called on an empty WeightedSampler");
+		if(mode == Mode.ALIAS) {
+			if(aliasTable == null) {
+				double[] decayed = weights;
+				if(scale != 1) {
+					decayed = new double[size];
+					for(int i = 0; i < size; i++) {
+						decayed[i] = decayed(weights[i], scale, baseline);
+					}
+				}
+				aliasTable = new AliasTable(decayed, size);
+			}
+			return aliasTable.sample(random);
+		}
+		// Rounding in the tree can leave the target just past the last slot, so it is drawn again
+		for(int attempt = 0; attempt < 4; attempt++) {
+			int slot = find(random.nextDouble()*total());
+			if(slot < size && weights[slot] > 0) {
+				return slot;
+			}
+		}
+		return lastSlot();
+	}
+
+	/**       Finds the slot whose range of the cumulative weights contains target.
+	 * @param target as a value between 0 and the total.
+	 * @return the slot.
+	 */
+	private int find(double target) {
+		int position = 0;
+		int capacity = weights.length;
+		for(int step = Integer.highestOneBit(capacity); step > 0; step >>= 1) {
+			int next = position + step;
+			if(next <= capacity) {
+				double sum = decayed(tree[next], counts[next], scale, baseline);
+				if(sum <= target) {
+					position = next;
+					target -= sum;
+				}
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * @return the highest slot in use.
+	 */
+	private int lastSlot() {
+		for(int i = size - 1; i >= 0; i--) {
+			if(weights[i] > 0) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("WeightedSampler has no slots in use");
+	}
+
+	/**       Gives a slot a weight, by working out the raw weight that stands for it.
+	 *        The raw weights are rebased first if the weight is below what the baseline holds every slot up at.
+	 * @param slot as the slot.
+	 * @param weight as the new weight.
+	 */
+	private void put(int slot, double weight) {
+		if(scale != 1) {
+			double raw = (weight - (1 - scale)*baseline)/scale;
+			if(raw > 0 && !Double.isInfinite(raw)) {
+				update(slot, raw);
+				return;
+			}
+			rebase();
+		}
+		update(slot, weight);
+	}
+
+	/**       Changes the raw weight of a slot in the weights, the trees and the total.
+	 * @param slot as the slot.
+	 * @param weight as the new raw weight.
+	 */
+	private void update(int slot, double weight) {
+		double delta = weight - weights[slot];
+		int used = (weight > 0 ? 1 : 0) - (weights[slot] > 0 ? 1 : 0);
+		weights[slot] = weight;
+		total += delta;
+		if(deferred) {
+			return;
+		}
+		for(int i = slot + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+			counts[i] += used;
+		}
+		aliasTable = null;
+		if(!allChanged) {
+			if(changedCount == changed.length) {
+				if(changedCount >= MAX_CHANGED) {
+					allChanged = true;
+				} else {
+					changed = Arrays.copyOf(changed, changed.length*2);
+				}
+			}
+			if(!allChanged) {
+				changed[changedCount++] = slot;
+			}
+		}
+		if(listener != null) {
+			listener.weightChanged(slot, weight);
+		}
+	}
+
+	/** Rebuilds the tree and the total from the weights in O(n).
+	 *
+	 */
+	private void rebuild() {
+		total = rebuildTree();
+		aliasTable = null;
+		allChanged = true;
+	}
+
+	/**        Rebuilds the tree from the weights in O(n).
+	 * @return the sum of the weights.
+	 */
+	private double rebuildTree() {
+		Arrays.fill(tree, 0);
+		Arrays.fill(counts, 0);
+		double sum = 0;
+		for(int i = 0; i < weights.length; i++) {
+			sum += weights[i];
+			int index = i + 1;
+			tree[index] += weights[i];
+			counts[index] += (weights[i] > 0) ? 1 : 0;
+			int parent = index + (index & -index);
+			if(parent < tree.length) {
+				tree[parent] += tree[index];
+				counts[parent] += counts[index];
+			}
+		}
+		return sum;
+	}
+
+	/** Makes the raw weights the weights they stand for, so scale goes back to 1. This is O(n).
+	 *
+	 */
+	private void rebase() {
+		if(scale != 1) {
+			for(int i = 0; i < size; i++) {
+				weights[i] = decayed(weights[i], scale, baseline);
+			}
+		}
+		scale = 1;
+		baseline = 0;
+		rebuild();
+		if(listener != null && !deferred) {
+			listener.weightsChanged(this);
+		}
+	}
+
+	/** Scales all the weights back towards 1 when the total drifts too far.
+	 *
+	 */
+	private void rescaleIfNeeded() {
+		double total = total();
+		if(total > MAX_TOTAL || total < MIN_TOTAL) {
+			double factor = count/total;
+			for(int i = 0; i < size; i++) {
+				weights[i] *= factor;
+			}
+			// Scaling the raw weights and the baseline together scales the weights they stand for
+			baseline *= factor;
+			rebuild();
+			if(listener != null && !deferred) {
+				listener.weightsChanged(this);
+			}
+		}
+	}
+
+	/** Doubles the number of slots.
+	 *
+	 */
+	private void grow() {
+		weights = Arrays.copyOf(weights, weights.length*2);
+		tree = new double[weights.length + 1];
+		counts = new int[weights.length + 1];
+		rebuild();
+	}
+
+	/**       Gets a Snapshot of the weights as they are now, for other threads to read and draw from.
+	 *        Only the chunks with slots that changed since the last Snapshot are copied.
+	 * @return the Snapshot.
+	 */
+	public Snapshot snapshot() {
+		if(snapshot == null || allChanged) {
+			snapshot = new Snapshot(weights, size, mode, scale, baseline);
+		} else if(changedCount > 0 || snapshot.scale != scale || snapshot.baseline != baseline) {
+			snapshot = new Snapshot(snapshot, weights, size, changed, changedCount, scale, baseline);
+		}
+		allChanged = false;
+		changedCount = 0;
+		return snapshot;
+	}
+
+	private void checkSlot(int slot) {
+		if(slot < 0 || slot >= size)
+			throw new IndexOutOfBoundsException("slot " + slot + " has never been used");
+	}
+
+	private static void checkWeight(double weight) {
+		if(!(weight > 0) || Double.isInfinite(weight))
+			throw new IllegalArgumentException("weight must be positive and finite");
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		// A whole array is copied in bulk by the streams, which is much faster than a weight at a time
+		double[] written = Arrays.copyOf(weights, size);
+		for(int i = 0; i < size; i++) {
+			written[i] = decayed(written[i], scale, baseline);
+		}
+		out.writeObject(written);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		double[] written = (double[]) in.readObject();
+		int n = written.length;
+		allocate(Math.max(n, 1));
+		mode = Mode.FENWICK;
+		// The initializers of transient fields are not run, and the weights were written as they had decayed to
+		scale = 1;
+		for(int i = 0; i < n; i++) {
+			double weight = written[i];
+			if(weight > 0) {
+				weights[i] = weight;
+				count++;
+			}
+		}
+		size = n;
+		rebuild();
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         The weights of a WeightedSampler at one point in time, which never change, so any number of threads
+	 *         can read and draw from them without locks.
+	 *         The weights are kept in chunks with the running totals of the chunks on top, so a draw finds its chunk by
+	 *         binary search and its slot by walking the chunk. A new Snapshot copies the chunks that changed and the totals,
+	 *         and shares the rest with the one before it, so publishing a change is O(n/CHUNK + CHUNK) rather than O(n).
+	 *         The chunks hold raw weights, with the number of slots in use in each chunk kept next to its total,
+	 *         so a Snapshot that only differs from the last one by how far the weights decayed shares every chunk.
+	 */
+	public static final class Snapshot implements Weights {
+
+		// The number of slots in a chunk
+		private static final int CHUNK = 256;
+
+		private final double[][] chunks;
+
+		// The sum of each chunk, and the running total up to and including each chunk
+		private final double[] chunkTotals;
+		private final double[] runningTotals;
+
+		// The number of slots in use in each chunk, and the running count up to and including each chunk
+		private final int[] chunkCounts;
+		private final int[] runningCounts;
+
+		private final int size;
+		private final Mode mode;
+
+		// The decay of the raw weights, as in WeightedSampler
+		private final double scale;
+		private final double baseline;
+
+		// Built on the first draw in ALIAS mode; threads that race to build it each get a correct table
+		private volatile AliasTable aliasTable;
+
+		/**       Makes a Snapshot of every slot.
+		 * @param weights as the raw weights of the WeightedSampler.
+		 * @param size as the number of slots that have ever been used.
+		 * @param mode as how draws are made.
+		 * @param scale as how much of its raw weight each slot still has.
+		 * @param baseline as the weight every slot fades towards.
+		 */
+		private Snapshot(double[] weights, int size, Mode mode, double scale, double baseline) {
+			this.size = size;
+			this.mode = mode;
+			this.scale = scale;
+			this.baseline = baseline;
+			chunks = new double[chunksFor(size)][];
+			chunkTotals = new double[chunks.length];
+			chunkCounts = new int[chunks.length];
+			for(int chunk = 0; chunk < chunks.length; chunk++) {
+				copyChunk(weights, chunk);
+			}
+			runningTotals = running(chunkTotals);
+			runningCounts = running(chunkCounts);
+		}
+
+		/**       Makes a Snapshot that copies the chunks of changed slots, and shares the rest with the last one.
+		 * @param last as the last Snapshot.
+		 * @param weights as the raw weights of the WeightedSampler.
+		 * @param size as the number of slots that have ever been used.
+		 * @param changed as the slots that changed since last.
+		 * @param changedCount as the number of slots in changed.
+		 * @param scale as how much of its raw weight each slot still has.
+		 * @param baseline as the weight every slot fades towards.
+		 */
+		private Snapshot(Snapshot last, double[] weights, int size, int[] changed, int changedCount, double scale, double baseline) {
+			this.size = size;
+			this.scale = scale;
+			this.baseline = baseline;
+			mode = last.mode;
+			chunks = Arrays.copyOf(last.chunks, chunksFor(size));
+			chunkTotals = Arrays.copyOf(last.chunkTotals, chunks.length);
+			chunkCounts = Arrays.copyOf(last.chunkCounts, chunks.length);
+			boolean[] copied = new boolean[chunks.length];
+			// Every chunk holds CHUNK slots but the last, so when the size changes the old last chunk is copied at its new length
+			int first = (size == last.size) ? last.chunks.length : Math.max(last.chunks.length - 1, 0);
+			for(int chunk = first; chunk < chunks.length; chunk++) {
+				copyChunk(weights, chunk);
+				copied[chunk] = true;
+			}
+			for(int i = 0; i < changedCount; i++) {
+				int chunk = changed[i]/CHUNK;
+				if(chunk < chunks.length && !copied[chunk]) {
+					copyChunk(weights, chunk);
+					copied[chunk] = true;
+				}
+			}
+			runningTotals = running(chunkTotals);
+			runningCounts = running(chunkCounts);
+		}
+
+		/**
+		 * @param  size as a number of slots.
+		 * @return the number of chunks that hold them.
+		 */
+		private static int chunksFor(int size) {
+			return (size + CHUNK - 1)/CHUNK;
+		}
+
+		/**       Copies a chunk out of the raw weights of the WeightedSampler, and sums and counts it.
+		 * @param weights as the raw weights.
+		 * @param chunk as the chunk.
+		 */
+		private void copyChunk(double[] weights, int chunk) {
+			int from = chunk*CHUNK;
+			double[] copy = new double[Math.min(CHUNK, size - from)];
+			System.arraycopy(weights, from, copy, 0, copy.length);
+			double sum = 0;
+			int used = 0;
+			for(double weight : copy) {
+				sum += weight;
+				used += (weight > 0) ? 1 : 0;
+			}
+			chunks[chunk] = copy;
+			chunkTotals[chunk] = sum;
+			chunkCounts[chunk] = used;
+		}
+
+		/**
+		 * @param  totals as the sum of each chunk.
+		 * @return the running totals of the chunks.
+		 */
+		private static double[] running(double[] totals) {
+			double[] running = new double[totals.length];
+			double sum = 0;
+			for(int chunk = 0; chunk < totals.length; chunk++) {
+				sum += totals[chunk];
+				running[chunk] = sum;
+			}
+			return running;
+		}
+
+		/**
+		 * @param  counts as the number of slots in use in each chunk.
+		 * @return the running counts of the chunks.
+		 */
+		private static int[] running(int[] counts) {
+			int[] running = new int[counts.length];
+			int sum = 0;
+			for(int chunk = 0; chunk < counts.length; chunk++) {
+				sum += counts[chunk];
+				running[chunk] = sum;
+			}
+			return running;
+		}
+
+		/**
+		 * @param  chunk as a chunk.
+		 * @return the sum of the weights of the chunks up to and including chunk.
+		 */
+		private double runningTotal(int chunk) {
+			return decayed(runningTotals[chunk], runningCounts[chunk], scale, baseline);
+		}
+
+		/**        Finds the chunk a draw lands in.
+		 * @param  target as a value between 0 and the total.
+		 * @return the first chunk whose running total is past target, or the number of chunks if there is none.
+		 */
+		private int findChunk(double target) {
+			if(scale == 1) {
+				int chunk = Arrays.binarySearch(runningTotals, target);
+				return (chunk < 0) ? -chunk - 1 : chunk + 1;
+			}
+			int low = 0;
+			int high = chunks.length;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(runningTotal(middle) <= target) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public double total() {
+			return (runningTotals.length == 0) ? 0 : runningTotal(runningTotals.length - 1);
+		}
+
+		/**
+		 * @return how much of its raw weight each slot still has, 1 if the weights have not decayed since they were last rebased.
+		 */
+		public double getScale() {
+			return scale;
+		}
+
+		/**        Gets the weight of a slot.
+		 *         A slot this Snapshot has never seen is free, as a reader can hold a Snapshot older than a slot it was told about.
+		 * @param  slot as the slot.
+		 * @return the weight of the slot, 0 if the slot is free.
+		 */
+		@Override
+		public double getWeight(int slot) {
+			return (slot >= 0 && slot < size) ? decayed(chunks[slot/CHUNK][slot%CHUNK], scale, baseline) : 0;
+		}
+
+		/**        Gets the probability of a slot being drawn.
+		 * @param  slot as the slot.
+		 * @return the probability of the slot, 0 if the slot is free.
+		 */
+		public double getProbability(int slot) {
+			double total = total();
+			return (total <= 0) ? 0 : getWeight(slot)/total;
+		}
+
+		@Override
+		public boolean contains(int slot) {
+			return slot >= 0 && slot < size && chunks[slot/CHUNK][slot%CHUNK] > 0;
+		}
+
+		@Override
+		public int sample(Random random) {
+			double total = total();
+			if(!(total > 0))
+				throw new IllegalStateException("sample() called on an empty Snapshot");
+			if(mode == Mode.ALIAS) {
+				AliasTable table = aliasTable;
+				if(table == null) {
+					double[] weights = new double[size];
+					for(int chunk = 0; chunk < chunks.length; chunk++) {
+						System.arraycopy(chunks[chunk], 0, weights, chunk*CHUNK, chunks[chunk].length);
+					}
+					if(scale != 1) {
+						for(int slot = 0; slot < size; slot++) {
+							weights[slot] = decayed(weights[slot], scale, baseline);
+						}
+					}
+					table = new AliasTable(weights, size);
+					aliasTable = table;
+				}
+				return table.sample(random);
+			}
+			// Rounding can leave the target past the last slot of its chunk, so it is drawn again
+			for(int attempt = 0; attempt < 4; attempt++) {
+				double target = random.nextDouble()*total;
+				int chunk = findChunk(target);
+				if(chunk >= chunks.length) {
+					continue;
+				}
+				if(chunk > 0) {
+					target -= runningTotal(chunk - 1);
+				}
+				double[] weights = chunks[chunk];
+				for(int i = 0; i < weights.length; i++) {
+					if(weights[i] > 0) {
+						target -= decayed(weights[i], scale, baseline);
+						if(target < 0) {
+							return chunk*CHUNK + i;
+						}
+					}
+				}
+			}
+			for(int slot = size - 1; slot >= 0; slot--) {
+				if(contains(slot)) {
+					return slot;
+				}
+			}
+			throw new IllegalStateException("sample() called on an empty Snapshot");
+		}
+
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Vose's alias table for O(1) draws from fixed weights.
+	 */
+	private static final class AliasTable {
+
+		private final double[] probability;
+		private final int[] alias;
+
+		/**       Builds the table in O(n).
+		 * @param weights as the weights.
+		 * @param size as the number of weights to use.
+		 */
+		private AliasTable(double[] weights, int size) {
+			probability = new double[size];
+			alias = new int[size];
+			double sum = 0;
+			for(int i = 0; i < size; i++) {
+				sum += weights[i];
+			}
+			int[] small = new int[size];
+			int[] large = new int[size];
+			int smallCount = 0;
+			int largeCount = 0;
+			double[] scaled = new double[size];
+			for(int i = 0; i < size; i++) {
+				scaled[i] = weights[i]*size/sum;
+				if(scaled[i] < 1.0) {
+					small[smallCount++] = i;
+				} else {
+					large[largeCount++] = i;
+				}
+			}
+			while(smallCount > 0 && largeCount > 0) {
+				int s = small[--smallCount];
+				int l = large[--largeCount];
+				probability[s] = scaled[s];
+				alias[s] = l;
+				scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+				if(scaled[l] < 1.0) {
+					small[smallCount++] = l;
+				} else {
+					large[largeCount++] = l;
+				}
+			}
+			// Whatever is left over is 1 up to rounding
+			while(largeCount > 0) {
+				int l = large[--largeCount];
+				probability[l] = 1.0;
+				alias[l] = l;
+			}
+			while(smallCount > 0) {
+				int s = small[--smallCount];
+				probability[s] = (weights[s] > 0) ? 1.0 : 0.0;
+				alias[s] = s;
+			}
+		}
+
+		/**       Draws a slot.
+		 * @param random as the source of randomness.
+		 * @return the slot that was drawn.
+		 */
+		private int sample(Random random) {
+			while(true) {
+				int column = random.nextInt(probability.length);
+				if(random.nextDouble() < probability[column]) {
+					return column;
+				}
+				if(probability[column] > 0 || alias[column] != column) {
+					return alias[column];
+				}
+				// A free slot left over by rounding, so the draw is repeated
+			}
+		}
+
+	}
+
+}
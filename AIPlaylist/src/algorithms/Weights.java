@@ -0,0 +1,41 @@
+package algorithms;
+
+import java.util.Random;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Weighted slots that can be read and drawn from: a WeightedSampler, or a Snapshot of one.
+ */
+public interface Weights {
+
+	/**
+	 * @return one more than the highest slot that has ever been used.
+	 */
+	public int size();
+
+	/**
+	 * @return the sum of the weights.
+	 */
+	public double total();
+
+	/**
+	 * @param  slot as the slot.
+	 * @return the weight of the slot, 0 if the slot is free.
+	 */
+	public double getWeight(int slot);
+
+	/**
+	 * @param  slot as the slot.
+	 * @return whether or not the slot is in use.
+	 */
+	public boolean contains(int slot);
+
+	/**        Draws a slot, in proportion to the weights.
+	 * @param  random as the source of randomness.
+	 * @return the slot that was drawn.
+	 * @throws IllegalStateException if there are no slots in use.
+	 */
+	public int sample(Random random);
+
+}
@@ -0,0 +1,540 @@
+package control;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URLDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import metrics.MetricRegistry;
+import metrics.Timer;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Serves PlayerControls over HTTP on the loopback address, so a player without a window can be driven by scripts.
+ *         POST /play, /next, /previous, /good, /bad, /goodFolder, /badFolder, /loop, /repeat or /reset runs a command
+ *         and answers with the state after it.
+ *         POST /user?name=someone switches to the ratings of a user, and without a name back to everyone's.
+ *         GET /state answers with the state, as key=value lines.
+ *         Requests from web pages are refused: one with an Origin header, or with a Host that is not the loopback address
+ *         and the port, gets 403, so a page can not send commands, and can not read the state by rebinding its name to 127.0.0.1.
+ *         One selector thread reads and writes every connection without blocking, so there is no thread for each client.
+ *         Commands run one at a time on a thread of their own, so a slow call into the player never holds up the selector;
+ *         a connection is not read from while its command runs, so the requests of one client are answered in order.
+ */
+public final class ControlServer implements Closeable {
+
+	// The longest the head of a request can be
+	private static final int MAX_REQUEST_BYTES = 8192;
+
+	// The names the loopback address goes by in a Host header
+	private static final String[] LOCAL_NAMES = {"127.0.0.1", "localhost", "[::1]"};
+
+	// The commands, by path
+	private static final Map<String, Consumer<PlayerControls>> COMMANDS;
+	static {
+		Map<String, Consumer<PlayerControls>> commands = new HashMap<String, Consumer<PlayerControls>>();
+		commands.put("/play", PlayerControls::play);
+		commands.put("/next", PlayerControls::playNext);
+		commands.put("/previous", PlayerControls::playPrevious);
+		commands.put("/good", PlayerControls::good);
+		commands.put("/bad", PlayerControls::bad);
+		commands.put("/goodFolder", PlayerControls::goodFolder);
+		commands.put("/badFolder", PlayerControls::badFolder);
+		commands.put("/loop", PlayerControls::loopSwitch);
+		commands.put("/repeat", PlayerControls::repeatSwitch);
+		commands.put("/reset", PlayerControls::resetProbabilities);
+		COMMANDS = Collections.unmodifiableMap(commands);
+	}
+
+	private static final Timer COMMAND_TIMER = MetricRegistry.getDefault().timer("aiplaylist_control_command_seconds",
+			"Requests to the control server, from being read to being answered");
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         A client connection and where it is in its request.
+	 *         Only the selector thread touches it, apart from answer, which is handed over through the answered queue.
+	 */
+	private static final class Connection {
+
+		private final SocketChannel channel;
+		private final SelectionKey key;
+
+		// What was read and not handled yet, in write mode
+		private final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+
+		// The answer being written, or null if there is none
+		private ByteBuffer out;
+
+		// The answer of the command that ran, until the selector thread picks it up
+		private ByteBuffer answer;
+
+		// Whether or not a command of this connection is running
+		private boolean busy = false;
+
+		// Whether or not to close the connection once out is written
+		private boolean closeAfter = false;
+
+		// The bytes of the body of the last request that still have to be dropped
+		private long skip = 0;
+
+		private Connection(SocketChannel channel, Selector selector) throws IOException {
+			this.channel = channel;
+			key = channel.register(selector, SelectionKey.OP_READ, this);
+		}
+
+	}
+
+	private final PlayerControls controls;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread selectorThread;
+
+	// Runs the commands, one at a time
+	private final ExecutorService commandExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Control commands");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Connections whose command ran, for the selector thread to write the answer of
+	private final Queue<Connection> answered = new ConcurrentLinkedQueue<Connection>();
+
+	private volatile boolean closed = false;
+
+	/**        Starts serving the controls.
+	 * @param  controls as the PlayerControls to serve.
+	 * @param  port as the port to listen on, or 0 for any free port.
+	 * @return the ControlServer.
+	 * @throws IOException if the port could not be listened on.
+	 */
+	public static ControlServer start(PlayerControls controls, int port) throws IOException {
+		return new ControlServer(controls, port);
+	}
+
+	private ControlServer(PlayerControls controls, int port) throws IOException {
+		this.controls = controls;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		selectorThread = new Thread(this::serve, "Control server");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * @return the port being listened on.
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/** The loop of the selector thread: accepts, reads and writes whatever is ready, and writes the answers of commands that ran.
+	 *
+	 */
+	private void serve() {
+		while(!closed) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				System.out.print(String.format("Problem waiting for control connections\n"));
+				e.printStackTrace();
+				break;
+			}
+			Connection connection;
+			while((connection = answered.poll()) != null) {
+				if(!connection.key.isValid()) {
+					continue;
+				}
+				connection.busy = false;
+				connection.out = connection.answer;
+				connection.answer = null;
+				try {
+					if(flush(connection)) {
+						handle(connection);
+					}
+				} catch (IOException e) {
+					close(connection.key);
+				}
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if(!key.isValid()) {
+						continue;
+					}
+					if(key.isAcceptable()) {
+						accept();
+					} else if(key.isReadable()) {
+						read((Connection) key.attachment());
+					} else if(key.isWritable()) {
+						if(flush((Connection) key.attachment())) {
+							handle((Connection) key.attachment());
+						}
+					}
+				} catch (IOException e) {
+					close(key);
+				}
+			}
+		}
+		for(SelectionKey key : selector.keys()) {
+			close(key);
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Accepts a client.
+	 *
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if(channel == null) {
+			return;
+		}
+		try {
+			channel.configureBlocking(false);
+			// Answers are small and each one is waited for, so they should not wait to be put together
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			new Connection(channel, selector);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**       Reads what a client sent, and handles the requests in it.
+	 * @param connection as the connection of the client.
+	 */
+	private void read(Connection connection) throws IOException {
+		if(connection.channel.read(connection.in) == -1) {
+			close(connection.key);
+			return;
+		}
+		handle(connection);
+	}
+
+	/**       Handles the requests that were read, until one has to wait for a command, more bytes or the client.
+	 * @param connection as the connection of the client.
+	 */
+	private void handle(Connection connection) throws IOException {
+		while(connection.key.isValid() && !connection.busy && connection.out == null) {
+			if(!next(connection)) {
+				return;
+			}
+			if(connection.out != null && !flush(connection)) {
+				return;
+			}
+		}
+	}
+
+	/**       Takes the next request out of what was read, and either starts its command or makes out the answer to it.
+	 * @param  connection as the connection of the client.
+	 * @return false if the whole head of a request has not been read yet.
+	 */
+	private boolean next(Connection connection) {
+		ByteBuffer in = connection.in;
+		if(connection.skip > 0) {
+			int dropped = (int) Math.min(connection.skip, in.position());
+			drop(in, dropped);
+			connection.skip -= dropped;
+			if(connection.skip > 0) {
+				return false;
+			}
+		}
+		int end = headEnd(in);
+		if(end == -1) {
+			if(!in.hasRemaining()) {
+				answer(connection, 431, "Request Header Fields Too Large", true);
+				return true;
+			}
+			return false;
+		}
+		String head = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+		drop(in, end + 4);
+		String[] lines = head.split("\r\n");
+		String[] requestLine = lines[0].split(" ");
+		if(requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+			answer(connection, 400, "Bad Request", true);
+			return true;
+		}
+		String method = requestLine[0];
+		int query = requestLine[1].indexOf('?');
+		String path = (query == -1) ? requestLine[1] : requestLine[1].substring(0, query);
+		String user = (query == -1) ? null : parameter(requestLine[1].substring(query + 1), "name");
+		boolean close = "HTTP/1.0".equals(requestLine[2]);
+		boolean fromPage = false;
+		String host = null;
+		for(int line = 1; line < lines.length; line++) {
+			int colon = lines[line].indexOf(':');
+			if(colon == -1) {
+				continue;
+			}
+			String name = lines[line].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			String value = lines[line].substring(colon + 1).trim();
+			if(name.equals("connection")) {
+				close = value.equalsIgnoreCase("close") || (close && !value.equalsIgnoreCase("keep-alive"));
+			} else if(name.equals("content-length")) {
+				try {
+					connection.skip = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					connection.skip = -1;
+				}
+				if(connection.skip < 0) {
+					answer(connection, 400, "Bad Request", true);
+					return true;
+				}
+			} else if(name.equals("origin")) {
+				// Browsers send it with every POST, and scripts have no reason to
+				fromPage = true;
+			} else if(name.equals("host")) {
+				host = value.toLowerCase(Locale.ROOT);
+			} else if(name.equals("transfer-encoding")) {
+				// Commands take no body, so there is no reason to read a chunked one
+				answer(connection, 501, "Not Implemented", true);
+				return true;
+			}
+		}
+		if(fromPage || !isLocalHost(host)) {
+			answer(connection, 403, "Forbidden", close);
+		} else if(path.equals("/state")) {
+			if(method.equals("GET")) {
+				run(connection, null, close);
+			} else {
+				answer(connection, 405, "Method Not Allowed", close);
+			}
+		} else if(path.equals("/user")) {
+			if(method.equals("POST")) {
+				run(connection, controls -> controls.setUser(user), close);
+			} else {
+				answer(connection, 405, "Method Not Allowed", close);
+			}
+		} else if(COMMANDS.containsKey(path)) {
+			if(method.equals("POST")) {
+				run(connection, COMMANDS.get(path), close);
+			} else {
+				answer(connection, 405, "Method Not Allowed", close);
+			}
+		} else {
+			answer(connection, 404, "Not Found", close);
+		}
+		return true;
+	}
+
+	/**        A page whose name was rebound to 127.0.0.1 still sends its own name as the Host, so only the loopback names are let in.
+	 * @param  host as the Host header of a request in lower case, or null if there was none.
+	 * @return whether or not host names this server on the loopback address.
+	 */
+	private boolean isLocalHost(String host) {
+		if(host == null) {
+			return false;
+		}
+		int port = getPort();
+		for(String name : LOCAL_NAMES) {
+			if(host.equals(name + ":" + port) || (port == 80 && host.equals(name))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param  query as the query of a request.
+	 * @param  name as the name of a parameter.
+	 * @return the decoded value of the parameter, or null if it is not there, is empty, or can not be decoded.
+	 */
+	private static String parameter(String query, String name) {
+		for(String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if(equals != -1 && pair.substring(0, equals).equals(name) && equals + 1 < pair.length()) {
+				try {
+					return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+				} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**       Runs a command on the command thread, and hands its answer back to the selector thread.
+	 *        The connection is not read from until then.
+	 * @param connection as the connection of the client.
+	 * @param command as the command, or null to only get the state.
+	 * @param close as whether or not to close the connection after answering.
+	 */
+	private void run(Connection connection, Consumer<PlayerControls> command, boolean close) {
+		long start = COMMAND_TIMER.start();
+		connection.busy = true;
+		connection.closeAfter = close;
+		connection.key.interestOps(0);
+		try {
+			commandExecutor.execute(() -> {
+				ByteBuffer answer;
+				try {
+					if(command != null) {
+						command.accept(controls);
+					}
+					StringBuilder sb = new StringBuilder(256);
+					controls.writeState(sb);
+					answer = response(200, "OK", sb.toString(), close);
+				} catch (RuntimeException e) {
+					System.out.print(String.format("Problem running a control command\n"));
+					e.printStackTrace();
+					answer = response(500, "Internal Server Error", e + "\n", close);
+				}
+				connection.answer = answer;
+				answered.add(connection);
+				selector.wakeup();
+				COMMAND_TIMER.stop(start);
+			});
+		} catch (RejectedExecutionException e) {
+			// The server is closing
+			close(connection.key);
+		}
+	}
+
+	/**       Makes out an answer with no state, like for an error.
+	 * @param connection as the connection of the client.
+	 * @param status as the status code.
+	 * @param reason as the reason phrase, which is also the body.
+	 * @param close as whether or not to close the connection after answering.
+	 */
+	private static void answer(Connection connection, int status, String reason, boolean close) {
+		connection.out = response(status, reason, reason + "\n", close);
+		connection.closeAfter = close;
+	}
+
+	/**       Makes a response.
+	 * @param  status as the status code.
+	 * @param  reason as the reason phrase.
+	 * @param  body as the body.
+	 * @param  close as whether or not the connection is closed after it.
+	 * @return the response, ready to be written.
+	 */
+	private static ByteBuffer response(int status, String reason, String body, boolean close) {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		String head = "HTTP/1.1 " + status + " " + reason + "\r\n"
+				+ "Content-Type: text/plain; charset=utf-8\r\n"
+				+ "Content-Length: " + bytes.length + "\r\n"
+				+ (close ? "Connection: close\r\n" : "")
+				+ "\r\n";
+		byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+		ByteBuffer response = ByteBuffer.allocate(headBytes.length + bytes.length);
+		response.put(headBytes).put(bytes);
+		response.flip();
+		return response;
+	}
+
+	/**       Writes as much of out as the client takes.
+	 * @param  connection as the connection of the client.
+	 * @return true if all of out was written and the connection is still open, so the next request can be handled.
+	 */
+	private boolean flush(Connection connection) throws IOException {
+		connection.channel.write(connection.out);
+		if(connection.out.hasRemaining()) {
+			connection.key.interestOps(SelectionKey.OP_WRITE);
+			return false;
+		}
+		connection.out = null;
+		if(connection.closeAfter) {
+			close(connection.key);
+			return false;
+		}
+		connection.key.interestOps(SelectionKey.OP_READ);
+		return true;
+	}
+
+	/**
+	 * @param  in as what was read, in write mode.
+	 * @return the index of the blank line that ends the head of a request, or -1 if it has not been read yet.
+	 */
+	private static int headEnd(ByteBuffer in) {
+		byte[] bytes = in.array();
+		for(int i = 0; i + 3 < in.position(); i++) {
+			if(bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**       Drops bytes from the start of what was read.
+	 * @param in as what was read, in write mode.
+	 * @param count as the number of bytes to drop.
+	 */
+	private static void drop(ByteBuffer in, int count) {
+		in.flip();
+		in.position(count);
+		in.compact();
+	}
+
+	/**       Closes a connection, or the server socket.
+	 * @param key as the key of the channel.
+	 */
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Stops taking connections and closes the ones that are open.
+	 *
+	 */
+	@Override
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		commandExecutor.shutdownNow();
+		selector.wakeup();
+		try {
+			selectorThread.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
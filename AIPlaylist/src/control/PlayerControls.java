@@ -0,0 +1,70 @@
+package control;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         What a ControlServer can ask a player to do, the same things the keys of AIPlaylist do.
+ */
+public interface PlayerControls {
+
+	/** Plays the current media again, or starts playing if nothing has played yet.
+	 *
+	 */
+	public void play();
+
+	/** Plays the next media.
+	 *
+	 */
+	public void playNext();
+
+	/** Plays the previous media.
+	 *
+	 */
+	public void playPrevious();
+
+	/** Makes the currently playing media more likely to appear in the future.
+	 *
+	 */
+	public void good();
+
+	/** Makes the currently playing media less likely to appear in the future.
+	 *
+	 */
+	public void bad();
+
+	/** Makes every media file in the folder of the currently playing media more likely to appear in the future.
+	 *
+	 */
+	public void goodFolder();
+
+	/** Makes every media file in the folder of the currently playing media less likely to appear in the future.
+	 *
+	 */
+	public void badFolder();
+
+	/** Switches whether looping is enabled or not.
+	 *
+	 */
+	public void loopSwitch();
+
+	/** Switches whether repeat is enabled or not.
+	 *
+	 */
+	public void repeatSwitch();
+
+	/** Resets the probabilities so all the media files have the same chance of appearing.
+	 *
+	 */
+	public void resetProbabilities();
+
+	/**       Sets whose ratings are played by and get feedback.
+	 * @param user as the name of the user, or null for everyone.
+	 */
+	public void setUser(String user);
+
+	/**       Writes the state of the player as key=value lines.
+	 * @param sb as where to write the state.
+	 */
+	public void writeState(StringBuilder sb);
+
+}
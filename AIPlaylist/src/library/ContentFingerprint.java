@@ -0,0 +1,148 @@
+package library;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         A 64 bit hash of what is in a media file, so it can be told apart from others wherever it is moved to.
+ *         Only a block at the head, the middle and the tail is read, along with the size, which is enough to tell
+ *         songs apart without reading them whole; files no longer than the three blocks are hashed whole.
+ *         The hash is an xxHash64 style mix of 8 byte lanes. It is not cryptographic, so it says two files are the same
+ *         song, not that nobody made them collide. Empty files have no content to tell them apart, so they get NONE.
+ */
+public final class ContentFingerprint {
+
+	// The fingerprint of a file that could not be read or has no content
+	public static final long NONE = 0;
+
+	// The bytes read at each of the head, middle and tail
+	static final int BLOCK = 16*1024;
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+
+	// The buffer each thread reads its blocks into
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(
+			() -> ByteBuffer.allocateDirect(3*BLOCK).order(ByteOrder.LITTLE_ENDIAN));
+
+	/** Enforces non-instantibility
+	 * 	@throws AssertionError to enforce non-instantibility
+	 */
+	private ContentFingerprint() {
+		throw new AssertionError("ContentFingerprint is non-instantiable");
+	}
+
+	/**       Gets the fingerprint of a file.
+	 * @param path as the path of the file.
+	 * @param size as the size of the file in bytes.
+	 * @return the fingerprint, or NONE if the file is empty or could not be read.
+	 */
+	public static long of(Path path, long size) {
+		if(size <= 0) {
+			return NONE;
+		}
+		ByteBuffer buffer = BUFFERS.get();
+		buffer.clear();
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(size <= 3*BLOCK) {
+				buffer.limit((int) size);
+				readFully(channel, buffer, 0);
+			} else {
+				buffer.limit(BLOCK);
+				readFully(channel, buffer, 0);
+				buffer.limit(2*BLOCK);
+				readFully(channel, buffer, (size - BLOCK)/2);
+				buffer.limit(3*BLOCK);
+				readFully(channel, buffer, size - BLOCK);
+			}
+		} catch (IOException e) {
+			return NONE;
+		}
+		buffer.flip();
+		long h = hash(buffer, size);
+		return (h == NONE) ? 1 : h;
+	}
+
+	/**       Checks whether two files have the same bytes, to confirm that their fingerprints match because they are copies.
+	 *        Both files are read whole, a few blocks at a time.
+	 * @param a as the path of one file.
+	 * @param b as the path of the other file.
+	 * @return true if the files are the same size and have the same bytes, false if not or if either could not be read.
+	 */
+	public static boolean sameContent(Path a, Path b) {
+		try(FileChannel first = FileChannel.open(a, StandardOpenOption.READ);
+				FileChannel second = FileChannel.open(b, StandardOpenOption.READ)) {
+			long size = first.size();
+			if(size != second.size()) {
+				return false;
+			}
+			ByteBuffer one = ByteBuffer.allocate(4*BLOCK);
+			ByteBuffer two = ByteBuffer.allocate(4*BLOCK);
+			for(long position = 0; position < size; position += one.capacity()) {
+				int length = (int) Math.min(one.capacity(), size - position);
+				one.clear();
+				one.limit(length);
+				two.clear();
+				two.limit(length);
+				readFully(first, one, position);
+				readFully(second, two, position);
+				one.flip();
+				two.flip();
+				if(!one.equals(two)) {
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**        Reads from a position until buffer is full.
+	 * @param  channel as the channel to read from.
+	 * @param  buffer as the buffer to read into, up to its limit.
+	 * @param  position as the position in the file to start at.
+	 * @throws IOException if the file got shorter or could not be read.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if(n < 0)
+				throw new IOException("File got shorter while it was read");
+			position += n;
+		}
+	}
+
+	/**
+	 * @param  buffer as the bytes to hash, from its position to its limit, in little endian order.
+	 * @param  seed as what the hash starts from.
+	 * @return the hash.
+	 */
+	static long hash(ByteBuffer buffer, long seed) {
+		long h = seed*PRIME1 + PRIME4 + buffer.remaining();
+		while(buffer.remaining() >= 8) {
+			h ^= Long.rotateLeft(buffer.getLong()*PRIME2, 31)*PRIME1;
+			h = Long.rotateLeft(h, 27)*PRIME1 + PRIME4;
+		}
+		while(buffer.hasRemaining()) {
+			h ^= (buffer.get() & 0xFF)*PRIME3;
+			h = Long.rotateLeft(h, 11)*PRIME1;
+		}
+		h ^= h >>> 33;
+		h *= PRIME2;
+		h ^= h >>> 29;
+		h *= PRIME3;
+		return h ^ (h >>> 32);
+	}
+
+}
@@ -0,0 +1,509 @@
+package library;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         An append-only journal of what was done to a playlist: feedback, resets, and media files being added or removed.
+ *         Appending only copies the event into a buffer, so the caller is never held up by the disk.
+ *         A writer thread writes everything appended while the last batch was being synced, and syncs it with one fsync.
+ *         Each event has a sequence number, so it can be replayed on top of a snapshot that covers the events before it.
+ *         Once the journal gets big, a new snapshot is taken and the events it covers are dropped.
+ */
+public final class FeedbackJournal implements Closeable {
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         What an event did.
+	 */
+	public enum Type {
+		GOOD,
+		BAD,
+		// Every media file was given the same weight
+		RESET,
+		ADD,
+		REMOVE,
+		// The weight of a duplicate was merged into the media file it is a copy of; the value is what its weight was multiplied by
+		MERGE
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         One event of a FeedbackJournal.
+	 */
+	public static final class Event {
+
+		private final long sequence;
+		private final Type type;
+		private final int id;
+		private final double value;
+		private final String path;
+
+		private Event(long sequence, Type type, int id, double value, String path) {
+			this.sequence = sequence;
+			this.type = type;
+			this.id = id;
+			this.value = value;
+			this.path = path;
+		}
+
+		/**
+		 * @return the sequence number of this event.
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return what this event did.
+		 */
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * @return the id of the media file, or -1 for a RESET.
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return the percent of a GOOD or BAD, otherwise 0.
+		 */
+		public double getValue() {
+			return value;
+		}
+
+		/**
+		 * @return the path of the media file of an ADD or REMOVE, otherwise null.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		@Override
+		public String toString() {
+			return sequence + " " + type + " " + id + (type == Type.GOOD || type == Type.BAD || type == Type.MERGE ? " " + value : "")
+					+ (path != null ? " " + path : "");
+		}
+
+	}
+
+	// Marks a file written by this class
+	private static final int MAGIC = 0x4149504A;
+
+	private static final int VERSION = 1;
+
+	// Magic, version, and the sequence number before the first event
+	private static final int HEADER_BYTES = 16;
+
+	// Length, sequence, type, id, value, path length and CRC, without the path
+	private static final int RECORD_BYTES = 4 + 8 + 1 + 4 + 8 + 2 + 4;
+
+	// The journal is compacted once it is bigger than this
+	private static final long DEFAULT_COMPACT_BYTES = 1 << 20;
+
+	private final File file;
+	private FileChannel channel;
+
+	// Guards everything below
+	private final Object lock = new Object();
+
+	// Events appended since the writer thread last took a batch
+	private ByteBuffer pending = ByteBuffer.allocate(1 << 12);
+
+	// Swapped with pending, so appending never waits for a write
+	private ByteBuffer writing = ByteBuffer.allocate(1 << 12);
+
+	private long nextSequence;
+
+	// The highest sequence number that is on disk
+	private long syncedSequence;
+
+	// The sequence number of the last event in pending
+	private long pendingSequence;
+
+	private boolean closed = false;
+
+	// Whether or not the writer thread is writing a batch
+	private boolean busy = false;
+
+	// Takes a snapshot and returns the sequence number it covers, or null for no compaction
+	private LongSupplier snapshotter;
+	private long compactBytes = DEFAULT_COMPACT_BYTES;
+
+	private final Thread writer;
+
+	/**        Opens a FeedbackJournal, creating the file if it does not exist.
+	 *         An event that was only partly written when the application died is dropped.
+	 * @param  file as the file.
+	 * @return the FeedbackJournal.
+	 * @throws IOException if the file could not be opened.
+	 */
+	public static FeedbackJournal open(File file) throws IOException {
+		return new FeedbackJournal(file);
+	}
+
+	private FeedbackJournal(File file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		ByteBuffer contents = readAll(channel);
+		long last = 0;
+		int end = HEADER_BYTES;
+		if(contents.limit() >= HEADER_BYTES && contents.getInt(0) == MAGIC && contents.getInt(4) == VERSION) {
+			last = contents.getLong(8);
+			contents.position(HEADER_BYTES);
+			Event event;
+			while((event = next(contents)) != null) {
+				last = event.getSequence();
+				end = contents.position();
+			}
+			if(end < contents.limit()) {
+				System.out.print(String.format("Dropping a partly written event from " + file.getAbsolutePath() + "\n"));
+			}
+		} else {
+			if(contents.limit() > 0) {
+				System.out.print(String.format("Not a feedback journal, starting it again: " + file.getAbsolutePath() + "\n"));
+			}
+			writeHeader(channel, 0);
+		}
+		channel.truncate(end);
+		channel.position(end);
+		nextSequence = last + 1;
+		syncedSequence = pendingSequence = last;
+		writer = new Thread(this::run, "Feedback journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**       Appends an event. This only copies it into memory; it is on disk once the writer thread has synced it.
+	 * @param type as what the event did.
+	 * @param id as the id of the media file, or -1 for a RESET.
+	 * @param value as the percent of a GOOD or BAD, otherwise 0.
+	 * @param path as the path of the media file of an ADD or REMOVE, otherwise null.
+	 * @return the sequence number of the event.
+	 * @throws NullPointerException if type is null.
+	 * @throws IllegalStateException if the journal is closed.
+	 */
+	public long append(Type type, int id, double value, String path) {
+		Objects.requireNonNull(type);
+		byte[] bytes = (path == null) ? new byte[0] : path.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > Short.MAX_VALUE) {
+			bytes = new byte[0];
+		}
+		synchronized(lock) {
+			if(closed)
+				throw new IllegalStateException("append() called on a closed FeedbackJournal");
+			long sequence = nextSequence++;
+			if(pending.remaining() < RECORD_BYTES + bytes.length) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity()*2, pending.position() + RECORD_BYTES + bytes.length));
+				pending.flip();
+				bigger.put(pending);
+				pending = bigger;
+			}
+			encode(pending, sequence, type, id, value, bytes);
+			pendingSequence = sequence;
+			lock.notifyAll();
+			return sequence;
+		}
+	}
+
+	/**
+	 * @return the sequence number of the last event appended.
+	 */
+	public long getLastSequence() {
+		synchronized(lock) {
+			return nextSequence - 1;
+		}
+	}
+
+	/**       Makes sure the next event gets a sequence number after a given one,
+	 *        for when what the events are replayed on top of has seen later ones than this journal.
+	 * @param sequence as the sequence number the next event has to come after.
+	 */
+	public void skipTo(long sequence) {
+		synchronized(lock) {
+			nextSequence = Math.max(nextSequence, sequence + 1);
+		}
+	}
+
+	/**        Waits until every event appended so far is on disk.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public void sync() throws InterruptedException {
+		synchronized(lock) {
+			long target = pendingSequence;
+			while(syncedSequence < target && writer.isAlive()) {
+				lock.wait(100);
+			}
+		}
+	}
+
+	/**        Passes every event on disk with a sequence number after a given one to consumer, in order.
+	 *         Meant for startup, before anything is appended.
+	 * @param  after as the sequence number of the last event already applied.
+	 * @param  consumer as the consumer of the events.
+	 * @return the number of events passed to consumer.
+	 * @throws IOException if the file could not be read.
+	 */
+	public int replay(long after, Consumer<Event> consumer) throws IOException {
+		ByteBuffer contents;
+		synchronized(lock) {
+			contents = readAll(channel);
+		}
+		contents.position(HEADER_BYTES);
+		int n = 0;
+		Event event;
+		while((event = next(contents)) != null) {
+			if(event.getSequence() > after) {
+				consumer.accept(event);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**       Sets how the journal is compacted.
+	 * @param snapshotter as what takes a snapshot and returns the sequence number of the last event it covers.
+	 * @param compactBytes as the size in bytes the journal has to pass before it is compacted.
+	 */
+	public void setCompaction(LongSupplier snapshotter, long compactBytes) {
+		synchronized(lock) {
+			this.snapshotter = snapshotter;
+			this.compactBytes = compactBytes;
+		}
+	}
+
+	/**        Drops every event, for when the playlist they were about is gone. Sequence numbers keep going up.
+	 * @throws IOException if the file could not be written.
+	 */
+	public void clear() throws IOException {
+		synchronized(lock) {
+			pending.clear();
+			// Waits for a batch that is being written, as the writer thread does that without the lock
+			while(busy) {
+				try {
+					lock.wait(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			writeHeader(channel, nextSequence - 1);
+			channel.truncate(HEADER_BYTES);
+			channel.position(HEADER_BYTES);
+			channel.force(true);
+			syncedSequence = pendingSequence = nextSequence - 1;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+	/** Writes batches of events until the journal is closed.
+	 *
+	 */
+	private void run() {
+		while(true) {
+			long batchSequence;
+			synchronized(lock) {
+				while(pending.position() == 0 && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// Only close() stops the writer, so nothing appended is lost
+					}
+				}
+				if(pending.position() == 0) {
+					return;
+				}
+				ByteBuffer batch = pending;
+				pending = writing;
+				writing = batch;
+				batchSequence = pendingSequence;
+				busy = true;
+			}
+			writing.flip();
+			try {
+				while(writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				// Everything that arrived during the last fsync goes out with this one
+				channel.force(false);
+			} catch (IOException e) {
+				System.out.print(String.format("Problem writing to " + file.getAbsolutePath() + "\n"));
+				e.printStackTrace();
+			}
+			writing.clear();
+			LongSupplier compactor;
+			synchronized(lock) {
+				syncedSequence = batchSequence;
+				busy = false;
+				lock.notifyAll();
+				compactor = snapshotter;
+			}
+			try {
+				if(compactor != null && channel.size() > compactBytes) {
+					compact(compactor);
+				}
+			} catch (IOException e) {
+				System.out.print(String.format("Problem compacting " + file.getAbsolutePath() + "\n"));
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**        Takes a snapshot, then rewrites the journal without the events it covers.
+	 * @param  compactor as what takes the snapshot.
+	 * @throws IOException if the journal could not be rewritten.
+	 */
+	private void compact(LongSupplier compactor) throws IOException {
+		long covered = compactor.getAsLong();
+		if(covered < 0) {
+			return;
+		}
+		ByteBuffer contents = readAll(channel);
+		contents.position(HEADER_BYTES);
+		ByteBuffer kept = ByteBuffer.allocate(contents.limit());
+		kept.putInt(MAGIC).putInt(VERSION).putLong(covered);
+		int start = contents.position();
+		Event event;
+		while((event = next(contents)) != null) {
+			if(event.getSequence() > covered) {
+				ByteBuffer record = contents.duplicate();
+				record.position(start).limit(contents.position());
+				kept.put(record);
+			}
+			start = contents.position();
+		}
+		kept.flip();
+		File temp = new File(file.getPath() + ".tmp");
+		try(FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(kept.hasRemaining()) {
+				out.write(kept);
+			}
+			out.force(true);
+		}
+		synchronized(lock) {
+			channel.close();
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			channel.position(channel.size());
+		}
+	}
+
+	/**       Encodes an event.
+	 * @param buffer as the buffer to encode into, which has room for it.
+	 * @param sequence as the sequence number.
+	 * @param type as the type.
+	 * @param id as the id.
+	 * @param value as the value.
+	 * @param path as the UTF-8 path.
+	 */
+	private static void encode(ByteBuffer buffer, long sequence, Type type, int id, double value, byte[] path) {
+		int start = buffer.position();
+		buffer.putInt(RECORD_BYTES - 4 + path.length);
+		buffer.putLong(sequence);
+		buffer.put((byte) type.ordinal());
+		buffer.putInt(id);
+		buffer.putDouble(value);
+		buffer.putShort((short) path.length);
+		buffer.put(path);
+		buffer.putInt(crc(buffer.array(), start + 4, buffer.position() - start - 4));
+	}
+
+	/**       Decodes the next event, checking its CRC.
+	 * @param buffer as the buffer, positioned at the start of an event.
+	 * @return the event, or null if there are no more whole events.
+	 */
+	private static Event next(ByteBuffer buffer) {
+		int start = buffer.position();
+		if(buffer.remaining() < RECORD_BYTES) {
+			return null;
+		}
+		int length = buffer.getInt(start);
+		if(length < RECORD_BYTES - 4 || length > buffer.remaining() - 4) {
+			return null;
+		}
+		int body = start + 4;
+		int crcOffset = body + length - 4;
+		if(buffer.getInt(crcOffset) != crc(buffer.array(), buffer.arrayOffset() + body, length - 4)) {
+			return null;
+		}
+		long sequence = buffer.getLong(body);
+		int type = buffer.get(body + 8);
+		int id = buffer.getInt(body + 9);
+		double value = buffer.getDouble(body + 13);
+		int pathLength = buffer.getShort(body + 21);
+		if(type < 0 || type >= Type.values().length || pathLength < 0 || pathLength != length - (RECORD_BYTES - 4)) {
+			return null;
+		}
+		String path = (pathLength == 0) ? null
+				: new String(buffer.array(), buffer.arrayOffset() + body + 23, pathLength, StandardCharsets.UTF_8);
+		buffer.position(crcOffset + 4);
+		return new Event(sequence, Type.values()[type], id, value, path);
+	}
+
+	private static int crc(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**        Writes the header of a journal.
+	 * @param  channel as the channel of the journal.
+	 * @param  base as the sequence number before the first event.
+	 * @throws IOException if the header could not be written.
+	 */
+	private static void writeHeader(FileChannel channel, long base) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(VERSION).putLong(base).flip();
+		while(header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+
+	/**        Reads a whole file into a buffer.
+	 * @param  channel as the channel of the file.
+	 * @return the contents of the file.
+	 * @throws IOException if the file could not be read.
+	 */
+	private static ByteBuffer readAll(FileChannel channel) throws IOException {
+		ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+		while(contents.hasRemaining() && channel.read(contents, contents.position()) > 0) {
+		}
+		contents.flip();
+		return contents;
+	}
+
+}
@@ -0,0 +1,62 @@
+package library;
+
+import java.nio.file.Path;
+
+import java.util.Objects;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         A change to a file or directory in a library, as reported by a WatchService.
+ */
+public final class LibraryChange {
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         What happened to the path.
+	 */
+	public enum Kind {
+		CREATE,
+		DELETE,
+		MODIFY,
+		// Events were lost, so the whole library has to be checked
+		OVERFLOW
+	}
+
+	private final Kind kind;
+	private final Path path;
+
+	/**        Creates a LibraryChange.
+	 * @param  kind as what happened to the path.
+	 * @param  path as the absolute path that changed, or null for OVERFLOW.
+	 * @throws NullPointerException if kind is null, or path is null and kind is not OVERFLOW.
+	 */
+	public LibraryChange(Kind kind, Path path) {
+		Objects.requireNonNull(kind);
+		if(kind != Kind.OVERFLOW)
+			Objects.requireNonNull(path);
+		this.kind = kind;
+		this.path = path;
+	}
+
+	/**
+	 * @return what happened to the path.
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the absolute path that changed, or null for OVERFLOW.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + path;
+	}
+
+}
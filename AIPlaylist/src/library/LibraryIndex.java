@@ -0,0 +1,477 @@
+package library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import algorithms.MediaTypeRegistry;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         What the file system looked like when a library was last checked, saved next to its playlist.
+ *         Every directory of the library is kept with its modification time, and every media file with its size,
+ *         modification time, file key and ContentFingerprint, by its id in the LibraryStore.
+ *         A fingerprint is only trusted while the size and modification time it was taken with still hold,
+ *         and a table from fingerprint to id finds the media file that has some content in O(1).
+ *         Media files left out of the library as duplicates of another are kept by path, with the same checks,
+ *         so they are not read again every time their directory is listed.
+ *         Adding, removing or renaming an entry changes the modification time of the directory it is in,
+ *         so on startup only directories whose time changed have to be listed again.
+ */
+public final class LibraryIndex {
+
+	// Marks a file written by this class
+	private static final int MAGIC = 0x41495058;
+
+	private static final int VERSION = 3;
+
+	// Marks a directory that has to be listed again
+	public static final long STALE = Long.MIN_VALUE;
+
+	// A directory modified this recently may change again within the same tick of its clock, so it is not trusted
+	private static final long RACY_MILLIS = 2000;
+
+	// The folder of the library
+	private File folder;
+
+	// Whether or not the sub-directories of folder are in the library
+	private boolean subDirectories;
+
+	// The MediaTypeRegistry.fingerprint() of what counted as media when the library was scanned
+	private long mediaTypes;
+
+	// The LibraryStore.fingerprint() the file columns line up with
+	private long fingerprint;
+
+	// The modification time of each directory, by path
+	private final Map<String, Long> directories = new HashMap<String, Long>();
+
+	// The size, modification time, file key hash and fingerprint of each file, by id; 32 bytes a file,
+	// which with the content table is most of why a LibraryShard takes more than 64 bytes a file, as LibraryStore explains
+	private long[] fileSize = new long[16];
+	private long[] fileModified = new long[16];
+	private long[] fileKey = new long[16];
+	private long[] fileContent = new long[16];
+
+	// Open addressing table from a ContentFingerprint to id + 1; 0 is empty.
+	// The fingerprint of an entry is the one in fileContent, so it is not kept twice; entries are not removed,
+	// so an entry whose id has another fingerprint by now is passed over until the table is rebuilt
+	private int[] contentIds = new int[16];
+	private int contentUsed;
+
+	// The size, modification time and ContentFingerprint of each duplicate, by path
+	private final Map<String, long[]> duplicates = new HashMap<String, long[]>();
+
+	/**        Creates an empty LibraryIndex, which matches no library until it is filled in.
+	 * @param  folder as the folder of the library.
+	 * @param  subDirectories as whether or not the sub-directories of folder are in the library.
+	 * @throws NullPointerException if folder is null.
+	 */
+	public LibraryIndex(File folder, boolean subDirectories) {
+		Objects.requireNonNull(folder);
+		this.folder = folder.getAbsoluteFile();
+		this.subDirectories = subDirectories;
+		mediaTypes = MediaTypeRegistry.getDefault().fingerprint();
+	}
+
+	/**       Checks that this LibraryIndex describes a library, so it can be trusted.
+	 * @param folder as the folder of the library.
+	 * @param subDirectories as whether or not the sub-directories of folder are in the library.
+	 * @param library as the LibraryStore of the library.
+	 * @return true if this LibraryIndex was saved for the same folder, settings, media types and files.
+	 */
+	public boolean matches(File folder, boolean subDirectories, LibraryStore library) {
+		return this.folder.equals(folder.getAbsoluteFile()) && this.subDirectories == subDirectories
+				&& mediaTypes == MediaTypeRegistry.getDefault().fingerprint()
+				&& !directories.isEmpty() && fingerprint == library.fingerprint();
+	}
+
+	/**       Forgets everything but the duplicates, for before the library is scanned from scratch.
+	 *        Duplicates are kept so they need not be hashed again; they are checked against their attributes when found.
+	 * @param folder as the folder of the library.
+	 * @param subDirectories as whether or not the sub-directories of folder are in the library.
+	 */
+	public void clear(File folder, boolean subDirectories) {
+		this.folder = folder.getAbsoluteFile();
+		this.subDirectories = subDirectories;
+		mediaTypes = MediaTypeRegistry.getDefault().fingerprint();
+		fingerprint = 0;
+		directories.clear();
+	}
+
+	/**       Records the modification time of a directory.
+	 * @param directory as the path of the directory.
+	 * @param modified as the modification time in milliseconds, read before the directory was listed.
+	 */
+	public void putDirectory(String directory, long modified) {
+		if(System.currentTimeMillis() - modified < RACY_MILLIS) {
+			modified = STALE;
+		}
+		directories.put(directory, modified);
+	}
+
+	/**
+	 * @param  directory as the path of the directory.
+	 * @return whether or not the directory is in this LibraryIndex.
+	 */
+	public boolean containsDirectory(String directory) {
+		return directories.containsKey(directory);
+	}
+
+	/**       Removes directories and all of their sub-directories, in one pass however many there are.
+	 * @param removed as the paths of the directories.
+	 */
+	public void removeDirectories(Collection<String> removed) {
+		if(removed.isEmpty()) {
+			return;
+		}
+		Set<String> prefixes = new HashSet<String>();
+		for(String d : removed) {
+			prefixes.add(d.endsWith(File.separator) ? d : d + File.separator);
+			directories.remove(d);
+		}
+		removeUnder(directories.keySet().iterator(), prefixes);
+		removeUnder(duplicates.keySet().iterator(), prefixes);
+	}
+
+	/**       Removes the paths that are under any of some directories.
+	 * @param it as an Iterator over the paths.
+	 * @param prefixes as the paths of the directories, each ending with a separator.
+	 */
+	private static void removeUnder(Iterator<String> it, Set<String> prefixes) {
+		while(it.hasNext()) {
+			String d = it.next();
+			// Checks every ancestor of d, so the cost is the depth of d and not the number of removed directories
+			for(int i = d.indexOf(File.separatorChar); i != -1; i = d.indexOf(File.separatorChar, i + 1)) {
+				if(prefixes.contains(d.substring(0, i + 1))) {
+					it.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the paths of the directories and their modification times, or STALE.
+	 */
+	public List<Entry<String, Long>> getDirectories() {
+		return new ArrayList<Entry<String, Long>>(directories.entrySet());
+	}
+
+	/**       Records the attributes of a file. Its ContentFingerprint is forgotten if the file changed.
+	 * @param id as the id of the file in the LibraryStore.
+	 * @param attributes as the attributes of the file.
+	 */
+	public void putFile(int id, BasicFileAttributes attributes) {
+		putFile(id, attributes, isUnchanged(id, attributes) ? fileContent[id] : ContentFingerprint.NONE);
+	}
+
+	/**       Records the attributes and the ContentFingerprint of a file.
+	 * @param id as the id of the file in the LibraryStore.
+	 * @param attributes as the attributes of the file.
+	 * @param content as the ContentFingerprint of the file, taken after the attributes were read.
+	 */
+	public void putFile(int id, BasicFileAttributes attributes, long content) {
+		if(id >= fileSize.length) {
+			int capacity = Math.max(fileSize.length*2, id + 1);
+			fileSize = Arrays.copyOf(fileSize, capacity);
+			fileModified = Arrays.copyOf(fileModified, capacity);
+			fileKey = Arrays.copyOf(fileKey, capacity);
+			fileContent = Arrays.copyOf(fileContent, capacity);
+		}
+		fileSize[id] = attributes.size();
+		fileModified[id] = attributes.lastModifiedTime().toMillis();
+		fileKey[id] = keyHash(attributes.fileKey());
+		putContent(id, content);
+	}
+
+	/**       Records the ContentFingerprint of a file, whose attributes are already recorded.
+	 * @param id as the id of the file in the LibraryStore.
+	 * @param content as the ContentFingerprint, or ContentFingerprint.NONE if it is not known.
+	 */
+	public void putContent(int id, long content) {
+		if(id >= fileContent.length) {
+			return;
+		}
+		fileContent[id] = content;
+		if(content != ContentFingerprint.NONE) {
+			if((contentUsed + 1)*2 > contentIds.length) {
+				rehashContent(contentIds.length*2);
+			}
+			int slot = contentSlot(content);
+			if(contentIds[slot] == 0) {
+				contentUsed++;
+			}
+			contentIds[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * @param  id as the id of the file in the LibraryStore.
+	 * @return the ContentFingerprint of the file, or ContentFingerprint.NONE if it is not known.
+	 */
+	public long getContent(int id) {
+		return id < fileContent.length ? fileContent[id] : ContentFingerprint.NONE;
+	}
+
+	/**        Finds the file with some content. The caller has to check that the id is still in the LibraryStore.
+	 * @param  content as a ContentFingerprint.
+	 * @return the id of the file that was last recorded with content, or -1 if there is none.
+	 */
+	public int idOfContent(long content) {
+		if(content == ContentFingerprint.NONE) {
+			return -1;
+		}
+		return contentIds[contentSlot(content)] - 1;
+	}
+
+	/**
+	 * @param  content as a ContentFingerprint.
+	 * @return the slot of the content table that holds content, or the empty one where it would go.
+	 */
+	private int contentSlot(long content) {
+		int mask = contentIds.length - 1;
+		int slot = (int) (content ^ (content >>> 32)) & mask;
+		while(contentIds[slot] != 0 && fileContent[contentIds[slot] - 1] != content) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**       Rebuilds the content table from the fingerprint column, which drops the entries of files that changed.
+	 * @param capacity as the least number of slots, a power of 2.
+	 */
+	private void rehashContent(int capacity) {
+		int live = 0;
+		for(long content : fileContent) {
+			live += (content != ContentFingerprint.NONE) ? 1 : 0;
+		}
+		while((live + 1)*2 > capacity) {
+			capacity *= 2;
+		}
+		contentIds = new int[capacity];
+		contentUsed = 0;
+		for(int id = 0; id < fileContent.length; id++) {
+			if(fileContent[id] != ContentFingerprint.NONE) {
+				int slot = contentSlot(fileContent[id]);
+				if(contentIds[slot] == 0) {
+					contentUsed++;
+				}
+				contentIds[slot] = id + 1;
+			}
+		}
+	}
+
+	/**        Records a media file that was left out of the library as a duplicate of another.
+	 * @param  path as the path of the file.
+	 * @param  size as the size of the file.
+	 * @param  modified as the modification time of the file in milliseconds.
+	 * @param  content as the ContentFingerprint of the file.
+	 * @return true if the file was not recorded as it is already.
+	 */
+	public boolean putDuplicate(String path, long size, long modified, long content) {
+		long[] entry = {size, modified, content};
+		return !Arrays.equals(duplicates.put(path, entry), entry);
+	}
+
+	/**        Gets the ContentFingerprint of a duplicate, if it has not changed since it was recorded.
+	 * @param  path as the path of the file.
+	 * @param  attributes as the attributes the file has now.
+	 * @return the ContentFingerprint, or ContentFingerprint.NONE if the file is not a recorded duplicate or changed.
+	 */
+	public long getDuplicate(String path, BasicFileAttributes attributes) {
+		long[] entry = duplicates.get(path);
+		if(entry == null || entry[0] != attributes.size() || entry[1] != attributes.lastModifiedTime().toMillis()) {
+			return ContentFingerprint.NONE;
+		}
+		return entry[2];
+	}
+
+	/**
+	 * @param  content as a ContentFingerprint.
+	 * @return the paths of the duplicates recorded with content. This is O(d) for d duplicates.
+	 */
+	public List<String> getDuplicates(long content) {
+		List<String> paths = new ArrayList<String>();
+		for(Entry<String, long[]> e : duplicates.entrySet()) {
+			if(e.getValue()[2] == content) {
+				paths.add(e.getKey());
+			}
+		}
+		return paths;
+	}
+
+	/**       Forgets a duplicate, like when it was deleted or taken into the library.
+	 * @param path as the path of the file.
+	 */
+	public void removeDuplicate(String path) {
+		duplicates.remove(path);
+	}
+
+	/**       Checks whether a file still has the attributes it was recorded with.
+	 * @param id as the id of the file in the LibraryStore.
+	 * @param attributes as the attributes the file has now.
+	 * @return true if the size, modification time and file key are the same.
+	 */
+	public boolean isUnchanged(int id, BasicFileAttributes attributes) {
+		return id < fileSize.length && fileSize[id] == attributes.size()
+				&& fileModified[id] == attributes.lastModifiedTime().toMillis()
+				&& fileKey[id] == keyHash(attributes.fileKey());
+	}
+
+	/**
+	 * @param  id as the id of the file in the LibraryStore.
+	 * @return the size of the file when it was recorded.
+	 */
+	public long getSize(int id) {
+		return id < fileSize.length ? fileSize[id] : 0;
+	}
+
+	/**
+	 * @param  id as the id of the file in the LibraryStore.
+	 * @return the modification time of the file in milliseconds when it was recorded.
+	 */
+	public long getModified(int id) {
+		return id < fileModified.length ? fileModified[id] : 0;
+	}
+
+	/**        Writes this LibraryIndex to a file. The old file is only replaced once the new one is complete.
+	 * @param  file as the file to write to.
+	 * @param  library as the LibraryStore the file columns line up with.
+	 * @throws IOException if the file could not be written.
+	 */
+	public void save(File file, LibraryStore library) throws IOException {
+		fingerprint = library.fingerprint();
+		int n = library.size();
+		File temp = new File(file.getPath() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(folder.getPath());
+			out.writeBoolean(subDirectories);
+			out.writeLong(mediaTypes);
+			out.writeLong(fingerprint);
+			out.writeInt(directories.size());
+			for(Entry<String, Long> e : directories.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue());
+			}
+			out.writeInt(n);
+			writeColumn(out, fileSize, n);
+			writeColumn(out, fileModified, n);
+			writeColumn(out, fileKey, n);
+			writeColumn(out, fileContent, n);
+			out.writeInt(duplicates.size());
+			for(Entry<String, long[]> e : duplicates.entrySet()) {
+				out.writeUTF(e.getKey());
+				for(long value : e.getValue()) {
+					out.writeLong(value);
+				}
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**        Reads a LibraryIndex from a file.
+	 * @param  file as the file written by save().
+	 * @return the LibraryIndex.
+	 * @throws IOException if the file could not be read or was not written by save().
+	 */
+	public static LibraryIndex load(File file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a library index: " + file.getAbsolutePath());
+			LibraryIndex index = new LibraryIndex(new File(in.readUTF()), in.readBoolean());
+			index.mediaTypes = in.readLong();
+			index.fingerprint = in.readLong();
+			int directoryCount = in.readInt();
+			if(directoryCount < 0)
+				throw new IOException("Corrupt library index: " + file.getAbsolutePath());
+			for(int d = 0; d < directoryCount; d++) {
+				index.directories.put(in.readUTF(), in.readLong());
+			}
+			int n = in.readInt();
+			if(n < 0)
+				throw new IOException("Corrupt library index: " + file.getAbsolutePath());
+			index.fileSize = readColumn(in, n);
+			index.fileModified = readColumn(in, n);
+			index.fileKey = readColumn(in, n);
+			index.fileContent = readColumn(in, n);
+			index.rehashContent(16);
+			int duplicateCount = in.readInt();
+			if(duplicateCount < 0)
+				throw new IOException("Corrupt library index: " + file.getAbsolutePath());
+			for(int d = 0; d < duplicateCount; d++) {
+				index.duplicates.put(in.readUTF(), new long[] {in.readLong(), in.readLong(), in.readLong()});
+			}
+			return index;
+		}
+	}
+
+	/**        Writes the first n values of a column in one go, padding with 0 if it is shorter.
+	 * @param  out as the stream to write to.
+	 * @param  column as the column.
+	 * @param  n as the number of values to write.
+	 * @throws IOException if the stream could not be written to.
+	 */
+	private static void writeColumn(DataOutputStream out, long[] column, int n) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8*n);
+		buffer.asLongBuffer().put(column, 0, Math.min(n, column.length));
+		out.write(buffer.array());
+	}
+
+	/**        Reads a column written by writeColumn() in one go.
+	 * @param  in as the stream to read from.
+	 * @param  n as the number of values to read.
+	 * @return the column, with at least one element.
+	 * @throws IOException if the stream could not be read from.
+	 */
+	private static long[] readColumn(DataInputStream in, int n) throws IOException {
+		byte[] bytes = new byte[8*n];
+		in.readFully(bytes);
+		long[] column = new long[Math.max(n, 1)];
+		ByteBuffer.wrap(bytes).asLongBuffer().get(column, 0, n);
+		return column;
+	}
+
+	/**       Hashes a file key, which is only a String on some platforms.
+	 * @param key as the file key, or null.
+	 * @return the hash, or 0 for null.
+	 */
+	private static long keyHash(Object key) {
+		if(key == null) {
+			return 0;
+		}
+		long h = 0xCBF29CE484222325L;
+		String s = key.toString();
+		for(int i = 0; i < s.length(); i++) {
+			h = (h ^ s.charAt(i))*0x100000001B3L;
+		}
+		return h;
+	}
+
+}
@@ -0,0 +1,860 @@
+package library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The media files of a library, each with a dense int id.
+ *         Paths are split into a trie of directories, where each directory is its parent and one path component,
+ *         and a pooled column of UTF-8 file names, so the long directory prefixes that tracks share are stored once.
+ *         Ids of removed files are reused by later additions, so ids stay dense
+ *         and can index primitive columns kept by other classes.
+ *         With a million media files a hundred to a directory this takes about 30 bytes of heap a file,
+ *         and a RandomPlaylist with its weights and the Snapshot draws read from about 61, which is under the 64 aimed for.
+ *         A LibraryShard misses that aim: its LibraryIndex adds about 40 bytes a file for the size, modification time,
+ *         file key and fingerprint that let a restart skip unchanged directories and find moved files without reading them,
+ *         and hierarchical draws add about 49 for the FolderTree, for about 100 bytes a file, or 150 with folders.
+ *         Those columns are kept as the time they save on every restart is worth more than the memory.
+ */
+public final class LibraryStore implements Serializable {
+
+	private static final long serialVersionUID = 6154950316014768352L;
+
+	// Marks an id that is not in use in the directory column
+	private static final int FREE = -1;
+
+	// Marks a slot of the hash index that was removed from
+	private static final int TOMBSTONE = -1;
+
+	// The last path component of each directory; roots keep their whole path
+	private transient ArrayList<String> directoryNames;
+
+	// The parent of each directory, or FREE for roots
+	private transient int[] directoryParent;
+
+	// Open addressing index from a parent and a component to directory + 1; 0 is empty
+	private transient int[] directoryIndex;
+
+	// The directory of each id, or FREE
+	private transient int[] directoryOf;
+
+	// The offset of each id's name in the name pool
+	private transient int[] nameOffset;
+
+	// Names as a var-int length followed by UTF-8 bytes
+	private transient byte[] namePool;
+	private transient int namePoolSize;
+
+	// Bytes in the name pool that no id points to any more
+	private transient int garbage;
+
+	// One more than the highest id ever handed out
+	private transient int size;
+
+	// The number of ids in use
+	private transient int count;
+
+	// Ids freed by remove(), reused by add()
+	private transient int[] freeIds;
+	private transient int freeCount;
+
+	// Open addressing index from a path to id + 1; 0 is empty
+	private transient int[] index;
+	private transient int indexUsed;
+
+	/** Creates an empty LibraryStore.
+	 *
+	 */
+	public LibraryStore() {
+		this(16);
+	}
+
+	/**        Creates an empty LibraryStore.
+	 * @param  capacity as the number of files to allocate up front.
+	 * @throws IllegalArgumentException if capacity is negative.
+	 */
+	public LibraryStore(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("capacity passed to LibraryStore() must not be negative");
+		init(Math.max(capacity, 1));
+	}
+
+	/**       Creates a copy of a LibraryStore, which shares nothing with it.
+	 * @param other as the LibraryStore to copy.
+	 */
+	private LibraryStore(LibraryStore other) {
+		directoryNames = new ArrayList<String>(other.directoryNames);
+		directoryParent = other.directoryParent.clone();
+		directoryIndex = other.directoryIndex.clone();
+		directoryOf = Arrays.copyOf(other.directoryOf, Math.max(other.size, 1));
+		nameOffset = Arrays.copyOf(other.nameOffset, Math.max(other.size, 1));
+		namePool = Arrays.copyOf(other.namePool, other.namePoolSize);
+		namePoolSize = other.namePoolSize;
+		garbage = other.garbage;
+		size = other.size;
+		count = other.count;
+		freeIds = Arrays.copyOf(other.freeIds, Math.max(other.freeCount, 4));
+		freeCount = other.freeCount;
+		index = other.index.clone();
+		indexUsed = other.indexUsed;
+	}
+
+	/**        Copies this LibraryStore, so the copy can be read or written by another thread while this one changes.
+	 *         This is O(n) in array copies.
+	 * @return the copy.
+	 */
+	public LibraryStore copy() {
+		return new LibraryStore(this);
+	}
+
+	/**       Allocates the columns.
+	 * @param capacity as the number of files.
+	 */
+	private void init(int capacity) {
+		directoryNames = new ArrayList<String>();
+		directoryParent = new int[16];
+		directoryIndex = new int[32];
+		directoryOf = new int[capacity];
+		nameOffset = new int[capacity];
+		namePool = new byte[capacity*16];
+		freeIds = new int[4];
+		index = new int[indexCapacity(capacity)];
+		namePoolSize = garbage = size = count = freeCount = indexUsed = 0;
+	}
+
+	/**
+	 * @return the number of files in this LibraryStore.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return one more than the highest id ever handed out, so columns indexed by id need at least this many elements.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param  id as the id.
+	 * @return whether or not id belongs to a file in this LibraryStore.
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && id < size && directoryOf[id] != FREE;
+	}
+
+	/**        Adds a file.
+	 * @param  file as the file.
+	 * @return the id of the file, which is the existing id if it was already added.
+	 * @throws NullPointerException if file is null.
+	 * @throws IllegalArgumentException if file has no parent directory.
+	 */
+	public int add(File file) {
+		Objects.requireNonNull(file);
+		String directory = file.getParent();
+		if(directory == null)
+			throw new IllegalArgumentException("file passed to add() must have a parent directory");
+		byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+		int directoryId = directoryId(directory, true);
+		int hash = hash(directoryId, name);
+		int existing = find(directoryId, name, hash);
+		if(existing != FREE) {
+			return existing;
+		}
+		int id;
+		if(freeCount > 0) {
+			id = freeIds[--freeCount];
+		} else {
+			if(size == directoryOf.length) {
+				int capacity = directoryOf.length*2;
+				directoryOf = Arrays.copyOf(directoryOf, capacity);
+				nameOffset = Arrays.copyOf(nameOffset, capacity);
+			}
+			id = size++;
+		}
+		directoryOf[id] = directoryId;
+		nameOffset[id] = appendName(name);
+		count++;
+		insert(id, hash);
+		return id;
+	}
+
+	/**        Removes a file.
+	 * @param  file as the file.
+	 * @return the id the file had, or -1 if it was not in this LibraryStore.
+	 * @throws NullPointerException if file is null.
+	 */
+	public int remove(File file) {
+		int id = idOf(file);
+		if(id != FREE) {
+			remove(id);
+		}
+		return id;
+	}
+
+	/**        Removes a file by id. Its id will be handed out again.
+	 * @param  id as the id of the file.
+	 * @throws IllegalArgumentException if id does not belong to a file in this LibraryStore.
+	 */
+	public void remove(int id) {
+		if(!contains(id))
+			throw new IllegalArgumentException("id passed to remove() is not in use");
+		byte[] name = nameBytes(id);
+		int slot = slotOf(id, hash(directoryOf[id], name));
+		index[slot] = TOMBSTONE;
+		garbage += varIntLength(name.length) + name.length;
+		directoryOf[id] = FREE;
+		count--;
+		if(freeCount == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeIds.length*2);
+		}
+		freeIds[freeCount++] = id;
+		if(garbage > namePoolSize/2) {
+			compactNames();
+		}
+	}
+
+	/**        Moves a file to a new path, keeping its id, like when it was renamed or moved to another directory.
+	 * @param  id as the id of the file.
+	 * @param  file as the new path of the file.
+	 * @throws NullPointerException if file is null.
+	 * @throws IllegalArgumentException if id does not belong to a file in this LibraryStore, file has no parent directory
+	 *         or another file already has its path.
+	 */
+	public void move(int id, File file) {
+		Objects.requireNonNull(file);
+		if(!contains(id))
+			throw new IllegalArgumentException("id passed to move() is not in use");
+		String directory = file.getParent();
+		if(directory == null)
+			throw new IllegalArgumentException("file passed to move() must have a parent directory");
+		byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+		int directoryId = directoryId(directory, true);
+		int hash = hash(directoryId, name);
+		int existing = find(directoryId, name, hash);
+		if(existing == id) {
+			return;
+		}
+		if(existing != FREE)
+			throw new IllegalArgumentException("file passed to move() is already in the LibraryStore");
+		byte[] oldName = nameBytes(id);
+		index[slotOf(id, hash(directoryOf[id], oldName))] = TOMBSTONE;
+		garbage += varIntLength(oldName.length) + oldName.length;
+		directoryOf[id] = directoryId;
+		nameOffset[id] = appendName(name);
+		insert(id, hash);
+		if(garbage > namePoolSize/2) {
+			compactNames();
+		}
+	}
+
+	/**        Gets the id of a file.
+	 * @param  file as the file.
+	 * @return the id of the file, or -1 if it is not in this LibraryStore.
+	 * @throws NullPointerException if file is null.
+	 */
+	public int idOf(File file) {
+		Objects.requireNonNull(file);
+		String directory = file.getParent();
+		if(directory == null) {
+			return FREE;
+		}
+		int directoryId = directoryId(directory, false);
+		if(directoryId == FREE) {
+			return FREE;
+		}
+		byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+		return find(directoryId, name, hash(directoryId, name));
+	}
+
+	/**        Gets the path of a file.
+	 * @param  id as the id of the file.
+	 * @return the absolute path of the file.
+	 * @throws IllegalArgumentException if id does not belong to a file in this LibraryStore.
+	 */
+	public String getPath(int id) {
+		if(!contains(id))
+			throw new IllegalArgumentException("id passed to getPath() is not in use");
+		StringBuilder path = new StringBuilder();
+		appendDirectory(path, directoryOf[id]);
+		// Only a root directory ends with a separator
+		if(path.charAt(path.length() - 1) != File.separatorChar) {
+			path.append(File.separatorChar);
+		}
+		return path.append(new String(nameBytes(id), StandardCharsets.UTF_8)).toString();
+	}
+
+	/**        Gets a file.
+	 * @param  id as the id of the file.
+	 * @return the file.
+	 * @throws IllegalArgumentException if id does not belong to a file in this LibraryStore.
+	 */
+	public File getFile(int id) {
+		return new File(getPath(id));
+	}
+
+	/**        Gets the name of a file.
+	 * @param  id as the id of the file.
+	 * @return the name of the file, without its directory.
+	 * @throws IllegalArgumentException if id does not belong to a file in this LibraryStore.
+	 */
+	public String getName(int id) {
+		if(!contains(id))
+			throw new IllegalArgumentException("id passed to getName() is not in use");
+		return new String(nameBytes(id), StandardCharsets.UTF_8);
+	}
+
+	/**       Passes every id in use to consumer, in increasing order.
+	 * @param consumer as the consumer of the ids.
+	 */
+	public void forEach(IntConsumer consumer) {
+		for(int id = 0; id < size; id++) {
+			if(directoryOf[id] != FREE) {
+				consumer.accept(id);
+			}
+		}
+	}
+
+	/** Shrinks the columns to what is in use, for after a library has been loaded or scanned.
+	 *
+	 */
+	public void trimToSize() {
+		directoryOf = Arrays.copyOf(directoryOf, Math.max(size, 1));
+		nameOffset = Arrays.copyOf(nameOffset, Math.max(size, 1));
+		if(garbage > 0) {
+			compactNames();
+		}
+		namePool = Arrays.copyOf(namePool, Math.max(namePoolSize, 1));
+		rehash(indexCapacity(count));
+	}
+
+	/**        Gets the directory a file is in.
+	 * @param  id as the id of the file.
+	 * @return the id of the directory.
+	 * @throws IllegalArgumentException if id does not belong to a file in this LibraryStore.
+	 */
+	public int directoryOf(int id) {
+		if(!contains(id))
+			throw new IllegalArgumentException("id " + id + " is not in the LibraryStore");
+		return directoryOf[id];
+	}
+
+	/**
+	 * @return the number of directories, which is one more than the highest directory id, as directories are never removed.
+	 */
+	public int directoryCount() {
+		return directoryNames.size();
+	}
+
+	/**        Gets the parent of a directory. Parents always have lower ids than their children, and ids are never reused.
+	 * @param  directory as the id of the directory.
+	 * @return the id of the parent directory, or -1 if directory is a root.
+	 * @throws IllegalArgumentException if directory is not the id of a directory.
+	 */
+	public int parentOf(int directory) {
+		if(directory < 0 || directory >= directoryNames.size())
+			throw new IllegalArgumentException("directory " + directory + " is not in the LibraryStore");
+		return directoryParent[directory];
+	}
+
+	/**
+	 * @param  directory as the directory.
+	 * @return the id of the directory, or -1 if no file in this LibraryStore is in it or under it.
+	 */
+	public int directoryIdOf(File directory) {
+		return directoryId(directory.getPath(), false);
+	}
+
+	/**       Passes the id of every file in a directory or any of its sub-directories to consumer, in increasing order.
+	 *        This is O(n), so it is meant for when a whole directory goes away.
+	 * @param directory as the directory.
+	 * @param consumer as the consumer of the ids.
+	 * @throws NullPointerException if directory is null.
+	 */
+	public void forEachUnder(File directory, IntConsumer consumer) {
+		Objects.requireNonNull(directory);
+		forEachIn(Collections.singleton(directory), true, consumer);
+	}
+
+	/**       Passes the id of every file in any of the directories to consumer, in increasing order.
+	 *        All the directories are handled in one O(n) pass, however many there are.
+	 * @param directories as the directories.
+	 * @param subDirectories as whether or not files in the sub-directories of directories are passed too.
+	 * @param consumer as the consumer of the ids.
+	 * @throws NullPointerException if directories or consumer is null.
+	 */
+	public void forEachIn(Collection<File> directories, boolean subDirectories, IntConsumer consumer) {
+		Objects.requireNonNull(directories);
+		Objects.requireNonNull(consumer);
+		boolean[] in = new boolean[directoryNames.size()];
+		boolean any = false;
+		for(File directory : directories) {
+			int d = directoryId(directory.getPath(), false);
+			if(d != FREE) {
+				in[d] = true;
+				any = true;
+			}
+		}
+		if(!any) {
+			return;
+		}
+		if(subDirectories) {
+			// Parents always have lower ids than their children, so one pass marks the whole subtree
+			for(int d = 0; d < in.length; d++) {
+				in[d] |= directoryParent[d] != FREE && in[directoryParent[d]];
+			}
+		}
+		for(int id = 0; id < size; id++) {
+			if(directoryOf[id] != FREE && in[directoryOf[id]]) {
+				consumer.accept(id);
+			}
+		}
+	}
+
+	/**       Gets a hash of the paths and ids in this LibraryStore, so data kept by id elsewhere can be checked against it.
+	 *        It survives serialization, and changes when a file is added or removed.
+	 * @return the hash.
+	 */
+	public long fingerprint() {
+		long h = 0xCBF29CE484222325L;
+		h = (h ^ size)*0x100000001B3L;
+		for(int d = 0; d < directoryNames.size(); d++) {
+			h = (h ^ directoryParent[d])*0x100000001B3L;
+			h = (h ^ directoryNames.get(d).hashCode())*0x100000001B3L;
+		}
+		for(int id = 0; id < size; id++) {
+			h = (h ^ directoryOf[id])*0x100000001B3L;
+			if(directoryOf[id] != FREE) {
+				h = (h ^ hashOf(id))*0x100000001B3L;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * @return an estimate of the bytes of heap used by this LibraryStore.
+	 */
+	public long estimateHeapBytes() {
+		long bytes = 4L*directoryOf.length + 4L*nameOffset.length + namePool.length + 4L*index.length + 4L*freeIds.length;
+		bytes += 4L*directoryParent.length + 4L*directoryIndex.length;
+		for(String d : directoryNames) {
+			// The reference and the String
+			bytes += 8 + 40 + d.length();
+		}
+		return bytes;
+	}
+
+	/**       Gets the id of a directory, adding it and its parents to the trie if create is true.
+	 * @param directory as the path of the directory.
+	 * @param create as whether or not to add the directory if it is new.
+	 * @return the id of the directory, or FREE if it is new and create is false.
+	 */
+	private int directoryId(String directory, boolean create) {
+		int separator = directory.lastIndexOf(File.separatorChar);
+		int parent = FREE;
+		String name = directory;
+		// A separator at the end or the start of a root like / or C:\ is part of the root
+		if(separator > 0 && separator < directory.length() - 1) {
+			String parentPath = directory.substring(0, separator);
+			if(parentPath.indexOf(File.separatorChar) == -1) {
+				parentPath = directory.substring(0, separator + 1);
+			}
+			parent = directoryId(parentPath, create);
+			if(parent == FREE) {
+				return FREE;
+			}
+			name = directory.substring(separator + 1);
+		} else if(separator == 0 && directory.length() > 1) {
+			parent = directoryId(directory.substring(0, 1), create);
+			if(parent == FREE) {
+				return FREE;
+			}
+			name = directory.substring(1);
+		}
+		int mask = directoryIndex.length - 1;
+		int slot = directoryHash(parent, name) & mask;
+		while(directoryIndex[slot] != 0) {
+			int d = directoryIndex[slot] - 1;
+			if(directoryParent[d] == parent && directoryNames.get(d).equals(name)) {
+				return d;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if(!create) {
+			return FREE;
+		}
+		return addDirectory(parent, name);
+	}
+
+	/**       Adds a directory to the trie.
+	 * @param parent as the id of the parent directory, or FREE for a root.
+	 * @param name as the last path component of the directory, or the whole path of a root.
+	 * @return the id of the directory.
+	 */
+	private int addDirectory(int parent, String name) {
+		int d = directoryNames.size();
+		directoryNames.add(name);
+		if(d == directoryParent.length) {
+			directoryParent = Arrays.copyOf(directoryParent, d*2);
+		}
+		directoryParent[d] = parent;
+		if((d + 1)*2 > directoryIndex.length) {
+			directoryIndex = new int[directoryIndex.length*2];
+			for(int i = 0; i < d; i++) {
+				insertDirectory(i);
+			}
+		}
+		insertDirectory(d);
+		return d;
+	}
+
+	/**       Inserts a directory into the directory index.
+	 * @param d as the id of the directory.
+	 */
+	private void insertDirectory(int d) {
+		int mask = directoryIndex.length - 1;
+		int slot = directoryHash(directoryParent[d], directoryNames.get(d)) & mask;
+		while(directoryIndex[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		directoryIndex[slot] = d + 1;
+	}
+
+	/**       Appends the path of a directory.
+	 * @param path as the StringBuilder to append to.
+	 * @param d as the id of the directory.
+	 */
+	private void appendDirectory(StringBuilder path, int d) {
+		int parent = directoryParent[d];
+		if(parent != FREE) {
+			appendDirectory(path, parent);
+			if(path.charAt(path.length() - 1) != File.separatorChar) {
+				path.append(File.separatorChar);
+			}
+		}
+		path.append(directoryNames.get(d));
+	}
+
+	private static int directoryHash(int parent, String name) {
+		int h = (parent*0x9E3779B9) ^ name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**       Finds the id of a name in a directory.
+	 * @param directoryId as the id of the directory.
+	 * @param name as the UTF-8 name.
+	 * @param hash as the hash of the directory and the name.
+	 * @return the id, or FREE if it is not in this LibraryStore.
+	 */
+	private int find(int directoryId, byte[] name, int hash) {
+		int mask = index.length - 1;
+		for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int entry = index[slot];
+			if(entry == 0) {
+				return FREE;
+			}
+			if(entry != TOMBSTONE) {
+				int id = entry - 1;
+				if(directoryOf[id] == directoryId && nameEquals(id, name)) {
+					return id;
+				}
+			}
+		}
+	}
+
+	/**       Finds the slot of the index that holds an id.
+	 * @param id as the id.
+	 * @param hash as the hash of the id's directory and name.
+	 * @return the slot.
+	 */
+	private int slotOf(int id, int hash) {
+		int mask = index.length - 1;
+		for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			if(index[slot] == id + 1) {
+				return slot;
+			}
+		}
+	}
+
+	/**       Inserts an id into the index, rebuilding it when it gets three quarters full.
+	 *        The id must already be in the columns and counted.
+	 * @param id as the id.
+	 * @param hash as the hash of the id's directory and name.
+	 */
+	private void insert(int id, int hash) {
+		if((indexUsed + 1)*4 > index.length*3) {
+			// The rebuild goes through the columns, so it puts the id in as well
+			rehash(indexCapacity(count));
+			return;
+		}
+		int mask = index.length - 1;
+		int slot = hash & mask;
+		while(index[slot] != 0 && index[slot] != TOMBSTONE) {
+			slot = (slot + 1) & mask;
+		}
+		if(index[slot] == 0) {
+			indexUsed++;
+		}
+		index[slot] = id + 1;
+	}
+
+	/**       Gets the number of slots the index needs so that it is at most half full.
+	 * @param count as the number of ids in the index.
+	 * @return a power of 2.
+	 */
+	private static int indexCapacity(int count) {
+		return Integer.highestOneBit(Math.max(count, 1)*2 - 1)*2;
+	}
+
+	/**       Rebuilds the index, which also drops the tombstones.
+	 * @param capacity as the new number of slots, a power of 2.
+	 */
+	private void rehash(int capacity) {
+		index = new int[capacity];
+		indexUsed = 0;
+		int mask = capacity - 1;
+		for(int id = 0; id < size; id++) {
+			if(directoryOf[id] != FREE) {
+				int slot = hashOf(id) & mask;
+				while(index[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				index[slot] = id + 1;
+				indexUsed++;
+			}
+		}
+	}
+
+	/**       Appends a name to the name pool.
+	 * @param name as the UTF-8 name.
+	 * @return the offset of the name.
+	 */
+	private int appendName(byte[] name) {
+		int needed = varIntLength(name.length) + name.length;
+		if(namePoolSize + needed > namePool.length) {
+			namePool = Arrays.copyOf(namePool, Math.max(namePool.length*2, namePoolSize + needed));
+		}
+		int offset = namePoolSize;
+		int length = name.length;
+		while((length & ~0x7F) != 0) {
+			namePool[namePoolSize++] = (byte) ((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		namePool[namePoolSize++] = (byte) length;
+		System.arraycopy(name, 0, namePool, namePoolSize, name.length);
+		namePoolSize += name.length;
+		return offset;
+	}
+
+	/** Rewrites the name pool without the names of removed files.
+	 *
+	 */
+	private void compactNames() {
+		byte[] old = namePool;
+		int[] offsets = nameOffset.clone();
+		namePool = new byte[Math.max(16, namePoolSize - garbage)];
+		namePoolSize = 0;
+		garbage = 0;
+		for(int id = 0; id < size; id++) {
+			if(directoryOf[id] != FREE) {
+				nameOffset[id] = appendName(readName(old, offsets[id]));
+			}
+		}
+	}
+
+	/**       Gets the UTF-8 name of an id.
+	 * @param id as the id.
+	 * @return the name.
+	 */
+	private byte[] nameBytes(int id) {
+		return readName(namePool, nameOffset[id]);
+	}
+
+	/**       Reads a name from a pool.
+	 * @param pool as the name pool.
+	 * @param offset as the offset of the name.
+	 * @return the UTF-8 name.
+	 */
+	private static byte[] readName(byte[] pool, int offset) {
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = pool[offset++];
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		return Arrays.copyOfRange(pool, offset, offset + length);
+	}
+
+	/**       Compares the name of an id with a name, without copying it out of the pool.
+	 * @param id as the id.
+	 * @param name as the UTF-8 name.
+	 * @return true if they are the same.
+	 */
+	private boolean nameEquals(int id, byte[] name) {
+		int offset = nameOffset[id];
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = namePool[offset++];
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		if(length != name.length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(namePool[offset + i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(int directoryId, byte[] name) {
+		int h = directoryId*0x9E3779B9;
+		for(byte b : name) {
+			h = (h ^ b)*0x01000193;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**       Hashes the directory and name of an id like hash() does, without copying the name out of the pool.
+	 * @param id as the id.
+	 * @return the hash.
+	 */
+	private int hashOf(int id) {
+		int offset = nameOffset[id];
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = namePool[offset++];
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		int h = directoryOf[id]*0x9E3779B9;
+		for(int i = offset; i < offset + length; i++) {
+			h = (h ^ namePool[i])*0x01000193;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int varIntLength(int value) {
+		int length = 1;
+		while((value & ~0x7F) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		out.writeInt(directoryNames.size());
+		for(int d = 0; d < directoryNames.size(); d++) {
+			out.writeInt(directoryParent[d]);
+			out.writeUTF(directoryNames.get(d));
+		}
+		// Whole arrays are copied in bulk by the streams, which is much faster than a value at a time
+		out.writeObject(Arrays.copyOf(directoryOf, size));
+		out.writeObject(Arrays.copyOf(nameOffset, size));
+		out.writeObject(Arrays.copyOf(namePool, namePoolSize));
+		out.writeInt(garbage);
+		// The index only holds ids, so it is written as is and does not have to be rebuilt when read
+		out.writeObject(index);
+		out.writeInt(indexUsed);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int n = in.readInt();
+		int directoryCount = in.readInt();
+		if(n < 0 || directoryCount < 0)
+			throw new IOException("Corrupt LibraryStore");
+		init(Math.max(n, 1));
+		for(int d = 0; d < directoryCount; d++) {
+			int parent = in.readInt();
+			// Parents are always added before their children
+			if(parent < FREE || parent >= d)
+				throw new IOException("Corrupt LibraryStore");
+			addDirectory(parent, in.readUTF());
+		}
+		int[] directories = (int[]) in.readObject();
+		int[] offsets = (int[]) in.readObject();
+		byte[] pool = (byte[]) in.readObject();
+		garbage = in.readInt();
+		if(directories.length != n || offsets.length != n || garbage < 0 || garbage > pool.length)
+			throw new IOException("Corrupt LibraryStore");
+		directoryOf = directories;
+		nameOffset = offsets;
+		namePool = pool;
+		namePoolSize = pool.length;
+		index = (int[]) in.readObject();
+		indexUsed = in.readInt();
+		for(int id = 0; id < n; id++) {
+			int directoryId = directoryOf[id];
+			if(directoryId == FREE) {
+				if(freeCount == freeIds.length) {
+					freeIds = Arrays.copyOf(freeIds, freeIds.length*2);
+				}
+				freeIds[freeCount++] = id;
+			} else {
+				if(directoryId < 0 || directoryId >= directoryCount || nameOffset[id] < 0 || nameOffset[id] >= namePoolSize)
+					throw new IOException("Corrupt LibraryStore");
+				count++;
+			}
+		}
+		size = n;
+		checkIndex();
+		if(garbage > 0) {
+			compactNames();
+		}
+	}
+
+	/**        Checks that an index that was read holds every id in use exactly once, and nothing else.
+	 * @throws IOException if it does not.
+	 */
+	private void checkIndex() throws IOException {
+		if(Integer.bitCount(index.length) != 1 || (indexUsed + 1)*4 > index.length*3 + 4)
+			throw new IOException("Corrupt LibraryStore");
+		int held = 0;
+		int used = 0;
+		boolean[] found = new boolean[size];
+		for(int entry : index) {
+			if(entry != 0) {
+				used++;
+			}
+			if(entry > 0) {
+				int id = entry - 1;
+				if(id >= size || directoryOf[id] == FREE || found[id])
+					throw new IOException("Corrupt LibraryStore");
+				found[id] = true;
+				held++;
+			} else if(entry != 0 && entry != TOMBSTONE) {
+				throw new IOException("Corrupt LibraryStore");
+			}
+		}
+		if(held != count || used != indexUsed)
+			throw new IOException("Corrupt LibraryStore");
+	}
+
+}
@@ -0,0 +1,425 @@
+package library;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import algorithms.WeightedSampler;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The weights of a library in a memory-mapped file, written in place as feedback arrives.
+ *         Writes land in the page cache straight away, so they survive the application being killed;
+ *         force() makes them survive the machine going down too.
+ *         The file is a 64 byte header followed by one double per id:
+ *         magic, version, generation, capacity, size, checksum, the sequence number of the last journal event applied,
+ *         and the baseline, scale and time of the decay of the weights, which are raw weights as kept by WeightedSampler.
+ *         Files written before the decay have zeros there, which reads as weights that are not decaying.
+ *         The generation is odd while a write is in progress, so a write torn by a crash is found on open.
+ *         A copy can be written to a snapshot file next to it, which is used if the file itself does not pass the checks.
+ */
+public final class WeightStore implements WeightedSampler.WeightListener, Closeable {
+
+	// Marks a file written by this class
+	private static final int MAGIC = 0x41495057;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 64;
+
+	// Offsets of the header fields
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int GENERATION_OFFSET = 8;
+	private static final int CAPACITY_OFFSET = 16;
+	private static final int SIZE_OFFSET = 20;
+	private static final int CHECKSUM_OFFSET = 24;
+	private static final int SEQUENCE_OFFSET = 32;
+	private static final int BASELINE_OFFSET = 40;
+	private static final int SCALE_OFFSET = 48;
+	private static final int DECAYED_AT_OFFSET = 56;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final File file;
+	private final File snapshotFile;
+	private final FileChannel channel;
+	private MappedByteBuffer map;
+
+	// The number of weights the file has room for
+	private int capacity;
+
+	// One more than the highest id ever written
+	private int size;
+
+	// Counts writes; odd while one is in progress
+	private long generation;
+
+	// The XOR of the bits of every weight, each rotated by its id so moved weights are noticed
+	private long checksum;
+
+	// The sequence number of the last journal event whose effect is in the weights
+	private long sequence;
+
+	// Whether or not the file holds weights that passed the checks when it was opened
+	private boolean valid;
+
+	// The decay of the weights, as in WeightedSampler
+	private double baseline;
+	private double scale = 1;
+	private long decayedAt;
+
+	/**        Opens a WeightStore, creating the file if it does not exist.
+	 *         A file with a bad header or checksum is restored from the snapshot, or started again from empty if there is none.
+	 * @param  file as the file.
+	 * @return the WeightStore.
+	 * @throws IOException if the file could not be opened or mapped.
+	 */
+	public static WeightStore open(File file) throws IOException {
+		return new WeightStore(file);
+	}
+
+	private WeightStore(File file) throws IOException {
+		this.file = file;
+		snapshotFile = new File(file.getPath() + ".snapshot");
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		long length = channel.size();
+		boolean ok = false;
+		if(length >= HEADER_BYTES) {
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+			capacity = map.getInt(CAPACITY_OFFSET);
+			size = map.getInt(SIZE_OFFSET);
+			generation = map.getLong(GENERATION_OFFSET);
+			sequence = map.getLong(SEQUENCE_OFFSET);
+			readDecay(map);
+			ok = map.getInt(MAGIC_OFFSET) == MAGIC && map.getInt(VERSION_OFFSET) == VERSION
+					&& capacity >= 0 && size >= 0 && size <= capacity && HEADER_BYTES + 8L*capacity <= length;
+			if(ok) {
+				checksum = computeChecksum();
+				if((generation & 1) != 0) {
+					// A write was torn; each weight is either its old or its new value, so the weights are kept
+					System.out.print(String.format("Recovering from an interrupted write to " + file.getAbsolutePath() + "\n"));
+					generation++;
+					map.putLong(CHECKSUM_OFFSET, checksum);
+					map.putLong(GENERATION_OFFSET, generation);
+				} else if(checksum != map.getLong(CHECKSUM_OFFSET)) {
+					System.out.print(String.format("Checksum mismatch in " + file.getAbsolutePath() + "\n"));
+					ok = false;
+				}
+			}
+		}
+		if(!ok) {
+			capacity = INITIAL_CAPACITY;
+			size = 0;
+			generation = 0;
+			checksum = 0;
+			sequence = 0;
+			baseline = 0;
+			scale = 1;
+			decayedAt = 0;
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 8L*capacity);
+			for(int slot = 0; slot < capacity; slot++) {
+				map.putDouble(offset(slot), 0);
+			}
+			writeHeader();
+			ok = restoreSnapshot();
+		}
+		valid = ok;
+	}
+
+	/**       Copies the weights from the snapshot file into the file, if there is a snapshot that passes the checks.
+	 * @return true if the weights were restored.
+	 */
+	private boolean restoreSnapshot() {
+		if(!snapshotFile.canRead()) {
+			return false;
+		}
+		ByteBuffer snapshot;
+		try {
+			snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+		} catch (IOException e) {
+			System.out.print(String.format("Problem reading from " + snapshotFile.getAbsolutePath() + "\n"));
+			e.printStackTrace();
+			return false;
+		}
+		if(snapshot.limit() < HEADER_BYTES || snapshot.getInt(MAGIC_OFFSET) != MAGIC || snapshot.getInt(VERSION_OFFSET) != VERSION) {
+			return false;
+		}
+		int n = snapshot.getInt(SIZE_OFFSET);
+		if(n < 0 || HEADER_BYTES + 8L*n > snapshot.limit()) {
+			return false;
+		}
+		long sum = 0;
+		for(int slot = 0; slot < n; slot++) {
+			sum ^= Long.rotateLeft(Double.doubleToRawLongBits(snapshot.getDouble(offset(slot))), slot);
+		}
+		if(sum != snapshot.getLong(CHECKSUM_OFFSET)) {
+			System.out.print(String.format("Checksum mismatch in " + snapshotFile.getAbsolutePath() + "\n"));
+			return false;
+		}
+		ensureCapacity(n);
+		beginWrite();
+		for(int slot = 0; slot < n; slot++) {
+			map.putDouble(offset(slot), snapshot.getDouble(offset(slot)));
+		}
+		size = n;
+		checksum = sum;
+		sequence = snapshot.getLong(SEQUENCE_OFFSET);
+		readDecay(snapshot);
+		endWrite();
+		System.out.print(String.format("Restored weights from " + snapshotFile.getAbsolutePath() + "\n"));
+		return true;
+	}
+
+	/**       Reads the decay out of a header, checking it as the checksum does not cover it.
+	 * @param header as the header.
+	 */
+	private void readDecay(ByteBuffer header) {
+		baseline = header.getDouble(BASELINE_OFFSET);
+		scale = header.getDouble(SCALE_OFFSET);
+		decayedAt = header.getLong(DECAYED_AT_OFFSET);
+		if(!(scale > 0 && scale <= 1) || !(baseline >= 0) || Double.isInfinite(baseline)) {
+			baseline = 0;
+			scale = 1;
+			decayedAt = 0;
+		}
+	}
+
+	/**
+	 * @return whether or not the file holds weights that passed the checks when it was opened.
+	 */
+	public synchronized boolean isValid() {
+		return valid;
+	}
+
+	/** Sets every weight to 0 and marks the file as not valid, for when its weights belong to a playlist that is gone.
+	 *  The file is kept, as a mapped file can not be deleted on every platform.
+	 */
+	public synchronized void clear() {
+		beginWrite();
+		for(int slot = 0; slot < capacity; slot++) {
+			map.putDouble(offset(slot), 0);
+		}
+		size = 0;
+		checksum = 0;
+		baseline = 0;
+		scale = 1;
+		decayedAt = 0;
+		valid = false;
+		endWrite();
+		snapshotFile.delete();
+	}
+
+	/**
+	 * @return the sequence number of the last journal event whose effect is in the weights.
+	 */
+	public synchronized long getLastSequence() {
+		return sequence;
+	}
+
+	/**       Sets the sequence number of the journal event being applied.
+	 *        It is written with the next weight, so the two get to the file together.
+	 * @param sequence as the sequence number.
+	 */
+	public synchronized void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**        Writes a copy of the weights to the snapshot file and syncs it, replacing the old snapshot once it is complete.
+	 * @return the sequence number of the last journal event the snapshot covers.
+	 * @throws IOException if the snapshot could not be written.
+	 */
+	public synchronized long writeSnapshot() throws IOException {
+		ByteBuffer snapshot = ByteBuffer.allocate(HEADER_BYTES + 8*size);
+		ByteBuffer weights = map.duplicate();
+		weights.position(0).limit(HEADER_BYTES + 8*size);
+		snapshot.put(weights);
+		snapshot.putInt(CAPACITY_OFFSET, size);
+		snapshot.flip();
+		File temp = new File(snapshotFile.getPath() + ".tmp");
+		try(FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(snapshot.hasRemaining()) {
+				out.write(snapshot);
+			}
+			out.force(true);
+		}
+		Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return sequence;
+	}
+
+	/**
+	 * @return one more than the highest id that has a weight.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of writes made to the file.
+	 */
+	public synchronized long getGeneration() {
+		return generation/2;
+	}
+
+	/**
+	 * @return the weight the weights fade towards.
+	 */
+	public synchronized double getBaseline() {
+		return baseline;
+	}
+
+	/**
+	 * @return how much of its raw weight each weight still has.
+	 */
+	public synchronized double getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return the time in milliseconds the weights were last decayed to, or 0 if they are not decaying.
+	 */
+	public synchronized long getDecayedAt() {
+		return decayedAt;
+	}
+
+	/**
+	 * @return a copy of the raw weights, by id.
+	 */
+	public synchronized double[] readWeights() {
+		double[] weights = new double[size];
+		for(int slot = 0; slot < size; slot++) {
+			weights[slot] = map.getDouble(offset(slot));
+		}
+		return weights;
+	}
+
+	@Override
+	public synchronized void weightChanged(int slot, double weight) {
+		ensureCapacity(slot + 1);
+		beginWrite();
+		int offset = offset(slot);
+		checksum ^= Long.rotateLeft(Double.doubleToRawLongBits(map.getDouble(offset)), slot);
+		map.putDouble(offset, weight);
+		checksum ^= Long.rotateLeft(Double.doubleToRawLongBits(weight), slot);
+		size = Math.max(size, slot + 1);
+		endWrite();
+	}
+
+	@Override
+	public synchronized void weightsChanged(WeightedSampler sampler) {
+		int n = sampler.size();
+		ensureCapacity(n);
+		beginWrite();
+		for(int slot = 0; slot < capacity; slot++) {
+			map.putDouble(offset(slot), slot < n ? sampler.getRawWeight(slot) : 0);
+		}
+		size = n;
+		checksum = computeChecksum();
+		setDecay(sampler);
+		endWrite();
+	}
+
+	@Override
+	public synchronized void decayChanged(WeightedSampler sampler) {
+		beginWrite();
+		setDecay(sampler);
+		endWrite();
+	}
+
+	/**       Takes the decay of the weights from a WeightedSampler, for the header to be written with.
+	 * @param sampler as the WeightedSampler.
+	 */
+	private void setDecay(WeightedSampler sampler) {
+		baseline = sampler.getBaseline();
+		scale = sampler.getScale();
+		decayedAt = sampler.getDecayedAt();
+	}
+
+	/**        Writes the weights out to the disk, so they survive the machine going down.
+	 *
+	 */
+	public synchronized void force() {
+		map.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		map.force();
+		channel.close();
+	}
+
+	/**       Grows the file so it has room for a number of weights.
+	 * @param slots as the number of weights.
+	 */
+	private void ensureCapacity(int slots) {
+		if(slots <= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(capacity*2, slots);
+		try {
+			// Mapping past the end of the file makes it longer, and the new weights start as 0
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 8L*newCapacity);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to grow " + file.getAbsolutePath(), e);
+		}
+		capacity = newCapacity;
+		map.putInt(CAPACITY_OFFSET, capacity);
+	}
+
+	/** Makes the generation odd, so a crash before endWrite() is noticed.
+	 *
+	 */
+	private void beginWrite() {
+		generation |= 1;
+		map.putLong(GENERATION_OFFSET, generation);
+	}
+
+	/** Writes the header for the weights that were written, and makes the generation even again.
+	 *
+	 */
+	private void endWrite() {
+		generation++;
+		writeHeader();
+	}
+
+	/** Writes every field of the header.
+	 *
+	 */
+	private void writeHeader() {
+		map.putInt(MAGIC_OFFSET, MAGIC);
+		map.putInt(VERSION_OFFSET, VERSION);
+		map.putInt(CAPACITY_OFFSET, capacity);
+		map.putInt(SIZE_OFFSET, size);
+		map.putLong(CHECKSUM_OFFSET, checksum);
+		map.putLong(SEQUENCE_OFFSET, sequence);
+		map.putDouble(BASELINE_OFFSET, baseline);
+		map.putDouble(SCALE_OFFSET, scale);
+		map.putLong(DECAYED_AT_OFFSET, decayedAt);
+		map.putLong(GENERATION_OFFSET, generation);
+	}
+
+	/**
+	 * @return the checksum of all the weights in the file.
+	 */
+	private long computeChecksum() {
+		long sum = 0;
+		for(int slot = 0; slot < capacity; slot++) {
+			sum ^= Long.rotateLeft(Double.doubleToRawLongBits(map.getDouble(offset(slot))), slot);
+		}
+		return sum;
+	}
+
+	private static int offset(int slot) {
+		return HEADER_BYTES + 8*slot;
+	}
+
+}
@@ -32,7 +32,11 @@ public final class AIPKeyListener implements KeyListener {
 	 */
 	@Override
 	public void keyReleased(KeyEvent e) {
-		if(e.getKeyCode() == KeyEvent.VK_COMMA) {
+		if(e.getKeyCode() == KeyEvent.VK_COMMA && e.isShiftDown()) {
+			playlist.badFolder();
+		} else if(e.getKeyCode() == KeyEvent.VK_PERIOD && e.isShiftDown()) {
+			playlist.goodFolder();
+		} else if(e.getKeyCode() == KeyEvent.VK_COMMA) {
 			playlist.bad();
 		} else if(e.getKeyCode() == KeyEvent.VK_PERIOD) {
 			playlist.good();
@@ -67,8 +67,12 @@ public final class AIPMediaPlayerEventListener implements MediaPlayerEventListen
 	public void positionChanged(MediaPlayer arg0, float arg1) {
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.co.caprica.vlcj.player.base.MediaPlayerEventListener#playing(uk.co.caprica.vlcj.player.base.MediaPlayer)
+	 */
 	@Override
 	public void playing(MediaPlayer arg0) {
+		playlist.mediaPlayerPlaying();
 	}
 
 	@Override
@@ -103,8 +107,12 @@ public final class AIPMediaPlayerEventListener implements MediaPlayerEventListen
 	public void forward(MediaPlayer arg0) {
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.co.caprica.vlcj.player.base.MediaPlayerEventListener#error(uk.co.caprica.vlcj.player.base.MediaPlayer)
+	 */
 	@Override
 	public void error(MediaPlayer arg0) {
+		playlist.mediaPlayerError();
 	}
 
 	@Override
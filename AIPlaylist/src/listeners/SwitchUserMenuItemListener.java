@@ -0,0 +1,33 @@
+package listeners;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import aIPlaylist.AIPlaylist;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         A custom ActionListener used to listen for a switch user event triggered from a JMenuItem.
+ */
+public final class SwitchUserMenuItemListener implements ActionListener {
+
+	// The playlist that contains the methods needed to be called when events are triggered
+	private AIPlaylist playlist;
+	
+	/**       Creates a custom ActionListener used to listen for a switch user event triggered from a JMenuItem.
+	 * @param playlist as the AIPlaylist that contains the JMenuItem used to switch users.
+	 */
+	public SwitchUserMenuItemListener(AIPlaylist playlist){
+		this.playlist = playlist;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		playlist.switchUserMenuItemEvent(e);
+	}
+	
+}
@@ -1,50 +1,162 @@
 package listeners;
 
+import java.io.File;
+import java.io.IOException;
+
 import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 
-import aIPlaylist.AIPlaylist;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import aIPlaylist.LibraryShard;
+
+import library.LibraryChange;
+
+import metrics.Counter;
+import metrics.MetricRegistry;
 
 /**
  * @author Alexander Johnston
  * @since  Copyright 2020
  *         A custom Thread used to poll for WatchService events triggered by FileSystem modification.
+ *         Events are collected until no new ones arrive for the quiet window, so a burst like copying an album
+ *         reaches the playlist as one batch of changes.
  */
 public class WatchSerciveThread extends Thread {
-	
+
+	// How long a burst can keep a batch open, as a multiple of the quiet window
+	private static final int MAX_QUIET_WINDOWS = 20;
+
+	private static final Counter WATCH_EVENTS = MetricRegistry.getDefault().counter("aiplaylist_watch_events_total", "WatchService events received");
+
 	// Reference for callback
-	final AIPlaylist playlist;
-	 
+	final LibraryShard playlist;
+
 	// WatchService to poll for events
 	final WatchService watchService;
-	
+
 	// Whether or not sub-directories get checked
-	final boolean subDirectories;
-	
+	volatile boolean subDirectories;
+
+	// How long to wait for more events before a batch is handed to the playlist
+	private volatile long quietWindowMillis;
+
+	// The directory each registered WatchKey watches
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<WatchKey, Path>();
+
+	// Changed when the registrations are swapped, so a batch from the old folder gets dropped
+	private volatile int generation = 0;
+
 	/**       Creates a custom Thread used to poll for WatchService events triggered by FileSystem modification.
-	 * @param playlist as the AIPlayist that contains the callback method for updating.
-	 * @param watchService as the watchService registered with the folder used by playlist.
+	 * @param playlist as the LibraryShard that contains the callback method for updating.
+	 * @param watchService as the watchService used to watch the folder of playlist.
 	 * @param subDirectories as whether or not subDirectories are checked.
+	 * @param quietWindowMillis as how long to wait for more events before a batch is handed to the playlist.
 	 */
-	public WatchSerciveThread(AIPlaylist playlist, WatchService watchService, boolean subDirectories){
+	public WatchSerciveThread(LibraryShard playlist, WatchService watchService, boolean subDirectories, long quietWindowMillis){
 		this.watchService = watchService;
 		this.subDirectories = subDirectories;
 		this.playlist = playlist;
+		this.quietWindowMillis = quietWindowMillis;
+	}
+
+	/**       Sets how long to wait for more events before a batch is handed to the playlist.
+	 * @param quietWindowMillis as the quiet window in milliseconds.
+	 */
+	public void setQuietWindow(long quietWindowMillis) {
+		this.quietWindowMillis = quietWindowMillis;
+	}
+
+	/**       Replaces what is being watched, without stopping this thread.
+	 * @param folder as the folder to watch.
+	 * @param subDirectories as whether or not to watch the sub-directories of folder too.
+	 */
+	public synchronized void register(File folder, boolean subDirectories) {
+		generation++;
+		for(WatchKey wk : keys.keySet()) {
+			wk.cancel();
+		}
+		keys.clear();
+		this.subDirectories = subDirectories;
+		registerDirectory(folder.toPath(), subDirectories);
+	}
+
+	/**       Registers a directory, and its sub-directories if required.
+	 * @param directory as the directory to watch.
+	 * @param recursive as whether or not to register the sub-directories.
+	 */
+	private void registerDirectory(Path directory, boolean recursive) {
+		try {
+			WatchKey wk = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			keys.put(wk, directory);
+		} catch (IOException | ClosedWatchServiceException e) {
+			System.out.print(String.format("Problem adding WatchService to " + directory + "\n"));
+			e.printStackTrace();
+			return;
+		}
+		if(recursive) {
+			try(DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, Files::isDirectory)) {
+				for(Path p : directoryStream) {
+					registerDirectory(p, true);
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				System.out.print(String.format("Problem adding WatchService to sub-directories of " + directory + "\n"));
+				e.printStackTrace();
+			}
+		}
 	}
 
 	@Override
 	public void run() {
-		while(!isInterrupted()) {
-			WatchKey wk = null;
+		// Runs on an executor thread, so the interrupt flag to check is the current thread's
+		while(!Thread.currentThread().isInterrupted()) {
 			try {
-				wk = watchService.take();
-				for (WatchEvent<?> event: wk.pollEvents()) {
-			        if(event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
-						playlist.checkPlaylistFiles();
-			        }
+				WatchKey wk = watchService.take();
+				int batchGeneration = generation;
+				Map<Path, LibraryChange.Kind> batch = new LinkedHashMap<Path, LibraryChange.Kind>();
+				boolean overflow = processKey(wk, batch);
+				long quiet = quietWindowMillis;
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quiet*MAX_QUIET_WINDOWS);
+				// Keeps collecting until the file system goes quiet
+				while((wk = watchService.poll(quiet, TimeUnit.MILLISECONDS)) != null) {
+					if(batchGeneration != generation) {
+						// The registrations were swapped, and the one who swapped them looks at what came before
+						batchGeneration = generation;
+						batch.clear();
+						overflow = false;
+					}
+					overflow |= processKey(wk, batch);
+					if(System.nanoTime() > deadline) {
+						break;
+					}
+				}
+				if(batchGeneration != generation) {
+					continue;
+				}
+				List<LibraryChange> changes = new ArrayList<LibraryChange>();
+				if(overflow) {
+					changes.add(new LibraryChange(LibraryChange.Kind.OVERFLOW, null));
+				} else {
+					for(Entry<Path, LibraryChange.Kind> e : batch.entrySet()) {
+						changes.add(new LibraryChange(e.getValue(), e.getKey()));
+					}
+				}
+				if(!changes.isEmpty()) {
+					playlist.checkPlaylistFiles(changes);
 				}
 			} catch (ClosedWatchServiceException e) {
 				Thread.currentThread().interrupt();
@@ -56,4 +168,49 @@ public class WatchSerciveThread extends Thread {
 		playlist.watchServiceThreadInterrupted();
 	}
 
-}
\ No newline at end of file
+	/**       Adds the events of a WatchKey to a batch, keeping one change per path.
+	 *        New directories are registered straight away when sub-directories are watched.
+	 * @param wk as the WatchKey that was signalled.
+	 * @param batch as the changes so far, by path.
+	 * @return true if events were lost.
+	 */
+	private boolean processKey(WatchKey wk, Map<Path, LibraryChange.Kind> batch) {
+		Path directory = keys.get(wk);
+		boolean overflow = false;
+		for(WatchEvent<?> event : wk.pollEvents()) {
+			WATCH_EVENTS.increment();
+			if(directory == null) {
+				// Cancelled by register()
+				continue;
+			}
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+				if(subDirectories && Files.isDirectory(path)) {
+					synchronized(this) {
+						registerDirectory(path, true);
+					}
+				}
+				batch.remove(path);
+				batch.put(path, LibraryChange.Kind.CREATE);
+			} else if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				batch.remove(path);
+				batch.put(path, LibraryChange.Kind.DELETE);
+			} else if(event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+				// A file that was just created is still new however often it is written to
+				if(!batch.containsKey(path)) {
+					batch.put(path, LibraryChange.Kind.MODIFY);
+				}
+			}
+		}
+		if(!wk.reset()) {
+			// The directory is gone
+			keys.remove(wk);
+		}
+		return overflow;
+	}
+
+}
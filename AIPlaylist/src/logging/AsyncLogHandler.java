@@ -0,0 +1,316 @@
+package logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         A Handler that writes to a file on its own thread, so the threads that log never wait on the disk.
+ *         Records go into a bounded lock-free ring buffer; when it is full they are dropped and counted instead of waiting.
+ *         The writer thread formats them, writes them in batches, and rotates the file when it passes a size limit,
+ *         keeping file.1 to file.n as the older files.
+ */
+public final class AsyncLogHandler extends Handler {
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         A bounded queue that many threads can add to and one thread takes from, without locks.
+	 *         Each slot has a sequence number that says whose turn it is to use it:
+	 *         a slot is free for the adder with ticket t when its sequence is t,
+	 *         and holds the record for the taker at t when its sequence is t + 1.
+	 */
+	private static final class Ring {
+
+		private final LogRecord[] records;
+		private final AtomicLongArray sequences;
+		private final int mask;
+
+		// The ticket of the next adder
+		private final AtomicLong tail = new AtomicLong();
+
+		// The ticket of the next record to take; only used by the taker
+		private long head = 0;
+
+		private Ring(int capacity) {
+			records = new LogRecord[Integer.highestOneBit(capacity*2 - 1)];
+			mask = records.length - 1;
+			sequences = new AtomicLongArray(records.length);
+			for(int slot = 0; slot < records.length; slot++) {
+				sequences.set(slot, slot);
+			}
+		}
+
+		/**       Adds a record, unless the ring is full.
+		 * @param  record as the record.
+		 * @return true if the record was added.
+		 */
+		private boolean offer(LogRecord record) {
+			long ticket;
+			while(true) {
+				ticket = tail.get();
+				long turn = sequences.get((int) ticket & mask) - ticket;
+				if(turn == 0) {
+					if(tail.compareAndSet(ticket, ticket + 1)) {
+						break;
+					}
+				} else if(turn < 0) {
+					// The taker has not freed the slot from the last time around
+					return false;
+				}
+			}
+			int slot = (int) ticket & mask;
+			records[slot] = record;
+			sequences.lazySet(slot, ticket + 1);
+			return true;
+		}
+
+		/**
+		 * @return whether or not there are no records to take.
+		 */
+		private boolean isEmpty() {
+			return sequences.get((int) head & mask) != head + 1;
+		}
+
+		/**
+		 * @return the oldest record, or null if there are none.
+		 */
+		private LogRecord poll() {
+			int slot = (int) head & mask;
+			if(sequences.get(slot) != head + 1) {
+				return null;
+			}
+			LogRecord record = records[slot];
+			records[slot] = null;
+			sequences.lazySet(slot, head + records.length);
+			head++;
+			return record;
+		}
+
+	}
+
+	// How long the writer sleeps when there is nothing to write, if nobody wakes it
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final File file;
+	private final long limitBytes;
+	private final int files;
+	private final Ring ring;
+
+	// Records that were dropped because the ring was full
+	private final LongAdder dropped = new LongAdder();
+
+	private final Thread writerThread;
+
+	// Whether or not the writer is asleep and has to be woken for new records
+	private volatile boolean idle = false;
+
+	private volatile boolean closed = false;
+
+	// Only used by the writer thread; characters are counted as bytes, which is close enough for a log
+	private Writer writer;
+	private long writtenBytes;
+
+	/**        Creates an AsyncLogHandler and starts its writer thread. Records are added to the end of the file.
+	 * @param  file as the file to write to.
+	 * @param  capacity as the number of records that can be waiting to be written.
+	 * @param  limitBytes as the size the file can grow to before it is rotated.
+	 * @param  files as the number of older files to keep.
+	 * @throws IOException if the file could not be opened.
+	 * @throws IllegalArgumentException if capacity or limitBytes is less than 1, or files is negative.
+	 */
+	public AsyncLogHandler(File file, int capacity, long limitBytes, int files) throws IOException {
+		if(capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity passed to AsyncLogHandler() must be between 1 and 2^30");
+		if(limitBytes < 1)
+			throw new IllegalArgumentException("limitBytes passed to AsyncLogHandler() must be at least 1");
+		if(files < 0)
+			throw new IllegalArgumentException("files passed to AsyncLogHandler() must not be negative");
+		this.file = file;
+		this.limitBytes = limitBytes;
+		this.files = files;
+		ring = new Ring(capacity);
+		setFormatter(new KeyValueFormatter());
+		open();
+		writerThread = new Thread(this::write, "Log writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * @return the number of records that were dropped because too many were waiting to be written.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if(closed || !isLoggable(record)) {
+			return;
+		}
+		if(!ring.offer(record)) {
+			dropped.increment();
+			return;
+		}
+		if(idle) {
+			LockSupport.unpark(writerThread);
+		}
+	}
+
+	/** Wakes the writer thread, so what is waiting gets written soon. Does not wait for it.
+	 *
+	 */
+	@Override
+	public void flush() {
+		LockSupport.unpark(writerThread);
+	}
+
+	/** Stops taking records, and waits a short time for the ones that are waiting to be written.
+	 *
+	 */
+	@Override
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** The loop of the writer thread: writes what is waiting, flushes, and sleeps until there is more.
+	 *
+	 */
+	private void write() {
+		long reportedDropped = 0;
+		while(true) {
+			boolean stopping = closed;
+			boolean wrote = false;
+			LogRecord record;
+			while((record = ring.poll()) != null) {
+				write(record);
+				wrote = true;
+			}
+			long droppedNow = dropped.sum();
+			if(droppedNow != reportedDropped) {
+				write(LogEvent.record(Level.WARNING, "dropped", "records", droppedNow - reportedDropped));
+				reportedDropped = droppedNow;
+				wrote = true;
+			}
+			if(wrote) {
+				try {
+					writer.flush();
+				} catch (IOException e) {
+					reportError(null, e, ErrorManager.FLUSH_FAILURE);
+				}
+			}
+			if(stopping) {
+				break;
+			}
+			if(!wrote) {
+				idle = true;
+				// An adder that saw idle as false before it was set has already added its record
+				if(ring.isEmpty()) {
+					LockSupport.parkNanos(this, IDLE_NANOS);
+				}
+				idle = false;
+			}
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**       Formats and writes a record.
+	 * @param record as the record.
+	 */
+	private void write(LogRecord record) {
+		String line;
+		try {
+			line = getFormatter().format(record);
+		} catch (RuntimeException e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		writeLine(line);
+	}
+
+	/**       Writes a line, rotating the file first if the line would take it past the limit.
+	 * @param line as the line.
+	 */
+	private void writeLine(String line) {
+		try {
+			if(writtenBytes > 0 && writtenBytes + line.length() > limitBytes) {
+				rotate();
+			}
+			writer.write(line);
+			writtenBytes += line.length();
+		} catch (IOException e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/** Opens the file to add to the end of it.
+	 *
+	 */
+	private void open() throws IOException {
+		writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 1 << 16);
+		writtenBytes = file.length();
+	}
+
+	/** Closes the file, shifts the older files up by one, dropping the oldest, and starts a new file.
+	 *
+	 */
+	private void rotate() throws IOException {
+		writer.close();
+		if(files == 0) {
+			Files.deleteIfExists(file.toPath());
+		} else {
+			Files.deleteIfExists(rotated(files).toPath());
+			for(int n = files - 1; n >= 1; n--) {
+				File older = rotated(n);
+				if(older.exists()) {
+					Files.move(older.toPath(), rotated(n + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			Files.move(file.toPath(), rotated(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		open();
+	}
+
+	/**
+	 * @param  n as how many rotations old the file is.
+	 * @return the file.
+	 */
+	private File rotated(int n) {
+		return new File(file.getPath() + "." + n);
+	}
+
+}
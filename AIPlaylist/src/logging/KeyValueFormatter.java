@@ -0,0 +1,74 @@
+package logging;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Formats a record as one line of key=value pairs: the time, level, thread and event,
+ *         then the key/value pairs given to LogEvent.log(), or the message as msg for any other record.
+ *         Values with spaces, quotes or an equals sign are quoted, so the lines can be split up again by a script.
+ */
+public final class KeyValueFormatter extends Formatter {
+
+	@Override
+	public String format(LogRecord record) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append("time=").append(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(record.getMillis())));
+		sb.append(" level=").append(record.getLevel().getName());
+		sb.append(" thread=").append(record.getThreadID());
+		Object[] parameters = record.getParameters();
+		if(LogEvent.isEvent(record)) {
+			sb.append(" event=");
+			appendValue(sb, record.getMessage());
+			for(int i = 0; i + 1 < parameters.length; i += 2) {
+				sb.append(' ').append(parameters[i]).append('=');
+				appendValue(sb, parameters[i + 1]);
+			}
+		} else {
+			sb.append(" msg=");
+			appendValue(sb, formatMessage(record));
+		}
+		if(record.getThrown() != null) {
+			sb.append(" thrown=");
+			appendValue(sb, record.getThrown());
+		}
+		return sb.append(System.lineSeparator()).toString();
+	}
+
+	/**       Adds a value, quoted if it would not be read back as one value.
+	 * @param sb as the StringBuilder to add to.
+	 * @param value as the value.
+	 */
+	private static void appendValue(StringBuilder sb, Object value) {
+		String s = String.valueOf(value);
+		boolean quote = s.isEmpty();
+		for(int i = 0; i < s.length() && !quote; i++) {
+			char c = s.charAt(i);
+			quote = c == ' ' || c == '"' || c == '=' || Character.isISOControl(c);
+		}
+		if(!quote) {
+			sb.append(s);
+			return;
+		}
+		sb.append('"');
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if(c == '\n') {
+				sb.append("\\n");
+			} else if(c == '\r') {
+				sb.append("\\r");
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+}
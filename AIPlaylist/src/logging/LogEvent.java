@@ -0,0 +1,70 @@
+package logging;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Logs structured events: a name and key/value pairs, formatted by the KeyValueFormatter on the writer thread.
+ *         Nothing is formatted by the thread that logs; the values are kept as they are until the record is written,
+ *         so they should be values that do not change, like numbers and Strings.
+ *         Callers should still check Logger.isLoggable() before working out values that are expensive to get.
+ */
+public final class LogEvent {
+
+	private LogEvent() {
+		throw new AssertionError("Constructor of LogEvent should never be called");
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         Marks the records made here, so their parameters are not taken for MessageFormat arguments.
+	 */
+	private static final class EventRecord extends LogRecord {
+
+		private static final long serialVersionUID = 1L;
+
+		private EventRecord(Level level, String event, Object[] keyValues) {
+			super(level, event);
+			setParameters(keyValues);
+		}
+
+	}
+
+	/**       Logs an event, if the Logger is logging at the level.
+	 * @param logger as the Logger.
+	 * @param level as the level.
+	 * @param event as the name of the event.
+	 * @param keyValues as the keys, each followed by its value.
+	 */
+	public static void log(Logger logger, Level level, String event, Object... keyValues) {
+		if(!logger.isLoggable(level)) {
+			return;
+		}
+		LogRecord record = record(level, event, keyValues);
+		record.setLoggerName(logger.getName());
+		logger.log(record);
+	}
+
+	/**       Makes the record for an event without logging it.
+	 * @param  level as the level.
+	 * @param  event as the name of the event.
+	 * @param  keyValues as the keys, each followed by its value.
+	 * @return the record.
+	 */
+	static LogRecord record(Level level, String event, Object... keyValues) {
+		return new EventRecord(level, event, keyValues);
+	}
+
+	/**
+	 * @param  record as a record.
+	 * @return whether or not the record was made by log().
+	 */
+	static boolean isEvent(LogRecord record) {
+		return record instanceof EventRecord && record.getParameters() != null;
+	}
+
+}
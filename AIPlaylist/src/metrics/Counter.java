@@ -0,0 +1,35 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         A count that only goes up, striped so threads that count at the same time do not fight over it.
+ */
+public final class Counter {
+
+	private final LongAdder count = new LongAdder();
+
+	/** Adds 1 to the count.
+	 *
+	 */
+	public void increment() {
+		count.increment();
+	}
+
+	/**       Adds to the count.
+	 * @param n as the number to add.
+	 */
+	public void add(long n) {
+		count.add(n);
+	}
+
+	/**
+	 * @return the count.
+	 */
+	public long get() {
+		return count.sum();
+	}
+
+}
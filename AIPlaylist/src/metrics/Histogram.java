@@ -0,0 +1,121 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Counts non-negative values in log-linear buckets, the way an HDR histogram does:
+ *         each power of 2 is split into SUB_BUCKETS buckets, so a value is known to within about 3%
+ *         whatever its size, and recording is one array increment with no allocation.
+ *         Values below 2*SUB_BUCKETS get a bucket each.
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets for any non-negative long
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1)*SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	// Striped, so threads that record at the same time do not fight over one counter
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**        Records a value.
+	 * @param  value as the value; negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @return the number of values recorded.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the sum of the values recorded.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return the greatest value recorded, or 0 if there are none.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**        Gets a value that a fraction of the recorded values are at or below.
+	 *         Values recorded while this runs may or may not be counted.
+	 * @param  quantile as the fraction, from 0 to 1.
+	 * @return the highest value of the bucket the quantile falls in, capped at the greatest value recorded,
+	 *         or 0 if there are no values.
+	 * @throws IllegalArgumentException if quantile is not between 0 and 1.
+	 */
+	public long getValueAtQuantile(double quantile) {
+		if(!(quantile >= 0 && quantile <= 1))
+			throw new IllegalArgumentException("quantile passed to getValueAtQuantile() must be between 0 and 1");
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int bucket = 0; bucket < BUCKETS; bucket++) {
+			counts[bucket] = buckets.get(bucket);
+			total += counts[bucket];
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile*total));
+		long seen = 0;
+		for(int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts[bucket];
+			if(seen >= rank) {
+				return Math.min(highestValueOf(bucket), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @param  value as a non-negative value.
+	 * @return the bucket the value is counted in.
+	 */
+	static int bucketOf(long value) {
+		if(value < 2*SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1)*SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * @param  bucket as a bucket.
+	 * @return the highest value counted in the bucket.
+	 */
+	static long highestValueOf(int bucket) {
+		if(bucket < 2*SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket/SUB_BUCKETS - 1;
+		long top = bucket%SUB_BUCKETS + SUB_BUCKETS;
+		long next = (top + 1) << shift;
+		// The last bucket runs up to Long.MAX_VALUE
+		return next < 0 ? Long.MAX_VALUE : next - 1;
+	}
+
+}
@@ -0,0 +1,204 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.DoubleSupplier;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         The counters, timers and gauges of the application, by name.
+ *         Instruments are made once, usually in a static field of the class they measure, and recorded to without locks;
+ *         only making instruments and reading them all at once goes through the registry.
+ *         Names follow the Prometheus conventions: lowercase with underscores, counters ending in _total,
+ *         and timers in _seconds.
+ */
+public final class MetricRegistry {
+
+	// The quantiles reported for timers
+	static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+	private static final MetricRegistry DEFAULT_REGISTRY = new MetricRegistry();
+
+	/**
+	 * @return the MetricRegistry shared by the application.
+	 */
+	public static MetricRegistry getDefault() {
+		return DEFAULT_REGISTRY;
+	}
+
+	/**
+	 * @author Alexander Johnston
+	 * @since  Copyright 2020
+	 *         An instrument with its name and what it measures.
+	 */
+	public static final class Metric {
+
+		private final String name;
+		private final String help;
+		private final Object instrument;
+
+		private Metric(String name, String help, Object instrument) {
+			this.name = name;
+			this.help = help;
+			this.instrument = instrument;
+		}
+
+		/**
+		 * @return the name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return what is measured.
+		 */
+		public String getHelp() {
+			return help;
+		}
+
+		/**
+		 * @return the Counter, Timer or DoubleSupplier of a gauge.
+		 */
+		public Object getInstrument() {
+			return instrument;
+		}
+
+	}
+
+	// In the order they were made
+	private final Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+	/**        Gets a Counter, making it if there is none with the name.
+	 * @param  name as the name.
+	 * @param  help as what is counted.
+	 * @return the Counter.
+	 * @throws IllegalArgumentException if there is an instrument with the name that is not a Counter.
+	 */
+	public synchronized Counter counter(String name, String help) {
+		return get(name, help, Counter.class, new Counter());
+	}
+
+	/**        Gets a Timer, making it if there is none with the name.
+	 * @param  name as the name.
+	 * @param  help as what is timed.
+	 * @return the Timer.
+	 * @throws IllegalArgumentException if there is an instrument with the name that is not a Timer.
+	 */
+	public synchronized Timer timer(String name, String help) {
+		return get(name, help, Timer.class, new Timer());
+	}
+
+	/**        Sets a gauge, replacing any gauge with the name.
+	 *         The gauge is read whenever the metrics are, so it should be quick and safe to call from any thread.
+	 * @param  name as the name.
+	 * @param  help as what is measured.
+	 * @param  gauge as what gets the value.
+	 * @throws IllegalArgumentException if there is an instrument with the name that is not a gauge.
+	 */
+	public synchronized void gauge(String name, String help, DoubleSupplier gauge) {
+		Objects.requireNonNull(gauge);
+		Metric old = metrics.get(name);
+		if(old != null && !(old.instrument instanceof DoubleSupplier))
+			throw new IllegalArgumentException(name + " is already a " + old.instrument.getClass().getSimpleName());
+		metrics.put(name, new Metric(name, help, gauge));
+	}
+
+	/**
+	 * @return the instruments, in the order they were made.
+	 */
+	public synchronized List<Metric> getMetrics() {
+		return new ArrayList<Metric>(metrics.values());
+	}
+
+	/**        Reads a gauge.
+	 * @param  gauge as the gauge.
+	 * @return the value, or NaN if the gauge failed, as it may be read while what it measures is changing.
+	 */
+	static double read(DoubleSupplier gauge) {
+		try {
+			return gauge.getAsDouble();
+		} catch (RuntimeException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**       Writes every instrument in the Prometheus text format.
+	 *        Counters are written as counters, gauges as gauges, and timers as summaries in seconds
+	 *        with a separate _max gauge.
+	 * @param sb as where to write to.
+	 */
+	public void writePrometheus(StringBuilder sb) {
+		for(Metric metric : getMetrics()) {
+			Object instrument = metric.instrument;
+			if(instrument instanceof Counter) {
+				header(sb, metric.name, metric.help, "counter");
+				sample(sb, metric.name, "", ((Counter) instrument).get());
+			} else if(instrument instanceof DoubleSupplier) {
+				header(sb, metric.name, metric.help, "gauge");
+				sample(sb, metric.name, "", read((DoubleSupplier) instrument));
+			} else if(instrument instanceof Timer) {
+				Histogram histogram = ((Timer) instrument).getHistogram();
+				header(sb, metric.name, metric.help, "summary");
+				for(double quantile : QUANTILES) {
+					sample(sb, metric.name, "{quantile=\"" + quantile + "\"}", seconds(histogram.getValueAtQuantile(quantile)));
+				}
+				sample(sb, metric.name + "_sum", "", seconds(histogram.getSum()));
+				sample(sb, metric.name + "_count", "", histogram.getCount());
+				header(sb, metric.name + "_max", "Longest of " + metric.help.toLowerCase(), "gauge");
+				sample(sb, metric.name + "_max", "", seconds(histogram.getMax()));
+			}
+		}
+	}
+
+	/**        Gets an instrument, making it if there is none with the name.
+	 * @param  name as the name.
+	 * @param  help as what is measured.
+	 * @param  type as the class of the instrument.
+	 * @param  made as the instrument to add if there is none.
+	 * @return the instrument.
+	 */
+	private <T> T get(String name, String help, Class<T> type, T made) {
+		Objects.requireNonNull(name);
+		Metric metric = metrics.get(name);
+		if(metric == null) {
+			metric = new Metric(name, help, made);
+			metrics.put(name, metric);
+		} else if(!type.isInstance(metric.instrument)) {
+			throw new IllegalArgumentException(name + " is already a " + metric.instrument.getClass().getSimpleName());
+		}
+		return type.cast(metric.instrument);
+	}
+
+	/**
+	 * @param  nanoseconds as a time in nanoseconds.
+	 * @return the time in seconds.
+	 */
+	static double seconds(long nanoseconds) {
+		return nanoseconds/1e9;
+	}
+
+	private static void header(StringBuilder sb, String name, String help, String type) {
+		sb.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, String labels, double value) {
+		sb.append(name).append(labels).append(' ');
+		if(Double.isNaN(value)) {
+			sb.append("NaN");
+		} else if(Double.isInfinite(value)) {
+			sb.append(value > 0 ? "+Inf" : "-Inf");
+		} else if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+			sb.append((long) value);
+		} else {
+			sb.append(value);
+		}
+		sb.append('\n');
+	}
+
+}
@@ -0,0 +1,127 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Shows the instruments of a MetricRegistry as read-only attributes of an MBean, for JConsole and other JMX clients.
+ *         A counter or gauge is one attribute; a timer is its count, and its quantiles, max and sum in seconds.
+ *         The attributes are worked out again each time, so instruments made after registering show up too.
+ */
+public final class MetricsMBean implements DynamicMBean {
+
+	// The name the MBean is registered under
+	public static final String OBJECT_NAME = "aIPlaylist:type=Metrics";
+
+	private final MetricRegistry registry;
+
+	/**        Creates a MetricsMBean.
+	 * @param  registry as the MetricRegistry to show.
+	 */
+	public MetricsMBean(MetricRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * @return the name the MBean is registered under.
+	 */
+	public static ObjectName objectName() {
+		try {
+			return new ObjectName(OBJECT_NAME);
+		} catch (MalformedObjectNameException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * @return what gets each attribute, by name.
+	 */
+	private Map<String, Supplier<Object>> attributes() {
+		Map<String, Supplier<Object>> attributes = new LinkedHashMap<String, Supplier<Object>>();
+		for(MetricRegistry.Metric metric : registry.getMetrics()) {
+			Object instrument = metric.getInstrument();
+			String name = metric.getName();
+			if(instrument instanceof Counter) {
+				attributes.put(name, () -> ((Counter) instrument).get());
+			} else if(instrument instanceof DoubleSupplier) {
+				attributes.put(name, () -> MetricRegistry.read((DoubleSupplier) instrument));
+			} else if(instrument instanceof Timer) {
+				Histogram histogram = ((Timer) instrument).getHistogram();
+				attributes.put(name + "_count", () -> histogram.getCount());
+				for(double quantile : MetricRegistry.QUANTILES) {
+					attributes.put(name + "_p" + Math.round(quantile*100),
+							() -> MetricRegistry.seconds(histogram.getValueAtQuantile(quantile)));
+				}
+				attributes.put(name + "_max", () -> MetricRegistry.seconds(histogram.getMax()));
+				attributes.put(name + "_sum", () -> MetricRegistry.seconds(histogram.getSum()));
+			}
+		}
+		return attributes;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Supplier<Object> getter = attributes().get(attribute);
+		if(getter == null)
+			throw new AttributeNotFoundException(attribute);
+		return getter.get();
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] names) {
+		Map<String, Supplier<Object>> attributes = attributes();
+		AttributeList list = new AttributeList();
+		for(String name : names) {
+			Supplier<Object> getter = attributes.get(name);
+			if(getter != null) {
+				list.add(new Attribute(name, getter.get()));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> infos = new ArrayList<MBeanAttributeInfo>();
+		for(Map.Entry<String, Supplier<Object>> e : attributes().entrySet()) {
+			Object value = e.getValue().get();
+			String type = (value instanceof Long) ? Long.class.getName() : Double.class.getName();
+			infos.add(new MBeanAttributeInfo(e.getKey(), type, e.getKey(), true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "Metrics of AIPlaylist",
+				infos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+	}
+
+}
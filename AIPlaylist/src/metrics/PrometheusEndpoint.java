@@ -0,0 +1,77 @@
+package metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Serves the instruments of a MetricRegistry in the Prometheus text format at /metrics.
+ *         It only listens on the loopback address, so nothing off the machine can read it.
+ */
+public final class PrometheusEndpoint implements Closeable {
+
+	private final HttpServer server;
+
+	/**        Starts serving the metrics.
+	 * @param  registry as the MetricRegistry to serve.
+	 * @param  port as the port to listen on, or 0 for any free port.
+	 * @return the PrometheusEndpoint.
+	 * @throws IOException if the port could not be listened on.
+	 */
+	public static PrometheusEndpoint start(MetricRegistry registry, int port) throws IOException {
+		return new PrometheusEndpoint(registry, port);
+	}
+
+	private PrometheusEndpoint(MetricRegistry registry, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> serve(registry, exchange));
+		// The default executor answers on the one thread of the server
+		server.start();
+	}
+
+	/**
+	 * @return the port being listened on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**       Answers a request for the metrics.
+	 * @param registry as the MetricRegistry to serve.
+	 * @param exchange as the request.
+	 */
+	private static void serve(MetricRegistry registry, HttpExchange exchange) throws IOException {
+		try {
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			StringBuilder sb = new StringBuilder(4096);
+			registry.writePrometheus(sb);
+			byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+}
@@ -0,0 +1,45 @@
+package metrics;
+
+/**
+ * @author Alexander Johnston
+ * @since  Copyright 2020
+ *         Times something that happens over and over, keeping the times in a Histogram of nanoseconds.
+ *         Used as
+ *         long start = timer.start();
+ *         ...
+ *         timer.stop(start);
+ *         so timing does not allocate.
+ */
+public final class Timer {
+
+	private final Histogram nanos = new Histogram();
+
+	/**
+	 * @return the time to pass to stop().
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**       Records the time since start() was called.
+	 * @param start as what start() returned.
+	 */
+	public void stop(long start) {
+		nanos.record(System.nanoTime() - start);
+	}
+
+	/**       Records a time.
+	 * @param nanoseconds as the time in nanoseconds.
+	 */
+	public void record(long nanoseconds) {
+		nanos.record(nanoseconds);
+	}
+
+	/**
+	 * @return the Histogram of the times, in nanoseconds.
+	 */
+	public Histogram getHistogram() {
+		return nanos;
+	}
+
+}